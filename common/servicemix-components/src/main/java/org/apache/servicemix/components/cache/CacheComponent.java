@@ -17,6 +17,7 @@
 package org.apache.servicemix.components.cache;
 
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.jbi.JBIException;
 import javax.jbi.messaging.Fault;
@@ -33,6 +34,8 @@ import org.apache.servicemix.jbi.NoOutMessageAvailableException;
 /**
  * Implements a caching layer on top of a service invocation to avoid calling an expensive remote service too often.
  * The cache can be a simple Map based cache or a full <a href="http://www.jcp.org/en/jsr/detail?id=107">JCache</a> instance.
+ * If no cache is configured, a {@link ConcurrentCache} is used: concurrent misses on the same key
+ * then lead to a single invocation and the cache statistics are exposed through JMX.
  *
  * @version $Revision$
  */
@@ -65,20 +68,51 @@ public class CacheComponent extends TransformComponentSupport {
     protected void init() throws JBIException {
         super.init();
         if (cache == null) {
-            throw new JBIException("You must specify a cache property");
+            cache = new ConcurrentCache();
+        }
+        if (cache instanceof ConcurrentCache) {
+            registerCustomMBean("cache", cache);
         }
     }
 
     protected boolean transform(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws MessagingException {
         Object key = keyExpression.evaluate(exchange, in);
-        if (key != null) {
-            NormalizedMessage message = (NormalizedMessage) cache.get(key);
-            if (message != null) {
-                getMessageTransformer().transform(exchange, message, out);
-                return true;
+        NormalizedMessage response;
+        if (key != null && cache instanceof ConcurrentCache) {
+            Loader loader = new Loader(exchange, in);
+            response = load((ConcurrentCache) cache, key, loader);
+            if (response == null) {
+                if (loader.invoked) {
+                    // the exchange has already been failed
+                    return true;
+                }
+                // the shared invocation failed, so invoke the service on our own
+                response = invoke(exchange, in);
+            }
+        } else {
+            if (key != null) {
+                NormalizedMessage message = (NormalizedMessage) cache.get(key);
+                if (message != null) {
+                    getMessageTransformer().transform(exchange, message, out);
+                    return true;
+                }
             }
+            response = invoke(exchange, in);
+            if (response != null && key != null) {
+                cache.put(key, response);
+            }
+        }
+        if (response != null) {
+            getMessageTransformer().transform(exchange, response, out);
         }
+        return true;
+    }
 
+    /**
+     * Invokes the target service and returns its response, or <code>null</code>
+     * if the exchange has been failed because of a fault or an error.
+     */
+    protected NormalizedMessage invoke(MessageExchange exchange, NormalizedMessage in) throws MessagingException {
         InOut inOut = getExchangeFactory().createInOutExchange();
         NormalizedMessage request = inOut.createMessage();
         getMessageTransformer().transform(exchange, in, request);
@@ -95,16 +129,41 @@ public class CacheComponent extends TransformComponentSupport {
             fail(exchange, error);
         }
         else if (response != null) {
-            getMessageTransformer().transform(exchange, response, out);
-
-            if (key != null) {
-                cache.put(key, response);
-            }
+            return response;
         }
         else {
             throw new NoOutMessageAvailableException(exchange);
         }
-        return true;
+        return null;
+    }
+
+    private NormalizedMessage load(ConcurrentCache concurrentCache, Object key, Loader loader) throws MessagingException {
+        try {
+            return (NormalizedMessage) concurrentCache.get(key, loader);
+        } catch (MessagingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MessagingException(e);
+        }
+    }
+
+    /**
+     * Loads a missing entry by invoking the target service
+     */
+    private class Loader implements Callable {
+        private final MessageExchange exchange;
+        private final NormalizedMessage in;
+        private boolean invoked;
+
+        Loader(MessageExchange exchange, NormalizedMessage in) {
+            this.exchange = exchange;
+            this.in = in;
+        }
+
+        public Object call() throws Exception {
+            invoked = true;
+            return invoke(exchange, in);
+        }
     }
 
 }
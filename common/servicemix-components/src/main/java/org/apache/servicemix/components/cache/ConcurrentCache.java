@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.cache;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jbi.messaging.NormalizedMessage;
+import javax.management.openmbean.CompositeData;
+import javax.xml.transform.Source;
+
+import org.apache.servicemix.jbi.jaxp.BytesSource;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.monitoring.stats.TimeStatisticImpl;
+
+/**
+ * A thread safe cache which can be used by the {@link CacheComponent}.
+ * 
+ * Entries are spread over several segments, each of them being an LRU map
+ * guarded by its own lock. The size of the cache can be limited by number of
+ * entries and by approximate weight in bytes, and entries can expire after a
+ * given time to live. The {@link #get(Object, Callable)} method ensures that
+ * concurrent misses on the same key only load the value once.
+ *
+ * @version $Revision$
+ */
+public class ConcurrentCache extends AbstractMap implements ConcurrentCacheMBean {
+
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * Weight given to message contents whose size can not be estimated cheaply
+     */
+    protected static final long DEFAULT_CONTENT_WEIGHT = 1024;
+
+    private final Segment[] segments;
+    private final ConcurrentMap<Object, FutureTask> loading = new ConcurrentHashMap<Object, FutureTask>();
+    private volatile int maxEntries = 1000;
+    private volatile long maxWeight;
+    private volatile long timeToLive;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong sharedLoads = new AtomicLong();
+    private final TimeStatisticImpl loadTime =
+        TimeStatisticImpl.createLatency("loadTime", "Time taken to load a value on cache miss");
+
+    public ConcurrentCache() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    public ConcurrentCache(int segmentCount) {
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries the maximum number of entries, or 0 for no limit
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @param maxWeight the maximum approximate size in bytes of the cached values, or 0 for no limit
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @param timeToLive the default time (ms) after which entries expire, or 0 if they never expire
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    // Map interface
+    //-------------------------------------------------------------------------
+    public Object get(Object key) {
+        Object value = segmentFor(key).get(key, System.currentTimeMillis());
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    public boolean containsKey(Object key) {
+        return segmentFor(key).get(key, System.currentTimeMillis()) != null;
+    }
+
+    public Object put(Object key, Object value) {
+        return put(key, value, timeToLive);
+    }
+
+    /**
+     * Add an entry with a specific time to live
+     * 
+     * @param key the key
+     * @param value the value
+     * @param ttl the time (ms) after which the entry expires, or 0 if it never expires
+     * @return the previous value
+     */
+    public Object put(Object key, Object value, long ttl) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        long expires = ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+        return segmentFor(key).put(key, new Entry(value, weigh(value), expires));
+    }
+
+    public Object remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            size += segments[i].size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the entries of the cache.
+     */
+    public Set entrySet() {
+        Map<Object, Object> snapshot = new HashMap<Object, Object>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].copyTo(snapshot, now);
+        }
+        return snapshot.entrySet();
+    }
+
+    /**
+     * Retrieve the value for the given key, loading it if it is not in the cache.
+     * If several threads miss the same key at the same time, only one of them
+     * calls the loader, while the others wait for its result.  The loaded value
+     * is stored in the cache unless it is <code>null</code>.
+     * 
+     * @param key the key
+     * @param loader the loader used on cache miss
+     * @return the cached or loaded value
+     * @throws Exception if the loader failed
+     */
+    public Object get(Object key, Callable loader) throws Exception {
+        Object value = get(key);
+        if (value != null) {
+            return value;
+        }
+        FutureTask task = new FutureTask(loader);
+        FutureTask existing = loading.putIfAbsent(key, task);
+        try {
+            if (existing != null) {
+                sharedLoads.incrementAndGet();
+                return existing.get();
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+                value = task.get();
+                if (value != null) {
+                    put(key, value);
+                }
+                return value;
+            } finally {
+                loadTime.addTime(System.nanoTime() - start);
+                loading.remove(key);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    // Statistics
+    //-------------------------------------------------------------------------
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    public long getLoadCount() {
+        return loadTime.getCount();
+    }
+
+    public long getSharedLoadCount() {
+        return sharedLoads.get();
+    }
+
+    public double getAverageLoadTime() {
+        return loadTime.getAverageTimeMillis();
+    }
+
+    public double getMaxLoadTime() {
+        return loadTime.getMaxTimeMillis();
+    }
+
+    public CompositeData getLoadTimePercentiles() {
+        return loadTime.getWindowPercentilesMillis();
+    }
+
+    public long getWeight() {
+        long weight = 0;
+        for (int i = 0; i < segments.length; i++) {
+            weight += segments[i].getWeight();
+        }
+        return weight;
+    }
+
+    public int getSize() {
+        return size();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        expirations.set(0);
+        sharedLoads.set(0);
+        loadTime.reset();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Estimate the size in bytes of a cached value.  Messages are weighted
+     * according to their content, other objects have a weight of 1.
+     */
+    protected long weigh(Object value) {
+        if (!(value instanceof NormalizedMessage)) {
+            return 1;
+        }
+        NormalizedMessage message = (NormalizedMessage) value;
+        Source content = message.getContent();
+        long weight = 64 * (message.getPropertyNames().size() + 1);
+        if (content instanceof BytesSource) {
+            weight += ((BytesSource) content).getData().length;
+        } else if (content instanceof StringSource) {
+            weight += 2 * ((StringSource) content).getText().length();
+        } else if (content != null) {
+            weight += DEFAULT_CONTENT_WEIGHT;
+        }
+        return weight;
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[(h & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private static class Entry {
+        final Object value;
+        final long weight;
+        final long expires;
+
+        Entry(Object value, long weight, long expires) {
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return expires != 0 && expires <= now;
+        }
+    }
+
+    /**
+     * A segment of the cache: an access ordered map guarded by its own lock
+     */
+    private class Segment {
+        private final LinkedHashMap<Object, Entry> map = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+        private long weight;
+
+        synchronized Object get(Object key, long now) {
+            Entry entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(now)) {
+                map.remove(key);
+                weight -= entry.weight;
+                expirations.incrementAndGet();
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized Object put(Object key, Entry entry) {
+            Entry old = map.put(key, entry);
+            weight += entry.weight;
+            if (old != null) {
+                weight -= old.weight;
+            }
+            evict();
+            return old != null ? old.value : null;
+        }
+
+        synchronized Object remove(Object key) {
+            Entry old = map.remove(key);
+            if (old != null) {
+                weight -= old.weight;
+                return old.value;
+            }
+            return null;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long getWeight() {
+            return weight;
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+
+        synchronized void copyTo(Map<Object, Object> snapshot, long now) {
+            for (Iterator<Map.Entry<Object, Entry>> it = map.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Object, Entry> e = it.next();
+                if (!e.getValue().isExpired(now)) {
+                    snapshot.put(e.getKey(), e.getValue().value);
+                }
+            }
+        }
+
+        /**
+         * Remove the least recently used entries until the segment
+         * fits in its share of the limits
+         */
+        private void evict() {
+            int entryLimit = maxEntries > 0 ? Math.max(1, (maxEntries + segments.length - 1) / segments.length) : 0;
+            long weightLimit = maxWeight > 0 ? Math.max(1, maxWeight / segments.length) : 0;
+            Iterator<Entry> it = map.values().iterator();
+            while (it.hasNext() && ((entryLimit > 0 && map.size() > entryLimit)
+                                    || (weightLimit > 0 && weight > weightLimit && map.size() > 1))) {
+                Entry eldest = it.next();
+                it.remove();
+                weight -= eldest.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+}
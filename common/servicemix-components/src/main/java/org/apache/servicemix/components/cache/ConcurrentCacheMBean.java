@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.cache;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Management interface of the {@link ConcurrentCache}
+ *
+ * @version $Revision$
+ */
+public interface ConcurrentCacheMBean {
+
+    /**
+     * @return the number of entries in the cache
+     */
+    int getSize();
+
+    /**
+     * @return the approximate size in bytes of the cached values
+     */
+    long getWeight();
+
+    int getMaxEntries();
+
+    void setMaxEntries(int maxEntries);
+
+    long getMaxWeight();
+
+    void setMaxWeight(long maxWeight);
+
+    long getTimeToLive();
+
+    void setTimeToLive(long timeToLive);
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+    /**
+     * @return the number of values loaded on cache miss
+     */
+    long getLoadCount();
+
+    /**
+     * @return the number of cache misses which waited for a load already in progress
+     */
+    long getSharedLoadCount();
+
+    /**
+     * @return the average time (ms) taken to load a value
+     */
+    double getAverageLoadTime();
+
+    /**
+     * @return the longest time (ms) taken to load a value
+     */
+    double getMaxLoadTime();
+
+    /**
+     * @return the percentiles of the load times (ms)
+     */
+    CompositeData getLoadTimePercentiles();
+
+    /**
+     * Remove all the entries from the cache
+     */
+    void clear();
+
+    /**
+     * Reset the statistics
+     */
+    void resetStatistics();
+
+}
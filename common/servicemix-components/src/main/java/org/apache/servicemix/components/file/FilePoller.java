@@ -19,22 +19,32 @@ package org.apache.servicemix.components.file;
 import org.apache.servicemix.components.util.DefaultFileMarshaler;
 import org.apache.servicemix.components.util.FileMarshaler;
 import org.apache.servicemix.components.util.PollingComponentSupport;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.jbi.util.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
 import javax.jbi.JBIException;
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -42,10 +52,39 @@ import java.util.Set;
  * and sends the files into the JBI bus as messages, deleting the files
  * by default when they are processed.
  *
+ * The number of exchanges sent concurrently can be bounded with the
+ * <code>maxInFlight</code> property: files which can not be scheduled are
+ * left for a later poll.  When <code>incrementalScan</code> is enabled,
+ * directories whose modification time did not change since they were
+ * last listed are not listed again.  Small files can be grouped into a
+ * single exchange by setting <code>batchSize</code>.
+ *
  * @version $Revision$
  */
 public class FilePoller extends PollingComponentSupport {
 
+    /**
+     * The name of the property holding the number of files sent in a batch
+     */
+    public static final String BATCH_SIZE_PROPERTY = "org.apache.servicemix.file.batchSize";
+
+    /**
+     * The element wrapping the files of a batch
+     */
+    public static final String BATCH_ELEMENT = "files";
+
+    /**
+     * The element wrapping each file of a batch, its name being held in the <code>name</code> attribute
+     */
+    public static final String BATCH_FILE_ELEMENT = "file";
+
+    /**
+     * Directories modified less than this amount of time (ms) before being
+     * listed are listed again, as the modification time of a directory may
+     * not change for files added in the same second.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
     private static final Logger logger = LoggerFactory.getLogger(FilePoller.class);
 
     private File archive;
@@ -55,10 +94,22 @@ public class FilePoller extends PollingComponentSupport {
     private boolean recursive = true;
     private boolean autoCreateDirectory = true;
     private FileMarshaler marshaler = new DefaultFileMarshaler();
-    private Set workingSet = new CopyOnWriteArraySet();
+    private ConcurrentMap workingSet = new ConcurrentHashMap();
+    private int maxInFlight;
+    private Semaphore inFlight;
+    private boolean incrementalScan;
+    private ConcurrentMap scannedDirectories = new ConcurrentHashMap();
+    private int batchSize = 1;
+    private long maxBatchFileSize = 64 * 1024;
+    private final Object pollLock = new Object();
+    private List currentBatch = new ArrayList();
 
     public void poll() throws Exception {
-        pollFileOrDirectory(file);
+        // concurrent polls would list the same files, so run them one after the other
+        synchronized (pollLock) {
+            pollFileOrDirectory(file);
+            flushBatch();
+        }
     }
 
     // Properties
@@ -135,13 +186,68 @@ public class FilePoller extends PollingComponentSupport {
         this.archive = archive;
     }
 
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of exchanges being processed at the same time,
+     * 0 meaning no limit.
+     * 
+     * @param maxInFlight the maximum number of exchanges in flight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public boolean isIncrementalScan() {
+        return incrementalScan;
+    }
+
+    /**
+     * Only list again the directories which have been modified since they were
+     * last listed.  This requires files to be deleted once processed, and a
+     * file system which updates the modification time of directories.
+     * 
+     * @param incrementalScan whether unmodified directories are not listed again
+     */
+    public void setIncrementalScan(boolean incrementalScan) {
+        this.incrementalScan = incrementalScan;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of small files sent in a single exchange.
+     * The content of each file, as read by the marshaler, must be XML: it is
+     * wrapped in a <code>file</code> element of a <code>files</code> document.
+     * 
+     * @param batchSize the maximum number of files in a batch, 1 to disable batching
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getMaxBatchFileSize() {
+        return maxBatchFileSize;
+    }
+
+    /**
+     * @param maxBatchFileSize the size (bytes) of the largest file which can be batched
+     */
+    public void setMaxBatchFileSize(long maxBatchFileSize) {
+        this.maxBatchFileSize = maxBatchFileSize;
+    }
+
     /**
      * The set of FTPFiles that this component is currently working on
      *
      * @return
      */
     public Set getWorkingSet() {
-        return workingSet;
+        return workingSet.keySet();
     }
 
     // Implementation methods
@@ -164,6 +270,12 @@ public class FilePoller extends PollingComponentSupport {
                 throw new DeploymentException("Archive should refer to a directory");
             }
         }
+        if (incrementalScan && !deleteFile) {
+            throw new DeploymentException("IncrementalScan shouldn't be specified unless deleteFile='true'");
+        }
+        if (maxInFlight > 0) {
+            inFlight = new Semaphore(maxInFlight);
+        }
         super.init();
     }
 
@@ -173,10 +285,13 @@ public class FilePoller extends PollingComponentSupport {
     
     protected void pollFileOrDirectory(File fileOrDirectory, boolean processDir) {
         if (!fileOrDirectory.isDirectory()) {
-            pollFile(fileOrDirectory); // process the file
+            if (isBatchable(fileOrDirectory)) {
+                addToBatch(fileOrDirectory);
+            } else {
+                pollFile(fileOrDirectory); // process the file
+            }
         } else if (processDir) {
-            logger.debug("Polling directory " + fileOrDirectory);
-            File[] files = fileOrDirectory.listFiles(getFilter());
+            File[] files = listFiles(fileOrDirectory);
             for (int i = 0; i < files.length; i++) {
                 pollFileOrDirectory(files[i], isRecursive()); // self-recursion
             }
@@ -185,43 +300,195 @@ public class FilePoller extends PollingComponentSupport {
         } 
     }
 
+    /**
+     * Lists the content of a directory.  With an incremental scan, only the
+     * sub directories are returned if the directory has not been modified
+     * since it was last listed.
+     */
+    protected File[] listFiles(File directory) {
+        long modified = directory.lastModified();
+        if (incrementalScan) {
+            ScannedDirectory scanned = (ScannedDirectory) scannedDirectories.get(directory);
+            if (scanned != null && scanned.lastModified == modified) {
+                logger.debug("Directory " + directory + " has not been modified");
+                return scanned.directories;
+            }
+        }
+        logger.debug("Polling directory " + directory);
+        long now = System.currentTimeMillis();
+        File[] files = directory.listFiles(getFilter());
+        if (files == null) {
+            logger.warn("Unable to list directory " + directory);
+            return new File[0];
+        }
+        if (incrementalScan) {
+            if (now - modified > TIMESTAMP_GRANULARITY) {
+                List directories = new ArrayList();
+                for (int i = 0; i < files.length; i++) {
+                    if (files[i].isDirectory()) {
+                        directories.add(files[i]);
+                    }
+                }
+                scannedDirectories.put(directory, new ScannedDirectory(modified, 
+                        (File[]) directories.toArray(new File[directories.size()])));
+            } else {
+                scannedDirectories.remove(directory);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Forces the directory of the given file to be listed again on the next poll,
+     * as the file is still there but the directory may not have been modified.
+     */
+    protected void rescan(File aFile) {
+        if (incrementalScan) {
+            scannedDirectories.remove(aFile.getParentFile());
+        }
+    }
+
     protected void pollFile(final File aFile) {
-        if (workingSet.add(aFile)) {
+        if (workingSet.putIfAbsent(aFile, aFile) == null) {
+            if (!acquireInFlight()) {
+                workingSet.remove(aFile);
+                rescan(aFile);
+                return;
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("Scheduling file " + aFile + " for processing");
             }
+            try {
+                getExecutor().execute(new Runnable() {
+                    public void run() {
+                        boolean processed = false;
+                        try {
+                            processed = processFileAndDelete(aFile);
+                        } finally {
+                            // the file must leave the working set before its directory
+                            // is rescanned, or the next poll could skip it
+                            workingSet.remove(aFile);
+                            if (!processed) {
+                                rescan(aFile);
+                            }
+                            releaseInFlight();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                workingSet.remove(aFile);
+                releaseInFlight();
+                rescan(aFile);
+                throw e;
+            }
+        }
+    }
+
+    protected boolean isBatchable(File aFile) {
+        return batchSize > 1 && aFile.length() <= maxBatchFileSize;
+    }
+
+    private void addToBatch(File aFile) {
+        if (workingSet.putIfAbsent(aFile, aFile) == null) {
+            currentBatch.add(aFile);
+            if (currentBatch.size() >= batchSize) {
+                flushBatch();
+            }
+        }
+    }
+
+    private void flushBatch() {
+        if (currentBatch.isEmpty()) {
+            return;
+        }
+        final List files = currentBatch;
+        currentBatch = new ArrayList();
+        if (!acquireInFlight()) {
+            releaseBatch(files, true);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Scheduling " + files.size() + " files for processing");
+        }
+        try {
             getExecutor().execute(new Runnable() {
                 public void run() {
+                    List failed = new ArrayList();
+                    boolean completed = false;
                     try {
-                        processFileAndDelete(aFile);
+                        processBatchAndDelete(files, failed);
+                        completed = true;
                     } finally {
-                        workingSet.remove(aFile);
+                        releaseBatch(files, !completed);
+                        if (completed) {
+                            for (Iterator iter = failed.iterator(); iter.hasNext();) {
+                                rescan((File) iter.next());
+                            }
+                        }
+                        releaseInFlight();
                     }
                 }
             });
+        } catch (RuntimeException e) {
+            releaseBatch(files, true);
+            releaseInFlight();
+            throw e;
+        }
+    }
+
+    private void releaseBatch(List files, boolean rescan) {
+        for (Iterator iter = files.iterator(); iter.hasNext();) {
+            File aFile = (File) iter.next();
+            workingSet.remove(aFile);
+            if (rescan) {
+                rescan(aFile);
+            }
         }
     }
 
-    protected void processFileAndDelete(File aFile) {
+    private boolean acquireInFlight() {
+        return inFlight == null || inFlight.tryAcquire();
+    }
+
+    private void releaseInFlight() {
+        if (inFlight != null) {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * @param aFile the file to process
+     * @return <code>false</code> if the file failed to be processed and should be polled again
+     */
+    protected boolean processFileAndDelete(File aFile) {
         try {
             if (logger.isDebugEnabled()) {
                 logger.debug("Processing file " + aFile);
             }
             if (aFile.exists()) {
                 processFile(aFile);
-                if (isDeleteFile()) {
-                    if (archive != null) {
-                        FileUtil.moveFile(aFile, archive);
-                    } else {
-                        if (!aFile.delete()) {
-                            throw new IOException("Could not delete file " + aFile);
-                        }
-                    }
-                }
+                removeFile(aFile);
             }
+            return true;
         }
         catch (Exception e) {
             logger.error("Failed to process file: " + aFile + ". Reason: " + e, e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes or archives a file once processed, if configured to do so
+     */
+    protected void removeFile(File aFile) throws IOException {
+        if (isDeleteFile()) {
+            if (archive != null) {
+                FileUtil.moveFile(aFile, archive);
+            } else {
+                if (!aFile.delete()) {
+                    throw new IOException("Could not delete file " + aFile);
+                }
+            }
         }
     }
 
@@ -242,4 +509,115 @@ public class FilePoller extends PollingComponentSupport {
         }
     }
 
+    /**
+     * Processes a batch of files and deletes them if configured to do so.
+     * 
+     * @param files the files to process
+     * @param failed filled with the files which failed to be processed and should be polled again
+     */
+    protected void processBatchAndDelete(List files, List failed) {
+        List batched = new ArrayList();
+        List rejected = new ArrayList();
+        try {
+            processBatch(files, batched, rejected);
+            for (Iterator iter = batched.iterator(); iter.hasNext();) {
+                File aFile = (File) iter.next();
+                try {
+                    removeFile(aFile);
+                } catch (IOException e) {
+                    logger.error("Failed to remove file: " + aFile + ". Reason: " + e, e);
+                    failed.add(aFile);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to process files: " + files + ". Reason: " + e, e);
+            failed.addAll(batched);
+            // the batch may have failed before some files were read
+            for (Iterator iter = files.iterator(); iter.hasNext();) {
+                Object aFile = iter.next();
+                if (!batched.contains(aFile) && !rejected.contains(aFile)) {
+                    failed.add(aFile);
+                }
+            }
+        }
+        // files which could not be batched are sent on their own
+        for (Iterator iter = rejected.iterator(); iter.hasNext();) {
+            File aFile = (File) iter.next();
+            if (!processFileAndDelete(aFile)) {
+                failed.add(aFile);
+            }
+        }
+    }
+
+    /**
+     * Sends the given files in a single exchange.
+     * 
+     * @param files the files to send
+     * @param batched filled with the files which have been sent
+     * @param rejected filled with the files which could not be added to the batch
+     */
+    protected void processBatch(List files, List batched, List rejected) throws Exception {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processing files " + files);
+        }
+        InOnly exchange = getExchangeFactory().createInOnlyExchange();
+        NormalizedMessage message = exchange.createMessage();
+        exchange.setInMessage(message);
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document batch = factory.newDocumentBuilder().newDocument();
+        Element root = batch.createElement(BATCH_ELEMENT);
+        batch.appendChild(root);
+        SourceTransformer transformer = new SourceTransformer();
+        for (Iterator iter = files.iterator(); iter.hasNext();) {
+            File aFile = (File) iter.next();
+            if (!aFile.exists()) {
+                continue;
+            }
+            InputStream in = null;
+            try {
+                String name = aFile.getCanonicalPath();
+                in = new BufferedInputStream(new FileInputStream(aFile));
+                NormalizedMessage part = exchange.createMessage();
+                marshaler.readMessage(exchange, part, in, name);
+                // attachments may still refer to the file content, so send the file on its own
+                if (!part.getAttachmentNames().isEmpty()) {
+                    rejected.add(aFile);
+                    continue;
+                }
+                Document content = transformer.toDOMDocument(part);
+                Element fileElement = batch.createElement(BATCH_FILE_ELEMENT);
+                fileElement.setAttribute("name", name);
+                fileElement.appendChild(batch.importNode(content.getDocumentElement(), true));
+                root.appendChild(fileElement);
+                batched.add(aFile);
+            } catch (Exception e) {
+                logger.debug("File " + aFile + " can not be batched", e);
+                rejected.add(aFile);
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+        if (!batched.isEmpty()) {
+            message.setContent(new DOMSource(batch));
+            message.setProperty(BATCH_SIZE_PROPERTY, new Integer(batched.size()));
+            getDeliveryChannel().sendSync(exchange);
+        }
+    }
+
+    /**
+     * The state of a directory when it was last listed
+     */
+    private static class ScannedDirectory {
+        final long lastModified;
+        final File[] directories;
+
+        ScannedDirectory(long lastModified, File[] directories) {
+            this.lastModified = lastModified;
+            this.directories = directories;
+        }
+    }
+
 }
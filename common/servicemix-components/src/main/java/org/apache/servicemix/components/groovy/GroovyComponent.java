@@ -33,12 +33,16 @@ import javax.xml.parsers.ParserConfigurationException;
  * A component which is capable of invoking a <a href="http://groovy.codehaus.org/">Groovy</a> script to process
  * or transform a message.
  *
+ * Unless a document builder has been configured, each thread uses its own
+ * document builder as they can not be used concurrently.
+ *
  * @version $Revision$
  */
 public class GroovyComponent extends ScriptComponent {
 
     private DocumentBuilderFactory documentBuilderFactory;
     private DocumentBuilder documentBuilder;
+    private final ThreadLocal<DocumentBuilder> threadDocumentBuilder = new ThreadLocal<DocumentBuilder>();
 
     public GroovyComponent() {
         setScriptEngineName("groovy");
@@ -50,17 +54,25 @@ public class GroovyComponent extends ScriptComponent {
     }
 
     public DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
-        if (documentBuilder == null) {
-            documentBuilder = getDocumentBuilderFactory().newDocumentBuilder();
+        if (documentBuilder != null) {
+            return documentBuilder;
+        }
+        DocumentBuilder builder = threadDocumentBuilder.get();
+        if (builder == null) {
+            DocumentBuilderFactory factory = getDocumentBuilderFactory();
+            synchronized (factory) {
+                builder = factory.newDocumentBuilder();
+            }
+            threadDocumentBuilder.set(builder);
         }
-        return documentBuilder;
+        return builder;
     }
 
     public void setDocumentBuilder(DocumentBuilder documentBuilder) {
         this.documentBuilder = documentBuilder;
     }
 
-    public DocumentBuilderFactory getDocumentBuilderFactory() {
+    public synchronized DocumentBuilderFactory getDocumentBuilderFactory() {
         if (documentBuilderFactory == null) {
             documentBuilderFactory = DocumentBuilderFactory.newInstance();
         }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of growable byte buffers, used to read HTTP bodies
+ * without allocating and growing a new buffer for each message.
+ * Buffers which grew beyond <code>maxRetainedSize</code> are not kept.
+ * The fixed size chunks used to copy streams are pooled as well.
+ *
+ * @version $Revision$
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    public static final int DEFAULT_MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_POOL_SIZE, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_RETAINED_SIZE);
+
+    private final BlockingQueue<ByteArrayOutputStream> buffers;
+    private final BlockingQueue<byte[]> chunks;
+    private final int bufferSize;
+    private final int maxRetainedSize;
+
+    public BufferPool(int poolSize, int bufferSize, int maxRetainedSize) {
+        this.buffers = new ArrayBlockingQueue<ByteArrayOutputStream>(poolSize);
+        this.chunks = new ArrayBlockingQueue<byte[]>(poolSize);
+        this.bufferSize = bufferSize;
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    /**
+     * @return the pool shared by the HTTP marshalers
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    public ByteArrayOutputStream acquire() {
+        ByteArrayOutputStream buffer = buffers.poll();
+        return buffer != null ? buffer : new ByteArrayOutputStream(bufferSize);
+    }
+
+    public void release(ByteArrayOutputStream buffer) {
+        if (buffer.size() <= maxRetainedSize) {
+            buffer.reset();
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Read the given stream fully, then close it.
+     * 
+     * @param is the stream to read
+     * @return the bytes read
+     * @throws IOException
+     */
+    public byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream buffer = acquire();
+        byte[] chunk = acquireChunk();
+        try {
+            for (int n = is.read(chunk); n >= 0; n = is.read(chunk)) {
+                buffer.write(chunk, 0, n);
+            }
+            return buffer.toByteArray();
+        } finally {
+            is.close();
+            releaseChunk(chunk);
+            release(buffer);
+        }
+    }
+
+    public byte[] acquireChunk() {
+        byte[] chunk = chunks.poll();
+        return chunk != null ? chunk : new byte[bufferSize];
+    }
+
+    public void releaseChunk(byte[] chunk) {
+        if (chunk.length == bufferSize) {
+            chunks.offer(chunk);
+        }
+    }
+
+}
@@ -18,23 +18,28 @@ package org.apache.servicemix.components.http;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
-import org.apache.servicemix.jbi.jaxp.StringSource;
 
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamSource;
 
+import java.io.InputStream;
 import java.util.Iterator;
 
 /**
  * A class which marshall a client HTTP request to a NMS message
  *
+ * Responses are read into a {@link BytesSource} using pooled buffers, so that
+ * they can be read several times once the connection has been released.
+ * Byte contents are sent as is; in streaming mode, other contents are
+ * written directly to the connection using chunked encoding.
+ *
  * @version $Revision$
  */
 public class HttpClientMarshaler {
@@ -42,6 +47,7 @@ public class HttpClientMarshaler {
     protected SourceTransformer sourceTransformer;
     private boolean streaming;
     private String contentType = "text/xml";
+    private BufferPool bufferPool = BufferPool.getDefault();
 
     public HttpClientMarshaler() {
         this(false);
@@ -80,32 +86,59 @@ public class HttpClientMarshaler {
         this.contentType = contentType;
     }
 
+    /**
+     * @return the pool of buffers used to read responses and copy request bodies
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @param bufferPool the pool of buffers used to read responses and copy request bodies
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
     public void toNMS(NormalizedMessage normalizedMessage, HttpMethod method) throws Exception {
         addNmsProperties(normalizedMessage, method);
-        if (streaming) {
-            normalizedMessage.setContent(new StreamSource(method.getResponseBodyAsStream()));
-        } else {
-            normalizedMessage.setContent(new StringSource(method.getResponseBodyAsString()));
-        }
+        normalizedMessage.setContent(readResponse(method));
     }
 
     public void fromNMS(PostMethod method, MessageExchange exchange, NormalizedMessage normalizedMessage) throws Exception, TransformerException {
         addHttpHeaders(method, normalizedMessage);
-        if (streaming) {
+        setRequestEntity(method, normalizedMessage.getContent());
+    }
+
+    /**
+     * Set the request body, using chunked encoding if its length is unknown
+     */
+    protected void setRequestEntity(PostMethod method, Source content) throws Exception {
+        RequestEntity entity = createRequestEntity(content);
+        if (entity.getContentLength() < 0) {
             method.setContentChunked(true);
-            Source src = normalizedMessage.getContent();
-            if (src instanceof StreamSource && ((StreamSource) src).getInputStream() != null) {
-                method.setRequestEntity(new InputStreamRequestEntity(
-                        ((StreamSource) src).getInputStream(), -1));
-            } else {
-                String text = sourceTransformer.toString(normalizedMessage.getContent());
-                method.setRequestEntity(new StringRequestEntity(text));
-                
-            }
-        } else {
-            String text = sourceTransformer.toString(normalizedMessage.getContent());
-            method.setRequestEntity(new StringRequestEntity(text));
         }
+        method.setRequestEntity(entity);
+    }
+
+    /**
+     * Read the response body in a buffer, as the connection is
+     * released once the response has been processed.
+     */
+    protected BytesSource readResponse(HttpMethod method) throws Exception {
+        InputStream is = method.getResponseBodyAsStream();
+        return new BytesSource(is != null ? bufferPool.readFully(is) : new byte[0]);
+    }
+
+    /**
+     * Create the request entity for the given content.  Bytes are sent as is;
+     * in streaming mode, other contents are written directly to the connection.
+     */
+    protected RequestEntity createRequestEntity(Source content) throws Exception {
+        if (streaming || content instanceof BytesSource) {
+            return new SourceRequestEntity(content, sourceTransformer, null, bufferPool);
+        }
+        return new StringRequestEntity(sourceTransformer.toString(content));
     }
 
     protected void addHttpHeaders(HttpMethod method, NormalizedMessage message) {
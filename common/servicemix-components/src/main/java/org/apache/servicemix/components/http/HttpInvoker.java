@@ -19,9 +19,9 @@ package org.apache.servicemix.components.http;
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URI;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.servicemix.MessageExchangeListener;
 import org.apache.servicemix.components.util.TransformComponentSupport;
 
@@ -33,21 +33,54 @@ import javax.jbi.messaging.NormalizedMessage;
 /**
  * Performs HTTP client invocations on a remote HTTP site.
  *
+ * The connection pool can be sized and tuned through the properties of this
+ * component.  Its settings and usage statistics are exposed as the extension
+ * MBean of the component.
+ *
  * @version $Revision$
  */
 public class HttpInvoker extends TransformComponentSupport implements MessageExchangeListener {
 
     protected HttpClientMarshaler marshaler = new HttpClientMarshaler();
-    protected MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+    protected InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager();
     protected HttpClient httpClient = new HttpClient(connectionManager);
     protected HostConfiguration hostConfiguration = new HostConfiguration();
     protected String url;
     protected boolean defaultInOut = true;
 
+    private long idleConnectionTimeout;
+    private IdleConnectionTimeoutThread idleConnectionThread;
+
+    protected void init() throws JBIException {
+        super.init();
+        setExtensionMBeanName(registerCustomMBean("connectionPool", connectionManager));
+    }
+
+    public void start() throws JBIException {
+        super.start();
+        if (idleConnectionTimeout > 0 && idleConnectionThread == null) {
+            idleConnectionThread = new IdleConnectionTimeoutThread();
+            idleConnectionThread.setName("HttpInvoker idle connections");
+            idleConnectionThread.setConnectionTimeout(idleConnectionTimeout);
+            idleConnectionThread.setTimeoutInterval(Math.max(1000, idleConnectionTimeout / 2));
+            idleConnectionThread.addConnectionManager(connectionManager);
+            idleConnectionThread.start();
+        }
+    }
+
     public void stop() throws JBIException {
         super.stop();
+        if (idleConnectionThread != null) {
+            idleConnectionThread.shutdown();
+            idleConnectionThread = null;
+        }
         connectionManager.shutdown();
     }
+
+    public void shutDown() throws JBIException {
+        setExtensionMBeanName(null);
+        super.shutDown();
+    }
     
     public HttpInvoker() {
         // By default, do not forward anything
@@ -106,6 +139,89 @@ public class HttpInvoker extends TransformComponentSupport implements MessageExc
         this.defaultInOut = defaultInOut;
     }
 
+    public InstrumentedConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return connectionManager.getMaxConnectionsPerHost();
+    }
+
+    /**
+     * @param maxConnectionsPerHost the maximum number of connections opened to the same host
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        connectionManager.setMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    public int getMaxTotalConnections() {
+        return connectionManager.getMaxTotalConnections();
+    }
+
+    /**
+     * @param maxTotalConnections the maximum number of connections opened by this component
+     */
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        connectionManager.setMaxTotalConnections(maxTotalConnections);
+    }
+
+    public int getConnectionTimeout() {
+        return connectionManager.getConnectionTimeout();
+    }
+
+    /**
+     * @param connectionTimeout the timeout (ms) for establishing a connection, 0 meaning no timeout
+     */
+    public void setConnectionTimeout(int connectionTimeout) {
+        connectionManager.setConnectionTimeout(connectionTimeout);
+    }
+
+    public int getSoTimeout() {
+        return connectionManager.getSoTimeout();
+    }
+
+    /**
+     * @param soTimeout the timeout (ms) for reading the response, 0 meaning no timeout
+     */
+    public void setSoTimeout(int soTimeout) {
+        connectionManager.setSoTimeout(soTimeout);
+    }
+
+    public boolean isStaleCheckingEnabled() {
+        return connectionManager.isStaleCheckingEnabled();
+    }
+
+    /**
+     * @param staleCheckingEnabled whether pooled connections are checked before being reused
+     */
+    public void setStaleCheckingEnabled(boolean staleCheckingEnabled) {
+        connectionManager.setStaleCheckingEnabled(staleCheckingEnabled);
+    }
+
+    public long getConnectionManagerTimeout() {
+        return httpClient.getParams().getConnectionManagerTimeout();
+    }
+
+    /**
+     * @param connectionManagerTimeout the maximum time (ms) to wait for a connection from the pool,
+     *                                 0 meaning no timeout
+     */
+    public void setConnectionManagerTimeout(long connectionManagerTimeout) {
+        httpClient.getParams().setConnectionManagerTimeout(connectionManagerTimeout);
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * @param idleConnectionTimeout the time (ms) after which idle connections are closed,
+     *                              0 meaning they are kept open
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
     public HttpClientMarshaler getMarshaler() {
         return marshaler;
     }
@@ -22,8 +22,6 @@ import javax.xml.transform.dom.DOMSource;
 
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
-import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.xpath.CachedXPathAPI;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -50,8 +48,7 @@ public class HttpSoapClientMarshaler extends HttpClientMarshaler {
     public void toNMS(NormalizedMessage normalizedMessage, HttpMethod method)
             throws Exception {
         addNmsProperties(normalizedMessage, method);
-        String response = method.getResponseBodyAsString();
-        Node node = sourceTransformer.toDOMNode(new StringSource(response));
+        Node node = sourceTransformer.toDOMNode(readResponse(method));
         CachedXPathAPI cachedXPathAPI = new CachedXPathAPI();
         NodeIterator iterator = cachedXPathAPI.selectNodeIterator(node, "/*/*[local-name()='Body']/*");
         Node root = iterator.nextNode();
@@ -90,8 +87,7 @@ public class HttpSoapClientMarshaler extends HttpClientMarshaler {
         Element body = document.createElementNS("http://schemas.xmlsoap.org/soap/envelope/", "env:Body");
         env.appendChild(body);
         body.appendChild(document.importNode(elem, true));
-        String text = sourceTransformer.toString(document);
-        method.setRequestEntity(new StringRequestEntity(text));
+        setRequestEntity(method, new DOMSource(document));
     }
 
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.servicemix.jbi.monitoring.stats.TimeStatisticImpl;
+
+/**
+ * A {@link MultiThreadedHttpConnectionManager} which keeps statistics about the
+ * use of its pool: connections in use and time spent waiting for a connection.
+ * It also exposes the pool settings so that they can be tuned through JMX.
+ *
+ * @version $Revision$
+ */
+public class InstrumentedConnectionManager extends MultiThreadedHttpConnectionManager implements InstrumentedConnectionManagerMBean {
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final TimeStatisticImpl waitTime =
+        TimeStatisticImpl.createLatency("waitTime", "Time spent waiting for a connection");
+
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+        throws ConnectionPoolTimeoutException {
+        long start = System.nanoTime();
+        HttpConnection connection;
+        try {
+            connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+        } catch (ConnectionPoolTimeoutException e) {
+            timeouts.incrementAndGet();
+            throw e;
+        }
+        waitTime.addTime(System.nanoTime() - start);
+        int n = inUse.incrementAndGet();
+        // connections never released are reclaimed by the pool once garbage
+        // collected, without going through releaseConnection
+        int pooled = getConnectionsInPool();
+        if (n > pooled && inUse.compareAndSet(n, pooled)) {
+            n = pooled;
+        }
+        int peak = peakInUse.get();
+        while (n > peak && !peakInUse.compareAndSet(peak, n)) {
+            peak = peakInUse.get();
+        }
+        return connection;
+    }
+
+    public void releaseConnection(HttpConnection conn) {
+        inUse.decrementAndGet();
+        super.releaseConnection(conn);
+    }
+
+    // Pool settings
+    //-------------------------------------------------------------------------
+    public int getMaxConnectionsPerHost() {
+        return getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    public int getMaxTotalConnections() {
+        return getParams().getMaxTotalConnections();
+    }
+
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        getParams().setMaxTotalConnections(maxTotalConnections);
+    }
+
+    public int getConnectionTimeout() {
+        return getParams().getConnectionTimeout();
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        getParams().setConnectionTimeout(connectionTimeout);
+    }
+
+    public int getSoTimeout() {
+        return getParams().getSoTimeout();
+    }
+
+    public void setSoTimeout(int soTimeout) {
+        getParams().setSoTimeout(soTimeout);
+    }
+
+    public boolean isStaleCheckingEnabled() {
+        return getParams().isStaleCheckingEnabled();
+    }
+
+    public void setStaleCheckingEnabled(boolean staleCheckingEnabled) {
+        getParams().setStaleCheckingEnabled(staleCheckingEnabled);
+    }
+
+    // Statistics
+    //-------------------------------------------------------------------------
+    public int getConnectionsInUse() {
+        return Math.min(inUse.get(), getConnectionsInPool());
+    }
+
+    public int getPeakConnectionsInUse() {
+        return peakInUse.get();
+    }
+
+    public long getAcquiredCount() {
+        return waitTime.getCount();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public double getAverageWaitTime() {
+        return waitTime.getAverageTimeMillis();
+    }
+
+    public double getMaxWaitTime() {
+        return waitTime.getMaxTimeMillis();
+    }
+
+    public CompositeData getWaitTimePercentiles() {
+        return waitTime.getWindowPercentilesMillis();
+    }
+
+    public void resetStatistics() {
+        peakInUse.set(getConnectionsInUse());
+        timeouts.set(0);
+        waitTime.reset();
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Management interface of the {@link InstrumentedConnectionManager}
+ *
+ * @version $Revision$
+ */
+public interface InstrumentedConnectionManagerMBean {
+
+    int getMaxConnectionsPerHost();
+
+    void setMaxConnectionsPerHost(int maxConnectionsPerHost);
+
+    int getMaxTotalConnections();
+
+    void setMaxTotalConnections(int maxTotalConnections);
+
+    /**
+     * @return the timeout (ms) for establishing a connection
+     */
+    int getConnectionTimeout();
+
+    void setConnectionTimeout(int connectionTimeout);
+
+    /**
+     * @return the timeout (ms) for reading data
+     */
+    int getSoTimeout();
+
+    void setSoTimeout(int soTimeout);
+
+    boolean isStaleCheckingEnabled();
+
+    void setStaleCheckingEnabled(boolean staleCheckingEnabled);
+
+    /**
+     * @return the number of open connections
+     */
+    int getConnectionsInPool();
+
+    /**
+     * @return the number of connections currently used by a request
+     */
+    int getConnectionsInUse();
+
+    /**
+     * @return the highest number of connections used at the same time
+     */
+    int getPeakConnectionsInUse();
+
+    /**
+     * @return the number of connections obtained from the pool
+     */
+    long getAcquiredCount();
+
+    /**
+     * @return the number of requests which timed out waiting for a connection
+     */
+    long getTimeoutCount();
+
+    /**
+     * @return the average time (ms) spent waiting for a connection
+     */
+    double getAverageWaitTime();
+
+    /**
+     * @return the longest time (ms) spent waiting for a connection
+     */
+    double getMaxWaitTime();
+
+    /**
+     * @return the percentiles of the times (ms) spent waiting for a connection
+     */
+    CompositeData getWaitTimePercentiles();
+
+    /**
+     * Close the connections which have been idle for longer than the given time
+     * 
+     * @param idleTimeout the idle time in milliseconds
+     */
+    void closeIdleConnections(long idleTimeout);
+
+    void resetStatistics();
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+
+/**
+ * A {@link RequestEntity} which writes the content of a message directly to the
+ * connection, without converting it to a String first.
+ * Byte contents are written as is, streams are copied and other sources
+ * are serialized on the fly.  Only byte contents have a known length.
+ *
+ * @version $Revision$
+ */
+public class SourceRequestEntity implements RequestEntity {
+
+    private final Source source;
+    private final SourceTransformer sourceTransformer;
+    private final String contentType;
+    private final BufferPool bufferPool;
+
+    public SourceRequestEntity(Source source, SourceTransformer sourceTransformer, String contentType) {
+        this(source, sourceTransformer, contentType, BufferPool.getDefault());
+    }
+
+    /**
+     * @param bufferPool the pool of buffers used to copy stream contents
+     */
+    public SourceRequestEntity(Source source, SourceTransformer sourceTransformer, String contentType,
+                               BufferPool bufferPool) {
+        this.source = source;
+        this.sourceTransformer = sourceTransformer;
+        this.contentType = contentType;
+        this.bufferPool = bufferPool;
+    }
+
+    public boolean isRepeatable() {
+        // a stream can only be read once
+        return source instanceof BytesSource || !(source instanceof StreamSource);
+    }
+
+    public long getContentLength() {
+        if (source instanceof BytesSource) {
+            return ((BytesSource) source).getData().length;
+        }
+        return -1;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        if (source instanceof BytesSource) {
+            out.write(((BytesSource) source).getData());
+        } else if (source instanceof StreamSource && ((StreamSource) source).getInputStream() != null) {
+            InputStream is = ((StreamSource) source).getInputStream();
+            byte[] buffer = bufferPool.acquireChunk();
+            try {
+                for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                bufferPool.releaseChunk(buffer);
+            }
+        } else {
+            try {
+                sourceTransformer.toResult(source, new StreamResult(out));
+            } catch (TransformerException e) {
+                IOException ioe = new IOException("Unable to write request: " + e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+        out.flush();
+    }
+
+}
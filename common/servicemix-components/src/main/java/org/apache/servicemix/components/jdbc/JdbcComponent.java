@@ -16,43 +16,86 @@
  */
 package org.apache.servicemix.components.jdbc;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jbi.JBIException;
+import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.sql.DataSource;
 import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.servicemix.MessageExchangeListener;
 import org.apache.servicemix.components.util.TransformComponentSupport;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.messaging.NormalizedMessageImpl;
 import org.apache.xpath.CachedXPathAPI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-
+import org.w3c.dom.NodeList;
+
+/**
+ * Runs the SQL query found in the <code>&lt;sql&gt;</code> element of the
+ * incoming message and returns the result as XML.  Query parameters can be
+ * given as <code>&lt;param&gt;</code> child elements of <code>&lt;sql&gt;</code>,
+ * in which case a prepared statement is used.
+ * 
+ * When <code>statementCacheSize</code> is set, connections are kept open along with
+ * their prepared statements so that statements can be reused.  In <code>streaming</code>
+ * mode, rows are read from the open cursor while the response is consumed
+ * instead of being loaded in memory first.  The cursor is closed once the
+ * response has been read, or when the exchange completes or fails.
+ *
+ * @version $Revision$
+ */
 public class JdbcComponent extends TransformComponentSupport implements MessageExchangeListener {
 
     private static final Logger logger = LoggerFactory.getLogger(JdbcComponent.class);
 
+    /**
+     * Number of rows formatted at once when streaming a result
+     */
+    private static final int STREAMING_BATCH_SIZE = 64;
+
     private DataSource dataSource;
     private boolean responseRequired = false;
+    private int fetchSize;
+    private boolean streaming;
+    private int statementCacheSize;
+    private int maxIdleConnections = 4;
+    private BlockingQueue<PreparedStatementCache> idleConnections;
+    private final Map<String, Resources> streams = new ConcurrentHashMap<String, Resources>();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
 
     public boolean transform(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws MessagingException {
         logger.debug("Received a JDBC request. Datasource=" + dataSource + ", ResponseRequired=" + responseRequired);
-        Connection conn   = null;
-        Statement stmt    = null;
-        ResultSet rs      = null;
+        Resources resources = new Resources();
+        boolean streamed = false;
 
         try {
 
@@ -68,19 +111,38 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
 
             String query = getQuery(domNode);
             logger.debug("Retrieved query: " + query);
+            List<Node> parameters = getParameters(domNode);
 
-            conn = dataSource.getConnection();
-
-            stmt  = conn.createStatement();
+            Connection conn = resources.open();
 
             Source outMsg = null;
             if (query != null && query.length() > 0) {
-                if (stmt.execute(query)) {
+                Statement stmt;
+                boolean isResultSet;
+                if (resources.cache != null || !parameters.isEmpty()) {
+                    PreparedStatement ps = resources.prepare(query);
+                    setParameters(ps, parameters);
+                    stmt = ps;
+                    applyFetchSize(stmt);
+                    isResultSet = ps.execute();
+                } else {
+                    stmt = conn.createStatement();
+                    resources.statement = stmt;
+                    applyFetchSize(stmt);
+                    isResultSet = stmt.execute(query);
+                }
+                if (isResultSet) {
                     // Result is a ResultSet object
-                    rs = stmt.getResultSet();
+                    ResultSet rs = stmt.getResultSet();
+                    resources.resultSet = rs;
 
                     logger.debug("Formatting ResultSet: " + rs);
-                    outMsg = toXmlSource(rs);
+                    if (streaming) {
+                        outMsg = toStreamingSource(rs, resources);
+                        streamed = outMsg != null;
+                    } else {
+                        outMsg = toXmlSource(rs);
+                    }
                 } else {
                     int updateCount = stmt.getUpdateCount();
                     if (updateCount > -1) {
@@ -97,7 +159,11 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
 
             if (outMsg != null) {
                 // There is a valid response
-                logger.debug("Response: " + domTransform.toString(outMsg));
+                if (streamed) {
+                    registerStream(exchange, out, resources);
+                } else {
+                    logger.debug("Response: " + domTransform.toString(outMsg));
+                }
                 out.setContent(outMsg);
                 return true;
 
@@ -114,34 +180,45 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
             }
         } catch (Exception e) {
             logger.error("JDBC Component Exception: ", e);
+            resources.discard();
+            resources.close();
 //            out.setContent(createExceptionXml(e));
 //            return true;
             throw new MessagingException(e);
         } finally {
-            if (rs != null) {
-                try {
-                    rs.close();
-                } catch (SQLException e) {
-                    // Ignore
-                }
+            // a streamed result set is released once it has been read
+            if (!streamed) {
+                resources.close();
             }
+        }
+    }
 
-            if (stmt != null) {
-                try {
-                    stmt.close();
-                } catch (SQLException e) {
-                    // Ignore
-                }
-            }
+    public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+        // a streamed result which has not been read is released when its exchange completes
+        if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
+            releaseStream(exchange.getExchangeId(), exchange.getStatus() == ExchangeStatus.ERROR);
+        }
+        super.onMessageExchange(exchange);
+    }
 
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    // Ignore
-                }
+    public void fail(MessageExchange exchange, Exception error) throws MessagingException {
+        releaseStream(exchange.getExchangeId(), true);
+        super.fail(exchange, error);
+    }
+
+    public void shutDown() throws JBIException {
+        for (Iterator<Resources> it = new ArrayList<Resources>(streams.values()).iterator(); it.hasNext();) {
+            Resources resources = it.next();
+            resources.discard();
+            resources.close();
+        }
+        BlockingQueue<PreparedStatementCache> idle = idleConnections;
+        if (idle != null) {
+            for (PreparedStatementCache cache = idle.poll(); cache != null; cache = idle.poll()) {
+                cache.close();
             }
         }
+        super.shutDown();
     }
 
     public String getQuery(Node node) throws Exception {
@@ -157,6 +234,40 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
         return node.getNodeValue();
     }
 
+    /**
+     * Returns the <code>&lt;param&gt;</code> elements of the query
+     */
+    public List<Node> getParameters(Node node) throws Exception {
+        CachedXPathAPI xpath = new CachedXPathAPI();
+        NodeList nodes = xpath.selectNodeList(node, "sql/param");
+        List<Node> parameters = new ArrayList<Node>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            parameters.add(nodes.item(i));
+        }
+        return parameters;
+    }
+
+    /**
+     * Set the statement parameters.  A parameter element with a <code>null="true"</code>
+     * attribute sets a SQL NULL value, others set their text content.
+     */
+    protected void setParameters(PreparedStatement ps, List<Node> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Node param = parameters.get(i);
+            if (param instanceof Element && "true".equals(((Element) param).getAttribute("null"))) {
+                ps.setObject(i + 1, null);
+            } else {
+                ps.setString(i + 1, param.getTextContent());
+            }
+        }
+    }
+
+    protected void applyFetchSize(Statement stmt) throws SQLException {
+        if (fetchSize > 0) {
+            stmt.setFetchSize(fetchSize);
+        }
+    }
+
     public void setDataSource(DataSource ds) {
         dataSource = ds;
     }
@@ -177,21 +288,88 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
         return responseRequired;
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the number of rows fetched from the database at once, or 0 to use the driver default
+     * @param fetchSize
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * If true, the rows of a result set are read from the database while the response
+     * is consumed.  The connection is held until the response has been fully read.
+     * @param streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Set the number of prepared statements cached for each connection.  When greater than 0,
+     * connections are kept open between exchanges so that their statements can be reused.
+     * This should not be used with a DataSource enlisted in transactions.
+     * @param statementCacheSize
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * @return the number of prepared statements which have been reused from the cache
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * @return the number of prepared statements which had to be prepared
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * @return the number of streamed results whose connection is still held
+     */
+    public int getOpenStreamCount() {
+        return new HashSet<Resources>(streams.values()).size();
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * Set the maximum number of connections kept open when statements are cached
+     * @param maxIdleConnections
+     */
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
     protected Source toXmlSource(ResultSet rs) throws Exception {
 
         ResultSetMetaData meta = rs.getMetaData();
-        int colCount = meta.getColumnCount();
 
         String[] colNames = getUniqueColumnNames(meta);
         
         StringBuffer buff = new StringBuffer("");
 
         while (rs.next()) {
-            buff.append("<row ");
-            for (int i = 0; i < colCount; i++) {
-                buff.append(colNames[i].toLowerCase() + "='" + rs.getString(i + 1) + "' ");
-            }
-            buff.append("/>");
+            appendRow(buff, rs, colNames);
         }
 
         if (buff.length() > 0) {
@@ -206,6 +384,82 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
         return new StringSource(buff.toString());
     }
 
+    /**
+     * Keeps track of the resources of a streamed result under the id of the exchange
+     * being processed and of the exchange carrying the result, if it is a different one.
+     */
+    private void registerStream(MessageExchange exchange, NormalizedMessage out, Resources resources) {
+        resources.exchangeIds.add(exchange.getExchangeId());
+        if (out instanceof NormalizedMessageImpl) {
+            MessageExchange carrier = ((NormalizedMessageImpl) out).getExchange();
+            if (carrier != null && !exchange.getExchangeId().equals(carrier.getExchangeId())) {
+                resources.exchangeIds.add(carrier.getExchangeId());
+            }
+        }
+        for (Iterator<String> it = resources.exchangeIds.iterator(); it.hasNext();) {
+            streams.put(it.next(), resources);
+        }
+    }
+
+    private void releaseStream(String exchangeId, boolean discard) {
+        Resources resources = streams.get(exchangeId);
+        if (resources != null) {
+            if (discard) {
+                resources.discard();
+            }
+            resources.close();
+        }
+    }
+
+    /**
+     * Returns a source which reads the rows from the result set while it is consumed,
+     * or <code>null</code> if the result set is empty.  The resources are released
+     * when the source has been fully read or closed.
+     */
+    private Source toStreamingSource(ResultSet rs, Resources resources) throws Exception {
+        String[] colNames = getUniqueColumnNames(rs.getMetaData());
+        if (!rs.next()) {
+            return null;
+        }
+        return new StreamSource(new ResultSetReader(rs, colNames, resources));
+    }
+
+    protected void appendRow(StringBuffer buff, ResultSet rs, String[] colNames) throws SQLException {
+        buff.append("<row ");
+        for (int i = 0; i < colNames.length; i++) {
+            buff.append(colNames[i].toLowerCase()).append("='");
+            appendEscaped(buff, String.valueOf(rs.getString(i + 1)));
+            buff.append("' ");
+        }
+        buff.append("/>");
+    }
+
+    private static void appendEscaped(StringBuffer buff, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '<':
+                buff.append("&lt;");
+                break;
+            case '&':
+                buff.append("&amp;");
+                break;
+            case '\'':
+                buff.append("&apos;");
+                break;
+            default:
+                buff.append(c);
+            }
+        }
+    }
+
+    protected synchronized BlockingQueue<PreparedStatementCache> getIdleConnections() {
+        if (idleConnections == null) {
+            idleConnections = new ArrayBlockingQueue<PreparedStatementCache>(Math.max(1, maxIdleConnections));
+        }
+        return idleConnections;
+    }
+
     /**
      * Returns a String[] containing unique ColNames. 
      */
@@ -253,4 +507,154 @@ public class JdbcComponent extends TransformComponentSupport implements MessageE
         return new StringSource("<sqlResult></sqlResult>");
     }
 
+    /**
+     * The JDBC resources used by an exchange
+     */
+    private class Resources implements Closeable {
+        PreparedStatementCache cache;
+        Connection connection;
+        Statement statement;
+        ResultSet resultSet;
+        final List<String> exchangeIds = new ArrayList<String>(2);
+        private boolean discard;
+        private boolean closed;
+
+        Connection open() throws SQLException {
+            if (statementCacheSize > 0) {
+                cache = getIdleConnections().poll();
+                if (cache == null) {
+                    cache = new PreparedStatementCache(dataSource.getConnection(), statementCacheSize);
+                }
+                connection = cache.getConnection();
+            } else {
+                connection = dataSource.getConnection();
+            }
+            return connection;
+        }
+
+        PreparedStatement prepare(String query) throws SQLException {
+            if (cache != null) {
+                int hits = cache.getHitCount();
+                PreparedStatement ps = cache.prepare(query);
+                if (cache.getHitCount() > hits) {
+                    statementCacheHits.incrementAndGet();
+                } else {
+                    statementCacheMisses.incrementAndGet();
+                }
+                return ps;
+            }
+            PreparedStatement ps = connection.prepareStatement(query);
+            statement = ps;
+            return ps;
+        }
+
+        /**
+         * The connection should not be reused after an error
+         */
+        void discard() {
+            discard = true;
+        }
+
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Iterator<String> it = exchangeIds.iterator(); it.hasNext();) {
+                streams.remove(it.next());
+            }
+            if (resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                    // Ignore
+                }
+            }
+
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // Ignore
+                }
+            }
+
+            if (cache != null) {
+                if (discard || !getIdleConnections().offer(cache)) {
+                    cache.close();
+                }
+            } else if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats the rows of an open result set as they are read.
+     * The result set must be positioned on its first row.
+     */
+    private class ResultSetReader extends Reader {
+        private final ResultSet rs;
+        private final String[] colNames;
+        private final Resources resources;
+        private final StringBuffer buffer = new StringBuffer("<sqlResult><resultSet>");
+        private int pos;
+        private boolean hasRow = true;
+        private boolean done;
+
+        ResultSetReader(ResultSet rs, String[] colNames, Resources resources) {
+            this.rs = rs;
+            this.colNames = colNames;
+            this.resources = resources;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            while (pos >= buffer.length()) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, buffer.length() - pos);
+            buffer.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            if (done) {
+                return false;
+            }
+            buffer.setLength(0);
+            pos = 0;
+            try {
+                for (int i = 0; hasRow && i < STREAMING_BATCH_SIZE; i++) {
+                    appendRow(buffer, rs, colNames);
+                    hasRow = rs.next();
+                }
+            } catch (SQLException e) {
+                done = true;
+                resources.discard();
+                resources.close();
+                IOException ioe = new IOException("Failed to read result set: " + e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            }
+            if (!hasRow) {
+                buffer.append("</resultSet></sqlResult>");
+                done = true;
+                resources.close();
+            }
+            return true;
+        }
+
+        public void close() throws IOException {
+            done = true;
+            resources.close();
+        }
+    }
+
 }
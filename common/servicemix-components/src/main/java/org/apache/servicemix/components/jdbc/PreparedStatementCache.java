@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds an open connection along with the {@link PreparedStatement}s created on it,
+ * so that a statement can be reused when the same query is run again.
+ * The least recently used statements are closed when the cache is full.
+ * 
+ * This class is not thread safe: an instance must only be used by one thread at a time.
+ *
+ * @version $Revision$
+ */
+public class PreparedStatementCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private int hits;
+    private int misses;
+
+    public PreparedStatementCache(Connection connection, final int maxStatements) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxStatements) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Retrieve a cached statement for the given query, or prepare a new one
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null) {
+            hits++;
+            statement.clearParameters();
+            return statement;
+        }
+        misses++;
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Close all the statements and the connection
+     */
+    public void close() {
+        for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext();) {
+            closeQuietly(it.next());
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing connection", e);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing statement", e);
+        }
+    }
+
+}
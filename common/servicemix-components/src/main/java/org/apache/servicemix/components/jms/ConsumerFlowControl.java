@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.jms;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.servicemix.jbi.monitoring.stats.TimeStatisticImpl;
+
+/**
+ * Limits the number of JMS messages a {@link JmsServiceComponent} processes at
+ * the same time.  A consumer takes a credit before handing a message over to
+ * the JBI container and gives it back once the exchange has completed; while no
+ * credit is available, the consumer's session is blocked and stops receiving.
+ *
+ * @version $Revision$
+ */
+public class ConsumerFlowControl implements ConsumerFlowControlMBean {
+
+    private final int maxInFlight;
+    private final Semaphore credits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final TimeStatisticImpl waitTime =
+        TimeStatisticImpl.createLatency("waitTime", "Time a consumer waited for an in-flight slot");
+
+    /**
+     * @param maxInFlight the maximum number of messages in flight, or 0 for no limit
+     */
+    public ConsumerFlowControl(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.credits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+    }
+
+    /**
+     * Take a credit, waiting for one to be available if needed
+     *
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return false if no credit has been given back in time
+     */
+    public boolean acquire(long timeout) throws InterruptedException {
+        if (credits != null && !credits.tryAcquire()) {
+            long start = System.nanoTime();
+            boolean acquired = credits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+            waitTime.addTime(System.nanoTime() - start);
+            if (!acquired) {
+                return false;
+            }
+        }
+        received.incrementAndGet();
+        int count = inFlight.incrementAndGet();
+        int peak = peakInFlight.get();
+        while (count > peak && !peakInFlight.compareAndSet(peak, count)) {
+            peak = peakInFlight.get();
+        }
+        return true;
+    }
+
+    /**
+     * Give back the credit of a message whose processing is over
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+        if (credits != null) {
+            credits.release();
+        }
+    }
+
+    /**
+     * Record the acknowledgement of a message
+     */
+    public void acknowledged() {
+        acknowledged.incrementAndGet();
+    }
+
+    /**
+     * Record a message left for redelivery after its exchange failed
+     */
+    public void recovered() {
+        recovered.incrementAndGet();
+    }
+
+    /**
+     * Record a message acknowledged without being processed after too many redeliveries
+     */
+    public void discarded() {
+        discarded.incrementAndGet();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public int getPeakInFlightCount() {
+        return peakInFlight.get();
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getAcknowledgedCount() {
+        return acknowledged.get();
+    }
+
+    public long getRecoveredCount() {
+        return recovered.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    public long getWaitCount() {
+        return waitTime.getCount();
+    }
+
+    public double getAverageWaitTime() {
+        return waitTime.getAverageTimeMillis();
+    }
+
+    public double getMaxWaitTime() {
+        return waitTime.getMaxTimeMillis();
+    }
+
+    public CompositeData getWaitTimePercentiles() {
+        return waitTime.getWindowPercentilesMillis();
+    }
+
+    public void resetStatistics() {
+        peakInFlight.set(inFlight.get());
+        received.set(0);
+        acknowledged.set(0);
+        recovered.set(0);
+        discarded.set(0);
+        waitTime.reset();
+    }
+
+}
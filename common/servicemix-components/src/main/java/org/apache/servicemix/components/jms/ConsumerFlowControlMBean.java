@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.jms;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Management interface of the {@link ConsumerFlowControl} of a {@link JmsServiceComponent}
+ *
+ * @version $Revision$
+ */
+public interface ConsumerFlowControlMBean {
+
+    /**
+     * @return the maximum number of exchanges in flight, 0 meaning unlimited
+     */
+    int getMaxInFlight();
+
+    /**
+     * @return the number of JMS messages being processed
+     */
+    int getInFlightCount();
+
+    /**
+     * @return the highest number of JMS messages processed at the same time
+     */
+    int getPeakInFlightCount();
+
+    /**
+     * @return the number of JMS messages received
+     */
+    long getReceivedCount();
+
+    /**
+     * @return the number of JMS messages acknowledged once their exchange completed
+     */
+    long getAcknowledgedCount();
+
+    /**
+     * @return the number of JMS messages left for redelivery because their exchange failed
+     */
+    long getRecoveredCount();
+
+    /**
+     * @return the number of JMS messages acknowledged without being processed after too many redeliveries
+     */
+    long getDiscardedCount();
+
+    /**
+     * @return the number of times a consumer had to wait for an in-flight slot
+     */
+    long getWaitCount();
+
+    /**
+     * @return the average time (ms) a consumer waited for an in-flight slot
+     */
+    double getAverageWaitTime();
+
+    /**
+     * @return the maximum time (ms) a consumer waited for an in-flight slot
+     */
+    double getMaxWaitTime();
+
+    /**
+     * @return the percentiles of the times (ms) a consumer waited for an in-flight slot
+     */
+    CompositeData getWaitTimePercentiles();
+
+    /**
+     * Reset the statistics
+     */
+    void resetStatistics();
+
+}
@@ -16,6 +16,9 @@
  */
 package org.apache.servicemix.components.jms;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jbi.JBIException;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOut;
@@ -39,7 +42,6 @@ import org.apache.servicemix.jbi.framework.ComponentContextImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.jms.JmsException;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
 
@@ -48,6 +50,17 @@ import org.springframework.jms.core.MessageCreator;
  * container for processing, and send back the result to the JMS requestor - used for the TopipcRequestor and
  * QueueRequestor pattern
  * 
+ * When <code>maxInFlight</code> is set, each session processes one message at a time in its own
+ * thread, so at least <code>maxInFlight</code> sessions are opened on a queue whatever the number of
+ * <code>concurrentConsumers</code>, and consumers stop receiving while the limit is reached.  A message
+ * is acknowledged with CLIENT_ACKNOWLEDGE (or the session committed, if the template uses transacted
+ * sessions) only once its exchange has completed and the reply has been sent; otherwise the session is
+ * recovered (or rolled back) and the message is redelivered, up to <code>maxRedeliveries</code> times
+ * if the JMS provider supports the JMSXDeliveryCount property.  The flow control statistics are exposed
+ * as the "flowControl" MBean.
+ * 
+ * A fault returned by the exchange is sent back to the requestor in place of the out message.
+ * 
  * @version $Revision$
  */
 public class JmsServiceComponent extends ComponentSupport implements MessageListener, InitializingBean {
@@ -58,11 +71,16 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
     private JmsMarshaler marshaler = new JmsMarshaler();
     private JmsTemplate template;
     private String selector;
-    private MessageConsumer consumer;
     private ConnectionFactory connectionFactory;
     private Connection connection;
-    private Session session;
+    private List<Session> sessions = new ArrayList<Session>();
+    private List<MessageConsumer> consumers = new ArrayList<MessageConsumer>();
     private Executor executor;
+    private int maxInFlight;
+    private int concurrentConsumers = 1;
+    private int maxRedeliveries = 5;
+    private volatile boolean consuming;
+    private ConsumerFlowControl flowControl;
 
     /**
      * called by Spring framework after initialization
@@ -79,62 +97,94 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
         super.start();
         try {
             connectionFactory = template.getConnectionFactory();
-            /*
-             * Component code did not work for JMS 1.02 compliant provider because uses APIs
-             * that did not exist in JMS 1.02 : ConnectionFactory.createConnection,
-             * Connection.createSession
-             */
-            if (template instanceof org.springframework.jms.core.JmsTemplate102) {
-                //Note1 - would've preferred to call JmsTemplate102 methods but they are protected.
-                if (template.isPubSubDomain()) {
-                    javax.jms.TopicConnection tc;
-                    connection = tc = ((javax.jms.TopicConnectionFactory)connectionFactory).createTopicConnection();
-                    session = tc.createTopicSession(template.isSessionTransacted(), template.getSessionAcknowledgeMode());
-                }
-                else {
-                    javax.jms.QueueConnection qc;
-                    connection = qc = ((javax.jms.QueueConnectionFactory)connectionFactory).createQueueConnection();
-                    session = qc.createQueueSession(template.isSessionTransacted(), template.getSessionAcknowledgeMode());
-                }
-            } else { // JMS 1.1 style
-                connection = connectionFactory.createConnection();
-                session = connection.createSession(template.isSessionTransacted(), template.getSessionAcknowledgeMode());
+            int acknowledgeMode = template.getSessionAcknowledgeMode();
+            if (maxInFlight > 0 && !template.isSessionTransacted()) {
+                acknowledgeMode = Session.CLIENT_ACKNOWLEDGE;
             }
-
-            Destination defaultDestination = template.getDefaultDestination();
-            if (defaultDestination == null) {
-                defaultDestination = template.getDestinationResolver().resolveDestinationName(session, template.getDefaultDestinationName(),
-                        template.isPubSubDomain());
+            // a session processes one message at a time when maxInFlight is set
+            int sessionCount = Math.max(Math.max(concurrentConsumers, maxInFlight), 1);
+            if (sessionCount > 1 && template.isPubSubDomain()) {
+                logger.warn("Concurrent consumers on a topic would receive each message several times, using one consumer");
+                sessionCount = 1;
             }
-            
-            /*
-             * Component code did not work for JMS 1.02 compliant provider because uses APIs
-             * that did not exist in JMS 1.02: Session.createConsumer
-             */
-            if (template instanceof org.springframework.jms.core.JmsTemplate102) {
-                //Note1 - would've preferred to call JmsTemplate102.createConsumer but it is protected. Code below is same.
-                //Note2 - assert that defaultDestination is correct type according to isPubSubDomain()
-                if (template.isPubSubDomain()) {
-                    consumer = ((javax.jms.TopicSession)session).createSubscriber((javax.jms.Topic)defaultDestination, selector, template.isPubSubNoLocal());
-                } else {
-                    consumer = ((javax.jms.QueueSession)session).createReceiver((javax.jms.Queue)defaultDestination, selector);
+            for (int i = 0; i < sessionCount; i++) {
+                Session session = createSession(acknowledgeMode);
+                sessions.add(session);
+                Destination defaultDestination = template.getDefaultDestination();
+                if (defaultDestination == null) {
+                    defaultDestination = template.getDestinationResolver().resolveDestinationName(session, template.getDefaultDestinationName(),
+                            template.isPubSubDomain());
                 }
-            } else { // JMS 1.1 style
-                consumer = session.createConsumer(defaultDestination, selector);
+                consumers.add(createConsumer(session, defaultDestination));
             }
+            consuming = true;
             connection.start();
-            consumer.setMessageListener(this);
+            for (int i = 0; i < consumers.size(); i++) {
+                if (maxInFlight > 0) {
+                    consumers.get(i).setMessageListener(new SessionListener(sessions.get(i)));
+                } else {
+                    consumers.get(i).setMessageListener(this);
+                }
+            }
         } catch (JMSException e) {
             throw new JBIException("Unable to start jms component", e);
         }
     }
 
+    protected Session createSession(int acknowledgeMode) throws JMSException {
+        /*
+         * Component code did not work for JMS 1.02 compliant provider because uses APIs
+         * that did not exist in JMS 1.02 : ConnectionFactory.createConnection,
+         * Connection.createSession
+         */
+        if (template instanceof org.springframework.jms.core.JmsTemplate102) {
+            //Note1 - would've preferred to call JmsTemplate102 methods but they are protected.
+            if (template.isPubSubDomain()) {
+                if (connection == null) {
+                    connection = ((javax.jms.TopicConnectionFactory)connectionFactory).createTopicConnection();
+                }
+                return ((javax.jms.TopicConnection)connection).createTopicSession(template.isSessionTransacted(), acknowledgeMode);
+            }
+            else {
+                if (connection == null) {
+                    connection = ((javax.jms.QueueConnectionFactory)connectionFactory).createQueueConnection();
+                }
+                return ((javax.jms.QueueConnection)connection).createQueueSession(template.isSessionTransacted(), acknowledgeMode);
+            }
+        } else { // JMS 1.1 style
+            if (connection == null) {
+                connection = connectionFactory.createConnection();
+            }
+            return connection.createSession(template.isSessionTransacted(), acknowledgeMode);
+        }
+    }
+
+    protected MessageConsumer createConsumer(Session session, Destination defaultDestination) throws JMSException {
+        /*
+         * Component code did not work for JMS 1.02 compliant provider because uses APIs
+         * that did not exist in JMS 1.02: Session.createConsumer
+         */
+        if (template instanceof org.springframework.jms.core.JmsTemplate102) {
+            //Note1 - would've preferred to call JmsTemplate102.createConsumer but it is protected. Code below is same.
+            //Note2 - assert that defaultDestination is correct type according to isPubSubDomain()
+            if (template.isPubSubDomain()) {
+                return ((javax.jms.TopicSession)session).createSubscriber((javax.jms.Topic)defaultDestination, selector, template.isPubSubNoLocal());
+            } else {
+                return ((javax.jms.QueueSession)session).createReceiver((javax.jms.Queue)defaultDestination, selector);
+            }
+        } else { // JMS 1.1 style
+            return session.createConsumer(defaultDestination, selector);
+        }
+    }
+
     public void stop() throws JBIException {
+        // let the consumers waiting for a credit give up
+        consuming = false;
         try {
-            if (consumer != null) {
+            for (MessageConsumer consumer : consumers) {
                 consumer.close();
             }
-            if (session != null) {
+            for (Session session : sessions) {
                 session.close();
             }
             if (connection != null) {
@@ -144,8 +194,8 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
             throw new JBIException("Unable to stop jms component", e);
         } finally {
             connection = null;
-            session = null;
-            consumer = null;
+            sessions.clear();
+            consumers.clear();
         }
     }
 
@@ -153,7 +203,9 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
         ComponentContextImpl context = (ComponentContextImpl) getContext();
         ExecutorFactory factory = context.getContainer().getExecutorFactory();
         executor = factory.createExecutor("component." + context.getComponentName());
+        flowControl = new ConsumerFlowControl(maxInFlight);
         super.init();
+        registerCustomMBean("flowControl", flowControl);
     }
 
     /**
@@ -222,49 +274,230 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
         this.selector = selector;
     }
 
+    /**
+     * @return the maximum number of messages processed at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Set the maximum number of messages processed at the same time, 0 meaning
+     * no limit.  When set, messages are acknowledged after their exchange completes
+     * and each session processes one message at a time, so the number of sessions
+     * consuming from a queue is raised to <code>maxInFlight</code> if
+     * <code>concurrentConsumers</code> is lower.  On a topic, a single session is
+     * used and messages are processed one at a time.
+     * 
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the number of sessions consuming from the destination
+     */
+    public int getConcurrentConsumers() {
+        return concurrentConsumers;
+    }
+
+    /**
+     * Set the number of sessions consuming from the destination, which is
+     * only used for queues.
+     * 
+     * @param concurrentConsumers
+     */
+    public void setConcurrentConsumers(int concurrentConsumers) {
+        this.concurrentConsumers = concurrentConsumers;
+    }
+
+    /**
+     * @return the maximum number of times a failed message is redelivered
+     */
+    public int getMaxRedeliveries() {
+        return maxRedeliveries;
+    }
+
+    /**
+     * Set the maximum number of times a message whose exchange failed is
+     * redelivered when <code>maxInFlight</code> is set, a negative value meaning
+     * no limit.  Once exceeded, the message is logged and acknowledged without
+     * being processed.  This relies on the JMSXDeliveryCount property: messages
+     * are redelivered without limit if the JMS provider does not set it.
+     * Defaults to 5.
+     * 
+     * @param maxRedeliveries
+     */
+    public void setMaxRedeliveries(int maxRedeliveries) {
+        this.maxRedeliveries = maxRedeliveries;
+    }
+
+    /**
+     * @return the flow control statistics
+     */
+    public ConsumerFlowControl getFlowControl() {
+        return flowControl;
+    }
+
     /**
      * MessageListener implementation
      * @param jmsMessage 
      */
     public void onMessage(final Message jmsMessage) {
-        executor.execute(new Runnable() {
-            public void run() {
-                handleMessage(jmsMessage);
+        if (!acquireCredit()) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        handleMessage(jmsMessage);
+                    }
+                    finally {
+                        flowControl.release();
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            flowControl.release();
+            throw e;
+        }
+    }
+
+    private boolean acquireCredit() {
+        try {
+            while (!flowControl.acquire(1000)) {
+                if (!consuming) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Acknowledge or commit the message if its exchange succeeded, or have it redelivered
+     */
+    protected void complete(Session session, Message jmsMessage, boolean success) {
+        try {
+            if (session.getTransacted()) {
+                if (success) {
+                    session.commit();
+                } else {
+                    session.rollback();
+                }
+            } else if (success) {
+                jmsMessage.acknowledge();
+            } else {
+                session.recover();
+            }
+            if (success) {
+                flowControl.acknowledged();
+            } else {
+                flowControl.recovered();
+            }
+        }
+        catch (JMSException e) {
+            logger.error("Failed to complete the processing of {}", jmsMessage, e);
+        }
+    }
+
+    /**
+     * Check if the message has already been redelivered <code>maxRedeliveries</code> times
+     */
+    protected boolean isRedeliveryExhausted(Message jmsMessage) {
+        if (maxRedeliveries < 0) {
+            return false;
+        }
+        try {
+            Object count = jmsMessage.getObjectProperty("JMSXDeliveryCount");
+            return count instanceof Number && ((Number) count).intValue() > maxRedeliveries + 1;
+        }
+        catch (JMSException e) {
+            logger.debug("Unable to read the delivery count of {}", jmsMessage, e);
+            return false;
+        }
+    }
+
+    /**
+     * Acknowledge or commit a message without processing it
+     */
+    protected void discard(Session session, Message jmsMessage) {
+        logger.error("Discarding {} after {} redeliveries", jmsMessage, maxRedeliveries);
+        try {
+            if (session.getTransacted()) {
+                session.commit();
+            } else {
+                jmsMessage.acknowledge();
             }
-        });
+            flowControl.discarded();
+        }
+        catch (JMSException e) {
+            logger.error("Failed to discard {}", jmsMessage, e);
+        }
     }
     
     protected void handleMessage(final Message jmsMessage) {
+        processMessage(jmsMessage);
+    }
+
+    /**
+     * Send the message to the JBI container and its response to the JMS requestor
+     * 
+     * @return true if the exchange has completed and the reply has been sent
+     */
+    protected boolean processMessage(final Message jmsMessage) {
         try {
             final InOut messageExchange = getDeliveryChannel().createExchangeFactory().createInOutExchange();
             NormalizedMessage inMessage = messageExchange.createMessage();
             try {
                 marshaler.toNMS(inMessage, jmsMessage);
                 messageExchange.setInMessage(inMessage);
-                if (getDeliveryChannel().sendSync(messageExchange)) {
-                    Destination destination = getReplyToDestination(jmsMessage, messageExchange);
-                    try {
-                        template.send(destination, new MessageCreator() {
-                            public Message createMessage(Session session) throws JMSException {
-                                try {
-                                    Message message = marshaler.createMessage(messageExchange.getOutMessage(), session);
-                                    message.setJMSCorrelationID(jmsMessage.getJMSCorrelationID());
-                                    logger.trace("Sending message to: {}", template.getDefaultDestinationName());
-                                    logger.trace("Message: {}", message);
-                                    return message;
-                                }
-                                catch (TransformerException e) {
-                                    JMSException jmsEx = new JMSException("Failed to create a JMS Message: " + e);
-                                    jmsEx.setLinkedException(e);
-                                    throw jmsEx;
-                                }
+                if (!getDeliveryChannel().sendSync(messageExchange)) {
+                    logger.warn("Timed out processing {}", jmsMessage);
+                    return false;
+                }
+                if (messageExchange.getStatus() == ExchangeStatus.ERROR) {
+                    logger.warn("Failed to process {}", jmsMessage, messageExchange.getError());
+                    return false;
+                }
+                final NormalizedMessage reply = messageExchange.getFault() != null
+                    ? messageExchange.getFault() : messageExchange.getOutMessage();
+                if (reply == null) {
+                    fail(messageExchange, new MessagingException("No out message nor fault received for " + jmsMessage));
+                    return false;
+                }
+                Destination destination = getReplyToDestination(jmsMessage, messageExchange);
+                try {
+                    template.send(destination, new MessageCreator() {
+                        public Message createMessage(Session session) throws JMSException {
+                            try {
+                                Message message = marshaler.createMessage(reply, session);
+                                message.setJMSCorrelationID(jmsMessage.getJMSCorrelationID());
+                                logger.trace("Sending message to: {}", template.getDefaultDestinationName());
+                                logger.trace("Message: {}", message);
+                                return message;
                             }
-                        });
-                        done(messageExchange);
-                    }
-                    catch (JmsException e) {
-                        fail(messageExchange, e);
-                    }
+                            catch (TransformerException e) {
+                                JMSException jmsEx = new JMSException("Failed to create a JMS Message: " + e);
+                                jmsEx.setLinkedException(e);
+                                throw jmsEx;
+                            }
+                        }
+                    });
+                    done(messageExchange);
+                    return true;
+                }
+                catch (RuntimeException e) {
+                    // not only JmsException: the marshaler may fail on the reply content
+                    logger.error("Couldn't send the reply to {}", jmsMessage, e);
+                    fail(messageExchange, e);
                 }
             }
             catch (JMSException e) {
@@ -276,6 +509,7 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
         catch (MessagingException e) {
             logger.error("Failed to process inbound JMS Message: {}", jmsMessage, e);
         }
+        return false;
     }
 
     protected Destination getReplyToDestination(Message jmsMessage, final InOut messageExchange) throws JMSException {
@@ -310,4 +544,41 @@ public class JmsServiceComponent extends ComponentSupport implements MessageList
         return result;
     }
 
+    /**
+     * Processes the messages of a session one at a time in the session's
+     * thread, so that acknowledging a message never acknowledges another
+     * message still in flight.
+     */
+    private class SessionListener implements MessageListener {
+        private final Session session;
+
+        SessionListener(Session session) {
+            this.session = session;
+        }
+
+        public void onMessage(Message jmsMessage) {
+            if (isRedeliveryExhausted(jmsMessage)) {
+                discard(session, jmsMessage);
+                return;
+            }
+            // blocking the session while saturated stops it from receiving
+            if (!acquireCredit()) {
+                logger.debug("Component stopped, leaving message {} unacknowledged", jmsMessage);
+                return;
+            }
+            boolean success = false;
+            try {
+                success = processMessage(jmsMessage);
+            }
+            finally {
+                try {
+                    complete(session, jmsMessage, success);
+                }
+                finally {
+                    flowControl.release();
+                }
+            }
+        }
+    }
+
 }
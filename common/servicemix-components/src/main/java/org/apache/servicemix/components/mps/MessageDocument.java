@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.mps;
+
+import javax.jbi.JBIException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.PrefixResolverDefault;
+import org.apache.xpath.XPathContext;
+import org.w3c.dom.Document;
+
+/**
+ * The content of a message, parsed once and shared by all the XPath
+ * expressions evaluated against it while setting its properties.
+ * Not thread safe, an instance is used for a single message.
+ */
+public class MessageDocument {
+
+	private final NormalizedMessage message;
+
+	private Document document;
+
+	private PrefixResolver prefixResolver;
+
+	private XPathContext xpathContext;
+
+	public MessageDocument(NormalizedMessage message) {
+		this.message = message;
+	}
+
+	/**
+	 * @return true if the message has some content to evaluate XPath expressions against
+	 */
+	public boolean hasContent() {
+		return document != null || message.getContent() != null;
+	}
+
+	/**
+	 * Get the DOM of the message content, parsing it the first time
+	 */
+	public Document getDocument() throws JBIException {
+		if (document == null) {
+			try {
+				document = new SourceTransformer().toDOMDocument(message);
+			} catch (Exception e) {
+				throw new JBIException("Could not parse the message content", e);
+			}
+		}
+		return document;
+	}
+
+	/**
+	 * Resolves the prefixes declared on the root element of the message
+	 */
+	public PrefixResolver getPrefixResolver() throws JBIException {
+		if (prefixResolver == null) {
+			prefixResolver = new PrefixResolverDefault(getDocument().getDocumentElement());
+		}
+		return prefixResolver;
+	}
+
+	/**
+	 * The XPath context is reused across expressions so that the
+	 * document model is only built once
+	 */
+	public XPathContext getXPathContext() {
+		if (xpathContext == null) {
+			xpathContext = new XPathContext();
+		}
+		return xpathContext;
+	}
+
+	/**
+	 * The content to forward once the expressions have been evaluated:
+	 * a stream source has been consumed by the parsing, so the DOM is used instead.
+	 */
+	public Source getContent() {
+		Source content = message.getContent();
+		if (document != null && !(content instanceof DOMSource)) {
+			return new DOMSource(document);
+		}
+		return content;
+	}
+
+}
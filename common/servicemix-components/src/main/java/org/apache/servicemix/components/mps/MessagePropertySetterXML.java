@@ -17,8 +17,10 @@
 package org.apache.servicemix.components.mps;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jbi.JBIException;
 import javax.jbi.component.ComponentContext;
@@ -31,9 +33,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import org.apache.servicemix.components.util.TransformComponentSupport;
-import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.xpath.CachedXPathAPI;
-import org.apache.xpath.objects.XObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
@@ -152,7 +152,7 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 	 * one for each propertyvalue entry used during the time
 	 * we are "active".
 	 */
-	private Map propertSets = new HashMap();
+	private Map propertSets = new ConcurrentHashMap();
 
 	/**
 	 * If this is set, it is hardcoded as the fixed value.
@@ -174,6 +174,11 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 	 */
 	private String xpathForPropertySet = null;
 	
+	/**
+	 * The compiled form of xpathForPropertySet
+	 */
+	private XPathContentMessagePropertyValue propertySetExpression = null;
+	
 	/**
 	 * Here is the transform of the message
 	 * We will locate the propertySetName to use 
@@ -181,17 +186,16 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 	 * we can to the outgoing NormalizedMessage
 	 */
 	protected boolean transform(MessageExchange arg0, NormalizedMessage in, NormalizedMessage out) throws MessagingException {
+		// the content is parsed at most once for all the expressions
+		MessageDocument content = new MessageDocument(in);
 		try {
 			copyPropertiesAndAttachments(arg0,in,out);
-			out.setContent(in.getContent());
 			
 			String propertySetName = "";
-			if (xpathForPropertySet != null) {
+			if (propertySetExpression != null) {
 				try {
-					CachedXPathAPI xpathApi = new org.apache.xpath.CachedXPathAPI();
-					Document doc = new SourceTransformer().toDOMDocument(in);
-					XObject propSetXO = xpathApi.eval(doc.getDocumentElement(),xpathForPropertySet);
-					propertySetName = propSetXO.str();
+					Document doc = content.getDocument();
+					propertySetName = propertySetExpression.evaluate(content, doc.getDocumentElement()).str();
 				} catch (Exception e) {
 					throw new MessagingException("Problem getting the propertySet using XPath", e);
 				}
@@ -203,13 +207,15 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 				return false;
 			}
 			logger.info("Applying properties from property-set [" + propertySetName + "]");
-			getPropertySetByName(propertySetName).applyProperties(in,out);
+			getPropertySetByName(propertySetName).applyProperties(in,out,content);
 			return true;				
 		} catch (JBIException e) {
 			throw new MessagingException("Problem setting properties",e);
 		} catch (PropertySetNotFoundException e) {
 			logger.warn(e.getLocalizedMessage());
 			return false;
+		} finally {
+			out.setContent(content.getContent());
 		}
 	}
 
@@ -245,6 +251,7 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 	public void init(ComponentContext context) throws JBIException {
 		super.init(context);
 		initConfig();
+		registerCustomMBean("xpathStatistics", new XPathStatistics(this));
 	}
 
 	/**
@@ -287,12 +294,18 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 	 */
 	private PropertySet getPropertySetByName(String name) throws JBIException, PropertySetNotFoundException {
 		// find a pre "created" one
-		if (this.propertSets.containsKey(name)) {
-			return (PropertySet)this.propertSets.get(name);
-		} else {
+		PropertySet ps = (PropertySet) this.propertSets.get(name);
+		if (ps != null) {
+			return ps;
+		}
+		// the configuration DOM is not thread safe, so only one set is created at a time
+		synchronized (this) {
+			ps = (PropertySet) this.propertSets.get(name);
+			if (ps != null) {
+				return ps;
+			}
 			return this.createPropertySet(name);
 		}
-		
 	}
 
 	/**
@@ -314,6 +327,32 @@ public class MessagePropertySetterXML extends TransformComponentSupport  {
 	 */
 	public void setXpathForPropertySet(String xpathForPropertySet) {
 		this.xpathForPropertySet = xpathForPropertySet;
+		this.propertySetExpression = xpathForPropertySet != null ? new XPathContentMessagePropertyValue(xpathForPropertySet) : null;
+	}
+
+	/**
+	 * Get the XPath expressions used so far, keyed by "property-set/property"
+	 */
+	Map getXPathExpressions() {
+		Map expressions = new LinkedHashMap();
+		if (propertySetExpression != null) {
+			expressions.put("xpathForPropertySet", propertySetExpression);
+		}
+		for (Iterator sets = propertSets.values().iterator(); sets.hasNext();) {
+			PropertySet ps = (PropertySet) sets.next();
+			for (Iterator pvrs = ps.getPropertyValueResolvers().iterator(); pvrs.hasNext();) {
+				PropertyValueResolver pvr = (PropertyValueResolver) pvrs.next();
+				int index = 0;
+				for (Iterator pvs = pvr.getPropertyValues().iterator(); pvs.hasNext();) {
+					Object pv = pvs.next();
+					if (pv instanceof XPathContentMessagePropertyValue) {
+						expressions.put(ps.getName() + "/" + pvr.getName() + (index > 0 ? "[" + index + "]" : ""), pv);
+						index++;
+					}
+				}
+			}
+		}
+		return expressions;
 	}
 
 }
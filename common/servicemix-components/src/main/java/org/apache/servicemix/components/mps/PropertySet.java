@@ -17,7 +17,9 @@
 package org.apache.servicemix.components.mps;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.jbi.JBIException;
 import javax.jbi.messaging.NormalizedMessage;
@@ -63,13 +65,32 @@ public class PropertySet {
 	 * @param out
 	 */
 	public void applyProperties(NormalizedMessage in, NormalizedMessage out) throws JBIException {
+		applyProperties(in, out, new MessageDocument(in));
+	}
+
+	/**
+	 * Apply all the property values for this in/out pair, 
+	 * the content of the in message being parsed at most once
+	 * 
+	 * @param in
+	 * @param out
+	 * @param content the content of the in message
+	 */
+	public void applyProperties(NormalizedMessage in, NormalizedMessage out, MessageDocument content) throws JBIException {
 		
 		// for every property, set the value on the message
 		for (Iterator iter = pvrs.iterator(); iter.hasNext();) {
-			((PropertyValueResolver)iter.next()).setProperty(in,out);
+			((PropertyValueResolver)iter.next()).setProperty(in,out,content);
 		}
 	}
 
+	/**
+	 * @return the property value resolvers of this set
+	 */
+	public List getPropertyValueResolvers() {
+		return Collections.unmodifiableList(pvrs);
+	}
+
 	public String getName() {
 		return propertySetName;
 	}
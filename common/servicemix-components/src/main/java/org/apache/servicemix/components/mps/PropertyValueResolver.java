@@ -17,6 +17,7 @@
 package org.apache.servicemix.components.mps;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.jbi.JBIException;
@@ -69,11 +70,20 @@ public class PropertyValueResolver {
 	 */
 	public void setProperty(NormalizedMessage in, NormalizedMessage out)
 			throws JBIException {
+		setProperty(in, out, new MessageDocument(in));
+	}
+
+	/**
+	 * Set the property (this.name) on the out message, evaluating XPath
+	 * expressions against the given content of the in message
+	 */
+	public void setProperty(NormalizedMessage in, NormalizedMessage out,
+			MessageDocument content) throws JBIException {
 
 		if (this.staticValue != null) {
 			out.setProperty(name, staticValue);
 		} else {
-			String value = resolveValue(in);
+			String value = resolveValue(in, content);
 			if (value != null) {
 				out.setProperty(name, value);
 			} else {
@@ -86,7 +96,8 @@ public class PropertyValueResolver {
 	/**
 	 * Get the value out of the in, and put it in the out.
 	 */
-	private String resolveValue(NormalizedMessage message) throws JBIException {
+	private String resolveValue(NormalizedMessage message,
+			MessageDocument content) throws JBIException {
 		// go through the list
 		// if a value is found on the one, return it, until the list is
 		// exhausted
@@ -94,7 +105,12 @@ public class PropertyValueResolver {
 		logger.debug("propvrsize=" + propertySetTypes.size());
 		for (int i = 0; i < propertySetTypes.size(); i++) {
 			PropertyValue pv = (PropertyValue) propertySetTypes.get(i);
-			propValue = pv.getPropertyValue(message);
+			if (pv instanceof XPathContentMessagePropertyValue) {
+				propValue = ((XPathContentMessagePropertyValue) pv)
+						.getPropertyValue(content);
+			} else {
+				propValue = pv.getPropertyValue(message);
+			}
 			logger.debug("value from" + pv.getClass() + " = " + propValue);
 			if (propValue != null && !"".equals(propValue)) {
 				break;
@@ -106,6 +122,17 @@ public class PropertyValueResolver {
 		return propValue;
 	}
 
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the property values, in the order they are resolved
+	 */
+	public List getPropertyValues() {
+		return Collections.unmodifiableList(propertySetTypes);
+	}
+
 	/**
 	 * Given the XML below, we will locate the different propertyValueTypes and
 	 * set them on us.
@@ -137,7 +164,7 @@ public class PropertyValueResolver {
 			} else if (pvElem.getNodeName().equals(
 					XPathContentMessagePropertyValue.XML_ELEMENT_NAME)) {
 				String xpath = DOMUtil.getElementText(pvElem);
-				pv = new XPathContentMessagePropertyValue(xpath);
+				pv = new XPathContentMessagePropertyValue(xpath, pvElem);
 				if (logger.isDebugEnabled()) {
 					logger.debug("Created an XPath VR :" + xpath);
 				}
@@ -18,24 +18,72 @@ package org.apache.servicemix.components.mps;
 
 import javax.jbi.JBIException;
 import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.transform.TransformerException;
 
-import org.apache.servicemix.jbi.jaxp.SourceTransformer;
-import org.w3c.dom.Document;
-
-import org.apache.xpath.CachedXPathAPI;
+import org.apache.servicemix.jbi.monitoring.stats.TimeStatisticImpl;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.PrefixResolverDefault;
+import org.apache.xpath.XPath;
 import org.apache.xpath.objects.XObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 
 /**
  * Get the Value of a property from the message given the XPath Statement.
+ * 
+ * The expression is compiled once, resolving its prefixes against the 
+ * namespaces declared in the configuration.  If this is not possible, it is
+ * compiled for each message against the namespaces declared on the
+ * message root element.
  */
 public class XPathContentMessagePropertyValue implements PropertyValue {
 	
+	private static final Logger logger = LoggerFactory.getLogger(XPathContentMessagePropertyValue.class);
+
 	public final static String XML_ELEMENT_NAME = "xpath-expression";
 	
+	/**
+	 * Used to compile statements which are not given any namespace declaration
+	 */
+	private static final PrefixResolver NO_PREFIXES = new PrefixResolver() {
+		public String getNamespaceForPrefix(String prefix) {
+			return null;
+		}
+		public String getNamespaceForPrefix(String prefix, Node context) {
+			return null;
+		}
+		public String getBaseIdentifier() {
+			return null;
+		}
+		public boolean handlesNullPrefixes() {
+			return false;
+		}
+	};
+	
 	private String xpath;
 	
+	private XPath compiledXPath;
+	
+	private final TimeStatisticImpl evaluationTime =
+		TimeStatisticImpl.createLatency("evaluationTime", "Time taken to evaluate the expression");
+	
 	public XPathContentMessagePropertyValue(String xpath) {
+		this(xpath, null);
+	}
+
+	/**
+	 * @param xpath the XPath statement
+	 * @param namespaceNode the configuration node declaring the prefixes used by the statement
+	 */
+	public XPathContentMessagePropertyValue(String xpath, Node namespaceNode) {
 		this.xpath = xpath;
+		try {
+			compiledXPath = compile(namespaceNode != null ? new PrefixResolverDefault(namespaceNode) : NO_PREFIXES);
+		} catch (Exception e) {
+			logger.debug("XPath " + xpath + " will be compiled for each message", e);
+		}
 	}
 
 	/**
@@ -43,22 +91,71 @@ public class XPathContentMessagePropertyValue implements PropertyValue {
 	 * Return null if the value was empty or not there
 	 */
 	public String getPropertyValue(NormalizedMessage msg) throws JBIException {
-		String resultValue = null;
-		if (msg.getContent() != null) {
-			CachedXPathAPI xpathApi = new CachedXPathAPI();
-			try {
-				Document doc = new SourceTransformer().toDOMDocument(msg);
-				XObject result = xpathApi.eval(doc,xpath);
+		return getPropertyValue(new MessageDocument(msg));
+	}
 
-				resultValue = result.toString();
-				if ("".equals(resultValue)) {
-					resultValue = null;
-				}
-			} catch (Exception e) {
-				throw new JBIException("Could not get value from message via xpath " + xpath, e);
+	/**
+	 * Get a value from a message which may already have been parsed.
+	 * Return null if the value was empty or not there
+	 */
+	public String getPropertyValue(MessageDocument content) throws JBIException {
+		String resultValue = null;
+		if (content.hasContent()) {
+			Document doc = content.getDocument();
+			resultValue = evaluate(content, doc).toString();
+			if ("".equals(resultValue)) {
+				resultValue = null;
 			}
 		} 
 		return resultValue;
 	}
+
+	/**
+	 * Evaluate the XPath statement from the given node of the message document
+	 */
+	public XObject evaluate(MessageDocument content, Node contextNode) throws JBIException {
+		long start = System.nanoTime();
+		try {
+			PrefixResolver resolver = content.getPrefixResolver();
+			XPath expression = compiledXPath != null ? compiledXPath : compile(resolver);
+			return expression.execute(content.getXPathContext(), contextNode, resolver);
+		} catch (TransformerException e) {
+			throw new JBIException("Could not get value from message via xpath " + xpath, e);
+		} catch (RuntimeException e) {
+			throw new JBIException("Could not get value from message via xpath " + xpath, e);
+		} finally {
+			evaluationTime.addTime(System.nanoTime() - start);
+		}
+	}
+
+	private XPath compile(PrefixResolver resolver) throws TransformerException {
+		return new XPath(xpath, null, resolver, XPath.SELECT);
+	}
+
+	public String getXPath() {
+		return xpath;
+	}
+
+	/**
+	 * @return true if the statement has been compiled once for all messages
+	 */
+	public boolean isCompiled() {
+		return compiledXPath != null;
+	}
+
+	public long getEvaluationCount() {
+		return evaluationTime.getCount();
+	}
+
+	/**
+	 * @return the evaluation times in nanoseconds, including the compilation when needed
+	 */
+	public TimeStatisticImpl getEvaluationTime() {
+		return evaluationTime;
+	}
+
+	public void resetStatistics() {
+		evaluationTime.reset();
+	}
 	
 }
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.mps;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.apache.servicemix.jbi.monitoring.stats.TimeStatisticImpl;
+
+/**
+ * Evaluation statistics of the XPath expressions used by a {@link MessagePropertySetterXML}.
+ * Property sets are loaded on demand, so only the expressions of the property sets
+ * used so far are reported.
+ */
+public class XPathStatistics implements XPathStatisticsMBean {
+
+	private static final String[] ITEM_NAMES = {
+		"name", "xpath", "compiled", "evaluationCount",
+		"averageTime", "maxTime", "timePercentiles"
+	};
+
+	private static final String[] ITEM_DESCRIPTIONS = {
+		"the property-set and property using the expression",
+		"the XPath expression",
+		"whether the expression is compiled once for all messages",
+		"the number of evaluations",
+		"the average evaluation time (ms)",
+		"the longest evaluation time (ms)",
+		"the percentiles of the evaluation times (ms)"
+	};
+
+	private static final OpenType[] ITEM_TYPES = {
+		SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN, SimpleType.LONG,
+		SimpleType.DOUBLE, SimpleType.DOUBLE, TimeStatisticImpl.PERCENTILES_TYPE
+	};
+
+	private final MessagePropertySetterXML component;
+
+	public XPathStatistics(MessagePropertySetterXML component) {
+		this.component = component;
+	}
+
+	public TabularData getExpressionStatistics() throws OpenDataException {
+		CompositeType rowType = new CompositeType("XPathExpressionStatistics",
+				"Evaluation statistics of an XPath expression", ITEM_NAMES, ITEM_DESCRIPTIONS, ITEM_TYPES);
+		TabularType tableType = new TabularType("XPathExpressionStatisticsTable",
+				"Evaluation statistics of the XPath expressions", rowType, new String[] {"name" });
+		TabularData result = new TabularDataSupport(tableType);
+		Map expressions = component.getXPathExpressions();
+		for (Iterator iter = expressions.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			XPathContentMessagePropertyValue pv = (XPathContentMessagePropertyValue) entry.getValue();
+			TimeStatisticImpl time = pv.getEvaluationTime();
+			Object[] values = {
+				entry.getKey(), pv.getXPath(), Boolean.valueOf(pv.isCompiled()), new Long(time.getCount()),
+				new Double(time.getAverageTimeMillis()), new Double(time.getMaxTimeMillis()),
+				time.getWindowPercentilesMillis()
+			};
+			CompositeData row = new CompositeDataSupport(rowType, ITEM_NAMES, values);
+			result.put(row);
+		}
+		return result;
+	}
+
+	public long getEvaluationCount() {
+		long count = 0;
+		for (Iterator iter = component.getXPathExpressions().values().iterator(); iter.hasNext();) {
+			count += ((XPathContentMessagePropertyValue) iter.next()).getEvaluationCount();
+		}
+		return count;
+	}
+
+	public int getUncompiledExpressionCount() {
+		int count = 0;
+		for (Iterator iter = component.getXPathExpressions().values().iterator(); iter.hasNext();) {
+			if (!((XPathContentMessagePropertyValue) iter.next()).isCompiled()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public void resetStatistics() {
+		for (Iterator iter = component.getXPathExpressions().values().iterator(); iter.hasNext();) {
+			((XPathContentMessagePropertyValue) iter.next()).resetStatistics();
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.mps;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Management interface exposing the evaluation statistics of the
+ * XPath expressions used by a {@link MessagePropertySetterXML}.
+ */
+public interface XPathStatisticsMBean {
+
+	/**
+	 * @return one row per expression, keyed by "property-set/property", with its
+	 *         number of evaluations and its evaluation times in milliseconds
+	 */
+	TabularData getExpressionStatistics() throws OpenDataException;
+
+	/**
+	 * @return the total number of XPath evaluations
+	 */
+	long getEvaluationCount();
+
+	/**
+	 * @return the number of expressions which could not be compiled once for all messages
+	 */
+	int getUncompiledExpressionCount();
+
+	void resetStatistics();
+
+}
@@ -18,6 +18,7 @@ package org.apache.servicemix.components.script;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -31,10 +32,12 @@ import javax.script.Bindings;
 import javax.script.Compilable;
 import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.xml.namespace.QName;
 
+import org.apache.servicemix.components.script.ScriptEnginePool.PooledEngine;
 import org.apache.servicemix.components.util.TransformComponentSupport;
 import org.apache.servicemix.jbi.messaging.NormalizedMessageImpl;
 import org.springframework.core.io.Resource;
@@ -43,10 +46,19 @@ import org.springframework.core.io.Resource;
  * A component which is capable of invoking a compiledScript using
  * <a href="http://servicemix.org/JSR+223">JSR 223</a> to allow any scripting language to be integrated.
  *
+ * Engines whose THREADING parameter states that they are thread safe are shared
+ * by all the exchanges.  Other engines are pooled, each one having its own compiled
+ * script; they are created on demand and up to <code>enginePoolSize</code> are kept
+ * for reuse.  When the script is a resource and <code>scriptCheckInterval</code> is
+ * set, the script is compiled again when the resource is modified.  The pool and
+ * the invocation statistics are exposed as the "scriptEnginePool" MBean.
+ *
  * @version $Revision$
  */
 public class ScriptComponent extends TransformComponentSupport {
 
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ScriptComponent.class);
+
     public static final QName SERVICE = new QName("http://servicemix.org/example/", "receiver");
     public static final String ENDPOINT = "receiver";
 
@@ -60,6 +72,16 @@ public class ScriptComponent extends TransformComponentSupport {
     private boolean disableOutput;
     private Logger scriptLogger;
     private Map bindings = new HashMap();
+    private int enginePoolSize = 16;
+    private boolean pooled = true;
+    private long scriptCheckInterval;
+    private ScriptEnginePool enginePool;
+    private PooledEngine sharedEngine;
+    private boolean serialized;
+    private volatile long scriptVersion;
+    private volatile long lastScriptCheck;
+    private String loadedScript;
+    private long loadedScriptVersion;
 
     public ScriptComponent() {
         super(SERVICE, ENDPOINT);
@@ -71,6 +93,9 @@ public class ScriptComponent extends TransformComponentSupport {
 
     public void start() throws JBIException {
 
+        if (script != null) {
+            scriptVersion = getLastModified(script);
+        }
         if (engine == null) {
             if (compiledScript != null) {
                 engine = compiledScript.getEngine();
@@ -93,6 +118,9 @@ public class ScriptComponent extends TransformComponentSupport {
                 compileScript(compilable);
             }
         }
+        if (enginePool == null) {
+            createEnginePool();
+        }
     }
 
     // Properties
@@ -187,6 +215,55 @@ public class ScriptComponent extends TransformComponentSupport {
         this.logResourceBundle = logResourceBundle;
     }
 
+    public int getEnginePoolSize() {
+        return enginePoolSize;
+    }
+
+    /**
+     * Sets the maximum number of idle engines kept for reuse, when the
+     * engine is not thread safe.
+     *
+     * @param enginePoolSize
+     */
+    public void setEnginePoolSize(int enginePoolSize) {
+        this.enginePoolSize = enginePoolSize;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * Sets whether the engine may be shared by all the exchanges or pooled.
+     * When false, the configured engine is used by one exchange at a time.
+     * Subclasses overriding the deprecated {@link #runScript(Bindings)} or
+     * {@link #evaluteScript(Bindings)} must set it to false, as these methods
+     * only use the configured engine.
+     *
+     * @param pooled
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    public long getScriptCheckInterval() {
+        return scriptCheckInterval;
+    }
+
+    /**
+     * Sets the minimum time (ms) between two checks of the modification time
+     * of the script resource, 0 meaning the script is never reloaded.
+     *
+     * @param scriptCheckInterval
+     */
+    public void setScriptCheckInterval(long scriptCheckInterval) {
+        this.scriptCheckInterval = scriptCheckInterval;
+    }
+
+    public ScriptEnginePool getEnginePool() {
+        return enginePool;
+    }
+
     public Logger getScriptLogger() throws MessagingException {
         if (scriptLogger == null) {
             scriptLogger = createScriptLogger();
@@ -203,20 +280,31 @@ public class ScriptComponent extends TransformComponentSupport {
         this.scriptLogger = scriptLogger;
     }
 
-
     // Implementation methods
     //-------------------------------------------------------------------------
     protected boolean transform(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws Exception {
-        Bindings bindings = engine.createBindings();
-        
-        populateBindings(bindings, exchange, in, out);
+        checkScriptModified();
+        PooledEngine pooled = borrowEngine();
+        long start = System.nanoTime();
+        boolean success = false;
         try {
-            runScript(bindings);
+            recompileIfModified(pooled);
+            Bindings bindings = pooled.getEngine().createBindings();
+            
+            populateBindings(bindings, exchange, in, out);
+            runScript(pooled, bindings);
+            success = true;
             return !isDisableOutput();
         }
         catch (ScriptException e) {
             throw new MessagingException("Failed to run compiledScript. Reason: " + e, e);
         }
+        finally {
+            enginePool.instanceUsed(System.nanoTime() - start, success);
+            if (pooled != sharedEngine) {
+                enginePool.release(pooled);
+            }
+        }
     }
 
     protected void populateBindings(Bindings bindings, MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws MessagingException {
@@ -255,6 +343,33 @@ public class ScriptComponent extends TransformComponentSupport {
         }
     }
 
+    /**
+     * Runs the script with the given engine. A serialized engine is the
+     * configured one, so the deprecated {@link #runScript(Bindings)} is used
+     * for it.
+     */
+    protected void runScript(PooledEngine pooled, Bindings bindings) throws ScriptException, IOException {
+        if (serialized) {
+            runScript(bindings);
+            return;
+        }
+        CompiledScript compiled = pooled.getCompiledScript();
+        if (compiled != null) {
+            compiled.eval(bindings);
+        }
+        else {
+            pooled.getEngine().eval(getScriptSource(), bindings);
+        }
+    }
+
+    /**
+     * Runs the script with the configured engine.
+     *
+     * @deprecated override {@link #runScript(PooledEngine, Bindings)} instead.
+     *             This method is only called when the configured engine is
+     *             serialized, which is the case when the component is not
+     *             {@link #setPooled(boolean) pooled}.
+     */
     protected void runScript(Bindings bindings) throws ScriptException {
         if (compiledScript != null) {
             compiledScript.eval(bindings);
@@ -264,8 +379,145 @@ public class ScriptComponent extends TransformComponentSupport {
         }
     }
 
+    /**
+     * @deprecated override {@link #runScript(PooledEngine, Bindings)} instead.
+     */
     protected void evaluteScript(Bindings bindings) throws ScriptException {
-        engine.eval(scriptText, bindings);
+        try {
+            engine.eval(getScriptSource(), bindings);
+        }
+        catch (IOException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    /**
+     * Shares the configured engine if it is thread safe, or pools engines
+     * of the same factory otherwise. Only the configured engine is used
+     * if the component is not {@link #setPooled(boolean) pooled}.
+     */
+    protected void createEnginePool() {
+        ScriptEngineFactory factory = engine.getFactory();
+        Object threading = factory != null ? factory.getParameter("THREADING") : null;
+        boolean canCreate = factory != null && (scriptText != null || script != null);
+        PooledEngine primary = new PooledEngine(engine, compiledScript, scriptVersion);
+        if (threading != null && pooled) {
+            enginePool = new ScriptEnginePool(0, threading.toString());
+            sharedEngine = primary;
+        }
+        else if (canCreate && pooled) {
+            enginePool = new ScriptEnginePool(enginePoolSize, null);
+            enginePool.release(primary);
+        }
+        else {
+            // a single engine which is not thread safe or not to be pooled
+            enginePool = new ScriptEnginePool(1, null, true);
+            enginePool.release(primary);
+            serialized = true;
+        }
+        enginePool.instanceCreated();
+        if (compiledScript != null) {
+            enginePool.scriptCompiled();
+        }
+        registerCustomMBean("scriptEnginePool", enginePool);
+    }
+
+    protected PooledEngine borrowEngine() throws Exception {
+        PooledEngine pooled = sharedEngine;
+        if (pooled == null) {
+            pooled = serialized ? enginePool.take() : enginePool.poll();
+            if (pooled == null) {
+                ScriptEngine newEngine = engine.getFactory().getScriptEngine();
+                enginePool.instanceCreated();
+                long version = scriptVersion;
+                pooled = new PooledEngine(newEngine, compile(newEngine), version);
+            }
+        }
+        return pooled;
+    }
+
+    /**
+     * Compiles the script again for the given engine if it has been
+     * modified since the engine last compiled it.
+     */
+    protected void recompileIfModified(PooledEngine pooled) throws ScriptException, IOException {
+        if (pooled.getVersion() != scriptVersion && !serialized) {
+            synchronized (pooled) {
+                long version = scriptVersion;
+                if (pooled.getVersion() != version) {
+                    pooled.setCompiledScript(compile(pooled.getEngine()), version);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles the script for the given engine
+     *
+     * @return the compiled script, or null if the engine can not compile scripts
+     */
+    protected CompiledScript compile(ScriptEngine scriptEngine) throws ScriptException, IOException {
+        if (!(scriptEngine instanceof Compilable)) {
+            return null;
+        }
+        CompiledScript compiled = ((Compilable) scriptEngine).compile(getScriptSource());
+        enginePool.scriptCompiled();
+        return compiled;
+    }
+
+    /**
+     * @return the text of the script, the script resource being read once for each modification
+     */
+    protected synchronized String getScriptSource() throws IOException {
+        if (scriptText != null) {
+            return scriptText;
+        }
+        long version = scriptVersion;
+        if (loadedScript == null || loadedScriptVersion != version) {
+            Reader reader = new InputStreamReader(script.getInputStream());
+            try {
+                StringBuffer buffer = new StringBuffer();
+                char[] chars = new char[4096];
+                for (int n = reader.read(chars); n >= 0; n = reader.read(chars)) {
+                    buffer.append(chars, 0, n);
+                }
+                loadedScript = buffer.toString();
+                loadedScriptVersion = version;
+            }
+            finally {
+                reader.close();
+            }
+        }
+        return loadedScript;
+    }
+
+    /**
+     * Checks if the script resource has been modified, in which case
+     * the engines will compile it again before their next invocation.
+     */
+    protected void checkScriptModified() {
+        if (script == null || scriptText != null || scriptCheckInterval <= 0 || serialized) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastScriptCheck < scriptCheckInterval) {
+            return;
+        }
+        lastScriptCheck = now;
+        long modified = getLastModified(script);
+        if (modified != scriptVersion) {
+            logger.info("Script " + script.getDescription() + " has been modified and will be compiled again");
+            scriptVersion = modified;
+        }
+    }
+
+    private long getLastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        }
+        catch (IOException e) {
+            return 0;
+        }
     }
 
     protected void compileScript(Compilable compilable) throws JBIException {
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.script;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+
+import org.apache.servicemix.components.util.InstancePool;
+
+/**
+ * A pool of {@link ScriptEngine}s with their compiled script, for engines which
+ * can not be used by several threads at the same time.
+ * A serialized pool holds a single engine which can not be recreated, and
+ * which is handed out to one thread at a time.
+ *
+ * @version $Revision$
+ */
+public class ScriptEnginePool extends InstancePool<ScriptEnginePool.PooledEngine> implements ScriptEnginePoolMBean {
+
+    private final String threading;
+    private final boolean serialized;
+    private final AtomicLong compiled = new AtomicLong();
+
+    /**
+     * @param maxIdle the maximum number of idle engines kept in the pool,
+     *                or 0 to disable pooling
+     * @param threading the THREADING parameter of the engine
+     */
+    public ScriptEnginePool(int maxIdle, String threading) {
+        this(maxIdle, threading, false);
+    }
+
+    /**
+     * @param maxIdle the maximum number of idle engines kept in the pool,
+     *                or 0 to disable pooling
+     * @param threading the THREADING parameter of the engine
+     * @param serialized whether the pool holds the only engine, which can not be recreated
+     */
+    public ScriptEnginePool(int maxIdle, String threading, boolean serialized) {
+        super(maxIdle, "Time taken by a script invocation");
+        this.threading = threading;
+        this.serialized = serialized;
+    }
+
+    /**
+     * Record the compilation of the script
+     */
+    public void scriptCompiled() {
+        compiled.incrementAndGet();
+    }
+
+    public String getThreading() {
+        return threading;
+    }
+
+    public boolean isSerialized() {
+        return serialized;
+    }
+
+    public long getCompiledCount() {
+        return compiled.get();
+    }
+
+    public void clear() {
+        // the only engine of a serialized pool can not be recreated
+        if (!serialized) {
+            super.clear();
+        }
+    }
+
+    public void resetStatistics() {
+        super.resetStatistics();
+        compiled.set(0);
+    }
+
+    /**
+     * An engine with the script compiled for it.  A shared engine may be
+     * recompiled while other threads run it, so the compiled script and its
+     * version are swapped together.
+     */
+    public static class PooledEngine {
+        private final ScriptEngine engine;
+        private volatile Compilation compilation;
+
+        public PooledEngine(ScriptEngine engine, CompiledScript compiledScript, long version) {
+            this.engine = engine;
+            this.compilation = new Compilation(compiledScript, version);
+        }
+
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * @return the compiled script, or null if the engine is not {@link javax.script.Compilable}
+         */
+        public CompiledScript getCompiledScript() {
+            return compilation.compiledScript;
+        }
+
+        /**
+         * @return the last modification time of the script which has been compiled
+         */
+        public long getVersion() {
+            return compilation.version;
+        }
+
+        public void setCompiledScript(CompiledScript compiledScript, long version) {
+            this.compilation = new Compilation(compiledScript, version);
+        }
+    }
+
+    private static final class Compilation {
+        final CompiledScript compiledScript;
+        final long version;
+
+        Compilation(CompiledScript compiledScript, long version) {
+            this.compiledScript = compiledScript;
+            this.version = version;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.script;
+
+import org.apache.servicemix.components.util.InstancePoolMBean;
+
+/**
+ * Management interface of a {@link ScriptEnginePool}.
+ *
+ * @version $Revision$
+ */
+public interface ScriptEnginePoolMBean extends InstancePoolMBean {
+
+    /**
+     * @return the THREADING parameter of the script engine, or null if it is not thread safe
+     */
+    String getThreading();
+
+    /**
+     * @return whether the pool holds a single engine used by one exchange at a time
+     */
+    boolean isSerialized();
+
+    /**
+     * @return the number of times the script has been compiled
+     */
+    long getCompiledCount();
+
+    /**
+     * Discard the idle engines, unless the pool is serialized
+     */
+    void clear();
+
+}
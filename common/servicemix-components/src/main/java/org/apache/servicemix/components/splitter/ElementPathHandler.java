@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.splitter;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * A SAX handler which extracts the elements found at a simple element path,
+ * such as <code>ROOT/DOC</code>, while the document is being parsed.
+ * Each matching element is built as a small standalone document and handed to
+ * {@link #record(Document)}, so that only one record is held in memory at a time.
+ *
+ * Only paths made of unprefixed element names or <code>*</code> separated by
+ * <code>/</code> are supported; use {@link #parsePath(String)} to check a path.
+ *
+ * @version $Revision$
+ */
+public abstract class ElementPathHandler extends DefaultHandler {
+
+    private static final Pattern STEP = Pattern.compile("\\*|[A-Za-z_][A-Za-z0-9_.\\-]*");
+
+    private final String[] steps;
+    private final DocumentBuilder builder;
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+    private final List<String[]> pendingPrefixes = new ArrayList<String[]>();
+    private int depth;
+    private int matched;
+    private Document document;
+    private Node current;
+    private int count;
+
+    public ElementPathHandler(String[] steps, DocumentBuilder builder) {
+        this.steps = steps;
+        this.builder = builder;
+    }
+
+    /**
+     * Split the given path into steps.
+     * 
+     * @param path the path
+     * @return the steps, or <code>null</code> if the path is not a simple element path
+     */
+    public static String[] parsePath(String path) {
+        if (path == null) {
+            return null;
+        }
+        String p = path.trim();
+        if (p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        if (p.length() == 0) {
+            return null;
+        }
+        String[] steps = p.split("/", -1);
+        for (int i = 0; i < steps.length; i++) {
+            if (!STEP.matcher(steps[i]).matches()) {
+                return null;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * @return the number of records extracted so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Called for each extracted record
+     * 
+     * @param record a document whose root element is the matching element
+     * @throws SAXException to abort the parsing
+     */
+    protected abstract void record(Document record) throws SAXException;
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        pendingPrefixes.add(new String[] {prefix, uri });
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        namespaces.pushContext();
+        for (String[] mapping : pendingPrefixes) {
+            namespaces.declarePrefix(mapping[0], mapping[1]);
+        }
+        if (current != null) {
+            Element element = createElement(uri, qName, attributes);
+            declarePrefixes(element, false);
+            current.appendChild(element);
+            current = element;
+        } else if (matched == depth && depth < steps.length && matches(steps[depth], uri, localName)) {
+            matched++;
+            if (matched == steps.length) {
+                document = builder.newDocument();
+                Element element = createElement(uri, qName, attributes);
+                declarePrefixes(element, true);
+                document.appendChild(element);
+                current = element;
+            }
+        }
+        pendingPrefixes.clear();
+        depth++;
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        depth--;
+        namespaces.popContext();
+        if (current != null) {
+            if (depth == steps.length - 1) {
+                Document doc = document;
+                document = null;
+                current = null;
+                count++;
+                record(doc);
+            } else {
+                current = current.getParentNode();
+            }
+        }
+        if (matched > depth) {
+            matched = depth;
+        }
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (current != null) {
+            current.appendChild(document.createTextNode(new String(ch, start, length)));
+        }
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    private boolean matches(String step, String uri, String localName) {
+        if (uri != null && uri.length() > 0) {
+            return false;
+        }
+        return "*".equals(step) || step.equals(localName);
+    }
+
+    private Element createElement(String uri, String qName, Attributes attributes) {
+        Element element = document.createElementNS(uri != null && uri.length() > 0 ? uri : null, qName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String attUri = attributes.getURI(i);
+            element.setAttributeNS(attUri != null && attUri.length() > 0 ? attUri : null,
+                                   attributes.getQName(i), attributes.getValue(i));
+        }
+        return element;
+    }
+
+    /**
+     * Add the namespace declarations to the element: all the prefixes in scope
+     * for the root of a record, only the new ones for the other elements.
+     */
+    private void declarePrefixes(Element element, boolean inScope) {
+        if (inScope) {
+            for (Enumeration e = namespaces.getPrefixes(); e.hasMoreElements();) {
+                String prefix = (String) e.nextElement();
+                if (!"xml".equals(prefix)) {
+                    declarePrefix(element, prefix, namespaces.getURI(prefix));
+                }
+            }
+            String defaultUri = namespaces.getURI("");
+            if (defaultUri != null && defaultUri.length() > 0) {
+                declarePrefix(element, "", defaultUri);
+            }
+        } else {
+            for (String[] mapping : pendingPrefixes) {
+                declarePrefix(element, mapping[0], mapping[1]);
+            }
+        }
+    }
+
+    private void declarePrefix(Element element, String prefix, String uri) {
+        String name = prefix.length() > 0 ? XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix : XMLConstants.XMLNS_ATTRIBUTE;
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, uri);
+    }
+
+}
@@ -17,16 +17,24 @@
 package org.apache.servicemix.components.splitter;
 
 import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jbi.JBIException;
+import javax.jbi.messaging.DeliveryChannel;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -36,17 +44,34 @@ import javax.xml.xpath.XPathFactory;
 import org.apache.servicemix.components.util.TransformComponentSupport;
 import org.apache.servicemix.jbi.MissingPropertyException;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.messaging.DeliveryChannelImpl;
+import org.apache.servicemix.jbi.messaging.ExchangeCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 /**
  * This Component splits a message according to a XPath expression.
  *
+ * When <code>streaming</code> is enabled and the node path is a simple element
+ * path such as <code>ROOT/DOC</code>, the records are extracted while the
+ * message is parsed instead of loading the whole document in memory.
+ * Up to <code>window</code> parts can be sent asynchronously at the same time;
+ * the component waits for all of them to be acknowledged before completing.
+ * Parts of a transacted exchange are always sent synchronously, so that they
+ * are sent within the transaction of the incoming exchange.
+ *
  * @deprecated use the XPathSplitter pattern from the EIP component instead
  */
 public class SplitterComponent extends TransformComponentSupport {
 
+	private static final Logger logger = LoggerFactory.getLogger(SplitterComponent.class);
+
 	/** Holds value of property nodePath. */
 	private String nodePath;
 
@@ -54,6 +79,14 @@ public class SplitterComponent extends TransformComponentSupport {
 
 	private SourceTransformer st = new SourceTransformer();
 
+	private boolean streaming;
+
+	private int window = 1;
+
+	private boolean failOnError;
+
+	private SAXParserFactory parserFactory;
+
 	protected void init() throws JBIException {
 		super.init();
 
@@ -64,14 +97,44 @@ public class SplitterComponent extends TransformComponentSupport {
 
 	protected boolean transform(MessageExchange me, NormalizedMessage in,
 			NormalizedMessage out) throws MessagingException {
+		PartSender sender = new PartSender(me);
+		boolean split = false;
+		try {
+			String[] steps = streaming ? ElementPathHandler.parsePath(nodePath) : null;
+			InputSource input = steps != null ? getInputSource(in.getContent()) : null;
+			if (input != null) {
+				splitStream(input, steps, sender);
+			} else {
+				splitDocument(in, sender);
+			}
+			split = true;
+		} finally {
+			if (split) {
+				sender.await();
+			} else {
+				// an interruption must not hide the failure of the split
+				sender.awaitQuietly();
+			}
+		}
+		if (sender.failed.get() > 0) {
+			String msg = sender.failed.get() + " of " + sender.sent.get() + " parts could not be delivered";
+			if (failOnError) {
+				throw new MessagingException(msg, sender.error);
+			}
+			logger.warn(msg, sender.error);
+		}
+		return false;
+	}
+
+	protected void splitDocument(NormalizedMessage in, PartSender sender) throws MessagingException {
 		NodeList nodes;
 		try {
 			Node doc = st.toDOMNode(in);
-			if (expression == null) {
-				XPath xpath = XPathFactory.newInstance().newXPath();
-				expression = xpath.compile(nodePath);
+			XPathExpression expr = getExpression();
+			// XPath expressions are not thread safe
+			synchronized (expr) {
+				nodes = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
 			}
-			nodes = (NodeList) expression.evaluate(doc, XPathConstants.NODESET);
 		} catch (TransformerException e) {
 			throw new MessagingException(e);
 		} catch (IOException e) {
@@ -86,13 +149,83 @@ public class SplitterComponent extends TransformComponentSupport {
 		}
 		int total = nodes.getLength();
 		for (int i = 0; i < total; i++) {
-			out.setContent(new DOMSource(nodes.item(i)));
-			InOnly outExchange = getExchangeFactory().createInOnlyExchange();
-			outExchange.setInMessage(out);
-			getDeliveryChannel().sendSync(outExchange);
-			outExchange.setStatus(ExchangeStatus.DONE);
+			sender.send(new DOMSource(nodes.item(i)));
 		}
-		return false;
+	}
+
+	/**
+	 * Extracts the records while parsing the message.
+	 * 
+	 * @return the number of records sent
+	 */
+	protected int splitStream(InputSource input, String[] steps, final PartSender sender) throws MessagingException {
+		try {
+			DocumentBuilder builder = st.createDocumentBuilder();
+			ElementPathHandler handler = new ElementPathHandler(steps, builder) {
+				protected void record(Document record) throws SAXException {
+					try {
+						sender.send(new DOMSource(record));
+					} catch (MessagingException e) {
+						throw new SAXException(e);
+					}
+				}
+			};
+			XMLReader reader = createXMLReader();
+			reader.setContentHandler(handler);
+			reader.parse(input);
+			return handler.getCount();
+		} catch (SAXException e) {
+			if (e.getException() instanceof MessagingException) {
+				throw (MessagingException) e.getException();
+			}
+			throw new MessagingException(e);
+		} catch (IOException e) {
+			throw new MessagingException(e);
+		} catch (ParserConfigurationException e) {
+			throw new MessagingException(e);
+		}
+	}
+
+	/**
+	 * Returns an input source for streaming the given content,
+	 * or <code>null</code> if the content is already a DOM or can not be streamed.
+	 */
+	protected InputSource getInputSource(Source content) {
+		InputSource input = null;
+		if (content instanceof StreamSource) {
+			StreamSource ss = (StreamSource) content;
+			if (ss.getInputStream() != null) {
+				input = new InputSource(ss.getInputStream());
+			} else if (ss.getReader() != null) {
+				input = new InputSource(ss.getReader());
+			} else if (ss.getSystemId() != null) {
+				input = new InputSource(ss.getSystemId());
+			}
+			if (input != null) {
+				input.setSystemId(ss.getSystemId());
+			}
+		} else if (content instanceof SAXSource && ((SAXSource) content).getXMLReader() == null) {
+			input = ((SAXSource) content).getInputSource();
+		}
+		return input;
+	}
+
+	protected synchronized XMLReader createXMLReader() throws ParserConfigurationException, SAXException {
+		if (parserFactory == null) {
+			parserFactory = SAXParserFactory.newInstance();
+			parserFactory.setNamespaceAware(true);
+		}
+		return parserFactory.newSAXParser().getXMLReader();
+	}
+
+	protected XPathExpression getExpression() throws XPathExpressionException {
+		XPathExpression expr = expression;
+		if (expr == null) {
+			XPath xpath = XPathFactory.newInstance().newXPath();
+			expr = xpath.compile(nodePath);
+			expression = expr;
+		}
+		return expr;
 	}
 
 	/**
@@ -116,4 +249,141 @@ public class SplitterComponent extends TransformComponentSupport {
 		this.expression = null;
 	}
 
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Extract the records while parsing the message instead of building
+	 * the whole document.  Only used when the node path is a simple element path.
+	 * 
+	 * @param streaming
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Set the maximum number of parts which can be waiting for an
+	 * acknowledgement at the same time.  Parts are sent synchronously
+	 * when the window is 1 or when the incoming exchange is transacted.
+	 * 
+	 * @param window
+	 */
+	public void setWindow(int window) {
+		this.window = window;
+	}
+
+	public boolean isFailOnError() {
+		return failOnError;
+	}
+
+	/**
+	 * Fail the incoming exchange if some parts could not be delivered.
+	 * 
+	 * @param failOnError
+	 */
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+
+	/**
+	 * Sends the parts of a message and aggregates their acknowledgements,
+	 * keeping at most <code>window</code> parts in flight.
+	 */
+	protected class PartSender implements ExchangeCallback {
+
+		private final AtomicInteger sent = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final Semaphore permits;
+		private final int size;
+		private volatile Exception error;
+
+		public PartSender(MessageExchange exchange) throws MessagingException {
+			DeliveryChannel channel = getDeliveryChannel();
+			size = window > 1 && channel instanceof DeliveryChannelImpl && !exchange.isTransacted() ? window : 1;
+			permits = new Semaphore(size);
+		}
+
+		public void send(Source content) throws MessagingException {
+			InOnly outExchange = getExchangeFactory().createInOnlyExchange();
+			NormalizedMessage msg = outExchange.createMessage();
+			msg.setContent(content);
+			outExchange.setInMessage(msg);
+			sent.incrementAndGet();
+			if (size == 1) {
+				getDeliveryChannel().sendSync(outExchange);
+				acknowledged(outExchange);
+				return;
+			}
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				throw new MessagingException(e);
+			}
+			try {
+				((DeliveryChannelImpl) getDeliveryChannel()).sendAsync(outExchange, this);
+			} catch (MessagingException e) {
+				permits.release();
+				throw e;
+			} catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		/**
+		 * Wait until all the parts sent have been acknowledged
+		 */
+		public void await() throws MessagingException {
+			try {
+				waitForAcknowledgements();
+			} catch (InterruptedException e) {
+				throw new MessagingException(e);
+			}
+		}
+
+		/**
+		 * Wait until all the parts sent have been acknowledged, only
+		 * restoring the interrupted status of the thread if it is interrupted
+		 */
+		public void awaitQuietly() {
+			try {
+				waitForAcknowledgements();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void waitForAcknowledgements() throws InterruptedException {
+			if (size > 1) {
+				permits.acquire(size);
+				permits.release(size);
+			}
+		}
+
+		public void exchangeCompleted(MessageExchange exchange) {
+			acknowledged(exchange);
+			permits.release();
+		}
+
+		public void exchangeAborted(MessageExchange exchange) {
+			failed.incrementAndGet();
+			permits.release();
+		}
+
+		private void acknowledged(MessageExchange exchange) {
+			if (exchange.getStatus() == ExchangeStatus.ERROR) {
+				failed.incrementAndGet();
+				if (error == null) {
+					error = exchange.getError();
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.validation;
+
+import javax.jbi.messaging.MessagingException;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A {@link MessageAwareErrorHandler} which stops the validation at the first error.
+ * The error is recorded by the wrapped handler, then rethrown to abort the validation.
+ *
+ * @version $Revision$
+ */
+public class FailFastErrorHandler implements MessageAwareErrorHandler {
+
+    private final MessageAwareErrorHandler delegate;
+
+    public FailFastErrorHandler(MessageAwareErrorHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    public boolean hasErrors() {
+        return delegate.hasErrors();
+    }
+
+    public int getWarningCount() {
+        return delegate.getWarningCount();
+    }
+
+    public int getErrorCount() {
+        return delegate.getErrorCount();
+    }
+
+    public int getFatalErrorCount() {
+        return delegate.getFatalErrorCount();
+    }
+
+    public boolean capturesMessages() {
+        return delegate.capturesMessages();
+    }
+
+    public Object getMessagesAs(Class format) throws MessagingException {
+        return delegate.getMessagesAs(format);
+    }
+
+    public boolean supportsMessageFormat(Class format) {
+        return delegate.supportsMessageFormat(format);
+    }
+
+    public void warning(SAXParseException e) throws SAXException {
+        delegate.warning(e);
+    }
+
+    public void error(SAXParseException e) throws SAXException {
+        delegate.error(e);
+        throw e;
+    }
+
+    public void fatalError(SAXParseException e) throws SAXException {
+        delegate.fatalError(e);
+        throw e;
+    }
+
+}
@@ -18,10 +18,12 @@ package org.apache.servicemix.components.validation;
 
 import org.apache.servicemix.components.util.TransformComponentSupport;
 import org.apache.servicemix.jbi.FaultException;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.jbi.util.MessageUtil;
 import org.springframework.core.io.Resource;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.jbi.JBIException;
@@ -34,21 +36,34 @@ import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * This component performs a schema validation on the incoming document
  * and returning a fault if the document does not conform to the schema
  * otherwise the message is passed on its way.
  *
+ * Validators are reused across messages, up to <code>validatorPoolSize</code> idle ones.
+ * In <code>streaming</code> mode, the content is validated while being parsed and
+ * passed on untouched when valid, instead of being copied to a DOM first.
+ *
  * @version $Revision$
  */
 public class ValidateComponent extends TransformComponentSupport {
 
+    public static final int DEFAULT_VALIDATOR_POOL_SIZE = 16;
+
     private Schema schema;
     private String schemaLanguage = "http://www.w3.org/2001/XMLSchema";
     private Source schemaSource;
@@ -60,6 +75,11 @@ public class ValidateComponent extends TransformComponentSupport {
     
     private String handlingErrorMethod = "FAULT_JBI";
 
+    private int validatorPoolSize = DEFAULT_VALIDATOR_POOL_SIZE;
+    private BlockingQueue<Validator> validators;
+    private boolean streaming;
+    private boolean failFast;
+
     public Schema getSchema() {
         return schema;
     }
@@ -100,6 +120,45 @@ public class ValidateComponent extends TransformComponentSupport {
         this.errorHandlerFactory = errorHandlerFactory;
     }
 
+    public int getValidatorPoolSize() {
+        return validatorPoolSize;
+    }
+
+    /**
+     * @param validatorPoolSize the maximum number of idle validators kept for reuse,
+     *                          or 0 to create a new validator for each message
+     */
+    public void setValidatorPoolSize(int validatorPoolSize) {
+        this.validatorPoolSize = validatorPoolSize;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Validate the content while parsing it and pass it on untouched,
+     * rather than copying it to a DOM and sending the validation output.
+     * 
+     * @param streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Stop the validation at the first error instead of reporting all errors.
+     * 
+     * @param failFast
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
     protected void init() throws JBIException {
         super.init();
 
@@ -126,27 +185,54 @@ public class ValidateComponent extends TransformComponentSupport {
         catch (SAXException e) {
             throw new JBIException("Failed to load schema: " + e, e);
         }
+        if (validatorPoolSize > 0) {
+            validators = new ArrayBlockingQueue<Validator>(validatorPoolSize);
+        }
     }
 
     protected boolean transform(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws MessagingException {
-        Validator validator = schema.newValidator();
+        Validator validator = borrowValidator();
+        boolean reusable = false;
 
         // create a new errorHandler and set it on the validator
         MessageAwareErrorHandler errorHandler = errorHandlerFactory.createMessageAwareErrorHandler();
+        if (failFast) {
+            errorHandler = new FailFastErrorHandler(errorHandler);
+        }
         validator.setErrorHandler(errorHandler);
-        DOMResult result = new DOMResult();
+        DOMResult result = null;
+        Source content = null;
         
-        // Transform first so that the input source will be parsed only once
-        // if it is a StreamSource
-        getMessageTransformer().transform(exchange, in, out);
         try {
             SourceTransformer sourceTransformer = new SourceTransformer();
-            // Only DOMSource and SAXSource are allowed for validating
-            // See http://java.sun.com/j2se/1.5.0/docs/api/javax/xml/validation/Validator.html#validate(javax.xml.transform.Source,%20javax.xml.transform.Result)
-            // As we expect a DOMResult as output, we must ensure that the input is a 
-            // DOMSource
-            DOMSource src = sourceTransformer.toDOMSource(out.getContent());
-            doValidation(validator,src,result);
+            try {
+                if (streaming) {
+                    // The content is passed through unchanged, but not the properties
+                    // and attachments which the message transformer would have copied
+                    copyPropertiesAndAttachments(exchange, in, out);
+                    // Make sure the content can be read again once validated
+                    content = toReusableSource(in.getContent());
+                    doValidation(validator, content);
+                } else {
+                    // Transform first so that the input source will be parsed only once
+                    // if it is a StreamSource
+                    getMessageTransformer().transform(exchange, in, out);
+                    // Only DOMSource and SAXSource are allowed for validating
+                    // See http://java.sun.com/j2se/1.5.0/docs/api/javax/xml/validation/Validator.html#validate(javax.xml.transform.Source,%20javax.xml.transform.Result)
+                    // As we expect a DOMResult as output, we must ensure that the input is a 
+                    // DOMSource
+                    DOMSource src = sourceTransformer.toDOMSource(out.getContent());
+                    result = new DOMResult();
+                    doValidation(validator,src,result);
+                }
+            }
+            catch (SAXException e) {
+                // the validation has been aborted on the first error
+                if (!failFast || !errorHandler.hasErrors()) {
+                    throw e;
+                }
+            }
+            reusable = true;
             if (errorHandler.hasErrors()) {
                 Fault fault = exchange.createFault();
                 
@@ -190,7 +276,11 @@ public class ValidateComponent extends TransformComponentSupport {
                      * we can't do much here if the ErrorHandler implementation does
                      * not support capturing messages
                      */
-                    fault.setContent(new DOMSource(result.getNode(), result.getSystemId()));
+                    if (result != null) {
+                        fault.setContent(new DOMSource(result.getNode(), result.getSystemId()));
+                    } else {
+                        fault.setContent(content);
+                    }
                 }
                 if (!handlingErrorMethod.equalsIgnoreCase(FAULT_FLOW)) {
                 	// HANDLE AS JBI FAULT
@@ -200,12 +290,16 @@ public class ValidateComponent extends TransformComponentSupport {
                 	return true;
                 }
             }
-            else {
+            else if (result != null) {
                 // Retrieve the ouput of the validation
                 // as it may have been changed by the validator
                 out.setContent(new DOMSource(result.getNode(), result.getSystemId()));
                 return true;
-             }
+            }
+            else {
+                out.setContent(content);
+                return true;
+            }
         }
         catch (SAXException e) {
             throw new MessagingException(e);
@@ -219,12 +313,83 @@ public class ValidateComponent extends TransformComponentSupport {
         catch (TransformerException e) {
             throw new MessagingException(e);
         }
+        finally {
+            releaseValidator(validator, reusable);
+        }
     }
     
     protected void doValidation(Validator validator, DOMSource src, DOMResult result) throws SAXException, IOException {
         validator.validate(src,result);
     }
 
+    /**
+     * Validate the given content without producing any output
+     */
+    protected void doValidation(Validator validator, Source content) throws SAXException, IOException {
+        if (content instanceof StreamSource) {
+            StreamSource ss = (StreamSource) content;
+            InputSource input = ss.getReader() != null ? new InputSource(ss.getReader()) : new InputSource(ss.getInputStream());
+            input.setSystemId(ss.getSystemId());
+            validator.validate(new SAXSource(input));
+        } else {
+            validator.validate(content);
+        }
+    }
+
+    /**
+     * Returns a source which can be read again after the validation: byte and
+     * string sources are returned as is, other streams are buffered in memory.
+     */
+    protected Source toReusableSource(Source content) throws IOException, TransformerException {
+        if (content instanceof BytesSource || content instanceof StringSource
+            || content instanceof DOMSource || content == null) {
+            return content;
+        }
+        if (content instanceof StreamSource) {
+            StreamSource ss = (StreamSource) content;
+            if (ss.getInputStream() != null) {
+                InputStream is = ss.getInputStream();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] data = new byte[4096];
+                for (int n = is.read(data); n >= 0; n = is.read(data)) {
+                    buffer.write(data, 0, n);
+                }
+                is.close();
+                BytesSource bytes = new BytesSource(buffer.toByteArray());
+                bytes.setSystemId(ss.getSystemId());
+                return bytes;
+            } else if (ss.getReader() != null) {
+                Reader reader = ss.getReader();
+                StringWriter buffer = new StringWriter();
+                char[] data = new char[4096];
+                for (int n = reader.read(data); n >= 0; n = reader.read(data)) {
+                    buffer.write(data, 0, n);
+                }
+                reader.close();
+                StringSource string = new StringSource(buffer.toString());
+                string.setSystemId(ss.getSystemId());
+                return string;
+            }
+        }
+        return new SourceTransformer().toDOMSource(content);
+    }
+
+    protected Validator borrowValidator() {
+        Validator validator = validators != null ? validators.poll() : null;
+        return validator != null ? validator : schema.newValidator();
+    }
+
+    /**
+     * Give back a validator for reuse.  Validators which failed with an
+     * unexpected error are discarded.
+     */
+    protected void releaseValidator(Validator validator, boolean reusable) {
+        if (validators != null && reusable) {
+            validator.reset();
+            validators.offer(validator);
+        }
+    }
+
 	public String getHandlingErrorMethod() {
 		return handlingErrorMethod;
 	}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.xslt;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+
+import org.apache.servicemix.components.util.InstancePool;
+
+/**
+ * A bounded pool of {@link Transformer}s created from the same {@link Templates}.
+ * Transformers are reset when they are given back so that they can be reused
+ * by another thread, which saves creating a new one for each exchange.
+ *
+ * @version $Revision$
+ */
+public class TransformerPool extends InstancePool<Transformer> {
+
+    /**
+     * @param maxIdle the maximum number of idle transformers kept in the pool,
+     *                or 0 to disable pooling
+     */
+    public TransformerPool(int maxIdle) {
+        super(maxIdle, "Time taken by a transformation");
+    }
+
+    protected boolean prepareForReuse(Transformer transformer) {
+        try {
+            transformer.reset();
+            transformer.clearParameters();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+}
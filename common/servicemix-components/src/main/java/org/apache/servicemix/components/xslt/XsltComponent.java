@@ -23,6 +23,7 @@ import java.net.URL;
 import java.util.Iterator;
 import java.util.Map;
 
+import javax.jbi.JBIException;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
@@ -52,10 +53,30 @@ import org.w3c.dom.Node;
  * href="http://java.sun.com/xml/jaxp/">JAXP</a> to perform the XSLT
  * transformation.
  * 
+ * Transformers created from the stylesheet are kept in a bounded
+ * {@link TransformerPool} and reused across exchanges; the pool statistics
+ * are exposed through JMX.  Subclasses overriding
+ * {@link #createTransformer(MessageExchange, NormalizedMessage)} so that the
+ * transformer depends on the exchange must disable pooling with
+ * {@link #setPooled(boolean)}, as the transformer would lose its settings when reset.
+ * 
  * @version $Revision$
  */
 public class XsltComponent extends TransformComponentSupport implements MessageExchangeListener {
 
+    public static final int DEFAULT_TRANSFORMER_POOL_SIZE = 16;
+
+    /**
+     * Output buffers bigger than this are not kept for reuse
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteArrayOutputStream> OUTPUT_BUFFERS = new ThreadLocal<ByteArrayOutputStream>() {
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(1024);
+        }
+    };
+
     private TransformerFactory transformerFactory;
     private Source xsltSource;
     private Resource xsltResource;
@@ -64,6 +85,11 @@ public class XsltComponent extends TransformComponentSupport implements MessageE
     private boolean useStringBuffer = true;
     private boolean forceDocIfDom = true;
     private Map xsltParameters;
+    private int transformerPoolSize = DEFAULT_TRANSFORMER_POOL_SIZE;
+    private TransformerPool transformerPool;
+    private boolean pooled = true;
+    private boolean poolTransformers;
+    private DocumentBuilderFactory documentBuilderFactory;
 
     /**
      * @return the forceDocIfDom
@@ -143,20 +169,93 @@ public class XsltComponent extends TransformComponentSupport implements MessageE
         this.xsltParameters = xsltParameters;
     }
 
+    public int getTransformerPoolSize() {
+        return transformerPoolSize;
+    }
+
+    /**
+     * Must be set before the component is initialized.
+     *
+     * @param transformerPoolSize the maximum number of idle transformers kept for reuse,
+     *                            or 0 to create a new transformer for each exchange
+     */
+    public void setTransformerPoolSize(int transformerPoolSize) {
+        this.transformerPoolSize = transformerPoolSize;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * Must be set before the component is initialized.
+     *
+     * @param pooled whether the transformers created by
+     *               {@link #createTransformer(MessageExchange, NormalizedMessage)}
+     *               may be reused by other exchanges
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    public TransformerPool getTransformerPool() {
+        return transformerPool;
+    }
+
     // Implementation methods
     // -------------------------------------------------------------------------
+    protected void init() throws JBIException {
+        super.init();
+        transformerPool = new TransformerPool(transformerPoolSize);
+        poolTransformers = transformerPoolSize > 0 && pooled;
+        registerCustomMBean("transformerPool", transformerPool);
+    }
+
+    public void shutDown() throws JBIException {
+        if (transformerPool != null) {
+            transformerPool.clear();
+        }
+        super.shutDown();
+    }
+
     protected boolean transform(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out)
             throws MessagingException {
+        // the pool is only created when the component is initialized
+        TransformerPool pool = transformerPool;
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean reuse = false;
+        Transformer transformer = null;
         try {
-            Transformer transformer = createTransformer(exchange, in);
+            reuse = pool != null && poolTransformers && getXsltSource() != null;
+            if (reuse) {
+                transformer = pool.poll();
+            }
+            if (transformer == null) {
+                transformer = createTransformer(exchange, in);
+                if (reuse) {
+                    pool.instanceCreated();
+                }
+            }
             configureTransformer(transformer, exchange, in);
             copyPropertiesAndAttachments(exchange, in, out);
             transformContent(transformer, exchange, in, out);
-            return shouldOutputResult(transformer);
+            boolean answer = shouldOutputResult(transformer);
+            success = true;
+            return answer;
         }
         catch (Exception e) {
             throw new MessagingException("Failed to transform: " + e, e);
         }
+        finally {
+            if (pool != null) {
+                pool.instanceUsed(System.nanoTime() - start, success);
+            }
+            // a transformer which failed half way is not trusted for reuse
+            if (reuse && success) {
+                pool.release(transformer);
+            }
+        }
     }
 
     protected void transformContent(Transformer transformer, MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws TransformerException, MessagingException, ParserConfigurationException {
@@ -164,7 +263,7 @@ public class XsltComponent extends TransformComponentSupport implements MessageE
         if (forceDocIfDom && src instanceof DOMSource) {
             Node n = ((DOMSource) src).getNode();
             if (n instanceof Document == false) {
-                Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+                Document doc = createDocument();
                 doc.appendChild(doc.importNode(n, true));
                 src = new DOMSource(doc);
             }
@@ -176,11 +275,32 @@ public class XsltComponent extends TransformComponentSupport implements MessageE
             out.setContent(new StringSource(buffer.toString()));
         }
         else {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            // write into a per-thread buffer to avoid growing a new one each time
+            ByteArrayOutputStream buffer = OUTPUT_BUFFERS.get();
+            buffer.reset();
             Result result = new StreamResult(buffer);
-            transformer.transform(src, result);
-            out.setContent(new BytesSource(buffer.toByteArray()));
+            try {
+                transformer.transform(src, result);
+                out.setContent(new BytesSource(buffer.toByteArray()));
+            } finally {
+                if (buffer.size() > MAX_RETAINED_BUFFER_SIZE) {
+                    OUTPUT_BUFFERS.remove();
+                } else {
+                    buffer.reset();
+                }
+            }
+        }
+    }
+
+    protected Document createDocument() throws ParserConfigurationException {
+        DocumentBuilder builder;
+        synchronized (this) {
+            if (documentBuilderFactory == null) {
+                documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            }
+            builder = documentBuilderFactory.newDocumentBuilder();
         }
+        return builder.newDocument();
     }
 
     /**
@@ -215,8 +335,7 @@ public class XsltComponent extends TransformComponentSupport implements MessageE
         return builder.parse(res.getInputStream(), url != null ? url.toExternalForm() : null);
     }
 
-    
-    public Templates getTemplates() throws Exception {
+    public synchronized Templates getTemplates() throws Exception {
         if (templates == null) {
             templates = createTemplates();
         }
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.client.ServiceMixClient;
+import org.apache.servicemix.components.util.ComponentSupport;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+
+/**
+ * @version $Revision$
+ */
+public class CacheComponentTest extends TestCase {
+
+    private static final QName CACHE = new QName("http://servicemix.org/cheese/", "cache");
+    private static final QName SERVICE = new QName("http://servicemix.org/cheese/", "service");
+    private static final String KEY = "org.apache.servicemix.key";
+    private static final int NUM_REQUESTS = 10;
+
+    private JBIContainer container;
+    private SlowService service;
+    private CacheComponent cache;
+
+    protected void setUp() throws Exception {
+        container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+
+        service = new SlowService();
+        ActivationSpec as = new ActivationSpec("service", service);
+        as.setService(SERVICE);
+        container.activateComponent(as);
+
+        cache = new CacheComponent();
+        as = new ActivationSpec("cache", cache);
+        as.setService(CACHE);
+        as.setDestinationService(SERVICE);
+        container.activateComponent(as);
+    }
+
+    protected void tearDown() throws Exception {
+        container.shutDown();
+    }
+
+    public void testConcurrentMissesInvokeTheServiceOnce() throws Exception {
+        final ServiceMixClient client = new DefaultServiceMixClient(container);
+        final CountDownLatch done = new CountDownLatch(NUM_REQUESTS);
+        final String[] responses = new String[NUM_REQUESTS];
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            final int index = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        responses[index] = request(client, "123");
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue("Requests failed: " + errors, errors.isEmpty());
+
+        assertEquals(1, service.invocations.get());
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            assertEquals(responses[0], responses[i]);
+        }
+        ConcurrentCache concurrentCache = (ConcurrentCache) cache.getCache();
+        assertEquals(1, concurrentCache.getLoadCount());
+        assertEquals(1, concurrentCache.getSize());
+    }
+
+    public void testDifferentKeysAreLoadedSeparately() throws Exception {
+        ServiceMixClient client = new DefaultServiceMixClient(container);
+        String first = request(client, "123");
+        String second = request(client, "456");
+        assertEquals(first, request(client, "123"));
+        assertFalse(first.equals(second));
+        assertEquals(2, service.invocations.get());
+    }
+
+    private String request(ServiceMixClient client, String key) throws Exception {
+        InOut me = client.createInOutExchange();
+        me.setService(CACHE);
+        me.getInMessage().setProperty(KEY, key);
+        me.getInMessage().setContent(new StringSource("<request id='" + key + "'/>"));
+        client.sendSync(me);
+        assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+        String response = new SourceTransformer().toString(me.getOutMessage().getContent());
+        client.done(me);
+        return response;
+    }
+
+    /**
+     * A service which takes some time to answer, and counts its invocations
+     */
+    public static class SlowService extends ComponentSupport implements MessageExchangeListener {
+
+        private final AtomicInteger invocations = new AtomicInteger();
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
+                return;
+            }
+            int count = invocations.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            NormalizedMessage out = exchange.createMessage();
+            out.setContent(new StringSource("<response counter='" + count + "'/>"));
+            answer(exchange, out);
+        }
+    }
+
+}
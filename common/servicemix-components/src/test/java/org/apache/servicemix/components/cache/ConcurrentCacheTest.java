@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class ConcurrentCacheTest extends TestCase {
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        ConcurrentCache cache = new ConcurrentCache(1);
+        cache.setMaxEntries(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testEvictsByWeight() throws Exception {
+        ConcurrentCache cache = new ConcurrentCache(1);
+        cache.setMaxEntries(0);
+        cache.setMaxWeight(3);
+        for (int i = 0; i < 10; i++) {
+            cache.put(Integer.valueOf(i), "value");
+        }
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getWeight());
+    }
+
+    public void testTimeToLive() throws Exception {
+        ConcurrentCache cache = new ConcurrentCache();
+        cache.put("a", "1", 1);
+        cache.put("b", "2", 0);
+        Thread.sleep(20);
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final ConcurrentCache cache = new ConcurrentCache();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable loader = new Callable() {
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                loading.countDown();
+                release.await();
+                return "value";
+            }
+        };
+        final Object[] results = new Object[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = cache.get("key", loader);
+                    } catch (Exception e) {
+                        results[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+            if (i == 0) {
+                loading.await();
+            }
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals("value", results[i]);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getLoadCount());
+        // the load lasted until the other threads were released
+        assertTrue(((Double) cache.getLoadTimePercentiles().get("p99")).doubleValue() >= 40);
+        assertEquals(cache.getMaxLoadTime(), cache.getAverageLoadTime(), 0.001);
+        assertEquals("value", cache.get("key"));
+    }
+
+    public void testFailedLoadIsNotCached() throws Exception {
+        ConcurrentCache cache = new ConcurrentCache();
+        try {
+            cache.get("key", new Callable() {
+                public Object call() throws Exception {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(cache.containsKey("key"));
+        assertEquals("value", cache.get("key", new Callable() {
+            public Object call() throws Exception {
+                return "value";
+            }
+        }));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.util.FileUtil;
+import org.apache.servicemix.tck.TestSupport;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.apache.xbean.spring.context.ClassPathXmlApplicationContext;
+
+/**
+ * @version $Revision$
+ */
+public class FileBatchTest extends TestSupport {
+
+    protected void setUp() throws Exception {
+        FileUtil.deleteFile(new File("target/test-data/file-batch"));
+        super.setUp();
+    }
+
+    public void testSendFilesInBatches() throws Exception {
+        QName service = new QName("http://servicemix.org/cheese/", "fileSender");
+        sendMessages(service, messageCount);
+
+        // the number of batches depends on how the files are spread over
+        // the polls, so only check that each file has been received once
+        SourceTransformer transformer = new SourceTransformer();
+        Set names = new HashSet();
+        int files = 0;
+        int batches = 0;
+        long timeout = System.currentTimeMillis() + 20000;
+        while (files < messageCount && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+            List messages = receiver.getMessageList().getMessages();
+            for (; batches < messages.size(); batches++) {
+                NormalizedMessage message = (NormalizedMessage) messages.get(batches);
+                Integer size = (Integer) message.getProperty(FilePoller.BATCH_SIZE_PROPERTY);
+                assertNotNull("Message should be a batch", size);
+                assertTrue(size.intValue() <= 5);
+                Document batch = transformer.toDOMDocument(message);
+                NodeList nodes = batch.getDocumentElement().getElementsByTagName(FilePoller.BATCH_FILE_ELEMENT);
+                assertEquals(size.intValue(), nodes.getLength());
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    String name = ((Element) nodes.item(i)).getAttribute("name");
+                    assertTrue("File received twice: " + name, names.add(name));
+                }
+                files += size.intValue();
+            }
+        }
+        assertEquals(messageCount, files);
+        assertEquals(messageCount, names.size());
+    }
+
+    public void testFilesPolledAgainWhenBatchFailsEarly() throws Exception {
+        FilePoller poller = new FilePoller() {
+            protected void processBatch(List files, List batched, List rejected) throws Exception {
+                throw new Exception("Could not create the batch exchange");
+            }
+        };
+        List files = Arrays.asList(new File[] {new File("a.xml"), new File("b.xml") });
+        List failed = new ArrayList();
+        poller.processBatchAndDelete(files, failed);
+        assertEquals(files, failed);
+    }
+
+    protected AbstractXmlApplicationContext createBeanFactory() {
+        return new ClassPathXmlApplicationContext("org/apache/servicemix/components/file/batch-example.xml");
+    }
+
+}
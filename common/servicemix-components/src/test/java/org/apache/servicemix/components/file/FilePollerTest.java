@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.file;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.util.FileUtil;
+
+/**
+ * Drives {@link FilePoller#poll()} directly to check how files are scheduled.
+ *
+ * @version $Revision$
+ */
+public class FilePollerTest extends TestCase {
+
+    private static final long TIMEOUT = 10000;
+
+    private JBIContainer container;
+    private File directory;
+    private RecordingFilePoller poller;
+
+    protected void setUp() throws Exception {
+        directory = new File("target/test-data/file-poller");
+        FileUtil.deleteFile(directory);
+        directory.mkdirs();
+        container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        poller = new RecordingFilePoller();
+        poller.setFile(directory);
+        // polls are triggered by the tests
+        poller.setDelay(60 * 60 * 1000);
+    }
+
+    protected void tearDown() throws Exception {
+        poller.unblock();
+        container.shutDown();
+    }
+
+    public void testMaxInFlightDefersFiles() throws Exception {
+        poller.setMaxInFlight(1);
+        poller.block();
+        activate();
+        createFile("a.xml");
+        createFile("b.xml");
+        createFile("c.xml");
+
+        poller.poll();
+        assertTrue(poller.waitForAttempts(1));
+        // the other files have been left for a later poll
+        assertEquals(1, poller.getWorkingSet().size());
+        poller.poll();
+        assertEquals(1, poller.getWorkingSet().size());
+
+        poller.unblock();
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (directory.list().length > 0 && System.currentTimeMillis() < timeout) {
+            poller.poll();
+            Thread.sleep(50);
+        }
+        assertEquals(0, directory.list().length);
+        assertEquals(3, poller.processed.size());
+        assertEquals(1, poller.maxConcurrent.get());
+    }
+
+    public void testIncrementalScanSkipsUnmodifiedDirectories() throws Exception {
+        poller.setIncrementalScan(true);
+        activate();
+        long modified = System.currentTimeMillis() - 60000;
+        directory.setLastModified(modified);
+        poller.poll();
+
+        // the directory looks unmodified, so the new file is not seen
+        createFile("a.xml");
+        directory.setLastModified(modified);
+        poller.poll();
+        Thread.sleep(200);
+        assertEquals(0, poller.attempts.get());
+
+        // once the directory has been modified, it is listed again
+        directory.setLastModified(modified + 10000);
+        poller.poll();
+        assertTrue(poller.waitForAttempts(1));
+        assertTrue(poller.waitForIdle());
+        assertEquals(1, poller.processed.size());
+    }
+
+    public void testIncrementalScanRelistsFailedFiles() throws Exception {
+        poller.setIncrementalScan(true);
+        poller.failures.set(1);
+        activate();
+        createFile("a.xml");
+        long modified = System.currentTimeMillis() - 60000;
+        directory.setLastModified(modified);
+
+        poller.poll();
+        assertTrue(poller.waitForAttempts(1));
+        assertTrue(poller.waitForIdle());
+        assertEquals(0, poller.processed.size());
+
+        // the file is still there and the directory has not been modified,
+        // but the failed file must be picked up again
+        directory.setLastModified(modified);
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (poller.processed.isEmpty() && System.currentTimeMillis() < timeout) {
+            poller.poll();
+            Thread.sleep(50);
+        }
+        assertEquals(1, poller.processed.size());
+    }
+
+    protected void activate() throws Exception {
+        container.activateComponent(new ActivationSpec("poller", poller));
+    }
+
+    protected void createFile(String name) throws IOException {
+        FileWriter writer = new FileWriter(new File(directory, name));
+        writer.write("<hello/>");
+        writer.close();
+    }
+
+    /**
+     * A poller recording the files it processes instead of sending them.
+     */
+    public static class RecordingFilePoller extends FilePoller {
+        private final List processed = new CopyOnWriteArrayList();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private volatile CountDownLatch latch;
+
+        public void block() {
+            latch = new CountDownLatch(1);
+        }
+
+        public void unblock() {
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+
+        public boolean waitForAttempts(int count) throws InterruptedException {
+            long timeout = System.currentTimeMillis() + TIMEOUT;
+            while (attempts.get() < count && System.currentTimeMillis() < timeout) {
+                Thread.sleep(20);
+            }
+            return attempts.get() >= count;
+        }
+
+        public boolean waitForIdle() throws InterruptedException {
+            long timeout = System.currentTimeMillis() + TIMEOUT;
+            while (!getWorkingSet().isEmpty() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(20);
+            }
+            return getWorkingSet().isEmpty();
+        }
+
+        protected void processFile(File aFile) throws Exception {
+            int current = concurrent.incrementAndGet();
+            try {
+                synchronized (maxConcurrent) {
+                    if (current > maxConcurrent.get()) {
+                        maxConcurrent.set(current);
+                    }
+                }
+                attempts.incrementAndGet();
+                CountDownLatch l = latch;
+                if (l != null) {
+                    l.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("Simulated failure for " + aFile);
+                }
+                processed.add(aFile);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+
+}
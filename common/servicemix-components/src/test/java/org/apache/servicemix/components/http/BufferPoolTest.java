@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class BufferPoolTest extends TestCase {
+
+    public void testReadFullyReusesBuffers() throws Exception {
+        BufferPool pool = new BufferPool(2, 16, 1024);
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        byte[] read = pool.readFully(new ByteArrayInputStream(data));
+        assertEquals(data.length, read.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], read[i]);
+        }
+        ByteArrayOutputStream buffer = pool.acquire();
+        assertEquals(0, buffer.size());
+        assertNotSame(buffer, pool.acquire());
+    }
+
+    public void testLargeBuffersAreNotRetained() throws Exception {
+        BufferPool pool = new BufferPool(2, 16, 10);
+        ByteArrayOutputStream buffer = pool.acquire();
+        buffer.write(new byte[20]);
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire());
+        ByteArrayOutputStream small = pool.acquire();
+        small.write(new byte[5]);
+        pool.release(small);
+        assertSame(small, pool.acquire());
+    }
+
+    public void testChunksAreReused() throws Exception {
+        BufferPool pool = new BufferPool(2, 16, 1024);
+        byte[] chunk = pool.acquireChunk();
+        assertEquals(16, chunk.length);
+        pool.releaseChunk(chunk);
+        assertSame(chunk, pool.acquireChunk());
+        pool.releaseChunk(new byte[8]);
+        assertEquals(16, pool.acquireChunk().length);
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.transform.Source;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.messaging.NormalizedMessageImpl;
+
+/**
+ * @version $Revision$
+ */
+public class HttpClientMarshalerTest extends TestCase {
+
+    private static final String XML = "<hello>world</hello>";
+
+    private SourceTransformer transformer = new SourceTransformer();
+
+    public void testBytesAreSentAsIs() throws Exception {
+        byte[] data = XML.getBytes("UTF-8");
+        RequestEntity entity = fromNMS(new HttpClientMarshaler(), new BytesSource(data));
+        assertTrue(entity instanceof SourceRequestEntity);
+        assertEquals(data.length, entity.getContentLength());
+        assertEquals(XML, write(entity));
+    }
+
+    public void testStringEntityWithoutStreaming() throws Exception {
+        RequestEntity entity = fromNMS(new HttpClientMarshaler(), new StringSource(XML));
+        assertTrue(entity instanceof StringRequestEntity);
+        assertTrue(entity.getContentLength() > 0);
+    }
+
+    public void testStreamingWritesSourceDirectly() throws Exception {
+        RequestEntity entity = fromNMS(new HttpClientMarshaler(true), new StringSource(XML));
+        assertTrue(entity instanceof SourceRequestEntity);
+        assertEquals(-1, entity.getContentLength());
+        String written = write(entity);
+        assertTrue(written, written.endsWith(XML));
+    }
+
+    public void testContentTypeHeader() throws Exception {
+        HttpClientMarshaler marshaler = new HttpClientMarshaler();
+        marshaler.setContentType("application/soap+xml");
+        PostMethod method = new PostMethod("http://localhost/");
+        NormalizedMessage msg = new NormalizedMessageImpl();
+        msg.setContent(new StringSource(XML));
+        msg.setProperty("SOAPAction", "urn:action");
+        marshaler.fromNMS(method, null, msg);
+        assertEquals("application/soap+xml", method.getRequestHeader("Content-Type").getValue());
+        assertEquals("urn:action", method.getRequestHeader("SOAPAction").getValue());
+    }
+
+    public void testResponseIsBuffered() throws Exception {
+        final ClosingStream body = new ClosingStream(XML.getBytes("UTF-8"));
+        PostMethod method = new PostMethod("http://localhost/") {
+            public InputStream getResponseBodyAsStream() {
+                return body;
+            }
+            public Header[] getResponseHeaders() {
+                return new Header[] {new Header("X-Test", "value")};
+            }
+        };
+        NormalizedMessage msg = new NormalizedMessageImpl();
+        new HttpClientMarshaler().toNMS(msg, method);
+
+        assertTrue(body.closed);
+        assertEquals("value", msg.getProperty("X-Test"));
+        Source content = msg.getContent();
+        assertTrue(content instanceof BytesSource);
+        // the content can be read after the connection has been released, and more than once
+        assertEquals(transformer.toString(content), transformer.toString(content));
+        assertTrue(transformer.toString(content).endsWith(XML));
+    }
+
+    public void testEmptyResponse() throws Exception {
+        PostMethod method = new PostMethod("http://localhost/") {
+            public InputStream getResponseBodyAsStream() {
+                return null;
+            }
+            public Header[] getResponseHeaders() {
+                return new Header[0];
+            }
+        };
+        NormalizedMessage msg = new NormalizedMessageImpl();
+        new HttpClientMarshaler().toNMS(msg, method);
+        assertEquals(0, ((BytesSource) msg.getContent()).getData().length);
+    }
+
+    private RequestEntity fromNMS(HttpClientMarshaler marshaler, Source content) throws Exception {
+        PostMethod method = new PostMethod("http://localhost/");
+        NormalizedMessage msg = new NormalizedMessageImpl();
+        msg.setContent(content);
+        marshaler.fromNMS(method, null, msg);
+        return method.getRequestEntity();
+    }
+
+    private String write(RequestEntity entity) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        return out.toString("UTF-8");
+    }
+
+    private static class ClosingStream extends ByteArrayInputStream {
+        private boolean closed;
+
+        ClosingStream(byte[] data) {
+            super(data);
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOut;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the throughput of the {@link HttpInvoker} against a local HTTP stand-in
+ * answering after a fixed delay, with different connection pool sizes.
+ *
+ * @version $Revision$
+ */
+public class HttpInvokerPoolTest extends TestCase {
+
+    private static transient Logger logger = LoggerFactory.getLogger(HttpInvokerPoolTest.class);
+
+    private static final int THREADS = 10;
+    private static final int REQUESTS_PER_THREAD = 20;
+    private static final long SERVER_DELAY = 10;
+
+    private JBIContainer jbi;
+    private StandInServer server;
+    private HttpInvoker invoker;
+
+    protected void setUp() throws Exception {
+        server = new StandInServer();
+        server.start();
+
+        jbi = new JBIContainer();
+        jbi.setEmbedded(true);
+        jbi.init();
+        jbi.start();
+    }
+
+    protected void tearDown() throws Exception {
+        jbi.shutDown();
+        server.shutdown();
+    }
+
+    public void testDefaultPool() throws Exception {
+        long time = runBenchmark("default", 2);
+        logger.info("2 connections per host: {} requests in {} ms", THREADS * REQUESTS_PER_THREAD, time);
+        assertTrue(invoker.getConnectionManager().getPeakConnectionsInUse() <= 2);
+        assertTrue(server.getConnectionCount() <= 2);
+    }
+
+    public void testLargerPool() throws Exception {
+        long smallTime = runBenchmark("small", 2);
+        InstrumentedConnectionManager small = invoker.getConnectionManager();
+        long largeTime = runBenchmark("large", THREADS);
+        InstrumentedConnectionManager large = invoker.getConnectionManager();
+        logger.info("{} requests in {} ms with 2 connections per host, {} ms with {}",
+                    new Object[] {THREADS * REQUESTS_PER_THREAD, smallTime, largeTime, THREADS });
+        assertTrue(large.getPeakConnectionsInUse() <= THREADS);
+        assertTrue(server.getConnectionCount() <= 2 + THREADS);
+        // with 2 connections, requests queue up behind the server delay
+        assertTrue("small pool never made a request wait", small.getMaxWaitTime() > 0);
+        assertTrue("large pool peaked at " + large.getPeakConnectionsInUse() + " connections",
+                   large.getPeakConnectionsInUse() > 2);
+    }
+
+    protected long runBenchmark(String name, int maxConnectionsPerHost) throws Exception {
+        final QName service = new QName("urn:http", name);
+        invoker = new HttpInvoker();
+        invoker.setService(service);
+        invoker.setEndpoint("endpoint");
+        invoker.setUrl("http://localhost:" + server.getPort() + "/");
+        invoker.setMaxConnectionsPerHost(maxConnectionsPerHost);
+        invoker.setMaxTotalConnections(maxConnectionsPerHost);
+        invoker.setSoTimeout(10000);
+        jbi.activateComponent(invoker, name);
+
+        final DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicInteger failures = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                            InOut me = client.createInOutExchange();
+                            me.setService(service);
+                            me.getInMessage().setContent(new StringSource("<request/>"));
+                            client.sendSync(me);
+                            if (me.getStatus() == ExchangeStatus.ERROR || me.getOutMessage() == null) {
+                                failures.incrementAndGet();
+                            } else {
+                                client.done(me);
+                            }
+                        }
+                    } catch (Exception e) {
+                        logger.error("Request failed", e);
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue("Requests did not complete in time", done.await(60, TimeUnit.SECONDS));
+        long time = System.currentTimeMillis() - start;
+        InstrumentedConnectionManager manager = invoker.getConnectionManager();
+        logger.info("Average wait for a connection: {} ms, p99: {} ms, max: {} ms",
+                    new Object[] {manager.getAverageWaitTime(), manager.getWaitTimePercentiles().get("p99"), manager.getMaxWaitTime()});
+        assertEquals(0, failures.get());
+        assertEquals(THREADS * REQUESTS_PER_THREAD, manager.getAcquiredCount());
+        assertEquals(0, manager.getConnectionsInUse());
+        return time;
+    }
+
+    /**
+     * A minimal HTTP/1.1 server keeping connections alive and
+     * answering each request after a fixed delay.
+     */
+    protected static class StandInServer extends Thread {
+        private final ServerSocket serverSocket;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        public StandInServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        public int getConnectionCount() {
+            return connections.get();
+        }
+
+        public void shutdown() throws IOException {
+            serverSocket.close();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread handler = new Thread() {
+                        public void run() {
+                            handle(socket);
+                        }
+                    };
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+
+        protected void handle(Socket socket) {
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                byte[] body = "<response/>".getBytes("UTF-8");
+                while (true) {
+                    int length = readHeaders(in);
+                    if (length < 0) {
+                        break;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        in.read();
+                    }
+                    Thread.sleep(SERVER_DELAY);
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/xml\r\nContent-Length: "
+                               + body.length + "\r\n\r\n").getBytes("UTF-8"));
+                    out.write(body);
+                    out.flush();
+                }
+                socket.close();
+            } catch (Exception e) {
+                // connection closed
+            }
+        }
+
+        /**
+         * Read the request headers and return the content length, or -1 at the end of the stream
+         */
+        private int readHeaders(InputStream in) throws IOException {
+            int length = 0;
+            StringBuffer line = new StringBuffer();
+            boolean empty = true;
+            for (int c = in.read(); c >= 0; c = in.read()) {
+                if (c == '\n') {
+                    if (line.length() == 0) {
+                        return empty ? -1 : length;
+                    }
+                    String header = line.toString().toLowerCase();
+                    if (header.startsWith("content-length:")) {
+                        length = Integer.parseInt(header.substring(15).trim());
+                    }
+                    line.setLength(0);
+                    empty = false;
+                } else if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return -1;
+        }
+    }
+
+}
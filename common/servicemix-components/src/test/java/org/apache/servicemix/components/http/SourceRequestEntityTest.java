@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.jbi.jaxp.BytesSource;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+
+/**
+ * @version $Revision$
+ */
+public class SourceRequestEntityTest extends TestCase {
+
+    private static final String XML = "<hello>world</hello>";
+
+    private SourceTransformer transformer = new SourceTransformer();
+
+    public void testBytesSource() throws Exception {
+        byte[] data = XML.getBytes("UTF-8");
+        SourceRequestEntity entity = new SourceRequestEntity(new BytesSource(data), transformer, "text/xml");
+        assertEquals(data.length, entity.getContentLength());
+        assertEquals("text/xml", entity.getContentType());
+        assertTrue(entity.isRepeatable());
+        assertEquals(XML, write(entity));
+        assertEquals(XML, write(entity));
+    }
+
+    public void testStreamSource() throws Exception {
+        // bigger than a pooled chunk
+        StringBuffer sb = new StringBuffer("<hello>");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<item>").append(i).append("</item>");
+        }
+        String xml = sb.append("</hello>").toString();
+        StreamSource source = new StreamSource(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        SourceRequestEntity entity = new SourceRequestEntity(source, transformer, null);
+        assertEquals(-1, entity.getContentLength());
+        assertFalse(entity.isRepeatable());
+        assertEquals(xml, write(entity));
+    }
+
+    public void testStreamSourceUsesGivenPool() throws Exception {
+        final AtomicInteger acquired = new AtomicInteger();
+        BufferPool pool = new BufferPool(1, 64, 1024) {
+            public byte[] acquireChunk() {
+                acquired.incrementAndGet();
+                return super.acquireChunk();
+            }
+        };
+        StreamSource source = new StreamSource(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        SourceRequestEntity entity = new SourceRequestEntity(source, transformer, null, pool);
+        assertEquals(XML, write(entity));
+        assertEquals(1, acquired.get());
+    }
+
+    public void testOtherSourcesAreSerialized() throws Exception {
+        SourceRequestEntity entity = new SourceRequestEntity(new StringSource(XML), transformer, null);
+        assertEquals(-1, entity.getContentLength());
+        assertTrue(entity.isRepeatable());
+        String written = write(entity);
+        assertTrue(written, written.endsWith(XML));
+
+        entity = new SourceRequestEntity(transformer.toDOMSource(new StringSource(XML)), transformer, null);
+        written = write(entity);
+        assertTrue(written, written.endsWith(XML));
+    }
+
+    private String write(SourceRequestEntity entity) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        return out.toString("UTF-8");
+    }
+
+}
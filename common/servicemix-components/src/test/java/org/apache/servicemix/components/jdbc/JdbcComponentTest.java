@@ -81,4 +81,88 @@ public class JdbcComponentTest extends TestCase {
 		assertTrue(out.contains("Two"));
 	}
 
+	public void testPreparedStatementCache() throws Exception {
+		Connection con = dataSource.getConnection("sa", "");
+		Statement st = con.createStatement();
+		st.execute("create table MyParamTable (id varchar(80) not null, name varchar(80))");
+		st.execute("insert into MyParamTable values ('1', 'One')");
+		st.execute("insert into MyParamTable values ('2', 'Two')");
+		jdbc.setStatementCacheSize(10);
+
+		DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+		for (int i = 0; i < 3; i++) {
+			InOut me = client.createInOutExchange();
+			me.setService(new QName("urn:jdbc", "service"));
+			me.getInMessage().setContent(new StringSource("<sql>select * from MyParamTable where id = ?<param>2</param></sql>"));
+			client.sendSync(me);
+			String out = new SourceTransformer().contentToString(me.getOutMessage());
+			logger.info(out);
+			assertTrue(out.contains("Two"));
+			assertFalse(out.contains("One"));
+			client.done(me);
+		}
+		// the same connection is reused, along with its statement
+		assertEquals(1, jdbc.getStatementCacheMisses());
+		assertEquals(2, jdbc.getStatementCacheHits());
+	}
+
+	public void testStreaming() throws Exception {
+		Connection con = dataSource.getConnection("sa", "");
+		Statement st = con.createStatement();
+		st.execute("create table MyStreamTable (id varchar(80) not null, name varchar(80))");
+		for (int i = 0; i < 500; i++) {
+			st.execute("insert into MyStreamTable values ('" + i + "', 'Name''" + i + "')");
+		}
+		jdbc.setStreaming(true);
+		jdbc.setFetchSize(50);
+
+		DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+		InOut me = client.createInOutExchange();
+		me.setService(new QName("urn:jdbc", "service"));
+		me.getInMessage().setContent(new StringSource("<sql>select * from MyStreamTable</sql>"));
+		client.sendSync(me);
+		String out = new SourceTransformer().contentToString(me.getOutMessage());
+		assertEquals(500, out.split("<row").length - 1);
+		assertTrue(out.contains("499"));
+		client.done(me);
+		assertEquals(0, jdbc.getOpenStreamCount());
+	}
+
+	public void testUnreadStreamIsReleased() throws Exception {
+		Connection con = dataSource.getConnection("sa", "");
+		Statement st = con.createStatement();
+		st.execute("create table MyUnreadTable (id varchar(80) not null, name varchar(80))");
+		for (int i = 0; i < 500; i++) {
+			st.execute("insert into MyUnreadTable values ('" + i + "', 'Name" + i + "')");
+		}
+		jdbc.setStreaming(true);
+		jdbc.setFetchSize(50);
+
+		DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+		InOut me = client.createInOutExchange();
+		me.setService(new QName("urn:jdbc", "service"));
+		me.getInMessage().setContent(new StringSource("<sql>select * from MyUnreadTable</sql>"));
+		client.sendSync(me);
+		assertEquals(1, jdbc.getOpenStreamCount());
+		// the reply is dropped without being read
+		client.fail(me, new Exception("Reply dropped"));
+		waitForOpenStreams(0);
+
+		me = client.createInOutExchange();
+		me.setService(new QName("urn:jdbc", "service"));
+		me.getInMessage().setContent(new StringSource("<sql>select * from MyUnreadTable</sql>"));
+		client.sendSync(me);
+		assertEquals(1, jdbc.getOpenStreamCount());
+		client.done(me);
+		waitForOpenStreams(0);
+	}
+
+	protected void waitForOpenStreams(int count) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (jdbc.getOpenStreamCount() != count && System.currentTimeMillis() < timeout) {
+			Thread.sleep(50);
+		}
+		assertEquals(count, jdbc.getOpenStreamCount());
+	}
+
 }
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.jms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.Fault;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.components.util.ComponentSupport;
+import org.apache.servicemix.components.util.TransformComponentSupport;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * @version $Revision$
+ */
+public class JmsServiceFlowControlTest extends TestCase {
+
+    private static final int MESSAGES = 20;
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private JBIContainer jbi;
+    private ActiveMQConnectionFactory connectionFactory;
+    private Connection connection;
+    private SlowComponent provider;
+    private JmsServiceComponent service;
+
+    protected void setUp() throws Exception {
+        connectionFactory = new ActiveMQConnectionFactory("vm://flowcontrol?broker.persistent=false");
+        connectionFactory.getRedeliveryPolicy().setInitialRedeliveryDelay(0);
+        // spread the requests over all the sessions
+        connectionFactory.getPrefetchPolicy().setQueuePrefetch(1);
+        connection = connectionFactory.createConnection();
+        connection.start();
+
+        jbi = new JBIContainer();
+        jbi.setEmbedded(true);
+        jbi.init();
+        jbi.start();
+    }
+
+    protected void tearDown() throws Exception {
+        jbi.shutDown();
+        connection.close();
+    }
+
+    protected void activateComponents(int failedAttempts) throws Exception {
+        provider = new SlowComponent(failedAttempts);
+        activateComponents(provider, 3);
+    }
+
+    protected void activateComponents(ComponentSupport providerComponent, int concurrentConsumers) throws Exception {
+        ActivationSpec providerSpec = new ActivationSpec("provider", providerComponent);
+        providerSpec.setService(new QName("urn:test", "provider"));
+        jbi.activateComponent(providerSpec);
+
+        JmsTemplate template = new JmsTemplate(connectionFactory);
+        template.setDefaultDestinationName("flowcontrol.requests");
+        service = new JmsServiceComponent();
+        service.setTemplate(template);
+        service.setMaxInFlight(MAX_IN_FLIGHT);
+        service.setMaxRedeliveries(2);
+        service.setConcurrentConsumers(concurrentConsumers);
+        ActivationSpec serviceSpec = new ActivationSpec("jmsService", service);
+        serviceSpec.setService(new QName("urn:test", "jmsService"));
+        serviceSpec.setDestinationService(new QName("urn:test", "provider"));
+        jbi.activateComponent(serviceSpec);
+    }
+
+    public void testInFlightExchangesAreLimited() throws Exception {
+        activateComponents(0);
+        sendAndReceive();
+
+        ConsumerFlowControl flowControl = service.getFlowControl();
+        assertTrue(provider.getPeak() <= MAX_IN_FLIGHT);
+        assertTrue(flowControl.getPeakInFlightCount() <= MAX_IN_FLIGHT);
+        assertEquals(MESSAGES, flowControl.getReceivedCount());
+        assertTrue(flowControl.getWaitCount() > 0);
+        assertTrue(((Double) flowControl.getWaitTimePercentiles().get("p99")).doubleValue() > 0);
+
+        // messages are acknowledged just after their reply has been sent
+        Thread.sleep(500);
+        assertEquals(MESSAGES, flowControl.getAcknowledgedCount());
+        assertEquals(0, flowControl.getInFlightCount());
+        assertEquals(0, flowControl.getRecoveredCount());
+    }
+
+    public void testFailedExchangesAreRedelivered() throws Exception {
+        activateComponents(1);
+        sendAndReceive();
+
+        // each message failed once, was left unacknowledged and then redelivered
+        ConsumerFlowControl flowControl = service.getFlowControl();
+        assertEquals(MESSAGES, provider.getFailures());
+        assertEquals(MESSAGES, flowControl.getRecoveredCount());
+        Thread.sleep(500);
+        assertEquals(MESSAGES, flowControl.getAcknowledgedCount());
+        assertEquals(2 * MESSAGES, flowControl.getReceivedCount());
+
+        // nothing is left on the request queue
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumer = session.createConsumer(session.createQueue("flowcontrol.requests"));
+        jbi.deactivateComponent("jmsService");
+        assertNull(consumer.receive(500));
+    }
+
+    public void testSessionsFollowMaxInFlight() throws Exception {
+        provider = new SlowComponent(0);
+        activateComponents(provider, 1);
+        sendAndReceive();
+
+        // a single consumer would process the messages one at a time
+        assertEquals(MAX_IN_FLIGHT, service.getFlowControl().getPeakInFlightCount());
+    }
+
+    public void testFaultIsSentBack() throws Exception {
+        activateComponents(new FaultComponent(), 1);
+        for (Message reply : sendAndReceive()) {
+            assertTrue(((TextMessage) reply).getText().indexOf("<fault/>") >= 0);
+        }
+
+        ConsumerFlowControl flowControl = service.getFlowControl();
+        Thread.sleep(500);
+        assertEquals(MESSAGES, flowControl.getAcknowledgedCount());
+        assertEquals(0, flowControl.getRecoveredCount());
+    }
+
+    public void testRedeliveriesAreLimited() throws Exception {
+        activateComponents(Integer.MAX_VALUE);
+        send();
+
+        ConsumerFlowControl flowControl = service.getFlowControl();
+        for (int i = 0; i < 100 && flowControl.getDiscardedCount() < MESSAGES; i++) {
+            Thread.sleep(100);
+        }
+        // each message is delivered once and redelivered twice before being discarded
+        assertEquals(MESSAGES, flowControl.getDiscardedCount());
+        assertEquals(3 * MESSAGES, provider.getFailures());
+        assertEquals(3 * MESSAGES, flowControl.getRecoveredCount());
+
+        // nothing is left on the request queue
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumer = session.createConsumer(session.createQueue("flowcontrol.requests"));
+        jbi.deactivateComponent("jmsService");
+        assertNull(consumer.receive(500));
+    }
+
+    protected void send() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Queue requests = session.createQueue("flowcontrol.requests");
+        Queue replies = session.createQueue("flowcontrol.replies");
+        MessageProducer producer = session.createProducer(requests);
+        for (int i = 0; i < MESSAGES; i++) {
+            TextMessage message = session.createTextMessage("<request id='" + i + "'/>");
+            message.setIntProperty("id", i);
+            message.setJMSReplyTo(replies);
+            producer.send(message);
+        }
+        session.close();
+    }
+
+    protected Message[] sendAndReceive() throws Exception {
+        send();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumer = session.createConsumer(session.createQueue("flowcontrol.replies"));
+        Message[] replies = new Message[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            replies[i] = consumer.receive(10000);
+            assertNotNull("Missing reply " + i, replies[i]);
+        }
+        session.close();
+        return replies;
+    }
+
+    public static class SlowComponent extends TransformComponentSupport {
+
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final Map<Object, Integer> attempts = new HashMap<Object, Integer>();
+        private final int failedAttempts;
+
+        public SlowComponent(int failedAttempts) {
+            this.failedAttempts = failedAttempts;
+        }
+
+        public int getPeak() {
+            return peak.get();
+        }
+
+        public int getFailures() {
+            return failures.get();
+        }
+
+        protected boolean transform(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out) throws Exception {
+            if (failedAttempts > 0) {
+                synchronized (attempts) {
+                    Object id = in.getProperty("id");
+                    Integer count = attempts.get(id);
+                    int attempt = count == null ? 1 : count.intValue() + 1;
+                    attempts.put(id, attempt);
+                    if (attempt <= failedAttempts) {
+                        failures.incrementAndGet();
+                        throw new IllegalStateException("Attempt " + attempt + " for message " + id);
+                    }
+                }
+            }
+            int count = current.incrementAndGet();
+            synchronized (peak) {
+                peak.set(Math.max(peak.get(), count));
+            }
+            try {
+                Thread.sleep(50);
+                out.setContent(new StringSource("<reply/>"));
+                return true;
+            } finally {
+                current.decrementAndGet();
+            }
+        }
+    }
+
+    public static class FaultComponent extends ComponentSupport implements MessageExchangeListener {
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                Fault fault = exchange.createFault();
+                fault.setContent(new StringSource("<fault/>"));
+                fail(exchange, fault);
+            }
+        }
+    }
+
+}
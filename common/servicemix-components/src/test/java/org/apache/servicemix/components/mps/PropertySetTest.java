@@ -17,12 +17,14 @@
 package org.apache.servicemix.components.mps;
 
 import java.io.StringReader;
+import java.util.Iterator;
 
 import javax.jbi.JBIException;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 
 import junit.framework.TestCase;
 
@@ -336,4 +338,48 @@ public class PropertySetTest extends TestCase {
 		}
 	}	
 	
+	/**
+	 * Test that the expressions are compiled with the namespaces declared
+	 * in the configuration and evaluated against a stream content parsed once.
+	 */
+	public void testCompiledXPathsOnStreamContent() {
+		String xmlConfig = new StringBuffer("<property-set name='somename' xmlns:s='urn:sample'>")
+			                    .append("<property name='prop1'>")
+			                       .append("<xpath-expression><![CDATA[/s:sample/s:get/@x]]></xpath-expression>")
+			                    .append("</property>")
+			                    .append("<property name='prop2'>")
+			                       .append("<xpath-expression><![CDATA[/s:sample/s:get]]></xpath-expression>")
+			                    .append("</property>")
+			                    .append("<property name='prop3'>")
+			                       .append("<xpath-expression><![CDATA[count(//s:get)]]></xpath-expression>")
+			                    .append("</property>")
+			                    .append("</property-set>").toString();
+		Document propertySet = makeDocument(xmlConfig);
+		try {
+			PropertySet ps = new PropertySet("somename",propertySet.getDocumentElement());
+			NormalizedMessage inMessage = new NormalizedMessageImpl();
+			inMessage.setContent(new StreamSource(new StringReader("<sample xmlns='urn:sample'><get x='911'>me</get></sample>")));
+			NormalizedMessage outMessage = makeTestMessage(null);
+			MessageDocument content = new MessageDocument(inMessage);
+			ps.applyProperties(inMessage,outMessage,content);
+
+			assertEquals("911", outMessage.getProperty("prop1"));
+			assertEquals("me", outMessage.getProperty("prop2"));
+			assertEquals("1", outMessage.getProperty("prop3"));
+			assertTrue(content.getContent() instanceof DOMSource);
+			for (Iterator iter = ps.getPropertyValueResolvers().iterator(); iter.hasNext();) {
+				PropertyValueResolver pvr = (PropertyValueResolver) iter.next();
+				XPathContentMessagePropertyValue pv = (XPathContentMessagePropertyValue) pvr.getPropertyValues().get(0);
+				assertTrue(pv.isCompiled());
+				assertEquals(1, pv.getEvaluationCount());
+			}
+		} catch (ConfigNotSupportedException e) {
+			e.printStackTrace();
+			fail(e.getLocalizedMessage());
+		} catch (JBIException e) {
+			e.printStackTrace();
+			fail(e.getLocalizedMessage());
+		}
+	}
+
 }
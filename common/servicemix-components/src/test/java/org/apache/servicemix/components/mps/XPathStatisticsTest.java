@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.mps;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+public class XPathStatisticsTest extends TestCase {
+
+	public void testExpressionStatistics() throws Exception {
+		MessagePropertySetterXML component = new MessagePropertySetterXML();
+		component.setXpathForPropertySet("/sample/@set");
+		XPathStatistics statistics = new XPathStatistics(component);
+
+		TabularData table = statistics.getExpressionStatistics();
+		assertEquals(1, table.size());
+		CompositeData row = table.get(new Object[] {"xpathForPropertySet" });
+		assertNotNull(row);
+		assertEquals("/sample/@set", row.get("xpath"));
+		assertEquals(Boolean.TRUE, row.get("compiled"));
+		assertEquals(new Long(0), row.get("evaluationCount"));
+		CompositeData percentiles = (CompositeData) row.get("timePercentiles");
+		assertEquals(new Double(0), percentiles.get("p99"));
+		assertEquals(0, statistics.getUncompiledExpressionCount());
+	}
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.script;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.components.script.ScriptEnginePool.PooledEngine;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * @version $Revision$
+ */
+public class ScriptComponentTest extends TestCase {
+
+    public void testThreadSafeEngineIsShared() throws Exception {
+        TestEngineFactory factory = new TestEngineFactory("MULTITHREADED");
+        ScriptComponent component = createComponent(factory);
+        component.setScriptText("shared");
+        component.start();
+
+        PooledEngine first = component.borrowEngine();
+        PooledEngine second = component.borrowEngine();
+        assertSame(first, second);
+        assertSame(component.getEngine(), first.getEngine());
+        assertEquals(0, factory.getCreatedCount());
+        assertEquals(1, component.getEnginePool().getCreatedCount());
+        assertEquals(0, component.getEnginePool().getIdleCount());
+    }
+
+    public void testOtherEnginesArePooled() throws Exception {
+        TestEngineFactory factory = new TestEngineFactory(null);
+        ScriptComponent component = createComponent(factory);
+        component.setScriptText("pooled");
+        component.start();
+
+        // concurrent invocations each get their own engine
+        PooledEngine first = component.borrowEngine();
+        PooledEngine second = component.borrowEngine();
+        assertNotSame(first.getEngine(), second.getEngine());
+        assertEquals(1, factory.getCreatedCount());
+        assertNotNull(second.getCompiledScript());
+        assertSame(second.getEngine(), second.getCompiledScript().getEngine());
+
+        ScriptEnginePool pool = component.getEnginePool();
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, component.borrowEngine());
+        assertSame(second, component.borrowEngine());
+        assertEquals(1, factory.getCreatedCount());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    public void testSerializedEngineSurvivesClear() throws Exception {
+        TestEngineFactory factory = new TestEngineFactory(null);
+        TestEngine engine = new TestEngine(factory);
+        ScriptComponent component = new ScriptComponent();
+        // only a compiled script: no other engine can be created
+        component.setCompiledScript(engine.compile("serialized"));
+        component.start();
+
+        ScriptEnginePool pool = component.getEnginePool();
+        assertTrue(pool.isSerialized());
+        pool.clear();
+        assertEquals(1, pool.getIdleCount());
+        PooledEngine pooled = component.borrowEngine();
+        assertSame(engine, pooled.getEngine());
+        pool.release(pooled);
+    }
+
+    public void testModifiedScriptIsReloaded() throws Exception {
+        File file = new File("target/test-data/script/reload.txt");
+        file.getParentFile().mkdirs();
+        writeScript(file, "version1");
+        long modified = file.lastModified();
+
+        TestEngineFactory factory = new TestEngineFactory("MULTITHREADED");
+        ScriptComponent component = createComponent(factory);
+        component.setScript(new FileSystemResource(file));
+        component.setScriptCheckInterval(1);
+        component.start();
+        runScript(component);
+        assertEquals(Collections.singletonList("version1"), factory.getEvaluated());
+        long compiled = component.getEnginePool().getCompiledCount();
+
+        writeScript(file, "version2");
+        file.setLastModified(modified + 10000);
+        Thread.sleep(10);
+        runScript(component);
+        runScript(component);
+        List expected = new ArrayList();
+        expected.add("version1");
+        expected.add("version2");
+        expected.add("version2");
+        assertEquals(expected, factory.getEvaluated());
+        // the script is compiled once for the modification, not for each invocation
+        assertEquals(compiled + 1, component.getEnginePool().getCompiledCount());
+    }
+
+    public void testOverriddenRunScriptIsCalled() throws Exception {
+        TestEngineFactory factory = new TestEngineFactory("MULTITHREADED");
+        final List calls = new ArrayList();
+        ScriptComponent component = new ScriptComponent() {
+            protected void runScript(Bindings bindings) throws ScriptException {
+                calls.add(bindings);
+                super.runScript(bindings);
+            }
+        };
+        component.setEngine(new TestEngine(factory));
+        component.setScriptText("legacy");
+        component.setPooled(false);
+        component.start();
+
+        // the overriding subclass only ever sees the configured engine
+        assertTrue(component.getEnginePool().isSerialized());
+        runScript(component);
+        assertEquals(1, calls.size());
+        assertEquals(Collections.singletonList("legacy"), factory.getEvaluated());
+        assertEquals(0, factory.getCreatedCount());
+    }
+
+    protected ScriptComponent createComponent(TestEngineFactory factory) {
+        ScriptComponent component = new ScriptComponent();
+        component.setEngine(new TestEngine(factory));
+        return component;
+    }
+
+    protected void runScript(ScriptComponent component) throws Exception {
+        component.checkScriptModified();
+        PooledEngine pooled = component.borrowEngine();
+        component.recompileIfModified(pooled);
+        component.runScript(pooled, pooled.getEngine().createBindings());
+    }
+
+    protected void writeScript(File file, String text) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+    }
+
+    /**
+     * A factory of engines recording the scripts they evaluate.
+     */
+    public static class TestEngineFactory implements ScriptEngineFactory {
+        private final String threading;
+        private final List evaluated = Collections.synchronizedList(new ArrayList());
+        private int created;
+
+        public TestEngineFactory(String threading) {
+            this.threading = threading;
+        }
+
+        public synchronized int getCreatedCount() {
+            return created;
+        }
+
+        public List getEvaluated() {
+            return evaluated;
+        }
+
+        public String getEngineName() {
+            return "test";
+        }
+
+        public String getEngineVersion() {
+            return "1.0";
+        }
+
+        public List<String> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        public List<String> getMimeTypes() {
+            return Collections.emptyList();
+        }
+
+        public List<String> getNames() {
+            return Collections.singletonList("test");
+        }
+
+        public String getLanguageName() {
+            return "test";
+        }
+
+        public String getLanguageVersion() {
+            return "1.0";
+        }
+
+        public Object getParameter(String key) {
+            return "THREADING".equals(key) ? threading : null;
+        }
+
+        public String getMethodCallSyntax(String obj, String m, String... args) {
+            return null;
+        }
+
+        public String getOutputStatement(String toDisplay) {
+            return null;
+        }
+
+        public String getProgram(String... statements) {
+            return null;
+        }
+
+        public ScriptEngine getScriptEngine() {
+            synchronized (this) {
+                created++;
+            }
+            return new TestEngine(this);
+        }
+    }
+
+    /**
+     * An engine whose scripts record their own text when evaluated.
+     */
+    public static class TestEngine extends AbstractScriptEngine implements Compilable {
+        private final TestEngineFactory factory;
+
+        public TestEngine(TestEngineFactory factory) {
+            this.factory = factory;
+        }
+
+        public Object eval(String script, ScriptContext context) {
+            factory.getEvaluated().add(script);
+            return null;
+        }
+
+        public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+            return eval(read(reader), context);
+        }
+
+        public CompiledScript compile(final String script) {
+            return new CompiledScript() {
+                public Object eval(ScriptContext context) {
+                    return TestEngine.this.eval(script, context);
+                }
+
+                public ScriptEngine getEngine() {
+                    return TestEngine.this;
+                }
+            };
+        }
+
+        public CompiledScript compile(Reader reader) throws ScriptException {
+            return compile(read(reader));
+        }
+
+        public Bindings createBindings() {
+            return new SimpleBindings();
+        }
+
+        public ScriptEngineFactory getFactory() {
+            return factory;
+        }
+
+        private String read(Reader reader) throws ScriptException {
+            try {
+                StringBuffer buffer = new StringBuffer();
+                char[] chars = new char[256];
+                for (int n = reader.read(chars); n >= 0; n = reader.read(chars)) {
+                    buffer.append(chars, 0, n);
+                }
+                return buffer.toString();
+            } catch (IOException e) {
+                throw new ScriptException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.script;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.components.script.ScriptEnginePool.PooledEngine;
+
+/**
+ * @version $Revision$
+ */
+public class ScriptEnginePoolTest extends TestCase {
+
+    public void testIdleEnginesAreReused() throws Exception {
+        ScriptEnginePool pool = new ScriptEnginePool(2, null);
+        assertNull(pool.poll());
+
+        PooledEngine first = new PooledEngine(null, null, 0);
+        PooledEngine second = new PooledEngine(null, null, 0);
+        PooledEngine third = new PooledEngine(null, null, 0);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(1, pool.getDiscardedCount());
+
+        assertSame(first, pool.poll());
+        assertSame(second, pool.take());
+        assertNull(pool.poll());
+        assertEquals(2, pool.getReusedCount());
+    }
+
+    public void testThreadSafeEnginesAreNotPooled() throws Exception {
+        ScriptEnginePool pool = new ScriptEnginePool(0, "MULTITHREADED");
+        pool.release(new PooledEngine(null, null, 0));
+        assertNull(pool.poll());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals("MULTITHREADED", pool.getThreading());
+    }
+
+    public void testSerializedEngineIsNotCleared() throws Exception {
+        ScriptEnginePool pool = new ScriptEnginePool(1, null, true);
+        pool.release(new PooledEngine(null, null, 0));
+        pool.clear();
+        assertEquals(1, pool.getIdleCount());
+        pool.scriptCompiled();
+        assertEquals(1, pool.getCompiledCount());
+        pool.resetStatistics();
+        assertEquals(0, pool.getCompiledCount());
+    }
+
+}
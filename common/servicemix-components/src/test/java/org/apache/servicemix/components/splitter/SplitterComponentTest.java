@@ -16,14 +16,23 @@
  */
 package org.apache.servicemix.components.splitter;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOnly;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
 import javax.xml.namespace.QName;
 
 import junit.framework.TestCase;
 
+import org.apache.servicemix.client.DefaultServiceMixClient;
 import org.apache.servicemix.jbi.container.ActivationSpec;
 import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.tck.ReceiverComponent;
 import org.apache.servicemix.tck.SenderComponent;
+import org.xml.sax.InputSource;
 
 public class SplitterComponentTest extends TestCase {
 
@@ -31,9 +40,9 @@ public class SplitterComponentTest extends TestCase {
 
 	protected SenderComponent sender;
 
-	protected ReceiverComponent receiver;
+	protected CountingReceiver receiver;
 
-	protected SplitterComponent fec;
+	protected StreamingSplitterComponent fec;
 
 	protected void setUp() throws Exception {
 		jbiContainer = new JBIContainer();
@@ -60,7 +69,7 @@ public class SplitterComponentTest extends TestCase {
 	}
 
 	private void setUpReceiver() throws Exception {
-		receiver = new ReceiverComponent();
+		receiver = new CountingReceiver();
 		ActivationSpec as = new ActivationSpec(ReceiverComponent.ENDPOINT,
 				receiver);
 		as.setService(ReceiverComponent.SERVICE);
@@ -68,7 +77,7 @@ public class SplitterComponentTest extends TestCase {
 	}
 
 	private void setUpComponent() throws Exception {
-		fec = new SplitterComponent();
+		fec = new StreamingSplitterComponent();
 		fec.setNodePath("");
 		ActivationSpec as = new ActivationSpec("component", fec);
 		as.setService(getComponentService());
@@ -85,9 +94,110 @@ public class SplitterComponentTest extends TestCase {
 		assertEquals(2, receiver.getMessageList().getMessageCount());
 	}
 
+	public void testStreamingWithWindow() throws Exception {
+		fec.setNodePath("/ROOT/DOC");
+		fec.setStreaming(true);
+		fec.setWindow(4);
+		StringBuffer sb = new StringBuffer("<ROOT xmlns:a=\"urn:a\">");
+		for (int i = 0; i < 20; i++) {
+			sb.append("<DOC att=\"" + i + "\"><a:item>" + i + "</a:item></DOC>");
+		}
+		sb.append("<OTHER><DOC/></OTHER></ROOT>");
+		receiver.setDelay(10);
+		InOnly exchange = split(sb.toString());
+		assertEquals(ExchangeStatus.DONE, exchange.getStatus());
+		// the records have been extracted while parsing, without the nested DOC
+		assertEquals(20, fec.getStreamedCount());
+		// the message is only completed once all the parts have been acknowledged
+		assertEquals(20, receiver.getMessageList().getMessageCount());
+		assertTrue("Peak of " + receiver.getPeak() + " outstanding parts", receiver.getPeak() <= 4);
+	}
+
+	public void testStreamingFailure() throws Exception {
+		fec.setNodePath("/ROOT/DOC");
+		fec.setStreaming(true);
+		fec.setWindow(4);
+		InOnly exchange = split("<ROOT><DOC/><DOC/></ROOT");
+		assertEquals(ExchangeStatus.ERROR, exchange.getStatus());
+		assertEquals(2, receiver.getMessageList().getMessageCount());
+	}
+
+	protected InOnly split(String message) throws Exception {
+		DefaultServiceMixClient client = new DefaultServiceMixClient(jbiContainer);
+		InOnly exchange = client.createInOnlyExchange();
+		exchange.setService(getComponentService());
+		exchange.getInMessage().setContent(new StringSource(message));
+		client.sendSync(exchange);
+		return exchange;
+	}
+
+	public void testSimplePaths() throws Exception {
+		assertEquals(2, ElementPathHandler.parsePath("/ROOT/DOC").length);
+		assertEquals(3, ElementPathHandler.parsePath("ROOT/*/DOC").length);
+		assertNull(ElementPathHandler.parsePath("ROOT/DOC[@att = 2]"));
+		assertNull(ElementPathHandler.parsePath("//DOC"));
+		assertNull(ElementPathHandler.parsePath(""));
+	}
+
 	protected void tearDown() throws Exception {
 		if (jbiContainer != null)
 			jbiContainer.shutDown();
 	}
 
+	/**
+	 * A splitter recording the number of records extracted while parsing.
+	 */
+	public static class StreamingSplitterComponent extends SplitterComponent {
+
+		private final AtomicInteger streamed = new AtomicInteger();
+
+		public int getStreamedCount() {
+			return streamed.get();
+		}
+
+		protected int splitStream(InputSource input, String[] steps, PartSender sender)
+				throws MessagingException {
+			int count = super.splitStream(input, steps, sender);
+			streamed.addAndGet(count);
+			return count;
+		}
+	}
+
+	/**
+	 * A receiver recording the highest number of parts it processes at the same time.
+	 */
+	public static class CountingReceiver extends ReceiverComponent {
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private final AtomicInteger peak = new AtomicInteger();
+
+		private volatile long delay;
+
+		public void setDelay(long delay) {
+			this.delay = delay;
+		}
+
+		public int getPeak() {
+			return peak.get();
+		}
+
+		public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+			int count = outstanding.incrementAndGet();
+			int max = peak.get();
+			while (count > max && !peak.compareAndSet(max, count)) {
+				max = peak.get();
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new MessagingException(e);
+			} finally {
+				// stop counting the part before acknowledging it
+				outstanding.decrementAndGet();
+			}
+			super.onMessageExchange(exchange);
+		}
+	}
+
 }
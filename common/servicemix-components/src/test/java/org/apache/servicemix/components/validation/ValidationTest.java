@@ -16,11 +16,17 @@
  */
 package org.apache.servicemix.components.validation;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
 import javax.jbi.messaging.Fault;
 import javax.jbi.messaging.InOut;
 import javax.jbi.messaging.NormalizedMessage;
 
 import org.apache.servicemix.client.ServiceMixClient;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
 import org.apache.servicemix.jbi.container.SpringJBIContainer;
 import org.apache.servicemix.tck.Receiver;
 import org.apache.servicemix.tck.SpringTestSupport;
@@ -108,6 +114,55 @@ public class ValidationTest extends SpringTestSupport {
         //assertEquals("error", null, error);
     }
 
+    public void testValidMessageStreaming() throws Exception {
+        client = (ServiceMixClient) getBean("streamingClient");
+
+        InOut exchange = client.createInOutExchange();
+        exchange.getInMessage().setContent(getSourceFromClassPath("requestValid.xml"));
+        exchange.getInMessage().setProperty("test", "value");
+        client.sendSync(exchange);
+
+        assertEquals("error", null, exchange.getError());
+        assertEquals("fault", null, exchange.getFault());
+        NormalizedMessage out = exchange.getOutMessage();
+        assertNotNull("Should have an out message", out);
+        assertEquals("value", out.getProperty("test"));
+
+        // the content is not parsed into a new document but passed through
+        assertTrue(out.getContent() instanceof BytesSource);
+        byte[] expected = readClassPathFile("requestValid.xml");
+        assertTrue(Arrays.equals(expected, ((BytesSource) out.getContent()).getData()));
+    }
+
+    protected byte[] readClassPathFile(String fileOnClassPath) throws IOException {
+        InputStream stream = getClass().getResourceAsStream(fileOnClassPath);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] data = new byte[4096];
+            for (int n = stream.read(data); n >= 0; n = stream.read(data)) {
+                buffer.write(data, 0, n);
+            }
+            return buffer.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    public void testInvalidMessageStreamingFailFast() throws Exception {
+        client = (ServiceMixClient) getBean("streamingClient");
+
+        InOut exchange = client.createInOutExchange();
+        exchange.getInMessage().setContent(getSourceFromClassPath("requestInvalid.xml"));
+        client.sendSync(exchange);
+
+        assertEquals("out", null, exchange.getOutMessage());
+        Fault fault = exchange.getFault();
+        assertNotNull("Should have a fault", fault);
+
+        logger.info("Fault is...");
+        logger.info(transformer.toString(fault.getContent()));
+    }
+
     protected AbstractXmlApplicationContext createBeanFactory() {
         return new ClassPathXmlApplicationContext("org/apache/servicemix/components/validation/example.xml");
     }
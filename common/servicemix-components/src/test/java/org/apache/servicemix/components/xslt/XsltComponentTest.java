@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.xslt;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+import javax.xml.transform.Transformer;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * @version $Revision$
+ */
+public class XsltComponentTest extends TestCase {
+
+    private static final QName SERVICE = new QName("http://servicemix.org/cheese/", "transformer");
+
+    private JBIContainer container;
+    private XsltComponent component;
+
+    protected void setUp() throws Exception {
+        container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        component = new XsltComponent();
+        component.setXsltResource(new ClassPathResource("org/apache/servicemix/components/xslt/transform.xsl"));
+    }
+
+    protected void tearDown() throws Exception {
+        container.shutDown();
+    }
+
+    public void testTransformersAreReused() throws Exception {
+        activate();
+        transform(5);
+
+        TransformerPool pool = component.getTransformerPool();
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(4, pool.getReusedCount());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(5, pool.getUseCount());
+        assertEquals(0, pool.getFailureCount());
+        assertTrue(((Double) pool.getUseTimePercentiles().get("p50")).doubleValue() > 0);
+        assertTrue(((Double) pool.getUseTimePercentiles().get("p999")).doubleValue() <= pool.getMaxUseTime() * 1.125);
+    }
+
+    public void testPoolingDisabled() throws Exception {
+        component.setTransformerPoolSize(0);
+        activate();
+        transform(5);
+
+        TransformerPool pool = component.getTransformerPool();
+        assertEquals(0, pool.getCreatedCount());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(5, pool.getUseCount());
+    }
+
+    public void testPoolSizeIsCapturedAtInit() throws Exception {
+        component.setTransformerPoolSize(2);
+        activate();
+        component.setTransformerPoolSize(0);
+        transform(2);
+
+        TransformerPool pool = component.getTransformerPool();
+        assertEquals(2, pool.getMaxIdle());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    public void testFailedTransformerIsNotReused() throws Exception {
+        activate();
+        DefaultServiceMixClient client = new DefaultServiceMixClient(container);
+        InOut me = client.createInOutExchange();
+        me.setService(SERVICE);
+        me.getInMessage().setContent(new StringSource("<sample>"));
+        client.sendSync(me);
+        assertEquals(ExchangeStatus.ERROR, me.getStatus());
+
+        TransformerPool pool = component.getTransformerPool();
+        assertEquals(1, pool.getFailureCount());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    public void testUnpooledTransformersAreNotReused() throws Exception {
+        CountingXsltComponent counting = new CountingXsltComponent();
+        counting.setXsltResource(component.getXsltResource());
+        counting.setPooled(false);
+        component = counting;
+        activate();
+        transform(3);
+
+        TransformerPool pool = component.getTransformerPool();
+        assertEquals(3, counting.created);
+        assertEquals(0, pool.getReusedCount());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(3, pool.getUseCount());
+    }
+
+    public void testTransformBeforeInit() throws Exception {
+        try {
+            component.transform(null, null, null);
+            fail("The transformation should have failed");
+        } catch (MessagingException e) {
+            // expected: the missing pool does not hide the actual error
+        }
+    }
+
+    private void activate() throws Exception {
+        ActivationSpec as = new ActivationSpec("transformer", component);
+        as.setService(SERVICE);
+        container.activateComponent(as);
+    }
+
+    private void transform(int count) throws Exception {
+        DefaultServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < count; i++) {
+            InOut me = client.createInOutExchange();
+            me.setService(SERVICE);
+            me.getInMessage().setContent(new StringSource("<sample id='" + i + "'/>"));
+            client.sendSync(me);
+            assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+            String out = new SourceTransformer().toString(me.getOutMessage().getContent());
+            assertTrue(out, out.indexOf("<cheese") >= 0);
+            client.done(me);
+        }
+    }
+
+    public static class CountingXsltComponent extends XsltComponent {
+        private int created;
+
+        protected Transformer createTransformer(MessageExchange exchange, NormalizedMessage in) throws Exception {
+            created++;
+            return super.createTransformer(exchange, in);
+        }
+    }
+
+}
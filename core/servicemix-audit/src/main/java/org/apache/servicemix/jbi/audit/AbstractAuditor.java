@@ -43,6 +43,12 @@ public abstract class AbstractAuditor extends BaseSystemService implements Audit
     protected static final transient Logger LOGGER = LoggerFactory.getLogger(AbstractAuditor.class);
     
     private boolean asContainerListener = true;
+    private boolean writeBehind;
+    private int writeBehindCapacity = 10000;
+    private int writeBehindBatchSize = 100;
+    private long writeBehindFlushInterval = 100;
+    private String writeBehindOverflowPolicy = WriteBehindQueue.POLICY_BLOCK;
+    private WriteBehindQueue writeBehindQueue;
 
     public JBIContainer getContainer() {
         return container;
@@ -91,6 +97,13 @@ public abstract class AbstractAuditor extends BaseSystemService implements Audit
         // TODO: this should not be an attribute, as it can require access to database
         AttributeInfoHelper helper = new AttributeInfoHelper();
         helper.addAttribute(getObjectToManage(), "exchangeCount", "number of exchanges");
+        helper.addAttribute(getObjectToManage(), "writeBehind", "exchanges are persisted by a background writer");
+        helper.addAttribute(getObjectToManage(), "writeBehindBatchSize", "maximum number of exchanges per batch");
+        helper.addAttribute(getObjectToManage(), "writeBehindFlushInterval", "maximum time to wait for a full batch");
+        helper.addAttribute(getObjectToManage(), "writeBehindOverflowPolicy", "policy when the buffer is full");
+        helper.addAttribute(getObjectToManage(), "writeBehindBacklog", "number of exchanges waiting to be written");
+        helper.addAttribute(getObjectToManage(), "writeBehindLag", "delay of the last written batch");
+        helper.addAttribute(getObjectToManage(), "droppedExchangeCount", "number of exchanges dropped");
         return AttributeInfoHelper.join(super.getAttributeInfos(), helper.getAttributeInfos());
     }
     
@@ -240,4 +253,118 @@ public abstract class AbstractAuditor extends BaseSystemService implements Audit
 
     }
 
+    /**
+     * Start the write-behind writer, if enabled.  Auditors supporting
+     * write-behind call this method when they are started and queue
+     * exchanges using {@link #getWriteBehindQueue()}.
+     * 
+     * @param writer the writer persisting batches of exchanges
+     */
+    protected void startWriteBehind(WriteBehindQueue.BatchWriter writer) {
+        if (writeBehind && writeBehindQueue == null) {
+            WriteBehindQueue queue = new WriteBehindQueue(getClass().getSimpleName() + "-writer",
+                                                          writeBehindCapacity, writer);
+            queue.setBatchSize(writeBehindBatchSize);
+            queue.setFlushInterval(writeBehindFlushInterval);
+            queue.setOverflowPolicy(writeBehindOverflowPolicy);
+            queue.start();
+            writeBehindQueue = queue;
+        }
+    }
+
+    /**
+     * Stop the write-behind writer, writing all pending exchanges.
+     */
+    protected void stopWriteBehind() throws JBIException {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null) {
+            writeBehindQueue = null;
+            try {
+                queue.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JBIException(e);
+            }
+        }
+    }
+
+    protected WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Enable asynchronous, batched persistence of exchanges.
+     * Must be set before the auditor is started.
+     * 
+     * @param writeBehind
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public int getWriteBehindCapacity() {
+        return writeBehindCapacity;
+    }
+
+    /**
+     * Set the maximum number of exchanges waiting to be written.
+     * Must be set before the auditor is started.
+     * 
+     * @param writeBehindCapacity
+     */
+    public void setWriteBehindCapacity(int writeBehindCapacity) {
+        this.writeBehindCapacity = writeBehindCapacity;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public void setWriteBehindBatchSize(int batchSize) {
+        this.writeBehindBatchSize = batchSize;
+        if (writeBehindQueue != null) {
+            writeBehindQueue.setBatchSize(batchSize);
+        }
+    }
+
+    public long getWriteBehindFlushInterval() {
+        return writeBehindFlushInterval;
+    }
+
+    public void setWriteBehindFlushInterval(long flushInterval) {
+        this.writeBehindFlushInterval = flushInterval;
+        if (writeBehindQueue != null) {
+            writeBehindQueue.setFlushInterval(flushInterval);
+        }
+    }
+
+    public String getWriteBehindOverflowPolicy() {
+        return writeBehindOverflowPolicy;
+    }
+
+    public void setWriteBehindOverflowPolicy(String policy) {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.setOverflowPolicy(policy);
+        } else if (!WriteBehindQueue.POLICY_BLOCK.equals(policy) && !WriteBehindQueue.POLICY_DROP.equals(policy)) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + policy);
+        }
+        this.writeBehindOverflowPolicy = policy;
+    }
+
+    public int getWriteBehindBacklog() {
+        return writeBehindQueue != null ? writeBehindQueue.getBacklog() : 0;
+    }
+
+    public long getWriteBehindLag() {
+        return writeBehindQueue != null ? writeBehindQueue.getLag() : 0;
+    }
+
+    public long getDroppedExchangeCount() {
+        return writeBehindQueue != null ? writeBehindQueue.getDroppedCount() : 0;
+    }
+
 }
@@ -236,4 +236,82 @@ public interface AuditorMBean extends LifeCycleMBean {
      * @throws JBIException if an error occurs re-sending the exchange
      */
     void resendExchange(MessageExchange exchange) throws JBIException;
+
+    /**
+     * Check if exchanges are persisted asynchronously by a background
+     * writer rather than on the thread sending the exchange.
+     * 
+     * @return true if write-behind is enabled
+     */
+    boolean isWriteBehind();
+
+    /**
+     * Get the maximum number of exchanges written in a single batch
+     * when write-behind is enabled.
+     * 
+     * @return the batch size
+     */
+    int getWriteBehindBatchSize();
+
+    /**
+     * Set the maximum number of exchanges written in a single batch.
+     * 
+     * @param batchSize the batch size
+     */
+    void setWriteBehindBatchSize(int batchSize);
+
+    /**
+     * Get the maximum time in milliseconds a queued exchange waits
+     * for a batch to be filled before being written.
+     * 
+     * @return the flush interval
+     */
+    long getWriteBehindFlushInterval();
+
+    /**
+     * Set the maximum time in milliseconds a queued exchange waits
+     * for a batch to be filled before being written.
+     * 
+     * @param flushInterval the flush interval
+     */
+    void setWriteBehindFlushInterval(long flushInterval);
+
+    /**
+     * Get the policy applied when the write-behind buffer is full:
+     * <code>block</code> or <code>drop</code>.
+     * 
+     * @return the overflow policy
+     */
+    String getWriteBehindOverflowPolicy();
+
+    /**
+     * Set the policy applied when the write-behind buffer is full.
+     * 
+     * @param policy <code>block</code> to wait for free space, or
+     *               <code>drop</code> to discard the exchange
+     */
+    void setWriteBehindOverflowPolicy(String policy);
+
+    /**
+     * Get the number of exchanges waiting to be written.
+     * 
+     * @return the write-behind backlog
+     */
+    int getWriteBehindBacklog();
+
+    /**
+     * Get the delay in milliseconds between the queuing of the oldest
+     * exchange of the last written batch and its write.
+     * 
+     * @return the write-behind lag
+     */
+    long getWriteBehindLag();
+
+    /**
+     * Get the number of exchanges dropped because the write-behind
+     * buffer was full.
+     * 
+     * @return the number of dropped exchanges
+     */
+    long getDroppedExchangeCount();
 }
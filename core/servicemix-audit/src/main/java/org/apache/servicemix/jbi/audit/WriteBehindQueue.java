@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded buffer of serialized exchanges drained by a background
+ * thread, so that auditors can persist exchanges in batches without
+ * slowing down the NMR send path.
+ * 
+ * The writer thread waits for the first pending entry, then collects
+ * entries until either <code>batchSize</code> entries are available or
+ * <code>flushInterval</code> milliseconds have elapsed, and hands the
+ * batch to the {@link BatchWriter}.  Once the queue has been stopped,
+ * entries are written synchronously by the caller.
+ * 
+ * @since 3.4.2
+ * @version $Revision$
+ */
+public class WriteBehindQueue {
+
+    /**
+     * Callers block until space is available when the buffer is full.
+     */
+    public static final String POLICY_BLOCK = "block";
+
+    /**
+     * Exchanges are discarded when the buffer is full.
+     */
+    public static final String POLICY_DROP = "drop";
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private final String name;
+    private final BlockingQueue<Entry> queue;
+    private final BatchWriter writer;
+    private volatile int batchSize = 100;
+    private volatile long flushInterval = 100;
+    private volatile String overflowPolicy = POLICY_BLOCK;
+    private volatile boolean running;
+    private volatile boolean closed;
+    private final AtomicInteger senders = new AtomicInteger();
+    private volatile long lag;
+    private Thread thread;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Writes a batch of entries to the underlying store.
+     */
+    public interface BatchWriter {
+        void write(List<Entry> batch) throws Exception;
+    }
+
+    /**
+     * A serialized exchange waiting to be written.
+     */
+    public static class Entry {
+        private final String id;
+        private final byte[] data;
+        private final long time;
+
+        public Entry(String id, byte[] data) {
+            this.id = id;
+            this.data = data;
+            this.time = System.currentTimeMillis();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    public WriteBehindQueue(String name, int capacity, BatchWriter writer) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<Entry>(capacity);
+        this.writer = writer;
+    }
+
+    /**
+     * Queue an exchange to be written.
+     * 
+     * @return <code>false</code> if the exchange has been dropped
+     */
+    public boolean offer(String id, byte[] data) throws InterruptedException {
+        Entry entry = new Entry(id, data);
+        // stop() waits for the senders which have not seen the queue closed
+        senders.incrementAndGet();
+        try {
+            if (closed) {
+                write(Collections.singletonList(entry));
+            } else if (POLICY_DROP.equals(overflowPolicy)) {
+                if (!queue.offer(entry)) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            } else {
+                queue.put(entry);
+            }
+            return true;
+        } finally {
+            senders.decrementAndGet();
+        }
+    }
+
+    public synchronized void start() {
+        closed = false;
+        if (!running) {
+            running = true;
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    process();
+                }
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the writer thread and write all pending entries, including the
+     * entries of senders still waiting for room in the queue.
+     */
+    public synchronized void stop() throws InterruptedException {
+        closed = true;
+        if (running) {
+            running = false;
+            // the writer thread is not interrupted to avoid breaking
+            // a batch being written: it will exit after flushInterval
+            thread.join();
+            thread = null;
+        }
+        List<Entry> batch = new ArrayList<Entry>();
+        for (;;) {
+            // senders arriving after this check write their entry themselves
+            boolean idle = senders.get() == 0;
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+            if (idle) {
+                break;
+            }
+            Entry next = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+            if (next != null) {
+                batch.add(next);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    protected void process() {
+        List<Entry> batch = new ArrayList<Entry>();
+        while (running) {
+            try {
+                Entry first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.getTime() + flushInterval;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    Entry next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                break;
+            }
+        }
+    }
+
+    protected void write(List<Entry> batch) {
+        try {
+            writer.write(batch);
+            written.addAndGet(batch.size());
+            lag = System.currentTimeMillis() - batch.get(0).getTime();
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            LOGGER.error("Could not persist " + batch.size() + " exchanges", e);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(String overflowPolicy) {
+        if (!POLICY_BLOCK.equals(overflowPolicy) && !POLICY_DROP.equals(overflowPolicy)) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + overflowPolicy);
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the number of entries waiting to be written
+     */
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    /**
+     * @return the time in milliseconds between the queuing of the
+     *         oldest entry of the last batch and its write
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+}
@@ -19,14 +19,24 @@ package org.apache.servicemix.jbi.audit.jdbc;
 import java.io.IOException;
 import java.net.URI;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.jbi.JBIException;
 import javax.jbi.messaging.MessageExchange;
 import javax.sql.DataSource;
 
 import org.apache.servicemix.jbi.audit.AbstractAuditor;
 import org.apache.servicemix.jbi.audit.AuditorException;
+import org.apache.servicemix.jbi.audit.WriteBehindQueue;
 import org.apache.servicemix.jbi.event.ExchangeEvent;
+import org.apache.servicemix.jbi.messaging.ExchangeCodec;
 import org.apache.servicemix.jbi.messaging.ExchangePacket;
 import org.apache.servicemix.jbi.messaging.InOnlyImpl;
 import org.apache.servicemix.jbi.messaging.InOptionalOutImpl;
@@ -34,6 +44,7 @@ import org.apache.servicemix.jbi.messaging.InOutImpl;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
 import org.apache.servicemix.jbi.messaging.MessageExchangeSupport;
 import org.apache.servicemix.jbi.messaging.RobustInOnlyImpl;
+import org.apache.servicemix.jbi.messaging.SerializationExchangeCodec;
 import org.apache.servicemix.jdbc.JDBCAdapter;
 import org.apache.servicemix.jdbc.JDBCAdapterFactory;
 import org.apache.servicemix.jdbc.Statements;
@@ -50,6 +61,11 @@ import org.springframework.beans.factory.InitializingBean;
  * To minimize overhead, the exchange serialized is the undelying
  * {@link org.apache.servicemix.jbi.messaging.ExchangePacket}.
  * 
+ * When <code>writeBehind</code> is enabled, exchanges are serialized on
+ * the sending thread and written by a background thread using JDBC batch
+ * updates, one transaction per batch.  Queries may then not reflect the
+ * most recent exchanges until they have been written.
+ * 
  * @org.apache.xbean.XBean element="jdbcAuditor" description="The Auditor of message exchanges to a JDBC database"
  * 
  * @author Guillaume Nodet (gnt)
@@ -64,6 +80,7 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
     private String tableName = "SM_AUDIT";
     private JDBCAdapter adapter;
     private boolean createDataBase = true;
+    private ExchangeCodec codec = new SerializationExchangeCodec();
     
     public String getDescription() {
         return "JDBC Auditing Service";
@@ -111,6 +128,20 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
         }
     }
     
+    protected void doStart() throws JBIException {
+        super.doStart();
+        startWriteBehind(new WriteBehindQueue.BatchWriter() {
+            public void write(List<WriteBehindQueue.Entry> batch) throws Exception {
+                storeBatch(batch);
+            }
+        });
+    }
+
+    protected void doStop() throws JBIException {
+        stopWriteBehind();
+        super.doStop();
+    }
+
     public void exchangeSent(ExchangeEvent event) {
         MessageExchange exchange = event.getExchange();
         if (!(exchange instanceof MessageExchangeImpl)) {
@@ -119,7 +150,12 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
         try {
             ExchangePacket packet = ((MessageExchangeImpl) exchange).getPacket();
             String id = packet.getExchangeId();
-            byte[] data = packet.getData();
+            byte[] data = codec.encodePacket(packet);
+            WriteBehindQueue queue = getWriteBehindQueue();
+            if (queue != null) {
+                queue.offer(id, data);
+                return;
+            }
             Connection connection = null;
             boolean restoreAutoCommit = false;
             try {
@@ -133,6 +169,10 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
             } finally {
                 close(connection, restoreAutoCommit);
             }
+        } catch (InterruptedException e) {
+            // interrupted while waiting for room in the write-behind queue
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while queuing exchange for persistence", e);
         } catch (Exception e) {
             LOGGER.error("Could not persist exchange", e);
         }
@@ -146,6 +186,81 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
         }
     }
     
+    /**
+     * Write a batch of exchanges in a single transaction.  Only the
+     * latest state of each exchange is written.  Existing rows are
+     * updated using a batch update and missing rows are inserted using
+     * a batch insert.
+     */
+    protected void storeBatch(List<WriteBehindQueue.Entry> batch) throws Exception {
+        Map<String, byte[]> latest = new LinkedHashMap<String, byte[]>();
+        for (WriteBehindQueue.Entry entry : batch) {
+            latest.put(entry.getId(), entry.getData());
+        }
+        Connection connection = null;
+        boolean restoreAutoCommit = false;
+        try {
+            connection = dataSource.getConnection();
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            try {
+                List<String> missing = updateBatch(connection, latest);
+                if (!missing.isEmpty()) {
+                    insertBatch(connection, missing, latest);
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            close(connection, restoreAutoCommit);
+        }
+    }
+
+    private List<String> updateBatch(Connection connection, Map<String, byte[]> data) throws Exception {
+        List<String> missing = new ArrayList<String>();
+        PreparedStatement ps = connection.prepareStatement(statements.getUpdateDataStatement());
+        try {
+            for (Iterator<Map.Entry<String, byte[]>> it = data.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, byte[]> entry = it.next();
+                ps.setBytes(1, entry.getValue());
+                ps.setString(2, entry.getKey());
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+            int i = 0;
+            for (Iterator<String> it = data.keySet().iterator(); it.hasNext(); i++) {
+                String id = it.next();
+                if (counts[i] == 0) {
+                    missing.add(id);
+                } else if (counts[i] == Statement.SUCCESS_NO_INFO && adapter.doLoadData(connection, id) == null) {
+                    // the driver does not report update counts
+                    missing.add(id);
+                }
+            }
+        } finally {
+            ps.close();
+        }
+        return missing;
+    }
+
+    private void insertBatch(Connection connection, List<String> ids, Map<String, byte[]> data) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(statements.getStoreDataStatement());
+        try {
+            for (String id : ids) {
+                ps.setString(1, id);
+                ps.setBytes(2, data.get(id));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+    }
+
     public DataSource getDataSource() {
         return dataSource;
     }
@@ -241,7 +356,7 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
     protected MessageExchange getExchange(byte[] data) throws AuditorException {
         ExchangePacket packet = null;
         try {
-            packet = ExchangePacket.readPacket(data);
+            packet = codec.decodePacket(data);
         } catch (Exception e) {
             throw new AuditorException("Unable to reconstruct exchange", e);
         }
@@ -267,6 +382,22 @@ public class JdbcAuditor extends AbstractAuditor implements InitializingBean {
         this.autoStart = autoStart;
     }
 
+    public ExchangeCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Set the codec used to store exchange packets.  Defaults to java
+     * serialization; a {@link org.apache.servicemix.jbi.messaging.BinaryExchangeCodec}
+     * produces smaller rows and is still able to read rows written
+     * with java serialization.
+     * 
+     * @param codec the codec to use
+     */
+    public void setCodec(ExchangeCodec codec) {
+        this.codec = codec;
+    }
+
     private static void close(Connection connection, boolean restoreAutoCommit) {
         if (connection != null) {
             try {
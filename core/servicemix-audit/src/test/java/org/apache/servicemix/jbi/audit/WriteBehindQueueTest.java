@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WriteBehindQueueTest extends TestCase {
+
+    private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+    private final WriteBehindQueue.BatchWriter writer = new WriteBehindQueue.BatchWriter() {
+        public void write(List<WriteBehindQueue.Entry> batch) {
+            for (WriteBehindQueue.Entry entry : batch) {
+                written.add(entry.getId());
+            }
+        }
+    };
+
+    public void testStopWritesBlockedSenders() throws Exception {
+        // the writer thread is not started, so the second sender blocks on the full queue
+        final WriteBehindQueue queue = new WriteBehindQueue("test", 1, writer);
+        queue.offer("1", new byte[0]);
+        Thread sender = new Thread() {
+            public void run() {
+                try {
+                    queue.offer("2", new byte[0]);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        sender.start();
+        while (sender.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        queue.stop();
+        sender.join(10000);
+        assertEquals(2, written.size());
+        assertTrue(written.contains("1"));
+        assertTrue(written.contains("2"));
+
+        // once stopped, entries are written by the sender
+        assertTrue(queue.offer("3", new byte[0]));
+        assertEquals(3, written.size());
+        assertEquals(0, queue.getBacklog());
+    }
+
+}
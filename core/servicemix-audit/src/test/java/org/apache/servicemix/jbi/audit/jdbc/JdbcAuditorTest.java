@@ -111,4 +111,37 @@ public class JdbcAuditorTest extends TestCase {
 
     }
 
+    public void testWriteBehind() throws Exception {
+        jbi.start();
+        SenderComponent sender = new SenderComponent();
+        ReceiverComponent receiver = new ReceiverComponent();
+        jbi.activateComponent(sender, "sender");
+        jbi.activateComponent(receiver, "receiver");
+
+        JdbcAuditor auditor = new JdbcAuditor();
+        auditor.setContainer(jbi);
+        auditor.setDataSource(dataSource);
+        auditor.setWriteBehind(true);
+        auditor.setWriteBehindFlushInterval(10);
+        auditor.afterPropertiesSet();
+        auditor.deleteAllExchanges();
+
+        for (int i = 0; i < 10; i++) {
+            InOnly inonly = sender.createInOnlyExchange(ReceiverComponent.SERVICE, null, null);
+            inonly.setInMessage(inonly.createMessage());
+            inonly.getInMessage().setContent(new StringSource("<hello>world</hello>"));
+            sender.send(inonly);
+        }
+
+        // stopping the auditor writes all pending exchanges
+        auditor.stop();
+        assertEquals(0, auditor.getWriteBehindBacklog());
+        assertEquals(10, auditor.getExchangeCount());
+        MessageExchange[] exchanges = auditor.getExchangesByRange(0, 10);
+        for (int i = 0; i < exchanges.length; i++) {
+            assertEquals(ExchangeStatus.DONE, exchanges[i].getStatus());
+        }
+        auditor.deleteAllExchanges();
+    }
+
 }
@@ -16,6 +16,12 @@
  */
 package org.apache.servicemix.client;
 
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+
+import org.apache.servicemix.jbi.messaging.ExchangeCallback;
+import org.apache.servicemix.jbi.messaging.ExchangeFuture;
+
 /**
  * Represents a client  API which allows users to programatically send messages into the JBI
  * container or to receive them using the regular JBI API together with a collection of helper methods making it
@@ -25,6 +31,39 @@ package org.apache.servicemix.client;
  */
 public interface ServiceMixClient extends org.apache.servicemix.jbi.api.ServiceMixClient {
 
-    
+    /**
+     * Sends the exchange without blocking the calling thread.  The returned future
+     * is completed when the exchange is answered, so that many InOut exchanges
+     * can be in flight at the same time.
+     *
+     * @param exchange the exchange to send
+     * @return the completion handle of the exchange
+     * @throws MessagingException
+     */
+    ExchangeFuture sendAsync(MessageExchange exchange) throws MessagingException;
+
+    /**
+     * Sends the exchange without blocking the calling thread and notifies
+     * the given callback when the exchange is answered.
+     *
+     * @param exchange the exchange to send
+     * @param callback the callback to notify
+     * @return the completion handle of the exchange
+     * @throws MessagingException
+     */
+    ExchangeFuture sendAsync(MessageExchange exchange, ExchangeCallback callback) throws MessagingException;
+
+    /**
+     * Sends the exchange without blocking the calling thread and notifies
+     * the given callback when the exchange is answered, or when it is aborted
+     * because it has not been answered within the timeout.
+     *
+     * @param exchange the exchange to send
+     * @param callback the callback to notify
+     * @param timeout the timeout in milliseconds, zero or less meaning no timeout
+     * @return the completion handle of the exchange
+     * @throws MessagingException
+     */
+    ExchangeFuture sendAsync(MessageExchange exchange, ExchangeCallback callback, long timeout) throws MessagingException;
 
 }
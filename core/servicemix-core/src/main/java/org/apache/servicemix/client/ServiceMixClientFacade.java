@@ -44,6 +44,9 @@ import org.apache.servicemix.jbi.api.Message;
 import org.apache.servicemix.jbi.container.ActivationSpec;
 import org.apache.servicemix.jbi.container.JBIContainer;
 import org.apache.servicemix.jbi.messaging.DefaultMarshaler;
+import org.apache.servicemix.jbi.messaging.DeliveryChannelImpl;
+import org.apache.servicemix.jbi.messaging.ExchangeCallback;
+import org.apache.servicemix.jbi.messaging.ExchangeFuture;
 import org.apache.servicemix.jbi.messaging.PojoMarshaler;
 import org.apache.servicemix.jbi.resolver.EndpointFilter;
 import org.apache.servicemix.jbi.resolver.ExternalInterfaceNameEndpointResolver;
@@ -160,6 +163,23 @@ public class ServiceMixClientFacade implements ServiceMixClient {
         return getDeliveryChannel().sendSync(exchange, timeout);
     }
 
+    public ExchangeFuture sendAsync(MessageExchange exchange) throws MessagingException {
+        return sendAsync(exchange, null);
+    }
+
+    public ExchangeFuture sendAsync(MessageExchange exchange, ExchangeCallback callback) throws MessagingException {
+        return sendAsync(exchange, callback, 0);
+    }
+
+    public ExchangeFuture sendAsync(MessageExchange exchange, ExchangeCallback callback, long timeout)
+        throws MessagingException {
+        DeliveryChannel channel = getDeliveryChannel();
+        if (!(channel instanceof DeliveryChannelImpl)) {
+            throw new MessagingException("Asynchronous sends are not supported by " + channel);
+        }
+        return ((DeliveryChannelImpl) channel).sendAsync(exchange, callback, timeout);
+    }
+
     public MessageExchange receive() throws MessagingException {
         return getDeliveryChannel().accept();
     }
@@ -18,7 +18,12 @@ package org.apache.servicemix.components.util;
 
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
+import javax.jbi.JBIException;
+import javax.jbi.messaging.DeliveryChannel;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOut;
 import javax.jbi.messaging.MessageExchange;
@@ -27,6 +32,10 @@ import javax.jbi.messaging.NormalizedMessage;
 import javax.xml.namespace.QName;
 
 import org.apache.servicemix.jbi.FaultException;
+import org.apache.servicemix.jbi.messaging.DeliveryChannelImpl;
+import org.apache.servicemix.jbi.messaging.ExchangeCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class allows a series of componeents to be chained together. It will
@@ -35,17 +44,55 @@ import org.apache.servicemix.jbi.FaultException;
  * 
  * All properties and attachments are maintained.
  * 
+ * In asynchronous mode, exchanges are processed without blocking: each
+ * service is invoked when the previous one has answered, and the result is
+ * sent on once the last one has answered.  Transacted exchanges are always
+ * processed synchronously.  At most <code>maxInFlight</code>
+ * chains are pending at the same time; when this limit is reached, further
+ * exchanges are processed synchronously by the calling thread.
+ * 
  * @author birchfieldj
  * @deprecated use the StaticRoutingSlip pattern from the EIP component instead
  * 
  */
 public class ChainedComponent extends TransformComponentSupport {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChainedComponent.class);
+
     private QName[] services = new QName[0];
 
+    private boolean asynchronous;
+
+    private int maxInFlight = 100;
+
+    private Semaphore inFlight;
+
+    private ConcurrentMap completedChains = new ConcurrentHashMap();
+
+    public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+        if (asynchronous && inFlight != null
+                && exchange.getRole() == MessageExchange.Role.PROVIDER
+                && exchange.getStatus() == ExchangeStatus.ACTIVE
+                && exchange.getProperty(getCorrelation()) == null
+                && !exchange.isTransacted()
+                && getDeliveryChannel() instanceof DeliveryChannelImpl
+                && inFlight.tryAcquire()) {
+            new Chain(exchange).start();
+        } else {
+            super.onMessageExchange(exchange);
+        }
+    }
+
     protected boolean transform(MessageExchange exchange, 
                                 NormalizedMessage in,
                                 NormalizedMessage out) throws MessagingException {
+        Chain chain = (Chain) completedChains.remove(exchange.getExchangeId());
+        if (chain != null) {
+            // the services have already been invoked asynchronously
+            getMessageTransformer().transform(exchange, chain.curIn, out);
+            copyProperties(chain.curExchange, exchange);
+            return true;
+        }
         NormalizedMessage curIn = in;
         MessageExchange curExchange = exchange;
         for (int i = 0; i < services.length; i++) {
@@ -78,24 +125,35 @@ public class ChainedComponent extends TransformComponentSupport {
         exchange.setMessage(msg, "in");
         boolean result = this.getDeliveryChannel().sendSync(exchange);
         if (result) {
-            if (exchange.getStatus() == ExchangeStatus.ERROR) {
-                exchange.setStatus(ExchangeStatus.DONE);
-                getDeliveryChannel().send(exchange);
-                if (exchange.getError() != null) {
-                    throw new MessagingException("Received error", exchange.getError());
-                } else if (exchange.getFault() != null) {
-                    throw new FaultException("Received fault", exchange, exchange.getFault());
-                } else {
-                    throw new MessagingException("Received unknown error");
-                }
+            return processAnswer(exchange);
+        }
+        throw new MessagingException("Could not invoke service: " + service);
+    }
+
+    /**
+     * Completes an exchange answered by a service
+     * 
+     * @param exchange
+     * @return the out message of the invoked service
+     * @throws MessagingException if the service failed
+     */
+    private NormalizedMessage processAnswer(InOut exchange) throws MessagingException {
+        if (exchange.getStatus() == ExchangeStatus.ERROR) {
+            exchange.setStatus(ExchangeStatus.DONE);
+            getDeliveryChannel().send(exchange);
+            if (exchange.getError() != null) {
+                throw new MessagingException("Received error", exchange.getError());
+            } else if (exchange.getFault() != null) {
+                throw new FaultException("Received fault", exchange, exchange.getFault());
             } else {
-                NormalizedMessage out = exchange.getOutMessage();
-                exchange.setStatus(ExchangeStatus.DONE);
-                getDeliveryChannel().send(exchange);
-                return out; 
+                throw new MessagingException("Received unknown error");
             }
+        } else {
+            NormalizedMessage out = exchange.getOutMessage();
+            exchange.setStatus(ExchangeStatus.DONE);
+            getDeliveryChannel().send(exchange);
+            return out; 
         }
-        throw new MessagingException("Could not invoke service: " + service);
     }
 
     /**
@@ -124,4 +182,133 @@ public class ChainedComponent extends TransformComponentSupport {
         this.services = services;
     }
 
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Sets whether the services are invoked without blocking
+     * the thread which received the exchange.
+     * 
+     * @param asynchronous
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of chains pending at the same time
+     * in asynchronous mode.
+     * 
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the number of chains currently pending in asynchronous mode
+     */
+    public int getInFlightCount() {
+        return inFlight != null ? maxInFlight - inFlight.availablePermits() : 0;
+    }
+
+    protected void init() throws JBIException {
+        super.init();
+        if (asynchronous) {
+            inFlight = new Semaphore(maxInFlight);
+        }
+    }
+
+    /**
+     * Invokes the services of the chain one after the other for an exchange,
+     * each invocation being triggered by the answer to the previous one.
+     */
+    private class Chain implements ExchangeCallback {
+        private final MessageExchange exchange;
+        private MessageExchange curExchange;
+        private NormalizedMessage curIn;
+        private int index;
+        private boolean completed;
+
+        Chain(MessageExchange exchange) {
+            this.exchange = exchange;
+            this.curExchange = exchange;
+        }
+
+        void start() {
+            try {
+                curIn = getInMessage(exchange);
+                next();
+            } catch (Exception e) {
+                failed(e);
+            }
+        }
+
+        public void exchangeCompleted(MessageExchange answer) {
+            try {
+                curIn = processAnswer((InOut) answer);
+                curExchange = answer;
+                next();
+            } catch (Exception e) {
+                failed(e);
+            }
+        }
+
+        public void exchangeAborted(MessageExchange answer) {
+            failed(new MessagingException("Exchange " + answer.getExchangeId() + " has been aborted"));
+        }
+
+        /**
+         * Invokes the next service, or sends the result back
+         */
+        private void next() throws Exception {
+            if (index < services.length) {
+                QName service = services[index++];
+                DeliveryChannel channel = getDeliveryChannel();
+                InOut mexchange = channel.createExchangeFactoryForService(service).createInOutExchange();
+                copyProperties(curExchange, mexchange);
+                NormalizedMessage msg = mexchange.createMessage();
+                getMessageTransformer().transform(mexchange, curIn, msg);
+                mexchange.setMessage(msg, "in");
+                ((DeliveryChannelImpl) channel).sendAsync(mexchange, this);
+            } else {
+                // let the exchange be answered or forwarded as a synchronous one
+                completedChains.put(exchange.getExchangeId(), this);
+                complete();
+                processFirstExchange(exchange);
+            }
+        }
+
+        private void failed(Exception e) {
+            if (!complete()) {
+                return;
+            }
+            try {
+                fail(exchange, e);
+            } catch (Exception e2) {
+                LOGGER.warn("Unable to handle error: {}", e2.getMessage(), e2);
+                LOGGER.debug("Original error: {}", e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Releases the in flight permit of this chain
+         * 
+         * @return false if the chain had already been completed
+         */
+        private synchronized boolean complete() {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+            inFlight.release();
+            return true;
+        }
+    }
+
 }
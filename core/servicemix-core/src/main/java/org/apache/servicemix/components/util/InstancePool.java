@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.servicemix.jbi.monitoring.stats.TimeStatisticImpl;
+
+/**
+ * A bounded pool of instances which are expensive to create and can not be
+ * used by several threads at the same time.  Instances are created by the
+ * owner of the pool when none is idle, and kept for reuse up to a maximum.
+ * Subclasses may override {@link #prepareForReuse(Object)} to reset an
+ * instance before it is given back, or to reject it.
+ * The pool also keeps statistics about the uses of its instances.
+ *
+ * @version $Revision$
+ */
+public class InstancePool<T> implements InstancePoolMBean {
+
+    private final BlockingQueue<T> idle;
+    private final int maxIdle;
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final TimeStatisticImpl useTime;
+
+    /**
+     * @param maxIdle the maximum number of idle instances kept in the pool,
+     *                or 0 to disable pooling
+     * @param description the description of the use time statistic
+     */
+    public InstancePool(int maxIdle, String description) {
+        this.maxIdle = maxIdle;
+        this.idle = maxIdle > 0 ? new ArrayBlockingQueue<T>(maxIdle) : null;
+        this.useTime = TimeStatisticImpl.createLatency("useTime", description);
+    }
+
+    /**
+     * Retrieve an idle instance
+     * 
+     * @return the instance, or null if a new one has to be created
+     */
+    public T poll() {
+        T instance = idle != null ? idle.poll() : null;
+        if (instance != null) {
+            reused.incrementAndGet();
+        }
+        return instance;
+    }
+
+    /**
+     * Wait for an idle instance, when no more instances can be created
+     */
+    public T take() throws InterruptedException {
+        T instance = idle.take();
+        reused.incrementAndGet();
+        return instance;
+    }
+
+    /**
+     * Give back an instance so that it can be reused
+     */
+    public void release(T instance) {
+        if (idle == null || !prepareForReuse(instance) || !idle.offer(instance)) {
+            discarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * Resets an instance before it is put back in the pool
+     * 
+     * @return false if the instance can not be reused and must be discarded
+     */
+    protected boolean prepareForReuse(T instance) {
+        return true;
+    }
+
+    /**
+     * Record the creation of an instance
+     */
+    public void instanceCreated() {
+        created.incrementAndGet();
+    }
+
+    /**
+     * Record the outcome of the use of an instance
+     * 
+     * @param nanos the time the instance has been used for, in nanoseconds
+     * @param success whether the use succeeded
+     */
+    public void instanceUsed(long nanos, boolean success) {
+        if (!success) {
+            failures.incrementAndGet();
+        }
+        useTime.addTime(nanos);
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public int getIdleCount() {
+        return idle != null ? idle.size() : 0;
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    public long getUseCount() {
+        return useTime.getCount();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public double getAverageUseTime() {
+        return useTime.getAverageTimeMillis();
+    }
+
+    public double getMaxUseTime() {
+        return useTime.getMaxTimeMillis();
+    }
+
+    public CompositeData getUseTimePercentiles() {
+        return useTime.getWindowPercentilesMillis();
+    }
+
+    public void clear() {
+        if (idle != null) {
+            idle.clear();
+        }
+    }
+
+    public void resetStatistics() {
+        created.set(0);
+        reused.set(0);
+        discarded.set(0);
+        failures.set(0);
+        useTime.reset();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.util;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Management interface of an {@link InstancePool}
+ *
+ * @version $Revision$
+ */
+public interface InstancePoolMBean {
+
+    /**
+     * @return the maximum number of idle instances kept in the pool
+     */
+    int getMaxIdle();
+
+    /**
+     * @return the number of idle instances in the pool
+     */
+    int getIdleCount();
+
+    /**
+     * @return the number of instances created
+     */
+    long getCreatedCount();
+
+    /**
+     * @return the number of times an idle instance has been reused
+     */
+    long getReusedCount();
+
+    /**
+     * @return the number of instances which could not be put back in the pool
+     */
+    long getDiscardedCount();
+
+    /**
+     * @return the number of times an instance has been used
+     */
+    long getUseCount();
+
+    /**
+     * @return the number of uses which failed
+     */
+    long getFailureCount();
+
+    /**
+     * @return the average time (ms) an instance has been used for
+     */
+    double getAverageUseTime();
+
+    /**
+     * @return the longest time (ms) an instance has been used for
+     */
+    double getMaxUseTime();
+
+    /**
+     * @return the percentiles of the use times (ms)
+     */
+    CompositeData getUseTimePercentiles();
+
+    /**
+     * Discard the idle instances
+     */
+    void clear();
+
+    /**
+     * Reset the statistics
+     */
+    void resetStatistics();
+
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.servicemix.components.util;
 
+import java.util.concurrent.Semaphore;
+
 import javax.jbi.JBIException;
 import javax.jbi.messaging.DeliveryChannel;
 import javax.jbi.messaging.ExchangeStatus;
@@ -31,18 +33,34 @@ import javax.xml.namespace.QName;
 import org.apache.servicemix.MessageExchangeListener;
 import org.apache.servicemix.jbi.MissingPropertyException;
 import org.apache.servicemix.jbi.NoServiceAvailableException;
+import org.apache.servicemix.jbi.messaging.DeliveryChannelImpl;
+import org.apache.servicemix.jbi.messaging.ExchangeCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This component acts as an InOnly component which pipelines a request/response (InOut) to a service
  * then forwards the response onto an InOut component.
  *
+ * In asynchronous mode, the request/response exchange is sent without blocking
+ * and the response is forwarded when it comes back, so that threads are not held
+ * while the service is processing.  At most <code>maxInFlight</code> requests are
+ * pending at the same time; when this limit is reached, further exchanges are
+ * processed synchronously by the calling thread, as are transacted exchanges.
+ *
  * @version $Revision$
  */
 public class PipelineComponent extends ComponentSupport implements MessageExchangeListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineComponent.class);
+
     private ServiceEndpoint requestResponseEndpoint;
     private ServiceEndpoint outputEndpoint;
     private QName requestResponseServiceName;
     private QName outputEndpointServiceName;
+    private boolean asynchronous;
+    private int maxInFlight = 100;
+    private Semaphore inFlight;
 
     public PipelineComponent() {
     }
@@ -67,6 +85,9 @@ public class PipelineComponent extends ComponentSupport implements MessageExchan
             }
             outputEndpoint = chooseEndpoint(outputEndpointServiceName);
         }
+        if (asynchronous && inFlight == null) {
+            inFlight = new Semaphore(maxInFlight);
+        }
     }
 
     public void onMessageExchange(MessageExchange exchange) throws MessagingException {
@@ -83,8 +104,47 @@ public class PipelineComponent extends ComponentSupport implements MessageExchan
         MessageExchangeFactory rpcFactory = deliveryChannel.createExchangeFactory(requestResponseEndpoint);
         InOut rpc = rpcFactory.createInOutExchange();
         rpc.setInMessage(exchange.getMessage("in"));
+        if (asynchronous && inFlight != null && !exchange.isTransacted()
+                && deliveryChannel instanceof DeliveryChannelImpl && inFlight.tryAcquire()) {
+            try {
+                ((DeliveryChannelImpl) deliveryChannel).sendAsync(rpc, new Stage(exchange));
+            } catch (MessagingException e) {
+                inFlight.release();
+                throw e;
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+            return;
+        }
         boolean answer = deliveryChannel.sendSync(rpc);
+        forward(exchange, rpc, answer);
+    }
 
+    /**
+     * Forwards the response of the request/response exchange to the output endpoint
+     * and completes the exchanges.  An error or fault returned by the request/response
+     * service fails the exchange.
+     *
+     * @param exchange the exchange received by this component
+     * @param rpc the request/response exchange
+     * @param answer whether the request/response exchange has been answered
+     * @throws MessagingException
+     */
+    protected void forward(MessageExchange exchange, InOut rpc, boolean answer) throws MessagingException {
+        if (answer && rpc.getStatus() == ExchangeStatus.ERROR) {
+            Exception error = rpc.getError();
+            if (error == null) {
+                error = new MessagingException("Exchange " + rpc.getExchangeId() + " has failed");
+            }
+            fail(exchange, error);
+            return;
+        } else if (answer && rpc.getFault() != null) {
+            fail(exchange, rpc.getFault());
+            done(rpc);
+            return;
+        }
+        DeliveryChannel deliveryChannel = getDeliveryChannel();
         MessageExchangeFactory outputFactory = deliveryChannel.createExchangeFactory(outputEndpoint);
         InOnly inOnly = outputFactory.createInOnlyExchange();
 
@@ -105,6 +165,41 @@ public class PipelineComponent extends ComponentSupport implements MessageExchan
 
     // Properties
     //-------------------------------------------------------------------------
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Sets whether the request/response service is invoked without blocking
+     * the thread which received the exchange.
+     *
+     * @param asynchronous
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of requests pending at the same time
+     * in asynchronous mode.
+     *
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the number of requests currently pending in asynchronous mode
+     */
+    public int getInFlightCount() {
+        return inFlight != null ? maxInFlight - inFlight.availablePermits() : 0;
+    }
+
     public ServiceEndpoint getRequestResponseEndpoint() {
         return requestResponseEndpoint;
     }
@@ -156,4 +251,42 @@ public class PipelineComponent extends ComponentSupport implements MessageExchan
         return endpoints[0];
     }
 
+    /**
+     * Forwards the response of an asynchronous request/response exchange.
+     */
+    private class Stage implements ExchangeCallback {
+        private final MessageExchange exchange;
+
+        Stage(MessageExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        public void exchangeCompleted(MessageExchange rpc) {
+            try {
+                forward(exchange, (InOut) rpc, true);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to forward the response of exchange {}", rpc.getExchangeId(), e);
+                failQuietly(e);
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        public void exchangeAborted(MessageExchange rpc) {
+            try {
+                failQuietly(new MessagingException("Exchange " + rpc.getExchangeId() + " has been aborted"));
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        private void failQuietly(Exception e) {
+            try {
+                fail(exchange, e);
+            } catch (Exception e2) {
+                LOGGER.warn("Unable to handle error: {}", e2.getMessage(), e2);
+            }
+        }
+    }
+
 }
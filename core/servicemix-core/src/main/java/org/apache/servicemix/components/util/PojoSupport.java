@@ -16,6 +16,9 @@
  */
 package org.apache.servicemix.components.util;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import javax.jbi.JBIException;
 import javax.jbi.component.ComponentContext;
 import javax.jbi.component.ComponentLifeCycle;
@@ -36,6 +39,8 @@ import javax.xml.namespace.QName;
 import org.apache.servicemix.jbi.FaultException;
 import org.apache.servicemix.jbi.NotInitialisedYetException;
 import org.apache.servicemix.jbi.management.BaseLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A useful base class for a POJO based JBI component which contains most of the basic plumbing
@@ -44,6 +49,8 @@ import org.apache.servicemix.jbi.management.BaseLifeCycle;
  */
 public abstract class PojoSupport extends BaseLifeCycle implements ComponentLifeCycle {
 
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(PojoSupport.class);
+
     private ComponentContext context;
     private ObjectName extensionMBeanName;
     private QName service;
@@ -52,6 +59,7 @@ public abstract class PojoSupport extends BaseLifeCycle implements ComponentLife
     private String description = "POJO Component";
     private ServiceEndpoint serviceEndpoint;
     private DeliveryChannel channel;
+    private List<ObjectName> customMBeanNames = new CopyOnWriteArrayList<ObjectName>();
     
     protected PojoSupport() {
     }
@@ -95,9 +103,49 @@ public abstract class PojoSupport extends BaseLifeCycle implements ComponentLife
             context.deactivateEndpoint(serviceEndpoint);
         }
         exchangeFactory = null;
+        unregisterCustomMBeans();
         super.shutDown();
     }
 
+    /**
+     * Register an MBean exposing a part of this component, such as a pool or a cache,
+     * under a name built from the component name and the given type.  The MBean is
+     * unregistered when the component is shut down.  Nothing is registered if the
+     * component has no MBean server, and a failure is only logged.
+     *
+     * @param type the type of the MBean, unique for this component
+     * @param bean the MBean
+     * @return the name of the MBean, or <code>null</code> if it has not been registered
+     */
+    protected ObjectName registerCustomMBean(String type, Object bean) {
+        if (context == null || context.getMBeanServer() == null) {
+            return null;
+        }
+        try {
+            ObjectName name = context.getMBeanNames().createCustomComponentMBeanName(type);
+            context.getMBeanServer().registerMBean(bean, name);
+            customMBeanNames.add(name);
+            return name;
+        } catch (Exception e) {
+            LOGGER.warn("Unable to register " + type + " MBean for " + getService(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Unregister the MBeans registered with {@link #registerCustomMBean(String, Object)}
+     */
+    protected void unregisterCustomMBeans() {
+        for (ObjectName name : customMBeanNames) {
+            try {
+                context.getMBeanServer().unregisterMBean(name);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to unregister MBean " + name, e);
+            }
+        }
+        customMBeanNames.clear();
+    }
+
     // Helper methods
     //-------------------------------------------------------------------------
 
@@ -213,6 +213,13 @@ public abstract class TransformComponentSupport extends ComponentSupport impleme
         
     }
 
+    /**
+     * @return the name of the property correlating the exchanges received and sent by this component
+     */
+    protected String getCorrelation() {
+        return correlation;
+    }
+
     public boolean isCopyProperties() {
         return copyProperties;
     }
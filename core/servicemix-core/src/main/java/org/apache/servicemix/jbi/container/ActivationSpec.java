@@ -58,6 +58,7 @@ public class ActivationSpec implements Serializable {
     private transient PojoMarshaler marshaler;
     private SubscriptionSpec[] subscriptions = {};
     private boolean failIfNoDestinationEndpoint = true;
+    private boolean routeCacheEnabled = true;
     private Boolean persistent;
     private String destinationUri;
 
@@ -264,6 +265,22 @@ public class ActivationSpec implements Serializable {
         this.failIfNoDestinationEndpoint = failIfNoDestinationEndpoint;
     }
 
+    public boolean isRouteCacheEnabled() {
+        return routeCacheEnabled;
+    }
+
+    /**
+     * Sets whether the NMR may cache the endpoints accepted for routes involving
+     * this component.  This should be disabled for components whose
+     * <code>isExchangeWithConsumerOkay</code> or <code>isExchangeWithProviderOkay</code>
+     * checks depend on the content of the exchange.
+     * 
+     * @param routeCacheEnabled
+     */
+    public void setRouteCacheEnabled(boolean routeCacheEnabled) {
+        this.routeCacheEnabled = routeCacheEnabled;
+    }
+
     /**
      * Lazily create a resolver from the available information
      */
@@ -41,7 +41,6 @@ import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.swing.event.EventListenerList;
 import javax.transaction.TransactionManager;
 import javax.xml.namespace.QName;
 
@@ -60,8 +59,10 @@ import org.apache.servicemix.jbi.event.ComponentListener;
 import org.apache.servicemix.jbi.event.ContainerAware;
 import org.apache.servicemix.jbi.event.DeploymentListener;
 import org.apache.servicemix.jbi.event.EndpointListener;
+import org.apache.servicemix.jbi.event.EventListenerRegistry;
 import org.apache.servicemix.jbi.event.ExchangeEvent;
 import org.apache.servicemix.jbi.event.ExchangeListener;
+import org.apache.servicemix.jbi.event.ExchangeQueueListener;
 import org.apache.servicemix.jbi.event.ServiceAssemblyListener;
 import org.apache.servicemix.jbi.event.ServiceUnitListener;
 import org.apache.servicemix.jbi.framework.AdminCommandsService;
@@ -114,7 +115,7 @@ public class JBIContainer extends BaseLifeCycle implements Container {
     protected boolean persistent;
     protected boolean embedded;
     protected boolean notifyStatistics;
-    protected EventListenerList listeners = new EventListenerList();
+    protected EventListenerRegistry listeners = new EventListenerRegistry();
     protected EventListener[] configuredListeners;
     protected boolean useShutdownHook = true;
     protected boolean useNewTransactionModel;
@@ -994,7 +995,7 @@ public class JBIContainer extends BaseLifeCycle implements Container {
     /**
      * @param context
      * @param interfaceName
-     * @return endpoints that match the interface name
+     * @return a copy of the endpoints that match the interface name
      */
     public ServiceEndpoint[] getEndpoints(ComponentContextImpl context, QName interfaceName) {
         return registry.getEndpointsForInterface(interfaceName);
@@ -1003,7 +1004,7 @@ public class JBIContainer extends BaseLifeCycle implements Container {
     /**
      * @param context
      * @param serviceName
-     * @return endpoints for a given service
+     * @return a copy of the endpoints for a given service
      */
     public ServiceEndpoint[] getEndpointsForService(ComponentContextImpl context, QName serviceName) {
         return registry.getEndpointsForService(serviceName);
@@ -1369,6 +1370,9 @@ public class JBIContainer extends BaseLifeCycle implements Container {
         if (listener instanceof ExchangeListener) {
             listeners.add(ExchangeListener.class, (ExchangeListener) listener);
         }
+        if (listener instanceof ExchangeQueueListener) {
+            listeners.add(ExchangeQueueListener.class, (ExchangeQueueListener) listener);
+        }
         if (listener instanceof ComponentListener) {
             listeners.add(ComponentListener.class, (ComponentListener) listener);
         }
@@ -1391,6 +1395,9 @@ public class JBIContainer extends BaseLifeCycle implements Container {
         if (listener instanceof ExchangeListener) {
             listeners.remove(ExchangeListener.class, (ExchangeListener) listener);
         }
+        if (listener instanceof ExchangeQueueListener) {
+            listeners.remove(ExchangeQueueListener.class, (ExchangeQueueListener) listener);
+        }
         if (listener instanceof ComponentListener) {
             listeners.remove(ComponentListener.class, (ComponentListener) listener);
         }
@@ -1408,6 +1415,13 @@ public class JBIContainer extends BaseLifeCycle implements Container {
         }
     }
 
+    /**
+     * Get the listeners registered for the given type. The returned array
+     * is typed, shared by all callers and must not be modified.
+     *
+     * @param lc the listener type
+     * @return the listeners
+     */
     public Object[] getListeners(Class lc) {
         return listeners.getListeners(lc);
     }
@@ -1428,12 +1442,14 @@ public class JBIContainer extends BaseLifeCycle implements Container {
         me.getPacket().setStatus(ExchangeStatus.ACTIVE);
         me.getPacket().setProperty(JbiConstants.DATESTAMP_PROPERTY_NAME, Calendar.getInstance());
         ExchangeListener[] l = (ExchangeListener[]) listeners.getListeners(ExchangeListener.class);
-        ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_SENT);
-        for (int i = 0; i < l.length; i++) {
-            try {
-                l[i].exchangeSent(event);
-            } catch (Exception e) {
-                LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
+        if (l.length > 0) {
+            ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_SENT);
+            for (int i = 0; i < l.length; i++) {
+                try {
+                    l[i].exchangeSent(event);
+                } catch (Exception e) {
+                    LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
+                }
             }
         }
         me.handleSend(false);
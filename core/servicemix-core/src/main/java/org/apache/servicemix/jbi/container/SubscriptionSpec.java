@@ -23,7 +23,6 @@ import javax.xml.namespace.QName;
 
 import org.apache.servicemix.jbi.framework.ComponentNameSpace;
 import org.apache.servicemix.jbi.framework.Registry;
-import org.apache.servicemix.jbi.messaging.ExchangePacket;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
 import org.apache.servicemix.jbi.resolver.SubscriptionFilter;
 import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
@@ -114,10 +113,30 @@ public class SubscriptionSpec implements Serializable {
      * @return true if this subscription matches the exchange
      */
     public boolean matches(Registry registry, MessageExchangeImpl exchange) {
-        boolean result = false;
+        boolean result = matchesSource(registry, exchange.getPacket().getSourceId());
+        if (result && filter != null) {
+            result = filter.matches(exchange);
+        }
+        return result;
+    }
 
-        ExchangePacket packet = exchange.getPacket();
-        ComponentNameSpace sourceId = packet.getSourceId();
+    /**
+     * Returns true if this subscription matches exchanges sent by the given
+     * component, without taking the filter into account. The result only
+     * depends on the endpoints currently registered.
+     * 
+     * @param registry
+     *            the registry
+     * @param sourceId
+     *            the component which sent the exchange, may be null
+     * @return true if this subscription matches exchanges from this component
+     */
+    public boolean matchesSource(Registry registry, ComponentNameSpace sourceId) {
+        // allow a match all subscription
+        if (service == null && interfaceName == null) {
+            return true;
+        }
+        boolean result = false;
         if (sourceId != null) {
             // get the list of services
             if (service != null) {
@@ -146,14 +165,6 @@ public class SubscriptionSpec implements Serializable {
                 }
             }
         }
-        
-        // allow a match all subscription
-        if (service == null && interfaceName == null) {
-            result = true;
-        }
-        if (result && filter != null) {
-            result = filter.matches(exchange);
-        }
         return result;
     }
 
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.event;
+
+import java.lang.reflect.Array;
+import java.util.EventListener;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A copy-on-write registry of listeners keyed by listener type.
+ *
+ * Unlike {@link javax.swing.event.EventListenerList}, the typed array of
+ * listeners for a given type is computed when listeners are added or removed,
+ * so that {@link #getListeners(Class)} does not allocate anything and can be
+ * used on the hot path of the NMR. The returned arrays are shared and must not
+ * be modified.
+ *
+ * @version $Revision$
+ */
+public class EventListenerRegistry {
+
+    private final ConcurrentHashMap<Class, EventListener[]> listeners = new ConcurrentHashMap<Class, EventListener[]>();
+
+    public synchronized <T extends EventListener> void add(Class<T> type, T listener) {
+        if (!type.isInstance(listener)) {
+            throw new IllegalArgumentException("Listener " + listener + " is not of type " + type);
+        }
+        EventListener[] old = getListeners(type);
+        EventListener[] l = (EventListener[]) Array.newInstance(type, old.length + 1);
+        System.arraycopy(old, 0, l, 0, old.length);
+        l[old.length] = listener;
+        listeners.put(type, l);
+    }
+
+    public synchronized <T extends EventListener> void remove(Class<T> type, T listener) {
+        EventListener[] old = getListeners(type);
+        for (int i = old.length - 1; i >= 0; i--) {
+            if (old[i] == listener) {
+                EventListener[] l = (EventListener[]) Array.newInstance(type, old.length - 1);
+                System.arraycopy(old, 0, l, 0, i);
+                System.arraycopy(old, i + 1, l, i, old.length - i - 1);
+                listeners.put(type, l);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the listeners registered for the given type, as an array of that type.
+     *
+     * @param type the listener type
+     * @return a shared array, which must not be modified
+     */
+    public EventListener[] getListeners(Class type) {
+        EventListener[] l = listeners.get(type);
+        if (l == null) {
+            l = (EventListener[]) Array.newInstance(type, 0);
+            EventListener[] old = listeners.putIfAbsent(type, l);
+            if (old != null) {
+                l = old;
+            }
+        }
+        return l;
+    }
+
+    public int getListenerCount(Class type) {
+        return getListeners(type).length;
+    }
+
+}
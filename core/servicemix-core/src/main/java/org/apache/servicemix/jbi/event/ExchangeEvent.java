@@ -32,6 +32,8 @@ public class ExchangeEvent extends EventObject {
 
     public static final int EXCHANGE_SENT = 0;
     public static final int EXCHANGE_ACCEPTED = 1;
+    public static final int EXCHANGE_ENQUEUED = 2;
+    public static final int EXCHANGE_DEQUEUED = 3;
     
     private static final long serialVersionUID = -8349785806912334977L;
 
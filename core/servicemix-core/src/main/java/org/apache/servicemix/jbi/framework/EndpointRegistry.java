@@ -26,6 +26,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jbi.JBIException;
 import javax.jbi.component.ComponentContext;
@@ -53,6 +54,8 @@ public class EndpointRegistry {
     
     private static final transient Logger LOGGER = LoggerFactory.getLogger(EndpointRegistry.class);
     
+    private static final ServiceEndpoint[] NO_ENDPOINTS = new ServiceEndpoint[0];
+    
     private Registry registry;
     
     private Map<AbstractServiceEndpoint, Endpoint> endpointMBeans;
@@ -65,6 +68,16 @@ public class EndpointRegistry {
     
     private Map<QName, InterfaceConnection> interfaceConnections;
     
+    private Map<QName, ServiceEndpoint[]> internalEndpointsByService;
+    
+    private Map<QName, ServiceEndpoint[]> internalEndpointsByInterface;
+    
+    private volatile ServiceEndpoint[] allInternalEndpoints = NO_ENDPOINTS;
+    
+    private final Object indexLock = new Object();
+    
+    private final AtomicInteger generation = new AtomicInteger();
+    
     private List<EndpointProcessor> endpointProcessors;
     
     private ExecutorService executor = Executors.newSingleThreadExecutor();
@@ -81,6 +94,8 @@ public class EndpointRegistry {
         this.externalEndpoints = new ConcurrentHashMap<String, ServiceEndpoint>();
         this.linkedEndpoints = new ConcurrentHashMap<String, ServiceEndpoint>();
         this.interfaceConnections = new ConcurrentHashMap<QName, InterfaceConnection>();
+        this.internalEndpointsByService = new ConcurrentHashMap<QName, ServiceEndpoint[]>();
+        this.internalEndpointsByInterface = new ConcurrentHashMap<QName, ServiceEndpoint[]>();
         this.endpointProcessors = getEndpointProcessors();
         this.executor.execute(new Runnable() {
             public void run() {
@@ -142,14 +157,26 @@ public class EndpointRegistry {
     }
 
     /**
-     * Get all endpoints for a given service
+     * Get the generation of the internal endpoint indexes, which is incremented
+     * each time an internal endpoint or an interface connection is added or removed.
+     * This can be used to validate data derived from the indexes.
+     * 
+     * @return the current generation
+     */
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Get all endpoints for a given service.
+     * The returned array is a shared snapshot of the index and must not be modified.
      * 
      * @param serviceName
      * @return array of endpoints
      */
     public ServiceEndpoint[] getEndpointsForService(QName serviceName) {
-        Collection<ServiceEndpoint> collection = getEndpointsByService(serviceName, getInternalEndpoints());
-        return asEndpointArray(collection);
+        ServiceEndpoint[] endpoints = serviceName != null ? internalEndpointsByService.get(serviceName) : null;
+        return endpoints != null ? endpoints : NO_ENDPOINTS;
     }
 
     /**
@@ -159,10 +186,11 @@ public class EndpointRegistry {
      * @param interfaceName qualified name of interface/portType that is implemented by the endpoint; if
      * <code>null</code> then all activated endpoints in the JBI environment must be returned.
      * @return an array of available endpoints for the specified interface name; must be non-null; may be empty.
+     * The returned array is a shared snapshot of the index and must not be modified.
      */
     public ServiceEndpoint[] getEndpointsForInterface(QName interfaceName) {
         if (interfaceName == null) {
-            return asEndpointArray(internalEndpoints.values());
+            return allInternalEndpoints;
         }
         InterfaceConnection conn = interfaceConnections.get(interfaceName);
         if (conn != null) {
@@ -171,13 +199,13 @@ public class EndpointRegistry {
             if (ep == null) {
                 LOGGER.warn("Connection for interface " + interfaceName + " could not find target for service "
                                 + conn.service + " and endpoint " + conn.endpoint);
-                return new ServiceEndpoint[0];
+                return NO_ENDPOINTS;
             } else {
-                return new ServiceEndpoint[] {ep };
+                return conn.resolve(ep);
             }
         }
-        Collection<ServiceEndpoint> result = getEndpointsByInterface(interfaceName, getInternalEndpoints());
-        return asEndpointArray(result);
+        ServiceEndpoint[] endpoints = internalEndpointsByInterface.get(interfaceName);
+        return endpoints != null ? endpoints : NO_ENDPOINTS;
     }
 
     /**
@@ -219,7 +247,7 @@ public class EndpointRegistry {
             }
         }
         // Register endpoint
-        internalEndpoints.put(key, serviceEndpoint);
+        putInternalEndpoint(key, serviceEndpoint);
         registerEndpoint(serviceEndpoint);
         fireEvent(serviceEndpoint, EndpointEvent.INTERNAL_ENDPOINT_REGISTERED);
         return serviceEndpoint;
@@ -238,7 +266,7 @@ public class EndpointRegistry {
             serviceEndpoint.setComponentName(null);
         } else {
             String key = getKey(serviceEndpoint);
-            internalEndpoints.remove(key);
+            removeInternalEndpoint(key);
             unregisterEndpoint(serviceEndpoint);
             fireEvent(serviceEndpoint, EndpointEvent.INTERNAL_ENDPOINT_UNREGISTERED);
         }
@@ -254,7 +282,7 @@ public class EndpointRegistry {
         // Create endpoint if not already existing
         if (endpoint == null) {
             endpoint = new InternalEndpoint(null, remote.getEndpointName(), remote.getServiceName());
-            internalEndpoints.put(getKey(endpoint), endpoint);
+            putInternalEndpoint(getKey(endpoint), endpoint);
         }
         // Add remote endpoint
         endpoint.addRemoteEndpoint(remote);
@@ -272,7 +300,7 @@ public class EndpointRegistry {
         if (endpoint != null) {
             endpoint.removeRemoteEndpoint(remote);
             if (!endpoint.isClustered() && !endpoint.isLocal()) {
-                internalEndpoints.remove(key);
+                removeInternalEndpoint(key);
                 unregisterEndpoint(endpoint);
             }
             fireEvent(remote, EndpointEvent.REMOTE_ENDPOINT_UNREGISTERED);
@@ -477,6 +505,7 @@ public class EndpointRegistry {
             throw new JBIException("An interface connection for " + fromItf + " is already registered");
         }
         interfaceConnections.put(fromItf, new InterfaceConnection(toSvc, toEp));
+        generation.incrementAndGet();
     }
 
     /**
@@ -486,7 +515,111 @@ public class EndpointRegistry {
      */
     public void unregisterInterfaceConnection(QName fromItf) {
         interfaceConnections.remove(fromItf);
-        
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * Adds (or replaces) an internal endpoint and updates the
+     * service and interface indexes accordingly.
+     * 
+     * @param key
+     * @param endpoint
+     */
+    private void putInternalEndpoint(String key, InternalEndpoint endpoint) {
+        synchronized (indexLock) {
+            ServiceEndpoint old = internalEndpoints.put(key, endpoint);
+            if (old != null) {
+                unindex(old);
+            }
+            index(endpoint);
+        }
+    }
+
+    /**
+     * Removes an internal endpoint and updates the
+     * service and interface indexes accordingly.
+     * 
+     * @param key
+     */
+    private void removeInternalEndpoint(String key) {
+        synchronized (indexLock) {
+            ServiceEndpoint old = internalEndpoints.remove(key);
+            if (old != null) {
+                unindex(old);
+            }
+        }
+    }
+
+    private void index(ServiceEndpoint endpoint) {
+        addToIndex(internalEndpointsByService, endpoint.getServiceName(), endpoint);
+        QName[] interfaces = endpoint.getInterfaces();
+        if (interfaces != null) {
+            for (int i = 0; i < interfaces.length; i++) {
+                if (interfaces[i] != null) {
+                    addToIndex(internalEndpointsByInterface, interfaces[i], endpoint);
+                }
+            }
+        }
+        allInternalEndpoints = append(allInternalEndpoints, endpoint);
+        generation.incrementAndGet();
+    }
+
+    private void unindex(ServiceEndpoint endpoint) {
+        removeFromIndex(internalEndpointsByService, endpoint.getServiceName(), endpoint);
+        QName[] interfaces = endpoint.getInterfaces();
+        if (interfaces != null) {
+            for (int i = 0; i < interfaces.length; i++) {
+                if (interfaces[i] != null) {
+                    removeFromIndex(internalEndpointsByInterface, interfaces[i], endpoint);
+                }
+            }
+        }
+        allInternalEndpoints = remove(allInternalEndpoints, endpoint);
+        generation.incrementAndGet();
+    }
+
+    private static void addToIndex(Map<QName, ServiceEndpoint[]> index, QName name, ServiceEndpoint endpoint) {
+        ServiceEndpoint[] endpoints = index.get(name);
+        index.put(name, append(endpoints != null ? endpoints : NO_ENDPOINTS, endpoint));
+    }
+
+    private static void removeFromIndex(Map<QName, ServiceEndpoint[]> index, QName name, ServiceEndpoint endpoint) {
+        ServiceEndpoint[] endpoints = index.get(name);
+        if (endpoints != null) {
+            endpoints = remove(endpoints, endpoint);
+            if (endpoints.length == 0) {
+                index.remove(name);
+            } else {
+                index.put(name, endpoints);
+            }
+        }
+    }
+
+    private static ServiceEndpoint[] append(ServiceEndpoint[] endpoints, ServiceEndpoint endpoint) {
+        for (int i = 0; i < endpoints.length; i++) {
+            if (endpoints[i] == endpoint) {
+                return endpoints;
+            }
+        }
+        ServiceEndpoint[] answer = new ServiceEndpoint[endpoints.length + 1];
+        System.arraycopy(endpoints, 0, answer, 0, endpoints.length);
+        answer[endpoints.length] = endpoint;
+        return answer;
+    }
+
+    private static ServiceEndpoint[] remove(ServiceEndpoint[] endpoints, ServiceEndpoint endpoint) {
+        for (int i = 0; i < endpoints.length; i++) {
+            if (endpoints[i] == endpoint) {
+                if (endpoints.length == 1) {
+                    return NO_ENDPOINTS;
+                }
+                ServiceEndpoint[] answer = new ServiceEndpoint[endpoints.length - 1];
+                System.arraycopy(endpoints, 0, answer, 0, i);
+                System.arraycopy(endpoints, i + 1, answer, i, endpoints.length - i - 1);
+                return answer;
+            }
+        }
+        return endpoints;
     }
     
     private void registerEndpoint(AbstractServiceEndpoint serviceEndpoint) {
@@ -520,10 +653,23 @@ public class EndpointRegistry {
     private static class InterfaceConnection {
         QName service;
         String endpoint;
+        volatile ServiceEndpoint[] resolved;
         InterfaceConnection(QName service, String endpoint) {
             this.service = service;
             this.endpoint = endpoint;
         }
+        /**
+         * Return the same array as long as the target endpoint does not change,
+         * so that routes through this connection can be cached.
+         */
+        ServiceEndpoint[] resolve(ServiceEndpoint ep) {
+            ServiceEndpoint[] endpoints = resolved;
+            if (endpoints == null || endpoints[0] != ep) {
+                endpoints = new ServiceEndpoint[] {ep };
+                resolved = endpoints;
+            }
+            return endpoints;
+        }
     }
 
     protected synchronized void fireEvent(final ServiceEndpoint ep, final int type) {
@@ -203,10 +203,10 @@ public class Registry extends BaseSystemService implements RegistryMBean {
     
     /**
      * @param interfaceName qualified name
-     * @return an array of available endpoints for the specified interface name;
+     * @return a copy of the array of available endpoints for the specified interface name;
      */
     public ServiceEndpoint[] getEndpointsForInterface(QName interfaceName) {
-        return endpointRegistry.getEndpointsForInterface(interfaceName);
+        return endpointRegistry.getEndpointsForInterface(interfaceName).clone();
     }
 
     /**
@@ -426,10 +426,10 @@ public class Registry extends BaseSystemService implements RegistryMBean {
 
     /**
      * @param serviceName
-     * @return endpoints
+     * @return a copy of the endpoints
      */
     public ServiceEndpoint[] getEndpointsForService(QName serviceName) {
-        return endpointRegistry.getEndpointsForService(serviceName);
+        return endpointRegistry.getEndpointsForService(serviceName).clone();
     }
 
     /**
@@ -21,20 +21,34 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.servicemix.jbi.container.SubscriptionSpec;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
+import org.apache.servicemix.jbi.resolver.SubscriptionFilter;
 import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
 
 /**
  * Maintains a registry of the applicable subscriptions currently active for the
- * current components
+ * current components.
+ * 
+ * Whether a subscription applies to an exchange only depends on the component
+ * which sent it (through the service and interface of the subscription) and on
+ * the optional filter. The subscriptions applicable to each source component are
+ * thus indexed, and the index is rebuilt lazily when subscriptions or endpoints
+ * change, so that only the filters of the candidate subscriptions are evaluated
+ * for each exchange.
  * 
  * @version $Revision$
  */
 public class SubscriptionRegistry {
 
+    private static final int MAX_INDEXED_SOURCES = 1000;
+
     private Map<SubscriptionSpec, InternalEndpoint> subscriptions = new ConcurrentHashMap<SubscriptionSpec, InternalEndpoint>();
+    private Map<ComponentNameSpace, Candidates> candidatesBySource = new ConcurrentHashMap<ComponentNameSpace, Candidates>();
+    private volatile Candidates candidatesWithoutSource;
+    private AtomicInteger version = new AtomicInteger();
     private Registry registry;
     
     public SubscriptionRegistry(Registry registry) {
@@ -47,6 +61,7 @@ public class SubscriptionRegistry {
      */
     public void registerSubscription(SubscriptionSpec subscription, InternalEndpoint endpoint) {
         subscriptions.put(subscription, endpoint);
+        version.incrementAndGet();
     }
 
     /**
@@ -54,7 +69,9 @@ public class SubscriptionRegistry {
      * @return the ServiceEndpoint
      */
     public InternalEndpoint deregisterSubscription(SubscriptionSpec subscription) {
-        return (InternalEndpoint) subscriptions.remove(subscription);
+        InternalEndpoint endpoint = (InternalEndpoint) subscriptions.remove(subscription);
+        version.incrementAndGet();
+        return endpoint;
     }
     
     
@@ -63,20 +80,73 @@ public class SubscriptionRegistry {
      * @return a List of matching endpoints - can return null if no matches
      */
     public List<InternalEndpoint> getMatchingSubscriptionEndpoints(MessageExchangeImpl exchange) {
+        Candidates candidates = getCandidates(exchange.getPacket().getSourceId());
         List<InternalEndpoint> result = null;
-        for (Iterator iter = subscriptions.entrySet().iterator(); iter.hasNext();) {
-            Map.Entry entry = (Map.Entry) iter.next();
-
-            SubscriptionSpec subscription = (SubscriptionSpec) entry.getKey();
-            if (subscription.matches(registry, exchange)) {
+        for (int i = 0; i < candidates.specs.length; i++) {
+            SubscriptionFilter filter = candidates.specs[i].getFilter();
+            if (filter == null || filter.matches(exchange)) {
                 if (result == null) {
                     result = new ArrayList<InternalEndpoint>();
                 }
-                InternalEndpoint endpoint = (InternalEndpoint) entry.getValue();
-                result.add(endpoint);
+                result.add(candidates.endpoints[i]);
             }
         }
         return result;
     }
 
+    /**
+     * Retrieve the subscriptions applicable to exchanges sent by the given component,
+     * recomputing them if the subscriptions or the endpoints have changed.
+     * 
+     * @param sourceId the source component, may be null
+     * @return the candidate subscriptions
+     */
+    protected Candidates getCandidates(ComponentNameSpace sourceId) {
+        int generation = registry.getEndpointRegistry().getGeneration();
+        int ver = version.get();
+        Candidates candidates = sourceId != null ? candidatesBySource.get(sourceId) : candidatesWithoutSource;
+        if (candidates != null && candidates.generation == generation && candidates.version == ver) {
+            return candidates;
+        }
+        List<SubscriptionSpec> specs = new ArrayList<SubscriptionSpec>();
+        List<InternalEndpoint> endpoints = new ArrayList<InternalEndpoint>();
+        for (Iterator<Map.Entry<SubscriptionSpec, InternalEndpoint>> iter = subscriptions.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<SubscriptionSpec, InternalEndpoint> entry = iter.next();
+            if (entry.getKey().matchesSource(registry, sourceId)) {
+                specs.add(entry.getKey());
+                endpoints.add(entry.getValue());
+            }
+        }
+        candidates = new Candidates(generation, ver, 
+                                    specs.toArray(new SubscriptionSpec[specs.size()]), 
+                                    endpoints.toArray(new InternalEndpoint[endpoints.size()]));
+        if (sourceId != null) {
+            if (candidatesBySource.size() >= MAX_INDEXED_SOURCES) {
+                candidatesBySource.clear();
+            }
+            candidatesBySource.put(sourceId, candidates);
+        } else {
+            candidatesWithoutSource = candidates;
+        }
+        return candidates;
+    }
+
+    /**
+     * The subscriptions applicable to a source component, along with
+     * the versions of the registries they have been computed from.
+     */
+    protected static class Candidates {
+        final int generation;
+        final int version;
+        final SubscriptionSpec[] specs;
+        final InternalEndpoint[] endpoints;
+
+        Candidates(int generation, int version, SubscriptionSpec[] specs, InternalEndpoint[] endpoints) {
+            this.generation = generation;
+            this.version = version;
+            this.specs = specs;
+            this.endpoints = endpoints;
+        }
+    }
+
 }
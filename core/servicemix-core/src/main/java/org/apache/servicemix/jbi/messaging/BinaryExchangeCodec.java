@@ -0,0 +1,626 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.activation.DataSource;
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.security.auth.Subject;
+import javax.xml.namespace.QName;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.servicemix.jbi.framework.ComponentNameSpace;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
+import org.apache.servicemix.jbi.jaxp.ResourceSource;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
+import org.apache.servicemix.jbi.util.ByteArrayDataSource;
+import org.apache.servicemix.jbi.util.FileUtil;
+
+/**
+ * A compact, versioned binary {@link ExchangeCodec}.
+ * 
+ * Names (QName parts, component names, property keys, the pattern) are
+ * written once per encoded buffer and then referenced by index, message
+ * content is carried as raw bytes rather than being converted to a
+ * String, and simple property values are written inline.  Values that
+ * have no compact representation (errors, security subjects, custom
+ * property values) fall back to java serialization.
+ * 
+ * Content which already is a {@link StringSource} is kept as text: its
+ * XML declaration may name another encoding than the one of the bytes.
+ * 
+ * Buffers which do not start with the codec header are decoded using
+ * java serialization, so that data written by the
+ * {@link SerializationExchangeCodec} can still be read back.
+ * 
+ * @version $Revision$
+ */
+public class BinaryExchangeCodec implements ExchangeCodec {
+
+    public static final int VERSION = 1;
+
+    private static final int MAGIC_1 = 'S';
+    private static final int MAGIC_2 = 'X';
+
+    private static final int KIND_PACKET = 'P';
+    private static final int KIND_EXCHANGE = 'E';
+
+    private static final int TYPE_IN_ONLY = 1;
+    private static final int TYPE_ROBUST_IN_ONLY = 2;
+    private static final int TYPE_IN_OUT = 3;
+    private static final int TYPE_IN_OPTIONAL_OUT = 4;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_BOOLEAN = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_LONG = 4;
+    private static final int VALUE_QNAME = 5;
+    private static final int VALUE_OBJECT = 6;
+
+    private static final int ENDPOINT_INTERNAL = 1;
+
+    private static final int CONTENT_NULL = 0;
+    private static final int CONTENT_BYTES = 1;
+    private static final int CONTENT_TEXT = 2;
+
+    private static final SourceTransformer TRANSFORMER = new SourceTransformer();
+
+    public byte[] encodeExchange(MessageExchangeImpl exchange) throws IOException {
+        Encoder enc = new Encoder(KIND_EXCHANGE);
+        enc.out.writeByte(getType(exchange));
+        enc.out.writeByte(exchange.state);
+        enc.out.writeByte(exchange.mirror.state);
+        enc.out.writeBoolean(exchange.can(MessageExchangeImpl.CAN_PROVIDER));
+        enc.writePacket(exchange.packet);
+        return enc.toByteArray();
+    }
+
+    public MessageExchangeImpl decodeExchange(byte[] data) throws IOException, ClassNotFoundException {
+        if (!isEncoded(data)) {
+            return (MessageExchangeImpl) SerializationExchangeCodec.deserialize(data);
+        }
+        Decoder dec = new Decoder(data, KIND_EXCHANGE);
+        int type = dec.in.readByte();
+        int state = dec.in.readByte();
+        int mirrorState = dec.in.readByte();
+        boolean provider = dec.in.readBoolean();
+        ExchangePacket packet = dec.readPacket();
+        MessageExchangeImpl me = createExchange(type, packet);
+        if (provider) {
+            me = me.mirror;
+        }
+        me.state = state;
+        me.mirror.state = mirrorState;
+        if (packet.in != null) {
+            packet.in.exchange = me;
+        }
+        if (packet.out != null) {
+            packet.out.exchange = me;
+        }
+        if (packet.fault != null) {
+            packet.fault.exchange = me;
+        }
+        return me;
+    }
+
+    public byte[] encodePacket(ExchangePacket packet) throws IOException {
+        Encoder enc = new Encoder(KIND_PACKET);
+        enc.writePacket(packet);
+        return enc.toByteArray();
+    }
+
+    public ExchangePacket decodePacket(byte[] data) throws IOException, ClassNotFoundException {
+        if (!isEncoded(data)) {
+            return ExchangePacket.readPacket(data);
+        }
+        return new Decoder(data, KIND_PACKET).readPacket();
+    }
+
+    /**
+     * Check if the given buffer has been produced by this codec.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length > 3 && data[0] == MAGIC_1 && data[1] == MAGIC_2;
+    }
+
+    private static int getType(MessageExchangeImpl me) throws IOException {
+        if (me instanceof InOnlyImpl) {
+            return TYPE_IN_ONLY;
+        } else if (me instanceof RobustInOnlyImpl) {
+            return TYPE_ROBUST_IN_ONLY;
+        } else if (me instanceof InOutImpl) {
+            return TYPE_IN_OUT;
+        } else if (me instanceof InOptionalOutImpl) {
+            return TYPE_IN_OPTIONAL_OUT;
+        }
+        throw new IOException("Unsupported exchange type: " + me.getClass().getName());
+    }
+
+    private static MessageExchangeImpl createExchange(int type, ExchangePacket packet) throws IOException {
+        switch (type) {
+        case TYPE_IN_ONLY:
+            return new InOnlyImpl(packet);
+        case TYPE_ROBUST_IN_ONLY:
+            return new RobustInOnlyImpl(packet);
+        case TYPE_IN_OUT:
+            return new InOutImpl(packet);
+        case TYPE_IN_OPTIONAL_OUT:
+            return new InOptionalOutImpl(packet);
+        default:
+            throw new IOException("Unsupported exchange type: " + type);
+        }
+    }
+
+    private static byte statusToByte(ExchangeStatus status) {
+        if (status == ExchangeStatus.DONE) {
+            return 1;
+        } else if (status == ExchangeStatus.ERROR) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private static ExchangeStatus byteToStatus(int b) {
+        if (b == 1) {
+            return ExchangeStatus.DONE;
+        } else if (b == 2) {
+            return ExchangeStatus.ERROR;
+        }
+        return ExchangeStatus.ACTIVE;
+    }
+
+    /**
+     * Writes a single buffer.  Strings are interned in a dictionary
+     * local to the buffer: 0 stands for null, 1 for a new literal which
+     * is then added to the dictionary, and n >= 2 for the dictionary
+     * entry n - 2.
+     */
+    private static class Encoder {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        Encoder(int kind) throws IOException {
+            out.writeByte(MAGIC_1);
+            out.writeByte(MAGIC_2);
+            out.writeByte(VERSION);
+            out.writeByte(kind);
+        }
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            return buffer.toByteArray();
+        }
+
+        void writePacket(ExchangePacket packet) throws IOException {
+            writeString(packet.pattern != null ? packet.pattern.toString() : null);
+            writeString(packet.exchangeId);
+            out.writeByte(statusToByte(packet.status));
+            writeComponentName(packet.destinationId);
+            writeComponentName(packet.sourceId);
+            writeQName(packet.serviceName);
+            writeQName(packet.interfaceName);
+            writeQName(packet.operationName);
+            writeObject(packet.error);
+            writeProperties(packet.properties);
+            writeMessage(packet.in);
+            writeMessage(packet.out);
+            writeMessage(packet.fault);
+            writeEndpoint(packet.endpoint);
+            out.writeByte((packet.persistent == null) ? 0 : packet.persistent.booleanValue() ? 1 : 2);
+        }
+
+        void writeMessage(NormalizedMessageImpl msg) throws IOException {
+            if (msg == null) {
+                out.writeBoolean(false);
+                return;
+            }
+            out.writeBoolean(true);
+            writeContent(msg);
+            writeProperties(msg.getProperties());
+            writeAttachments(msg.getAttachments());
+            writeObject(msg.getSecuritySubject());
+        }
+
+        void writeContent(NormalizedMessageImpl msg) throws IOException {
+            Source content = msg.getContent();
+            if (content == null) {
+                out.writeByte(CONTENT_NULL);
+            } else if (content instanceof StringSource) {
+                out.writeByte(CONTENT_TEXT);
+                writeLiteral(((StringSource) content).getText());
+            } else {
+                out.writeByte(CONTENT_BYTES);
+                writeBytes(getContentBytes(msg, content));
+            }
+        }
+
+        byte[] getContentBytes(NormalizedMessageImpl msg, Source content) throws IOException {
+            if (content instanceof BytesSource) {
+                return ((BytesSource) content).getData();
+            }
+            byte[] data;
+            InputStream is = content instanceof StreamSource ? ((StreamSource) content).getInputStream() : null;
+            if (is != null && !(content instanceof ResourceSource)) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                FileUtil.copyInputStream(is, baos);
+                data = baos.toByteArray();
+            } else {
+                try {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    TRANSFORMER.toResult(content, new StreamResult(baos));
+                    data = baos.toByteArray();
+                } catch (TransformerException e) {
+                    throw (IOException) new IOException("Could not read message content").initCause(e);
+                }
+            }
+            // We have consumed the source, so ensure that it can be re-read
+            if ((content instanceof StreamSource || content instanceof SAXSource)
+                    && !(content instanceof ResourceSource)) {
+                msg.setContent(new BytesSource(data));
+            }
+            return data;
+        }
+
+        void writeAttachments(Map attachments) throws IOException {
+            if (attachments == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(attachments.size() + 1);
+            for (Iterator it = attachments.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                DataSource ds = (DataSource) entry.getValue();
+                writeString((String) entry.getKey());
+                writeString(ds.getName());
+                writeString(ds.getContentType());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                FileUtil.copyInputStream(ds.getInputStream(), baos);
+                writeBytes(baos.toByteArray());
+            }
+        }
+
+        void writeProperties(Map properties) throws IOException {
+            if (properties == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(properties.size() + 1);
+            for (Iterator it = properties.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                writeString((String) entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(VALUE_NULL);
+            } else if (value instanceof String) {
+                out.writeByte(VALUE_STRING);
+                writeLiteral((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(VALUE_BOOLEAN);
+                out.writeBoolean(((Boolean) value).booleanValue());
+            } else if (value instanceof Integer) {
+                out.writeByte(VALUE_INTEGER);
+                out.writeInt(((Integer) value).intValue());
+            } else if (value instanceof Long) {
+                out.writeByte(VALUE_LONG);
+                out.writeLong(((Long) value).longValue());
+            } else if (value instanceof QName) {
+                out.writeByte(VALUE_QNAME);
+                writeQName((QName) value);
+            } else {
+                out.writeByte(VALUE_OBJECT);
+                writeObject(value);
+            }
+        }
+
+        void writeEndpoint(ServiceEndpoint endpoint) throws IOException {
+            if (endpoint instanceof InternalEndpoint) {
+                InternalEndpoint ie = (InternalEndpoint) endpoint;
+                out.writeByte(ENDPOINT_INTERNAL);
+                writeComponentName(ie.getComponentNameSpace());
+                writeQName(ie.getServiceName());
+                writeString(ie.getEndpointName());
+                QName[] interfaces = ie.getInterfaces();
+                writeVarInt(interfaces.length);
+                for (int i = 0; i < interfaces.length; i++) {
+                    writeQName(interfaces[i]);
+                }
+            } else {
+                out.writeByte(0);
+                writeObject(endpoint);
+            }
+        }
+
+        void writeComponentName(ComponentNameSpace cns) throws IOException {
+            if (cns == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeString(cns.getContainerName());
+                writeString(cns.getName());
+            }
+        }
+
+        void writeQName(QName name) throws IOException {
+            if (name == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeString(name.getNamespaceURI());
+                writeString(name.getLocalPart());
+                writeString(name.getPrefix());
+            }
+        }
+
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = dictionary.get(s);
+            if (index != null) {
+                writeVarInt(index.intValue() + 2);
+            } else {
+                dictionary.put(s, Integer.valueOf(dictionary.size()));
+                writeVarInt(1);
+                writeLiteral(s);
+            }
+        }
+
+        void writeLiteral(String s) throws IOException {
+            writeBytes(s.getBytes("UTF-8"));
+        }
+
+        void writeObject(Object o) throws IOException {
+            writeBytes(o != null ? SerializationExchangeCodec.serialize(o) : null);
+        }
+
+        void writeBytes(byte[] data) throws IOException {
+            if (data == null) {
+                writeVarInt(0);
+            } else {
+                writeVarInt(data.length + 1);
+                out.write(data);
+            }
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    /**
+     * Reads a buffer written by {@link Encoder}.
+     */
+    private static class Decoder {
+
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<String>();
+
+        Decoder(byte[] data, int kind) throws IOException {
+            in = new DataInputStream(new ByteArrayInputStream(data));
+            in.readByte();
+            in.readByte();
+            int version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported encoding version: " + version);
+            }
+            int k = in.readByte();
+            if (k != kind) {
+                throw new IOException("Unexpected encoded data: " + (char) k);
+            }
+        }
+
+        ExchangePacket readPacket() throws IOException, ClassNotFoundException {
+            ExchangePacket packet = new ExchangePacket();
+            String pattern = readString();
+            packet.pattern = pattern != null ? URI.create(pattern) : null;
+            packet.exchangeId = readString();
+            packet.status = byteToStatus(in.readByte());
+            packet.destinationId = readComponentName();
+            packet.sourceId = readComponentName();
+            packet.serviceName = readQName();
+            packet.interfaceName = readQName();
+            packet.operationName = readQName();
+            packet.error = (Exception) readObject();
+            packet.properties = readProperties(null);
+            packet.in = readMessage(false);
+            packet.out = readMessage(false);
+            packet.fault = (FaultImpl) readMessage(true);
+            packet.endpoint = readEndpoint();
+            byte p = in.readByte();
+            packet.persistent = (p == 0) ? null : p == 1 ? Boolean.TRUE : Boolean.FALSE;
+            return packet;
+        }
+
+        NormalizedMessageImpl readMessage(boolean fault) throws IOException, ClassNotFoundException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            NormalizedMessageImpl msg = fault ? new FaultImpl() : new NormalizedMessageImpl();
+            int contentType = in.readByte();
+            if (contentType == CONTENT_TEXT) {
+                msg.setContent(new StringSource(readLiteral()));
+            } else if (contentType == CONTENT_BYTES) {
+                msg.setContent(new BytesSource(readBytes()));
+            }
+            msg.setProperties(readProperties(msg));
+            msg.setAttachments(readAttachments(msg));
+            msg.setSecuritySubject((Subject) readObject());
+            return msg;
+        }
+
+        Map readAttachments(NormalizedMessageImpl msg) throws IOException {
+            int size = readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            Map attachments = msg.createAttachmentsMap();
+            for (int i = 0; i < size; i++) {
+                String id = readString();
+                String name = readString();
+                String contentType = readString();
+                ByteArrayDataSource ds = new ByteArrayDataSource(readBytes(), contentType);
+                ds.setName(name);
+                attachments.put(id, ds);
+            }
+            return attachments;
+        }
+
+        Map readProperties(NormalizedMessageImpl msg) throws IOException, ClassNotFoundException {
+            int size = readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            Map properties = msg != null ? msg.createPropertiesMap() : new HashMap();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                properties.put(key, readValue());
+            }
+            return properties;
+        }
+
+        Object readValue() throws IOException, ClassNotFoundException {
+            int type = in.readByte();
+            switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return readLiteral();
+            case VALUE_BOOLEAN:
+                return Boolean.valueOf(in.readBoolean());
+            case VALUE_INTEGER:
+                return Integer.valueOf(in.readInt());
+            case VALUE_LONG:
+                return Long.valueOf(in.readLong());
+            case VALUE_QNAME:
+                return readQName();
+            case VALUE_OBJECT:
+                return readObject();
+            default:
+                throw new IOException("Unknown property type: " + type);
+            }
+        }
+
+        ServiceEndpoint readEndpoint() throws IOException, ClassNotFoundException {
+            if (in.readByte() != ENDPOINT_INTERNAL) {
+                return (ServiceEndpoint) readObject();
+            }
+            ComponentNameSpace cns = readComponentName();
+            QName serviceName = readQName();
+            String endpointName = readString();
+            InternalEndpoint ie = new InternalEndpoint(cns, endpointName, serviceName);
+            int nb = readVarInt();
+            for (int i = 0; i < nb; i++) {
+                ie.addInterface(readQName());
+            }
+            return ie;
+        }
+
+        ComponentNameSpace readComponentName() throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            String containerName = readString();
+            String name = readString();
+            return new ComponentNameSpace(containerName, name);
+        }
+
+        QName readQName() throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            String ns = readString();
+            String local = readString();
+            String prefix = readString();
+            return new QName(ns, local, prefix);
+        }
+
+        String readString() throws IOException {
+            int index = readVarInt();
+            if (index == 0) {
+                return null;
+            } else if (index == 1) {
+                String s = readLiteral();
+                dictionary.add(s);
+                return s;
+            }
+            return dictionary.get(index - 2);
+        }
+
+        String readLiteral() throws IOException {
+            return new String(readBytes(), "UTF-8");
+        }
+
+        Object readObject() throws IOException, ClassNotFoundException {
+            byte[] data = readBytes();
+            return data != null ? SerializationExchangeCodec.deserialize(data) : null;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return data;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length integer");
+        }
+    }
+
+}
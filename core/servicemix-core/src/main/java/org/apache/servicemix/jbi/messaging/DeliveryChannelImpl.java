@@ -19,6 +19,8 @@ package org.apache.servicemix.jbi.messaging;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -82,11 +84,16 @@ public class DeliveryChannelImpl implements DeliveryChannel {
     private TransactionManager transactionManager;
 
     /**
-     * When using clustering and sendSync, the exchange received will not be the
+     * When using clustering and sendSync / sendAsync, the exchange received will not be the
      * same as the one sent (because it has been serialized/deserialized. We
      * thus need to keep the original exchange in a map and override its state.
      */
-    private Map<String, MessageExchangeImpl> exchangesById = new ConcurrentHashMap<String, MessageExchangeImpl>();
+    private Map<String, ExchangeFuture> exchangesById = new ConcurrentHashMap<String, ExchangeFuture>();
+
+    /**
+     * Expires the exchanges sent using sendAsync with a timeout
+     */
+    private static Timer expirationTimer;
 
     /**
      * Constructor
@@ -118,7 +125,10 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             for (MessageExchangeImpl messageExchange : pending) {
                 if (messageExchange.getTransactionContext() != null
                                 && messageExchange.getMirror().getSyncState() == MessageExchangeImpl.SYNC_STATE_SYNC_SENT) {
-                    notifyExchange(messageExchange.getMirror(), messageExchange.getMirror(), "close");
+                    ExchangeFuture future = messageExchange.getMirror().getFuture();
+                    if (future != null) {
+                        future.abort();
+                    }
                 }
             }
             // Interrupt all blocked thread
@@ -126,6 +136,12 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             for (int i = 0; i < threads.length; i++) {
                 threads[i].interrupt();
             }
+            // Abort all asynchronous exchanges waiting for an answer
+            for (ExchangeFuture future : exchangesById.values()) {
+                if (future.isAsync()) {
+                    future.cancel(false);
+                }
+            }
             // deactivate all endpoints from this component
             ServiceEndpoint[] endpoints = container.getRegistry().getEndpointsForComponent(component.getComponentNameSpace());
             for (int i = 0; i < endpoints.length; i++) {
@@ -295,15 +311,7 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             }
             if (me != null) {
                 // Call input listeners
-                ExchangeListener[] l = (ExchangeListener[]) container.getListeners(ExchangeListener.class);
-                ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_ACCEPTED);
-                for (int i = 0; i < l.length; i++) {
-                    try {
-                        l[i].exchangeAccepted(event);
-                    } catch (Exception e) {
-                        LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
-                    }
-                }
+                fireExchangeAccepted(me);
             }
             return me;
         } catch (InterruptedException e) {
@@ -367,15 +375,7 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             }
             // Call the listeners before the ownership changes
             // Call input listeners
-            ExchangeListener[] l = (ExchangeListener[]) container.getListeners(ExchangeListener.class);
-            ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_SENT);
-            for (int i = 0; i < l.length; i++) {
-                try {
-                    l[i].exchangeSent(event);
-                } catch (Exception e) {
-                    LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
-                }
-            }
+            fireExchangeSent(me);
             // Change ownership
             me.handleSend(sync);
             mirror.setTxState(MessageExchangeImpl.TX_STATE_NONE);
@@ -452,16 +452,16 @@ public class DeliveryChannelImpl implements DeliveryChannel {
         // Call doSend
         MessageExchangeImpl me = (MessageExchangeImpl) messageExchange;
         String exchangeKey = me.getKey();
+        ExchangeFuture future = new ExchangeFuture(this, me, null, false);
         try {
-            exchangesById.put(exchangeKey, me);
+            exchangesById.put(exchangeKey, future);
+            me.setFuture(future);
             // Synchronously send a message and wait for the response
-            synchronized (me) {
-                doSend(me, true);
-                if (me.getSyncState() != MessageExchangeImpl.SYNC_STATE_SYNC_RECEIVED) {
-                    waitForExchange(me, me, timeout, "sendSync");
-                } else {
-                    LOGGER.debug("Exchange {} has already been answered (no need to wait)", messageExchange.getExchangeId());
-                }
+            doSend(me, true);
+            if (me.getSyncState() != MessageExchangeImpl.SYNC_STATE_SYNC_RECEIVED) {
+                waitForFuture(future, timeout, "sendSync");
+            } else {
+                LOGGER.debug("Exchange {} has already been answered (no need to wait)", messageExchange.getExchangeId());
             }
             if (me.getSyncState() == MessageExchangeImpl.SYNC_STATE_SYNC_RECEIVED) {
                 me.handleAccept();
@@ -473,15 +473,7 @@ public class DeliveryChannelImpl implements DeliveryChannel {
                 resumeTx(me);
                 // }
                 // Call input listeners
-                ExchangeListener[] l = (ExchangeListener[]) container.getListeners(ExchangeListener.class);
-                ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_ACCEPTED);
-                for (int i = 0; i < l.length; i++) {
-                    try {
-                        l[i].exchangeAccepted(event);
-                    } catch (Exception e) {
-                        LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
-                    }
-                }
+                fireExchangeAccepted(me);
                 result = true;
             } else {
                 // JBI 5.5.2.1.3: the exchange should be set to ERROR status
@@ -498,10 +490,190 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             throw e;
         } finally {
             exchangesById.remove(exchangeKey);
+            me.setFuture(null);
         }
         return result;
     }
 
+    /**
+     * Sends an exchange without blocking and returns a handle that will be
+     * completed when the exchange comes back to this channel.  The answer
+     * is not queued for {@link #accept()}: it is only available through the
+     * returned future, which allows a single thread to have many exchanges
+     * in flight.
+     * 
+     * Transacted exchanges are rejected, as the transaction could not be
+     * resumed when the answer is received: use sendSync for them.  The
+     * exchange never expires, as with {@link #sendSync(MessageExchange)}.
+     * 
+     * @param messageExchange the exchange to send, which must be ACTIVE
+     * @return the completion handle
+     * @throws MessagingException if the exchange is transacted or can not be sent
+     */
+    public ExchangeFuture sendAsync(MessageExchange messageExchange) throws MessagingException {
+        return sendAsync(messageExchange, null, 0);
+    }
+
+    /**
+     * Sends an exchange without blocking and notifies the given callback
+     * when the exchange comes back to this channel.
+     * 
+     * @param messageExchange the exchange to send, which must be ACTIVE
+     * @param callback the callback to notify, may be <code>null</code>
+     * @return the completion handle
+     * @throws MessagingException if the exchange is transacted or can not be sent
+     * @see #sendAsync(MessageExchange)
+     */
+    public ExchangeFuture sendAsync(MessageExchange messageExchange, ExchangeCallback callback) throws MessagingException {
+        return sendAsync(messageExchange, callback, 0);
+    }
+
+    /**
+     * Sends an exchange without blocking and notifies the given callback
+     * when the exchange comes back to this channel.  If it has not been
+     * answered within the timeout, the exchange is aborted and set in error
+     * as sendSync does, and the callback is notified.
+     * 
+     * @param messageExchange the exchange to send, which must be ACTIVE
+     * @param callback the callback to notify, may be <code>null</code>
+     * @param timeout the timeout in milliseconds, zero or less meaning no timeout
+     * @return the completion handle
+     * @throws MessagingException if the exchange is transacted or can not be sent
+     * @see #sendAsync(MessageExchange)
+     */
+    public ExchangeFuture sendAsync(MessageExchange messageExchange, ExchangeCallback callback, long timeout)
+        throws MessagingException {
+        // If the delivery channel has been closed
+        checkNotClosed();
+        // Log call
+        LOGGER.debug("SendAsync {} in {}", messageExchange.getExchangeId(), this);
+        MessageExchangeImpl me = (MessageExchangeImpl) messageExchange;
+        // The answer is not received by the sending thread, which could not resume the transaction
+        autoEnlistInTx(me);
+        if (me.isTransacted()) {
+            throw new MessagingException("Transacted exchange " + me.getExchangeId()
+                                         + " can not be sent asynchronously: use sendSync instead");
+        }
+        // The sender is not blocked, so do not advertise a synchronous send
+        messageExchange.setProperty(JbiConstants.SEND_SYNC, null);
+        String exchangeKey = me.getKey();
+        ExchangeFuture future = new ExchangeFuture(this, me, callback, true);
+        exchangesById.put(exchangeKey, future);
+        me.setFuture(future);
+        try {
+            doSend(me, true);
+        } catch (MessagingException e) {
+            forget(future);
+            throw e;
+        } catch (RuntimeException e) {
+            forget(future);
+            throw e;
+        }
+        if (timeout > 0 && !future.isDone()) {
+            scheduleExpiration(future, timeout);
+        }
+        return future;
+    }
+
+    private static void scheduleExpiration(final ExchangeFuture future, long timeout) {
+        TimerTask task = new TimerTask() {
+            public void run() {
+                if (future.expire()) {
+                    LOGGER.debug("Exchange {} has expired", future.getExchange().getExchangeId());
+                }
+            }
+        };
+        synchronized (DeliveryChannelImpl.class) {
+            if (expirationTimer == null) {
+                expirationTimer = new Timer("ServiceMix sendAsync expiration", true);
+            }
+            expirationTimer.schedule(task, timeout);
+        }
+        future.setExpiration(task);
+        // the answer may have come back meanwhile
+        if (future.isDone()) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Stop tracking the given future
+     * 
+     * @param future
+     */
+    void forget(ExchangeFuture future) {
+        MessageExchangeImpl me = future.getExchangeImpl();
+        exchangesById.remove(me.getKey());
+        if (me.getFuture() == future) {
+            me.setFuture(null);
+        }
+    }
+
+    /**
+     * Complete an exchange sent using sendAsync: the exchange is accepted
+     * in the calling thread and the future is notified.
+     * 
+     * @param future
+     * @throws MessagingException 
+     */
+    protected void completeAsync(ExchangeFuture future) throws MessagingException {
+        MessageExchangeImpl me = future.getExchangeImpl();
+        forget(future);
+        if (future.isCancelled()) {
+            LOGGER.debug("Discarding answer for cancelled exchange {}", me.getExchangeId());
+            return;
+        }
+        me.handleAccept();
+        LOGGER.trace("Accepted: {}", me);
+        // Call input listeners
+        fireExchangeAccepted(me);
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(component.getComponent().getClass().getClassLoader());
+            future.complete();
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    /**
+     * Notify the {@link ExchangeListener}s that the exchange has been sent.
+     * No event is created if there are no listeners.
+     */
+    protected void fireExchangeSent(MessageExchangeImpl me) {
+        ExchangeListener[] l = (ExchangeListener[]) container.getListeners(ExchangeListener.class);
+        if (l.length == 0) {
+            return;
+        }
+        ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_SENT);
+        for (int i = 0; i < l.length; i++) {
+            try {
+                l[i].exchangeSent(event);
+            } catch (Exception e) {
+                LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Notify the {@link ExchangeListener}s that the exchange has been accepted.
+     * No event is created if there are no listeners.
+     */
+    protected void fireExchangeAccepted(MessageExchangeImpl me) {
+        ExchangeListener[] l = (ExchangeListener[]) container.getListeners(ExchangeListener.class);
+        if (l.length == 0) {
+            return;
+        }
+        ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_ACCEPTED);
+        for (int i = 0; i < l.length; i++) {
+            try {
+                l[i].exchangeAccepted(event);
+            } catch (Exception e) {
+                LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @return Returns the container.
      */
@@ -553,7 +725,8 @@ public class DeliveryChannelImpl implements DeliveryChannel {
         // Check if the delivery channel has been closed
         checkNotClosed();
         // Retrieve the original exchange sent
-        MessageExchangeImpl original = exchangesById.get(me.getKey());
+        ExchangeFuture future = exchangesById.get(me.getKey());
+        MessageExchangeImpl original = future != null ? future.getExchangeImpl() : null;
         if (original != null && me != original) {
             original.copyFrom(me);
             me = original;
@@ -572,7 +745,14 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             // been serialized / deserialized by a clustered flow)
             suspendTx(original);
             me.setSyncState(MessageExchangeImpl.SYNC_STATE_SYNC_RECEIVED);
-            notifyExchange(original, original, "processInboundSynchronousExchange");
+            if (future == null) {
+                notifyExchange(me, me, "processInboundSynchronousExchange");
+            } else if (future.isAsync()) {
+                completeAsync(future);
+            } else {
+                LOGGER.debug("Completing exchange {} from processInboundSynchronousExchange", me.getExchangeId());
+                future.complete();
+            }
             return;
         }
 
@@ -584,15 +764,7 @@ public class DeliveryChannelImpl implements DeliveryChannel {
             me.handleAccept();
             LOGGER.trace("Received: {}", me);
             // Call input listeners
-            ExchangeListener[] l = (ExchangeListener[]) container.getListeners(ExchangeListener.class);
-            ExchangeEvent event = new ExchangeEvent(me, ExchangeEvent.EXCHANGE_ACCEPTED);
-            for (int i = 0; i < l.length; i++) {
-                try {
-                    l[i].exchangeAccepted(event);
-                } catch (Exception e) {
-                    LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
-                }
-            }
+            fireExchangeAccepted(me);
             // Set the flag the the exchange was delivered using push mode
             // This is important for transaction boundaries
             me.setPushDeliver(true);
@@ -698,6 +870,32 @@ public class DeliveryChannelImpl implements DeliveryChannel {
         }
     }
 
+    /**
+     * Wait for the given future to be completed or aborted
+     * 
+     * @param future
+     * @param timeout
+     * @param from
+     * @throws InterruptedException
+     */
+    protected void waitForFuture(ExchangeFuture future, long timeout, String from) throws InterruptedException {
+        MessageExchange me = future.getExchange();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Waiting for exchange " + me.getExchangeId() + " (" + Integer.toHexString(me.hashCode()) + ") to be answered in "
+                            + this + " from " + from);
+        }
+        Thread th = Thread.currentThread();
+        try {
+            waiters.put(th, Boolean.TRUE);
+            future.await(timeout);
+        } finally {
+            waiters.remove(th);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Notified: " + me.getExchangeId() + "(" + Integer.toHexString(me.hashCode()) + ") in " + this + " from " + from);
+        }
+    }
+
     protected void notifyExchange(MessageExchangeImpl me, Object lock, String from) {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Notifying exchange " + me.getExchangeId() + "(" + Integer.toHexString(me.hashCode()) + ") in " + this + " from "
@@ -789,10 +987,11 @@ public class DeliveryChannelImpl implements DeliveryChannel {
      * Cancel all pending exchanges currently being handled by the DeliveryChannel
      */
     public void cancelPendingExchanges() {
-        for (String id : exchangesById.keySet()) {
-            MessageExchange exchange = exchangesById.get(id);
-            synchronized (exchange) {
-                exchange.notifyAll();   
+        for (ExchangeFuture future : exchangesById.values()) {
+            if (future.isAsync()) {
+                future.cancel(false);
+            } else {
+                future.abort();
             }
         }
     }
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.messaging;
+
+import javax.jbi.messaging.MessageExchange;
+
+/**
+ * Callback notified when an exchange sent using
+ * {@link DeliveryChannelImpl#sendAsync(MessageExchange, ExchangeCallback)}
+ * comes back to the consumer.
+ * 
+ * The callback is invoked in the thread delivering the answer, so
+ * implementations should not block.
+ * 
+ * @version $Revision$
+ */
+public interface ExchangeCallback {
+
+    /**
+     * The exchange has been answered and is now owned by the consumer again.
+     * 
+     * @param exchange the exchange
+     */
+    void exchangeCompleted(MessageExchange exchange);
+
+    /**
+     * The exchange has been aborted before being answered, because
+     * it has been cancelled, it has expired or the delivery channel
+     * has been closed.
+     * 
+     * @param exchange the exchange
+     */
+    void exchangeAborted(MessageExchange exchange);
+
+}
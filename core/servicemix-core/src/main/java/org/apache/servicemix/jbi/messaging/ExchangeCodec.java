@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.messaging;
+
+import java.io.IOException;
+
+/**
+ * Converts message exchanges and exchange packets to and from bytes
+ * so that they can be sent over the wire by clustered flows or stored
+ * by auditors.
+ * 
+ * @version $Revision$
+ */
+public interface ExchangeCodec {
+
+    /**
+     * Encode a full exchange, including its state and role.
+     */
+    byte[] encodeExchange(MessageExchangeImpl exchange) throws IOException;
+
+    /**
+     * Rebuild an exchange previously encoded with {@link #encodeExchange(MessageExchangeImpl)}.
+     */
+    MessageExchangeImpl decodeExchange(byte[] data) throws IOException, ClassNotFoundException;
+
+    /**
+     * Encode the packet of an exchange.
+     */
+    byte[] encodePacket(ExchangePacket packet) throws IOException;
+
+    /**
+     * Rebuild a packet previously encoded with {@link #encodePacket(ExchangePacket)}.
+     */
+    ExchangePacket decodePacket(byte[] data) throws IOException, ClassNotFoundException;
+
+}
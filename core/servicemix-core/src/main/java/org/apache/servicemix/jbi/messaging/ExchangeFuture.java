@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.messaging;
+
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jbi.messaging.MessageExchange;
+
+/**
+ * Completion handle for an exchange sent synchronously or asynchronously
+ * through a {@link DeliveryChannelImpl}.  The future is completed when the
+ * answer comes back to the consumer, or aborted when the exchange is
+ * cancelled, expires or the channel is closed.
+ * 
+ * @version $Revision$
+ */
+public class ExchangeFuture implements Future<MessageExchange> {
+
+    private static final int PENDING = 0;
+    private static final int COMPLETED = 1;
+    private static final int ABORTED = 2;
+
+    private final MessageExchangeImpl exchange;
+    private final ExchangeCallback callback;
+    private final boolean async;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile int state = PENDING;
+    private final DeliveryChannelImpl channel;
+    private volatile TimerTask expiration;
+
+    ExchangeFuture(DeliveryChannelImpl channel, MessageExchangeImpl exchange, 
+                   ExchangeCallback callback, boolean async) {
+        this.channel = channel;
+        this.exchange = exchange;
+        this.callback = callback;
+        this.async = async;
+    }
+
+    /**
+     * @return the exchange this future is tracking
+     */
+    public MessageExchange getExchange() {
+        return exchange;
+    }
+
+    MessageExchangeImpl getExchangeImpl() {
+        return exchange;
+    }
+
+    boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Abort the exchange: the answer, if any, will be discarded.
+     * 
+     * @param mayInterruptIfRunning ignored
+     * @return <code>true</code> if the exchange has been aborted
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return abort(new RuntimeException("Exchange " + exchange.getExchangeId() + " has been cancelled"));
+    }
+
+    /**
+     * Abort the exchange because it has not been answered in time, as
+     * sendSync does when its timeout expires.
+     * 
+     * @return <code>true</code> if the exchange has been aborted
+     */
+    boolean expire() {
+        return abort(new RuntimeException("sendAsync timeout for " + exchange.getExchangeId()));
+    }
+
+    /**
+     * @param expiration the task expiring this future, cancelled when the future is done
+     */
+    void setExpiration(TimerTask expiration) {
+        this.expiration = expiration;
+    }
+
+    public boolean isCancelled() {
+        return state == ABORTED;
+    }
+
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * Wait for the exchange to be answered.
+     * 
+     * @return the exchange
+     */
+    public MessageExchange get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    /**
+     * Wait for the exchange to be answered.  The exchange is not aborted
+     * if the timeout expires.
+     * 
+     * @return the exchange
+     */
+    public MessageExchange get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("Exchange " + exchange.getExchangeId() + " has not been answered in time");
+        }
+        return getResult();
+    }
+
+    /**
+     * Wait for the exchange to be completed or aborted.
+     * 
+     * @param timeout the timeout in milliseconds, zero or less meaning no timeout
+     * @return <code>true</code> if the future is done
+     */
+    boolean await(long timeout) throws InterruptedException {
+        if (timeout > 0) {
+            return latch.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        latch.await();
+        return true;
+    }
+
+    private MessageExchange getResult() {
+        if (state == ABORTED) {
+            throw new CancellationException("Exchange " + exchange.getExchangeId() + " has been aborted");
+        }
+        return exchange;
+    }
+
+    boolean complete() {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = COMPLETED;
+        }
+        cancelExpiration();
+        latch.countDown();
+        if (callback != null) {
+            callback.exchangeCompleted(exchange);
+        }
+        return true;
+    }
+
+    boolean abort() {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = ABORTED;
+        }
+        cancelExpiration();
+        latch.countDown();
+        if (callback != null) {
+            callback.exchangeAborted(exchange);
+        }
+        return true;
+    }
+
+    /**
+     * Abort the exchange, stop tracking it and set it in error before
+     * notifying the callback.
+     */
+    private boolean abort(Exception error) {
+        synchronized (this) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = ABORTED;
+        }
+        cancelExpiration();
+        channel.forget(this);
+        exchange.getPacket().setAborted(true);
+        exchange.getPacket().setError(error);
+        latch.countDown();
+        if (callback != null) {
+            callback.exchangeAborted(exchange);
+        }
+        return true;
+    }
+
+    private void cancelExpiration() {
+        TimerTask task = expiration;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+}
@@ -146,6 +146,8 @@ public abstract class MessageExchangeImpl implements MessageExchange, Externaliz
 
     protected transient String key;
 
+    protected transient ExchangeFuture future;
+
     /**
      * Constructor
      * 
@@ -683,6 +685,17 @@ public abstract class MessageExchangeImpl implements MessageExchange, Externaliz
         this.syncState = syncState;
     }
 
+    /**
+     * @return the completion handle of a pending sendSync / sendAsync call, if any
+     */
+    public ExchangeFuture getFuture() {
+        return future;
+    }
+
+    public void setFuture(ExchangeFuture future) {
+        this.future = future;
+    }
+
     /**
      * @return the txState
      */
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * An {@link ExchangeCodec} using standard java serialization, which
+ * is the format historically used by the JMS flows and the JDBC auditor.
+ * 
+ * @version $Revision$
+ */
+public class SerializationExchangeCodec implements ExchangeCodec {
+
+    public byte[] encodeExchange(MessageExchangeImpl exchange) throws IOException {
+        return serialize(exchange);
+    }
+
+    public MessageExchangeImpl decodeExchange(byte[] data) throws IOException, ClassNotFoundException {
+        return (MessageExchangeImpl) deserialize(data);
+    }
+
+    public byte[] encodePacket(ExchangePacket packet) throws IOException {
+        return packet.getData();
+    }
+
+    public ExchangePacket decodePacket(byte[] data) throws IOException, ClassNotFoundException {
+        return ExchangePacket.readPacket(data);
+    }
+
+    static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(buffer);
+        out.writeObject(object);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -76,9 +76,9 @@ public class ComponentStats extends BaseLifeCycle implements ComponentStatsMBean
                     statsWriter.println("inboundExchanges,inboundExchangeRate,outboundExchanges,outboundExchangeRate");
                 }
                 long inbound = stats.getInboundExchanges().getCount();
-                double inboundRate = stats.getInboundExchangeRate().getAveragePerSecond();
+                double inboundRate = stats.getInboundExchangeRate().getWindowPerSecond();
                 long outbound = stats.getOutboundExchanges().getCount();
-                double outboundRate = stats.getOutboundExchangeRate().getAveragePerSecond();
+                double outboundRate = stats.getOutboundExchangeRate().getWindowPerSecond();
                 statsWriter.println(inbound + "," + inboundRate + "," + outbound + "," + outboundRate);
             } catch (IOException e) {
                 LOGGER.warn("Failed to dump stats", e);
@@ -182,7 +182,7 @@ public class ComponentStats extends BaseLifeCycle implements ComponentStatsMBean
      * @return the inbound exchange rate
      */
     public double getInboundExchangeRate() {
-        return stats.getInboundExchangeRate().getAveragePerSecond();
+        return stats.getInboundExchangeRate().getWindowPerSecond();
     }
 
     /**
@@ -200,7 +200,7 @@ public class ComponentStats extends BaseLifeCycle implements ComponentStatsMBean
      * @return the outbound exchange rate
      */
     public double getOutboundExchangeRate() {
-        return stats.getOutboundExchangeRate().getAveragePerSecond();
+        return stats.getOutboundExchangeRate().getWindowPerSecond();
     }
 
     /**
@@ -214,6 +214,118 @@ public class ComponentStats extends BaseLifeCycle implements ComponentStatsMBean
         }
     }
 
+    /**
+     * @return the 50th percentile of the queue wait time (ms) over the rolling window
+     */
+    public long getQueueWaitTimeP50() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.5);
+    }
+
+    /**
+     * @return the 95th percentile of the queue wait time (ms) over the rolling window
+     */
+    public long getQueueWaitTimeP95() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.95);
+    }
+
+    /**
+     * @return the 99th percentile of the queue wait time (ms) over the rolling window
+     */
+    public long getQueueWaitTimeP99() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the queue wait time (ms) over the rolling window
+     */
+    public long getQueueWaitTimeP999() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.999);
+    }
+
+    /**
+     * @return the 50th percentile of the flow queue time (ms) over the rolling window
+     */
+    public long getFlowQueueTimeP50() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.5);
+    }
+
+    /**
+     * @return the 95th percentile of the flow queue time (ms) over the rolling window
+     */
+    public long getFlowQueueTimeP95() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.95);
+    }
+
+    /**
+     * @return the 99th percentile of the flow queue time (ms) over the rolling window
+     */
+    public long getFlowQueueTimeP99() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the flow queue time (ms) over the rolling window
+     */
+    public long getFlowQueueTimeP999() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.999);
+    }
+
+    /**
+     * @return the 50th percentile of the service time (ms) over the rolling window
+     */
+    public long getServiceTimeP50() {
+        return stats.getServiceTime().getWindowPercentile(0.5);
+    }
+
+    /**
+     * @return the 95th percentile of the service time (ms) over the rolling window
+     */
+    public long getServiceTimeP95() {
+        return stats.getServiceTime().getWindowPercentile(0.95);
+    }
+
+    /**
+     * @return the 99th percentile of the service time (ms) over the rolling window
+     */
+    public long getServiceTimeP99() {
+        return stats.getServiceTime().getWindowPercentile(0.99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the service time (ms) over the rolling window
+     */
+    public long getServiceTimeP999() {
+        return stats.getServiceTime().getWindowPercentile(0.999);
+    }
+
+    /**
+     * @return the 50th percentile of the round-trip time (ms) over the rolling window
+     */
+    public long getRoundTripTimeP50() {
+        return stats.getRoundTripTime().getWindowPercentile(0.5);
+    }
+
+    /**
+     * @return the 95th percentile of the round-trip time (ms) over the rolling window
+     */
+    public long getRoundTripTimeP95() {
+        return stats.getRoundTripTime().getWindowPercentile(0.95);
+    }
+
+    /**
+     * @return the 99th percentile of the round-trip time (ms) over the rolling window
+     */
+    public long getRoundTripTimeP99() {
+        return stats.getRoundTripTime().getWindowPercentile(0.99);
+    }
+
+    /**
+     * @return the 99.9th percentile of the round-trip time (ms) over the rolling window
+     */
+    public long getRoundTripTimeP999() {
+        return stats.getRoundTripTime().getWindowPercentile(0.999);
+    }
+
     /**
      * Reset all stats counters
      */
@@ -234,6 +346,22 @@ public class ComponentStats extends BaseLifeCycle implements ComponentStatsMBean
         helper.addAttribute(getObjectToManage(), "outboundExchangeCount", "count of outbound exchanges");
         helper.addAttribute(getObjectToManage(), "inboundExchangeRate", "rate of inbound exchanges/sec");
         helper.addAttribute(getObjectToManage(), "outboundExchangeRate", "rate of outbound exchanges/sec");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP50", "50th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP95", "95th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP99", "99th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP999", "99.9th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP50", "50th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP95", "95th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP99", "99th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP999", "99.9th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP50", "50th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP95", "95th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP99", "99th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP999", "99.9th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP50", "50th percentile of round-trip time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP95", "95th percentile of round-trip time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP99", "99th percentile of round-trip time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP999", "99.9th percentile of round-trip time (ms)");
         return helper.getAttributeInfos();
     }
 
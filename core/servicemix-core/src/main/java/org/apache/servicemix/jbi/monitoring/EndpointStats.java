@@ -49,6 +49,22 @@ public class EndpointStats extends BaseLifeCycle implements EndpointStatsMBean {
         stats.getOutboundExchanges().increment();
         stats.getOutboundExchangeRate().addTime();
     }
+
+    void addQueueWaitTime(long time) {
+        stats.getQueueWaitTime().addTime(time);
+    }
+
+    void addFlowQueueTime(long time) {
+        stats.getFlowQueueTime().addTime(time);
+    }
+
+    void addServiceTime(long time) {
+        stats.getServiceTime().addTime(time);
+    }
+
+    void addRoundTripTime(long time) {
+        stats.getRoundTripTime().addTime(time);
+    }
     
     /**
      * Get the type of the item
@@ -83,7 +99,7 @@ public class EndpointStats extends BaseLifeCycle implements EndpointStatsMBean {
     }
 
     public double getInboundExchangeRate() {
-        return stats.getInboundExchangeRate().getAveragePerSecond();
+        return stats.getInboundExchangeRate().getWindowPerSecond();
     }
 
     public long getOutboundExchangeCount() {
@@ -91,7 +107,71 @@ public class EndpointStats extends BaseLifeCycle implements EndpointStatsMBean {
     }
 
     public double getOutboundExchangeRate() {
-        return stats.getOutboundExchangeRate().getAveragePerSecond();
+        return stats.getOutboundExchangeRate().getWindowPerSecond();
+    }
+
+    public long getQueueWaitTimeP50() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.5);
+    }
+
+    public long getQueueWaitTimeP95() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.95);
+    }
+
+    public long getQueueWaitTimeP99() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.99);
+    }
+
+    public long getQueueWaitTimeP999() {
+        return stats.getQueueWaitTime().getWindowPercentile(0.999);
+    }
+
+    public long getFlowQueueTimeP50() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.5);
+    }
+
+    public long getFlowQueueTimeP95() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.95);
+    }
+
+    public long getFlowQueueTimeP99() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.99);
+    }
+
+    public long getFlowQueueTimeP999() {
+        return stats.getFlowQueueTime().getWindowPercentile(0.999);
+    }
+
+    public long getServiceTimeP50() {
+        return stats.getServiceTime().getWindowPercentile(0.5);
+    }
+
+    public long getServiceTimeP95() {
+        return stats.getServiceTime().getWindowPercentile(0.95);
+    }
+
+    public long getServiceTimeP99() {
+        return stats.getServiceTime().getWindowPercentile(0.99);
+    }
+
+    public long getServiceTimeP999() {
+        return stats.getServiceTime().getWindowPercentile(0.999);
+    }
+
+    public long getRoundTripTimeP50() {
+        return stats.getRoundTripTime().getWindowPercentile(0.5);
+    }
+
+    public long getRoundTripTimeP95() {
+        return stats.getRoundTripTime().getWindowPercentile(0.95);
+    }
+
+    public long getRoundTripTimeP99() {
+        return stats.getRoundTripTime().getWindowPercentile(0.99);
+    }
+
+    public long getRoundTripTimeP999() {
+        return stats.getRoundTripTime().getWindowPercentile(0.999);
     }
 
     /**
@@ -113,6 +193,22 @@ public class EndpointStats extends BaseLifeCycle implements EndpointStatsMBean {
         helper.addAttribute(getObjectToManage(), "outboundExchangeCount", "count of outbound exchanges");
         helper.addAttribute(getObjectToManage(), "inboundExchangeRate", "rate of inbound exchanges/sec");
         helper.addAttribute(getObjectToManage(), "outboundExchangeRate", "rate of outbound exchanges/sec");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP50", "50th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP95", "95th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP99", "99th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "queueWaitTimeP999", "99.9th percentile of queue wait time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP50", "50th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP95", "95th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP99", "99th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "flowQueueTimeP999", "99.9th percentile of flow queue time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP50", "50th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP95", "95th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP99", "99th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "serviceTimeP999", "99.9th percentile of service time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP50", "50th percentile of round-trip time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP95", "95th percentile of round-trip time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP99", "99th percentile of round-trip time (ms)");
+        helper.addAttribute(getObjectToManage(), "roundTripTimeP999", "99.9th percentile of round-trip time (ms)");
         return helper.getAttributeInfos();
     }
 
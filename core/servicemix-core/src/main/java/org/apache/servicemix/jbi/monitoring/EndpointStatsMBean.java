@@ -26,7 +26,8 @@ public interface EndpointStatsMBean {
     long getInboundExchangeCount();
 
     /**
-     * Get the Inbound MessageExchange rate (number/sec)
+     * Get the Inbound MessageExchange rate (number/sec) over
+     * the rolling window
      * 
      * @return the inbound exchange rate
      */
@@ -40,12 +41,157 @@ public interface EndpointStatsMBean {
     long getOutboundExchangeCount();
 
     /**
-     * Get the Outbound MessageExchange rate (number/sec)
+     * Get the Outbound MessageExchange rate (number/sec) over
+     * the rolling window
      * 
      * @return the outbound exchange rate
      */
     double getOutboundExchangeRate();
-    
+
+    /**
+     * Get the 50th percentile of the queue wait time, from the send of a
+     * MessageExchange to its accept by this endpoint, over the rolling window
+     * (one minute by default)
+     * 
+     * @return the 50th percentile of the queue wait time in milliseconds
+     */
+    long getQueueWaitTimeP50();
+
+    /**
+     * Get the 95th percentile of the queue wait time, from the send of a
+     * MessageExchange to its accept by this endpoint, over the rolling window
+     * (one minute by default)
+     * 
+     * @return the 95th percentile of the queue wait time in milliseconds
+     */
+    long getQueueWaitTimeP95();
+
+    /**
+     * Get the 99th percentile of the queue wait time, from the send of a
+     * MessageExchange to its accept by this endpoint, over the rolling window
+     * (one minute by default)
+     * 
+     * @return the 99th percentile of the queue wait time in milliseconds
+     */
+    long getQueueWaitTimeP99();
+
+    /**
+     * Get the 99.9th percentile of the queue wait time, from the send of a
+     * MessageExchange to its accept by this endpoint, over the rolling window
+     * (one minute by default)
+     * 
+     * @return the 99.9th percentile of the queue wait time in milliseconds
+     */
+    long getQueueWaitTimeP999();
+
+    /**
+     * Get the 50th percentile of the flow queue time, spent in the flow queue
+     * by a MessageExchange sent to this endpoint, over the rolling window (one
+     * minute by default)
+     * 
+     * @return the 50th percentile of the flow queue time in milliseconds
+     */
+    long getFlowQueueTimeP50();
+
+    /**
+     * Get the 95th percentile of the flow queue time, spent in the flow queue
+     * by a MessageExchange sent to this endpoint, over the rolling window (one
+     * minute by default)
+     * 
+     * @return the 95th percentile of the flow queue time in milliseconds
+     */
+    long getFlowQueueTimeP95();
+
+    /**
+     * Get the 99th percentile of the flow queue time, spent in the flow queue
+     * by a MessageExchange sent to this endpoint, over the rolling window (one
+     * minute by default)
+     * 
+     * @return the 99th percentile of the flow queue time in milliseconds
+     */
+    long getFlowQueueTimeP99();
+
+    /**
+     * Get the 99.9th percentile of the flow queue time, spent in the flow
+     * queue by a MessageExchange sent to this endpoint, over the rolling
+     * window (one minute by default)
+     * 
+     * @return the 99.9th percentile of the flow queue time in milliseconds
+     */
+    long getFlowQueueTimeP999();
+
+    /**
+     * Get the 50th percentile of the service time, taken by this endpoint to
+     * answer a MessageExchange, over the rolling window (one minute by
+     * default)
+     * 
+     * @return the 50th percentile of the service time in milliseconds
+     */
+    long getServiceTimeP50();
+
+    /**
+     * Get the 95th percentile of the service time, taken by this endpoint to
+     * answer a MessageExchange, over the rolling window (one minute by
+     * default)
+     * 
+     * @return the 95th percentile of the service time in milliseconds
+     */
+    long getServiceTimeP95();
+
+    /**
+     * Get the 99th percentile of the service time, taken by this endpoint to
+     * answer a MessageExchange, over the rolling window (one minute by
+     * default)
+     * 
+     * @return the 99th percentile of the service time in milliseconds
+     */
+    long getServiceTimeP99();
+
+    /**
+     * Get the 99.9th percentile of the service time, taken by this endpoint to
+     * answer a MessageExchange, over the rolling window (one minute by
+     * default)
+     * 
+     * @return the 99.9th percentile of the service time in milliseconds
+     */
+    long getServiceTimeP999();
+
+    /**
+     * Get the 50th percentile of the round-trip time, from the send of a
+     * MessageExchange to this endpoint to the consumer getting the answer,
+     * over the rolling window (one minute by default)
+     * 
+     * @return the 50th percentile of the round-trip time in milliseconds
+     */
+    long getRoundTripTimeP50();
+
+    /**
+     * Get the 95th percentile of the round-trip time, from the send of a
+     * MessageExchange to this endpoint to the consumer getting the answer,
+     * over the rolling window (one minute by default)
+     * 
+     * @return the 95th percentile of the round-trip time in milliseconds
+     */
+    long getRoundTripTimeP95();
+
+    /**
+     * Get the 99th percentile of the round-trip time, from the send of a
+     * MessageExchange to this endpoint to the consumer getting the answer,
+     * over the rolling window (one minute by default)
+     * 
+     * @return the 99th percentile of the round-trip time in milliseconds
+     */
+    long getRoundTripTimeP99();
+
+    /**
+     * Get the 99.9th percentile of the round-trip time, from the send of a
+     * MessageExchange to this endpoint to the consumer getting the answer,
+     * over the rolling window (one minute by default)
+     * 
+     * @return the 99.9th percentile of the round-trip time in milliseconds
+     */
+    long getRoundTripTimeP999();
+
     /**
      * reset all stats counters
      */
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.monitoring;
+
+import org.apache.servicemix.jbi.util.ExchangeTracker;
+
+/**
+ * Keeps the timestamps of the exchanges in flight, keyed by exchange id,
+ * so that the {@link StatisticsService} can compute queue wait, service
+ * and round-trip times once the provider and consumer see the exchange.
+ *
+ * @version $Revision$
+ */
+public class ExchangeTimingTracker extends ExchangeTracker<ExchangeTimingTracker.Timings> {
+
+    /**
+     * Timestamps (ms) of a single exchange. A value of 0 means the
+     * corresponding step has not been seen yet.
+     */
+    public static class Timings {
+        final long sent;
+        volatile long enqueued;
+        volatile long dequeued;
+        volatile long accepted;
+        volatile long responded;
+        volatile long completed;
+        volatile EndpointStats provider;
+
+        Timings(long sent) {
+            this.sent = sent;
+        }
+    }
+
+    /**
+     * Start tracking an exchange.
+     *
+     * @param id the exchange id
+     * @param now the time the exchange has been sent
+     * @return the timings, or <code>null</code> if the tracker is full
+     */
+    public Timings start(String id, long now) {
+        return track(id, new Timings(now), now);
+    }
+
+}
@@ -33,6 +33,10 @@ public class MessagingStats extends StatsImpl {
     protected CountStatisticImpl outboundExchanges;
     protected TimeStatisticImpl inboundExchangeRate;
     protected TimeStatisticImpl outboundExchangeRate;
+    protected TimeStatisticImpl queueWaitTime;
+    protected TimeStatisticImpl flowQueueTime;
+    protected TimeStatisticImpl serviceTime;
+    protected TimeStatisticImpl roundTripTime;
     private String name;
 
     /**
@@ -45,10 +49,19 @@ public class MessagingStats extends StatsImpl {
         outboundExchanges = new CountStatisticImpl("outboundExchanges", "Number of Outbound MessageExchanges");
         inboundExchangeRate = new TimeStatisticImpl("inboundExchangeRate", "time taken to process an Exchange");
         outboundExchangeRate = new TimeStatisticImpl("outboundExchangeRate", "time taken to send an Exchange");
+        queueWaitTime = new TimeStatisticImpl("queueWaitTime", "time between the send and the accept of an Exchange");
+        flowQueueTime = new TimeStatisticImpl("flowQueueTime", "time spent by an Exchange in the flow queue");
+        serviceTime = new TimeStatisticImpl("serviceTime", "time taken by the provider to answer an Exchange");
+        roundTripTime = new TimeStatisticImpl("roundTripTime", "time taken by the consumer to get the answer");
         addStatistic("inboundExchanges", inboundExchanges);
         addStatistic("outboundExchanges", outboundExchanges);
         addStatistic("inboundExchangeRate", inboundExchangeRate);
         addStatistic("outboundExchangeRate", outboundExchangeRate);
+        addStatistic("queueWaitTime", queueWaitTime);
+        addStatistic("flowQueueTime", flowQueueTime);
+        addStatistic("serviceTime", serviceTime);
+        addStatistic("roundTripTime", roundTripTime);
+        enablePercentiles();
     }
     
     /**
@@ -61,12 +74,32 @@ public class MessagingStats extends StatsImpl {
         outboundExchanges = new CountStatisticImpl(parent.outboundExchanges, "outboundExchanges", "Number of Outbound MessageExchanges");
         inboundExchangeRate = new TimeStatisticImpl(parent.inboundExchangeRate, "inboundExchangeRate", "time taken to process an Exchange");
         outboundExchangeRate = new TimeStatisticImpl(parent.outboundExchangeRate, "outboundExchangeRate", "time taken to send an Exchange");
+        queueWaitTime = new TimeStatisticImpl(parent.queueWaitTime, "queueWaitTime", "time between the send and the accept of an Exchange");
+        flowQueueTime = new TimeStatisticImpl(parent.flowQueueTime, "flowQueueTime", "time spent by an Exchange in the flow queue");
+        serviceTime = new TimeStatisticImpl(parent.serviceTime, "serviceTime", "time taken by the provider to answer an Exchange");
+        roundTripTime = new TimeStatisticImpl(parent.roundTripTime, "roundTripTime", "time taken by the consumer to get the answer");
         addStatistic("inboundExchanges", inboundExchanges);
         addStatistic("outboundExchanges", outboundExchanges);
         addStatistic("inboundExchangeRate", inboundExchangeRate);
         addStatistic("outboundExchangeRate", outboundExchangeRate);
+        addStatistic("queueWaitTime", queueWaitTime);
+        addStatistic("flowQueueTime", flowQueueTime);
+        addStatistic("serviceTime", serviceTime);
+        addStatistic("roundTripTime", roundTripTime);
+        enablePercentiles();
     }
     
+    /**
+     * Percentiles are only kept for latencies, the exchange rates
+     * only need to count the exchanges.
+     */
+    private void enablePercentiles() {
+        queueWaitTime.setPercentilesEnabled(true);
+        flowQueueTime.setPercentilesEnabled(true);
+        serviceTime.setPercentilesEnabled(true);
+        roundTripTime.setPercentilesEnabled(true);
+    }
+
     /**
      * @return Returns the name.
      */
@@ -97,6 +130,30 @@ public class MessagingStats extends StatsImpl {
     public CountStatisticImpl getOutboundExchanges() {
         return outboundExchanges;
     }
+    /**
+     * @return Returns the time between the send and the accept of exchanges.
+     */
+    public TimeStatisticImpl getQueueWaitTime() {
+        return queueWaitTime;
+    }
+    /**
+     * @return Returns the time spent by exchanges in the flow queue.
+     */
+    public TimeStatisticImpl getFlowQueueTime() {
+        return flowQueueTime;
+    }
+    /**
+     * @return Returns the time taken by providers to answer exchanges.
+     */
+    public TimeStatisticImpl getServiceTime() {
+        return serviceTime;
+    }
+    /**
+     * @return Returns the time taken by consumers to get the answer.
+     */
+    public TimeStatisticImpl getRoundTripTime() {
+        return roundTripTime;
+    }
 
     /**
      * reset the Stats
@@ -107,6 +164,10 @@ public class MessagingStats extends StatsImpl {
         outboundExchanges.reset();
         inboundExchangeRate.reset();
         outboundExchangeRate.reset();
+        queueWaitTime.reset();
+        flowQueueTime.reset();
+        serviceTime.reset();
+        roundTripTime.reset();
     }
 
     /**
@@ -25,7 +25,6 @@ import javax.jbi.JBIException;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessageExchange.Role;
-import javax.jbi.servicedesc.ServiceEndpoint;
 import javax.management.JMException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanOperationInfo;
@@ -40,6 +39,7 @@ import org.apache.servicemix.jbi.event.EndpointEvent;
 import org.apache.servicemix.jbi.event.EndpointListener;
 import org.apache.servicemix.jbi.event.ExchangeEvent;
 import org.apache.servicemix.jbi.event.ExchangeListener;
+import org.apache.servicemix.jbi.event.ExchangeQueueListener;
 import org.apache.servicemix.jbi.framework.ComponentMBeanImpl;
 import org.apache.servicemix.jbi.framework.Endpoint;
 import org.apache.servicemix.jbi.management.AttributeInfoHelper;
@@ -47,6 +47,7 @@ import org.apache.servicemix.jbi.management.BaseSystemService;
 import org.apache.servicemix.jbi.management.ManagementContext;
 import org.apache.servicemix.jbi.management.OperationInfoHelper;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
+import org.apache.servicemix.jbi.monitoring.ExchangeTimingTracker.Timings;
 import org.apache.servicemix.jbi.servicedesc.AbstractServiceEndpoint;
 import org.apache.servicemix.jbi.servicedesc.EndpointSupport;
 import org.slf4j.Logger;
@@ -61,6 +62,9 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
     
     private ConcurrentHashMap<String, ComponentStats> componentStats = new ConcurrentHashMap<String, ComponentStats>();
     private ConcurrentHashMap<String, EndpointStats> endpointStats = new ConcurrentHashMap<String, EndpointStats>();
+    private ConcurrentHashMap<String, EndpointStats> senderEndpointStats = new ConcurrentHashMap<String, EndpointStats>();
+    private ExchangeTimingTracker tracker = new ExchangeTimingTracker();
+    private volatile boolean trackExchanges;
     
     private ComponentListener componentListener;
     private EndpointListener endpointListener;
@@ -103,6 +107,64 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
         dumpStats = value;
     }
 
+    /**
+     * @return true if the latency of each exchange is tracked
+     */
+    public boolean isTrackExchanges() {
+        return trackExchanges;
+    }
+
+    /**
+     * Enable or disable the tracking of exchanges used to compute
+     * the queue wait, service and round-trip times of endpoints.
+     * Tracking is disabled by default, as it keeps some state for
+     * each exchange in flight.
+     * 
+     * @param trackExchanges
+     */
+    public void setTrackExchanges(boolean trackExchanges) {
+        this.trackExchanges = trackExchanges;
+        if (!trackExchanges) {
+            tracker.clear();
+        }
+    }
+
+    /**
+     * @return the maximum number of exchanges tracked at the same time
+     */
+    public int getMaxTrackedExchanges() {
+        return tracker.getMaxSize();
+    }
+
+    /**
+     * @param maxTrackedExchanges the maximum number of exchanges tracked at the same time
+     */
+    public void setMaxTrackedExchanges(int maxTrackedExchanges) {
+        tracker.setMaxSize(maxTrackedExchanges);
+    }
+
+    /**
+     * @return the time (ms) after which an unfinished exchange may be discarded
+     */
+    public long getTrackingTimeout() {
+        return tracker.getTimeout();
+    }
+
+    /**
+     * @param trackingTimeout the time (ms) after which an unfinished exchange may be discarded
+     */
+    public void setTrackingTimeout(long trackingTimeout) {
+        tracker.setTimeout(trackingTimeout);
+    }
+
+    public int getTrackedExchangeCount() {
+        return tracker.getSize();
+    }
+
+    public long getUntrackedExchangeCount() {
+        return tracker.getUntrackedCount();
+    }
+
     protected Class<StatisticsServiceMBean> getServiceMBean() {
         return StatisticsServiceMBean.class;
     }
@@ -138,6 +200,7 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
      */
     public void stop() throws javax.jbi.JBIException {
         this.container.removeListener(exchangeListener);
+        tracker.clear();
         super.stop();
         for (Iterator<ComponentStats> it = componentStats.values().iterator(); it.hasNext();) {
             ComponentStats stats = it.next();
@@ -154,14 +217,7 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
     public void init(JBIContainer container) throws JBIException {
         initComponentListener(container);
         initEndpointListener(container);
-        exchangeListener = new ExchangeListener() {
-            public void exchangeSent(ExchangeEvent event) {
-                onExchangeSent(event);
-            }
-            public void exchangeAccepted(ExchangeEvent event) {
-                onExchangeAccepted(event);
-            }
-        };
+        exchangeListener = new StatisticsListener();
         super.init(container);
     }
 
@@ -221,19 +277,22 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
                 ComponentStats stats = componentStats.get(source);
                 stats.incrementOutbound();
             } else {
-                ServiceEndpoint[] ses = getContainer().getRegistry().getEndpointRegistry()
-                                                .getAllEndpointsForComponent(mei.getSourceId());
-                for (int i = 0; i < ses.length; i++) {
-                    if (EndpointSupport.getKey(ses[i]).equals(source)) {
-                        source = EndpointSupport.getUniqueKey(ses[i]);
-                        EndpointStats stats = endpointStats.get(source);
-                        if (stats != null) {
-                            stats.incrementOutbound();
-                        }
-                        break;
-                    }
+                EndpointStats stats = senderEndpointStats.get(getSenderKey(mei.getSourceId().getName(), source));
+                if (stats != null) {
+                    stats.incrementOutbound();
                 }
             }
+            if (trackExchanges) {
+                tracker.start(me.getExchangeId(), System.currentTimeMillis());
+            }
+        } else if (trackExchanges && me.getRole() == Role.PROVIDER) {
+            // First answer (out, fault, done or error) from the provider
+            Timings t = tracker.get(me.getExchangeId());
+            if (t != null && t.accepted != 0 && t.responded == 0) {
+                long now = System.currentTimeMillis();
+                t.responded = now;
+                t.provider.addServiceTime(now - t.accepted);
+            }
         }
     }
     
@@ -249,8 +308,44 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
             EndpointStats stats = endpointStats.get(source);
             if (stats != null) {
                 stats.incrementInbound();
+                Timings t = trackExchanges ? tracker.get(me.getExchangeId()) : null;
+                if (t != null && t.accepted == 0) {
+                    long now = System.currentTimeMillis();
+                    t.provider = stats;
+                    t.accepted = now;
+                    stats.addQueueWaitTime(now - t.sent);
+                    if (t.enqueued != 0 && t.dequeued != 0) {
+                        stats.addFlowQueueTime(t.dequeued - t.enqueued);
+                    }
+                }
+            }
+        } else if (trackExchanges && me.getRole() == Role.CONSUMER) {
+            // First answer received by the consumer
+            Timings t = tracker.get(me.getExchangeId());
+            if (t != null && t.accepted != 0 && t.completed == 0) {
+                long now = System.currentTimeMillis();
+                t.completed = now;
+                t.provider.addRoundTripTime(now - t.sent);
             }
-        }        
+        }
+        if (trackExchanges && me.getStatus() != ExchangeStatus.ACTIVE) {
+            tracker.remove(me.getExchangeId());
+        }
+    }
+
+    protected void onExchangeEnqueued(ExchangeEvent event) {
+        Timings t = trackExchanges ? tracker.get(event.getExchange().getExchangeId()) : null;
+        // Only the request leg is measured
+        if (t != null && t.accepted == 0 && t.enqueued == 0) {
+            t.enqueued = System.currentTimeMillis();
+        }
+    }
+
+    protected void onExchangeDequeued(ExchangeEvent event) {
+        Timings t = trackExchanges ? tracker.get(event.getExchange().getExchangeId()) : null;
+        if (t != null && t.accepted == 0 && t.enqueued != 0 && t.dequeued == 0) {
+            t.dequeued = System.currentTimeMillis();
+        }
     }
     
     protected void scheduleStatsTimer() {
@@ -286,6 +381,11 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
         AttributeInfoHelper helper = new AttributeInfoHelper();
         helper.addAttribute(getObjectToManage(), "dumpStats", "Periodically dump Component statistics");
         helper.addAttribute(getObjectToManage(), "statsInterval", "Interval (secs) before dumping statistics");
+        helper.addAttribute(getObjectToManage(), "trackExchanges", "Track exchanges to compute endpoint latencies");
+        helper.addAttribute(getObjectToManage(), "maxTrackedExchanges", "Maximum number of exchanges tracked at once");
+        helper.addAttribute(getObjectToManage(), "trackingTimeout", "Time (ms) before an unfinished exchange is discarded");
+        helper.addAttribute(getObjectToManage(), "trackedExchangeCount", "Number of exchanges currently tracked");
+        helper.addAttribute(getObjectToManage(), "untrackedExchangeCount", "Number of exchanges not tracked");
         return AttributeInfoHelper.join(super.getAttributeInfos(), helper.getAttributeInfos());
     }
 
@@ -345,7 +445,10 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
         String key = EndpointSupport.getUniqueKey(endpoint);
         ComponentStats compStats = componentStats.get(endpoint.getComponentNameSpace().getName()); 
         EndpointStats stats = new EndpointStats(endpoint, compStats.getMessagingStats());
-        endpointStats.putIfAbsent(key, stats);
+        if (endpointStats.putIfAbsent(key, stats) == null) {
+            senderEndpointStats.put(getSenderKey(endpoint.getComponentNameSpace().getName(), 
+                                                 EndpointSupport.getKey(endpoint)), stats);
+        }
         // Register MBean
         ManagementContext context = container.getManagementContext();
         try {
@@ -364,6 +467,8 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
     private void removeEndpointStats(JBIContainer containner, AbstractServiceEndpoint endpoint) {
         String key = EndpointSupport.getUniqueKey(endpoint);
         EndpointStats stats = endpointStats.remove(key);
+        senderEndpointStats.remove(getSenderKey(endpoint.getComponentNameSpace().getName(), 
+                                                EndpointSupport.getKey(endpoint)), stats);
         // Register MBean
         ManagementContext context = container.getManagementContext();
         try {
@@ -374,6 +479,13 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
         }
     }
     
+    /*
+     * Key of the endpoint stats used to look up the JbiConstants.SENDER_ENDPOINT of an exchange
+     */
+    private static String getSenderKey(String component, String endpointKey) {
+        return component + "|" + endpointKey;
+    }
+
     /**
      * Access the {@link EndpointStats} for all the endpoints that are currently registered
      * 
@@ -392,4 +504,19 @@ public class StatisticsService extends BaseSystemService implements StatisticsSe
         return componentStats;
     }
 
+    private class StatisticsListener implements ExchangeListener, ExchangeQueueListener {
+        public void exchangeSent(ExchangeEvent event) {
+            onExchangeSent(event);
+        }
+        public void exchangeAccepted(ExchangeEvent event) {
+            onExchangeAccepted(event);
+        }
+        public void exchangeEnqueued(ExchangeEvent event) {
+            onExchangeEnqueued(event);
+        }
+        public void exchangeDequeued(ExchangeEvent event) {
+            onExchangeDequeued(event);
+        }
+    }
+
 }
@@ -38,6 +38,36 @@ public interface StatisticsServiceMBean {
      */
     void setDumpStats(boolean value);
     
+    /**
+     * @return true if the latency of each exchange is tracked
+     */
+    boolean isTrackExchanges();
+
+    /**
+     * @param trackExchanges true to track the latency of each exchange, false by default
+     */
+    void setTrackExchanges(boolean trackExchanges);
+
+    /**
+     * @return the maximum number of exchanges tracked at the same time
+     */
+    int getMaxTrackedExchanges();
+
+    /**
+     * @param maxTrackedExchanges the maximum number of exchanges tracked at the same time
+     */
+    void setMaxTrackedExchanges(int maxTrackedExchanges);
+
+    /**
+     * @return the number of exchanges currently tracked
+     */
+    int getTrackedExchangeCount();
+
+    /**
+     * @return the number of exchanges that were not tracked because too many were in flight
+     */
+    long getUntrackedExchangeCount();
+
     /**
      * Reset all statistics
      */
@@ -16,18 +16,17 @@
  */
 package org.apache.servicemix.jbi.monitoring.stats;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 import javax.management.j2ee.statistics.CountStatistic;
 
 /**
- * A count statistic implementation
+ * A count statistic implementation, backed by a {@link StripedCounter}
+ * so that concurrent updates do not contend.
  *
  * @version $Revision$
  */
 public class CountStatisticImpl extends StatisticImpl implements CountStatistic {
 
-    private final AtomicLong counter = new AtomicLong(0);
+    private final StripedCounter counter = new StripedCounter();
     private CountStatisticImpl parent;
 
     public CountStatisticImpl(CountStatisticImpl parent, String name, String description) {
@@ -45,19 +44,20 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
 
     public void reset() {
         super.reset();
-        counter.set(0);
+        counter.reset();
     }
 
     public long getCount() {
-        return counter.get();
+        return counter.sum();
     }
 
     public void setCount(long count) {
-        counter.set(count);
+        counter.reset();
+        counter.add(count);
     }
 
     public void add(long amount) {
-        counter.addAndGet(amount);
+        counter.add(amount);
         updateSampleTime();
         if (parent != null) {
             parent.add(amount);
@@ -65,7 +65,7 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
     }
 
     public void increment() {
-        counter.incrementAndGet();
+        counter.increment();
         updateSampleTime();
         if (parent != null) {
             parent.increment();
@@ -73,7 +73,7 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
     }
 
     public void subtract(long amount) {
-        counter.addAndGet(-amount);
+        counter.add(-amount);
         updateSampleTime();
         if (parent != null) {
             parent.subtract(amount);
@@ -81,7 +81,7 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
     }
     
     public void decrement() {
-        counter.decrementAndGet();
+        counter.decrement();
         updateSampleTime();
         if (parent != null) {
             parent.decrement();
@@ -98,7 +98,7 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
 
     protected void appendFieldDescription(StringBuffer buffer) {
         buffer.append(" count: ");
-        buffer.append(Long.toString(counter.get()));
+        buffer.append(Long.toString(counter.sum()));
         super.appendFieldDescription(buffer);
     }
     
@@ -106,7 +106,7 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
      * @return the average time period that elapses between counter increments since the last reset.
      */
     public double getPeriod() {
-        double count = counter.get();
+        double count = counter.sum();
         if (count == 0) {
             return 0;
         }
@@ -118,7 +118,7 @@ public class CountStatisticImpl extends StatisticImpl implements CountStatistic
      * @return the number of times per second that the counter is incrementing since the last reset.
      */
     public double getFrequency() {
-        double count = counter.get();
+        double count = counter.sum();
         double time = System.currentTimeMillis() - getStartTime();
         return count * 1000.0 / time;
     }
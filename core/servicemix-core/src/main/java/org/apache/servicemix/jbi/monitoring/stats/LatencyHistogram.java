@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.monitoring.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non negative values with a bounded relative
+ * error, used to compute percentiles of latencies.
+ *
+ * Values below 32 have their own bucket.  Each power of two range above
+ * is split in 8 buckets of equal width, so that any recorded value is
+ * reported with an error of less than 1/8th, whatever its magnitude.
+ * Values of 2^41 or more (about 70 years in milliseconds) all fall in
+ * the last bucket, which keeps the histogram around 2.5KB.
+ *
+ * @version $Revision$
+ */
+public class LatencyHistogram implements Resettable {
+
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_EXPONENT = 5;
+    private static final int LAST_EXPONENT = 40;
+
+    /**
+     * Number of buckets of a histogram
+     */
+    public static final int BUCKETS = LINEAR_BUCKETS + (LAST_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public void record(long value) {
+        buckets.incrementAndGet(bucketIndex(value));
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the estimated value at the given percentile
+     */
+    public long getPercentile(double percentile) {
+        return percentile(snapshot(null), percentile);
+    }
+
+    /**
+     * Add the counts of this histogram to the given array
+     *
+     * @param counts an array of {@link #BUCKETS} counts, or <code>null</code>
+     * @return the array of counts
+     */
+    public long[] snapshot(long[] counts) {
+        if (counts == null) {
+            counts = new long[BUCKETS];
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Compute a percentile from an array of bucket counts.
+     */
+    public static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketValue(i);
+            }
+        }
+        return bucketValue(counts.length - 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > LAST_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the middle of the range of values held by the given bucket
+     */
+    static long bucketValue(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        int sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) sub << shift) + ((1L << shift) >> 1);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.monitoring.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the values recorded during a sliding time window and, optionally,
+ * keeps a {@link LatencyHistogram} of them.  The window is divided in slots
+ * which are recycled as time goes by, so that old values are discarded without
+ * any background task.  The histogram of a slot is only allocated when a value
+ * is first recorded in it.
+ *
+ * @version $Revision$
+ */
+public class RollingHistogram implements Resettable {
+
+    private final long slotMillis;
+    private final int slotCount;
+    private final AtomicLongArray epochs;
+    private final AtomicLongArray counts;
+    private final AtomicReferenceArray<LatencyHistogram> slots;
+
+    /**
+     * @param windowMillis the length of the window in milliseconds
+     * @param slotCount the number of slots the window is divided in
+     */
+    public RollingHistogram(long windowMillis, int slotCount) {
+        this(windowMillis, slotCount, true);
+    }
+
+    /**
+     * @param windowMillis the length of the window in milliseconds
+     * @param slotCount the number of slots the window is divided in
+     * @param histograms false to only count the values, in which case no percentile is available
+     */
+    public RollingHistogram(long windowMillis, int slotCount, boolean histograms) {
+        this.slotMillis = Math.max(1, windowMillis / slotCount);
+        this.slotCount = slotCount;
+        this.epochs = new AtomicLongArray(slotCount);
+        this.counts = new AtomicLongArray(slotCount);
+        this.slots = histograms ? new AtomicReferenceArray<LatencyHistogram>(slotCount) : null;
+        for (int i = 0; i < slotCount; i++) {
+            epochs.set(i, -1);
+        }
+    }
+
+    public void record(long value) {
+        long epoch = System.currentTimeMillis() / slotMillis;
+        int index = (int) (epoch % slotCount);
+        long current = epochs.get(index);
+        if (current != epoch && epochs.compareAndSet(index, current, epoch)) {
+            // this slot held values from a previous window
+            counts.set(index, 0);
+            if (slots != null && slots.get(index) != null) {
+                slots.get(index).reset();
+            }
+        }
+        counts.incrementAndGet(index);
+        if (slots != null) {
+            getSlot(index).record(value);
+        }
+    }
+
+    private LatencyHistogram getSlot(int index) {
+        LatencyHistogram slot = slots.get(index);
+        if (slot == null) {
+            slot = new LatencyHistogram();
+            if (!slots.compareAndSet(index, null, slot)) {
+                slot = slots.get(index);
+            }
+        }
+        return slot;
+    }
+
+    public void reset() {
+        for (int i = 0; i < slotCount; i++) {
+            epochs.set(i, -1);
+            counts.set(i, 0);
+            if (slots != null && slots.get(i) != null) {
+                slots.get(i).reset();
+            }
+        }
+    }
+
+    /**
+     * @return true if percentiles are available
+     */
+    public boolean hasHistograms() {
+        return slots != null;
+    }
+
+    /**
+     * @return the length of the window in milliseconds
+     */
+    public long getWindow() {
+        return slotMillis * slotCount;
+    }
+
+    /**
+     * @return the number of values recorded during the window
+     */
+    public long getCount() {
+        long count = 0;
+        long oldest = System.currentTimeMillis() / slotMillis - slotCount;
+        for (int i = 0; i < slotCount; i++) {
+            if (epochs.get(i) > oldest) {
+                count += counts.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the estimated value at the given percentile over the window,
+     *         or 0 if the values are only counted
+     */
+    public long getPercentile(double percentile) {
+        if (slots == null) {
+            return 0;
+        }
+        long[] snapshot = new long[LatencyHistogram.BUCKETS];
+        long oldest = System.currentTimeMillis() / slotMillis - slotCount;
+        for (int i = 0; i < slotCount; i++) {
+            LatencyHistogram slot = slots.get(i);
+            if (slot != null && epochs.get(i) > oldest) {
+                slot.snapshot(snapshot);
+            }
+        }
+        return LatencyHistogram.percentile(snapshot, percentile);
+    }
+
+}
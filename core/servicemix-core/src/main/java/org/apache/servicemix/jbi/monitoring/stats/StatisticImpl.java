@@ -16,6 +16,8 @@
  */
 package org.apache.servicemix.jbi.monitoring.stats;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.management.j2ee.statistics.Statistic;
 
 /**
@@ -27,27 +29,34 @@ public class StatisticImpl implements Statistic, Resettable {
     private String name;
     private String unit;
     private String description;
-    private long startTime;
-    private long lastSampleTime;
+    private volatile long startTime;
+    private final AtomicLong lastSampleTime = new AtomicLong();
 
     public StatisticImpl(String name, String unit, String description) {
         this.name = name;
         this.unit = unit;
         this.description = description;
         startTime = System.currentTimeMillis();
-        lastSampleTime = startTime;
+        lastSampleTime.set(startTime);
     }
 
-    public synchronized void reset() {
+    public void reset() {
         startTime = System.currentTimeMillis();
-        lastSampleTime = startTime;
+        lastSampleTime.set(startTime);
+    }
+
+    protected void updateSampleTime() {
+        lastSampleTime.set(System.currentTimeMillis());
     }
 
-    protected synchronized void updateSampleTime() {
-        lastSampleTime = System.currentTimeMillis();
+    /**
+     * Set the last sample time and return the previous one
+     */
+    protected long updateSampleTime(long time) {
+        return lastSampleTime.getAndSet(time);
     }
 
-    public synchronized String toString() {
+    public String toString() {
         StringBuffer buffer = new StringBuffer();
         buffer.append(name);
         buffer.append("{");
@@ -68,15 +77,15 @@ public class StatisticImpl implements Statistic, Resettable {
         return description;
     }
 
-    public synchronized long getStartTime() {
+    public long getStartTime() {
         return startTime;
     }
 
-    public synchronized long getLastSampleTime() {
-        return lastSampleTime;
+    public long getLastSampleTime() {
+        return lastSampleTime.get();
     }
 
-    protected synchronized void appendFieldDescription(StringBuffer buffer) {
+    protected void appendFieldDescription(StringBuffer buffer) {
         buffer.append(" unit: ");
         buffer.append(unit);
         buffer.append(" startTime: ");
@@ -84,7 +93,7 @@ public class StatisticImpl implements Statistic, Resettable {
         buffer.append(startTime);
         buffer.append(" lastSampleTime: ");
         //buffer.append(new Date(lastSampleTime));
-        buffer.append(lastSampleTime);
+        buffer.append(lastSampleTime.get());
         buffer.append(" description: ");
         buffer.append(description);
     }
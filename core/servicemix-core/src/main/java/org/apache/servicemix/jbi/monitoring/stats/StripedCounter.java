@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.monitoring.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells so that threads updating it
+ * concurrently do not all contend on the same memory location.
+ * Updates are cheap while reading the value requires summing all
+ * the cells, which makes it suitable for statistics that are written
+ * much more often than they are read.
+ *
+ * @version $Revision$
+ */
+public class StripedCounter {
+
+    /**
+     * Cells are spaced by this number of longs to keep them on
+     * different cache lines.
+     */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        int target = Math.min(16, Runtime.getRuntime().availableProcessors() * 2);
+        while (n < target) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void add(long amount) {
+        cells.addAndGet(index(), amount);
+    }
+
+    public void increment() {
+        cells.incrementAndGet(index());
+    }
+
+    public void decrement() {
+        cells.decrementAndGet(index());
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter.  Updates running concurrently may or may
+     * not be taken into account.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+
+}
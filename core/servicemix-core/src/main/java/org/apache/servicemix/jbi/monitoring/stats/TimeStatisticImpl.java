@@ -16,16 +16,73 @@
  */
 package org.apache.servicemix.jbi.monitoring.stats;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
 /**
- * A time statistic implementation
+ * A time statistic implementation.
+ *
+ * Updates do not take any lock: counts and totals are kept in
+ * {@link StripedCounter}s and a {@link RollingHistogram} counts the steps
+ * of the last <code>window</code> milliseconds, from which rates are computed.
+ * Percentiles are only kept for statistics which enable them, as histograms
+ * take a few KB each: times are then also recorded in a lifetime
+ * {@link LatencyHistogram} and in the histograms of the rolling window, which
+ * are allocated when the first time is recorded.
  *
  * @version $Revision$
  */
 public class TimeStatisticImpl extends StatisticImpl {
-    private long count;
-    private long maxTime;
-    private long minTime;
-    private long totalTime;
+
+    /**
+     * Default length of the rolling window in milliseconds
+     */
+    public static final long DEFAULT_WINDOW = 60000;
+
+    /**
+     * Unit of the statistics recording times in nanoseconds
+     */
+    public static final String NANOS = "nanos";
+
+    /**
+     * Type of the {@link #getWindowPercentilesMillis() percentile snapshots}
+     */
+    public static final CompositeType PERCENTILES_TYPE;
+
+    private static final int WINDOW_SLOTS = 12;
+
+    private static final double[] PERCENTILES = {0.50, 0.95, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p95", "p99", "p999"};
+
+    static {
+        String[] descriptions = {
+            "the median time (ms)",
+            "the 95th percentile of the times (ms)",
+            "the 99th percentile of the times (ms)",
+            "the 99.9th percentile of the times (ms)"
+        };
+        OpenType[] types = {SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE};
+        try {
+            PERCENTILES_TYPE = new CompositeType("Percentiles",
+                    "Percentiles of the times recorded during the rolling window, which lasts one minute unless changed",
+                    PERCENTILE_NAMES, descriptions, types);
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter totalTime = new StripedCounter();
+    private final AtomicLong maxTime = new AtomicLong();
+    private final AtomicLong minTime = new AtomicLong();
+    private volatile LatencyHistogram histogram;
+    private volatile RollingHistogram window = new RollingHistogram(DEFAULT_WINDOW, WINDOW_SLOTS, false);
     private TimeStatisticImpl parent;
 
     public TimeStatisticImpl(String name, String description) {
@@ -41,81 +98,112 @@ public class TimeStatisticImpl extends StatisticImpl {
         super(name, unit, description);
     }
 
-    public synchronized void reset() {
+    /**
+     * Create a statistic recording latencies in nanoseconds, with percentiles enabled
+     */
+    public static TimeStatisticImpl createLatency(String name, String description) {
+        TimeStatisticImpl latency = new TimeStatisticImpl(name, NANOS, description);
+        latency.setPercentilesEnabled(true);
+        return latency;
+    }
+
+    public void reset() {
         super.reset();
-        count = 0;
-        maxTime = 0;
-        minTime = 0;
-        totalTime = 0;
+        count.reset();
+        maxTime.set(0);
+        minTime.set(0);
+        totalTime.reset();
+        LatencyHistogram h = histogram;
+        if (h != null) {
+            h.reset();
+        }
+        window.reset();
     }
 
-    public synchronized long getCount() {
-        return count;
+    public long getCount() {
+        return count.sum();
     }
 
-    public synchronized void addTime(long time) {
+    public void addTime(long time) {
         updateSampleTime();
-        count++;
-        totalTime += time;
-        if (time > maxTime) {
-            maxTime = time;
-        }
-        if (time < minTime || minTime == 0) {
-            minTime = time;
-        }
-        if (parent != null) {
-            parent.addTime(time);
-        }
+        record(time);
     }
     
-    public synchronized void addTime() {
-        long time = getLastSampleTime();
-        updateSampleTime();
-        time = getLastSampleTime() - time;
-        count++;
-        totalTime += time;
-        if (time > maxTime) {
-            maxTime = time;
+    /**
+     * Add the time elapsed since the last sample
+     */
+    public void addTime() {
+        long now = System.currentTimeMillis();
+        record(now - updateSampleTime(now));
+    }
+
+    private void record(long time) {
+        count.increment();
+        totalTime.add(time);
+        RollingHistogram w = window;
+        if (w.hasHistograms()) {
+            getHistogram().record(time);
         }
-        if (time < minTime || minTime == 0) {
-            minTime = time;
+        w.record(time);
+        long max = maxTime.get();
+        while (time > max && !maxTime.compareAndSet(max, time)) {
+            max = maxTime.get();
+        }
+        long min = minTime.get();
+        while ((time < min || min == 0) && !minTime.compareAndSet(min, time)) {
+            min = minTime.get();
         }
         if (parent != null) {
             parent.addTime(time);
         }
     }
 
+    private LatencyHistogram getHistogram() {
+        LatencyHistogram h = histogram;
+        if (h == null) {
+            synchronized (this) {
+                h = histogram;
+                if (h == null) {
+                    h = new LatencyHistogram();
+                    histogram = h;
+                }
+            }
+        }
+        return h;
+    }
+
     /**
      * @return the maximum time of any step
      */
     public long getMaxTime() {
-        return maxTime;
+        return maxTime.get();
     }
 
     /**
      * @return the minimum time of any step
      */
-    public synchronized long getMinTime() {
-        return minTime;
+    public long getMinTime() {
+        return minTime.get();
     }
 
     /**
      * @return the total time of all the steps added together
      */
-    public synchronized long getTotalTime() {
-        return totalTime;
+    public long getTotalTime() {
+        return totalTime.sum();
     }
 
     /**
      * @return the average time calculated by dividing the
      *         total time by the number of counts
      */
-    public synchronized double getAverageTime() {
-        if (count == 0) {
+    public double getAverageTime() {
+        long c = count.sum();
+        if (c == 0) {
             return 0;
         }
-        double d = totalTime;
-        return d / count;
+        double d = totalTime.sum();
+        return d / c;
     }
 
 
@@ -124,12 +212,13 @@ public class TimeStatisticImpl extends StatisticImpl {
      *         total time by the number of counts but excluding the
      *         minimum and maximum times.
      */
-    public synchronized double getAverageTimeExcludingMinMax() {
-        if (count <= 2) {
+    public double getAverageTimeExcludingMinMax() {
+        long c = count.sum();
+        if (c <= 2) {
             return 0;
         }
-        double d = totalTime - minTime - maxTime;
-        return d / (count - 2);
+        double d = totalTime.sum() - minTime.get() - maxTime.get();
+        return d / (c - 2);
     }
 
 
@@ -157,6 +246,135 @@ public class TimeStatisticImpl extends StatisticImpl {
         return d / average;
     }
 
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the time at the given percentile of all the steps
+     */
+    public long getPercentile(double percentile) {
+        LatencyHistogram h = histogram;
+        return h != null ? h.getPercentile(percentile) : 0;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the time at the given percentile of the steps
+     *         added during the rolling window, or 0 if percentiles
+     *         are not enabled
+     */
+    public long getWindowPercentile(double percentile) {
+        return window.getPercentile(percentile);
+    }
+
+    /**
+     * Convert a time of this statistic to milliseconds, so that statistics
+     * recorded in nanoseconds can be exposed in milliseconds through JMX.
+     *
+     * @param time a time in the unit of this statistic
+     * @return the time in milliseconds
+     */
+    public double toMillis(long time) {
+        return NANOS.equals(getUnit()) ? time / 1000000.0 : time;
+    }
+
+    /**
+     * @return the average time in milliseconds
+     */
+    public double getAverageTimeMillis() {
+        double average = getAverageTime();
+        return NANOS.equals(getUnit()) ? average / 1000000.0 : average;
+    }
+
+    /**
+     * @return the maximum time of any step in milliseconds
+     */
+    public double getMaxTimeMillis() {
+        return toMillis(getMaxTime());
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the time in milliseconds at the given percentile of the steps
+     *         added during the rolling window, which lasts one minute unless
+     *         changed, or 0 if percentiles are not enabled
+     */
+    public double getWindowPercentileMillis(double percentile) {
+        return toMillis(getWindowPercentile(percentile));
+    }
+
+    /**
+     * A snapshot of the main percentiles of the rolling window, to be exposed
+     * as a single attribute through JMX.
+     *
+     * @return the p50, p95, p99 and p999 items in milliseconds, of type {@link #PERCENTILES_TYPE}
+     */
+    public CompositeData getWindowPercentilesMillis() {
+        Object[] values = new Object[PERCENTILES.length];
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            values[i] = new Double(getWindowPercentileMillis(PERCENTILES[i]));
+        }
+        try {
+            return new CompositeDataSupport(PERCENTILES_TYPE, PERCENTILE_NAMES, values);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * @return the number of steps added during the rolling window
+     */
+    public long getWindowCount() {
+        return window.getCount();
+    }
+
+    /**
+     * @return the number of steps per second during the rolling window
+     */
+    public double getWindowPerSecond() {
+        long elapsed = Math.min(window.getWindow(), System.currentTimeMillis() - getStartTime());
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return window.getCount() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return the length of the rolling window in milliseconds
+     */
+    public long getWindow() {
+        return window.getWindow();
+    }
+
+    /**
+     * Set the length of the rolling window.  Values recorded in
+     * the previous window are discarded.
+     *
+     * @param window the length of the window in milliseconds
+     */
+    public void setWindow(long window) {
+        this.window = new RollingHistogram(window, WINDOW_SLOTS, this.window.hasHistograms());
+    }
+
+    /**
+     * @return true if percentiles are computed for this statistic
+     */
+    public boolean isPercentilesEnabled() {
+        return window.hasHistograms();
+    }
+
+    /**
+     * Set whether percentiles are computed for this statistic, which
+     * should only be the case for latencies.  Values recorded in the
+     * previous window are discarded.
+     *
+     * @param percentilesEnabled
+     */
+    public void setPercentilesEnabled(boolean percentilesEnabled) {
+        this.window = new RollingHistogram(window.getWindow(), WINDOW_SLOTS, percentilesEnabled);
+        if (!percentilesEnabled) {
+            histogram = null;
+        }
+    }
+
     public TimeStatisticImpl getParent() {
         return parent;
     }
@@ -165,15 +383,15 @@ public class TimeStatisticImpl extends StatisticImpl {
         this.parent = parent;
     }
 
-    protected synchronized void appendFieldDescription(StringBuffer buffer) {
+    protected void appendFieldDescription(StringBuffer buffer) {
         buffer.append(" count: ");
-        buffer.append(Long.toString(count));
+        buffer.append(Long.toString(getCount()));
         buffer.append(" maxTime: ");
-        buffer.append(Long.toString(maxTime));
+        buffer.append(Long.toString(getMaxTime()));
         buffer.append(" minTime: ");
-        buffer.append(Long.toString(minTime));
+        buffer.append(Long.toString(getMinTime()));
         buffer.append(" totalTime: ");
-        buffer.append(Long.toString(totalTime));
+        buffer.append(Long.toString(getTotalTime()));
         buffer.append(" averageTime: ");
         buffer.append(Double.toString(getAverageTime()));
         buffer.append(" averageTimeExMinMax: ");
@@ -182,6 +400,12 @@ public class TimeStatisticImpl extends StatisticImpl {
         buffer.append(Double.toString(getAveragePerSecond()));
         buffer.append(" averagePerSecondExMinMax: ");
         buffer.append(Double.toString(getAveragePerSecondExcludingMinMax()));
+        if (isPercentilesEnabled()) {
+            buffer.append(" p50: ");
+            buffer.append(Long.toString(getPercentile(0.5)));
+            buffer.append(" p99: ");
+            buffer.append(Long.toString(getPercentile(0.99)));
+        }
         super.appendFieldDescription(buffer);
     }
 
@@ -20,4 +20,39 @@ import javax.jbi.management.LifeCycleMBean;
 
 public interface BrokerMBean extends LifeCycleMBean {
 
+    /**
+     * @return the number of routes resolved from the route cache
+     */
+    long getRouteCacheHits();
+
+    /**
+     * @return the number of routes that had to be computed
+     */
+    long getRouteCacheMisses();
+
+    /**
+     * @return the number of cached routes
+     */
+    int getRouteCacheSize();
+
+    /**
+     * Flush the route cache
+     */
+    void clearRouteCache();
+
+    /**
+     * @return true if the load of the internal endpoints is tracked
+     */
+    boolean isEndpointLoadTracking();
+
+    /**
+     * @param endpointLoadTracking true to track the load of the internal endpoints
+     */
+    void setEndpointLoadTracking(boolean endpointLoadTracking);
+
+    /**
+     * @return the number of exchanges routed to internal endpoints and not answered yet
+     */
+    int getOutstandingExchangeCount();
+
 }
@@ -26,16 +26,23 @@ import javax.jbi.messaging.MessageExchange.Role;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.servicedesc.ServiceEndpoint;
 import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanOperationInfo;
 import javax.xml.namespace.QName;
 
 import org.apache.servicemix.jbi.api.EndpointResolver;
 import org.apache.servicemix.jbi.container.ActivationSpec;
 import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.event.ComponentEvent;
+import org.apache.servicemix.jbi.event.ComponentListener;
+import org.apache.servicemix.jbi.event.EndpointEvent;
+import org.apache.servicemix.jbi.event.EndpointListener;
 import org.apache.servicemix.jbi.framework.ComponentContextImpl;
 import org.apache.servicemix.jbi.framework.ComponentMBeanImpl;
 import org.apache.servicemix.jbi.framework.ComponentNameSpace;
+import org.apache.servicemix.jbi.framework.EndpointRegistry;
 import org.apache.servicemix.jbi.framework.Registry;
+import org.apache.servicemix.jbi.management.AttributeInfoHelper;
 import org.apache.servicemix.jbi.management.BaseSystemService;
 import org.apache.servicemix.jbi.management.ManagementContext;
 import org.apache.servicemix.jbi.management.OperationInfoHelper;
@@ -48,6 +55,7 @@ import org.apache.servicemix.jbi.resolver.ConsumerComponentEndpointFilter;
 import org.apache.servicemix.jbi.resolver.EndpointChooser;
 import org.apache.servicemix.jbi.resolver.EndpointFilter;
 import org.apache.servicemix.jbi.resolver.FirstChoicePolicy;
+import org.apache.servicemix.jbi.resolver.LeastLoadedPolicy;
 import org.apache.servicemix.jbi.resolver.ProducerComponentEndpointFilter;
 import org.apache.servicemix.jbi.servicedesc.AbstractServiceEndpoint;
 import org.apache.servicemix.jbi.servicedesc.ExternalEndpoint;
@@ -73,6 +81,11 @@ public class DefaultBroker extends BaseSystemService implements Broker {
     private EndpointChooser defaultInterfaceChooser = new FirstChoicePolicy();
     private SubscriptionManager subscriptionManager = new SubscriptionManager();
     private FlowChooser defaultFlowChooser = new DefaultFlowChooser();
+    private RouteCache routeCache = new RouteCache();
+    private boolean routeCacheEnabled = true;
+    private RouteCacheInvalidator routeCacheInvalidator = new RouteCacheInvalidator();
+    private EndpointLoadTracker loadTracker = new EndpointLoadTracker();
+    private volatile boolean endpointLoadTracking;
 
     /**
      * Constructor
@@ -124,6 +137,10 @@ public class DefaultBroker extends BaseSystemService implements Broker {
             }
         }
         subscriptionManager.init(this, registry);
+        container.addListener(routeCacheInvalidator);
+        if (defaultServiceChooser instanceof LeastLoadedPolicy || defaultInterfaceChooser instanceof LeastLoadedPolicy) {
+            endpointLoadTracking = true;
+        }
     }
 
     protected Class<BrokerMBean> getServiceMBean() {
@@ -192,6 +209,9 @@ public class DefaultBroker extends BaseSystemService implements Broker {
             flows[i].shutDown();
         }
         container.deactivateComponent(SubscriptionManager.COMPONENT_NAME);
+        container.removeListener(routeCacheInvalidator);
+        routeCache.clear();
+        loadTracker.clear();
         super.shutDown();
         container.getManagementContext().unregisterMBean(this);
     }
@@ -281,7 +301,21 @@ public class DefaultBroker extends BaseSystemService implements Broker {
             if (flow == null) {
                 throw new MessagingException("Unable to choose a flow for exchange: " + exchange);
             }
-            flow.send(exchange);
+            if (endpointLoadTracking) {
+                // track before sending, as the answer may come back before send returns
+                loadTracker.exchangeRouted(exchange);
+                boolean sent = false;
+                try {
+                    flow.send(exchange);
+                    sent = true;
+                } finally {
+                    if (!sent) {
+                        loadTracker.exchangeFailed(exchange);
+                    }
+                }
+            } else {
+                flow.send(exchange);
+            }
         }
 
         if (exchange.getRole() == Role.PROVIDER) {
@@ -335,19 +369,22 @@ public class DefaultBroker extends BaseSystemService implements Broker {
             QName serviceName = exchange.getService();
             QName interfaceName = exchange.getInterfaceName();
 
+            // the route cache relies on the identity of the shared snapshots of the endpoint registry
+            EndpointRegistry endpointRegistry = registry.getEndpointRegistry();
+
             // check in order, ServiceName then InterfaceName
             // check to see if there is a match on the serviceName
             if (serviceName != null) {
-                ServiceEndpoint[] endpoints = registry.getEndpointsForService(serviceName);
-                endpoints = getMatchingEndpoints(endpoints, exchange);
+                ServiceEndpoint[] endpoints = endpointRegistry.getEndpointsForService(serviceName);
+                endpoints = getCachedMatchingEndpoints(endpoints, exchange, false);
                 theEndpoint = getServiceChooser(exchange).chooseEndpoint(endpoints, context, exchange);
                 if (theEndpoint == null) {
                     LOGGER.warn("ServiceName ({}) specified for routing, but can't find it registered", serviceName);
                 }
             }
             if (theEndpoint == null && interfaceName != null) {
-                ServiceEndpoint[] endpoints = registry.getEndpointsForInterface(interfaceName);
-                endpoints = getMatchingEndpoints(endpoints, exchange);
+                ServiceEndpoint[] endpoints = endpointRegistry.getEndpointsForInterface(interfaceName);
+                endpoints = getCachedMatchingEndpoints(endpoints, exchange, true);
                 theEndpoint = (InternalEndpoint) getInterfaceChooser(exchange).chooseEndpoint(endpoints, context, exchange);
                 if (theEndpoint == null) {
                     LOGGER.warn("InterfaceName ({}) specified for routing, but can't find any matching components", interfaceName);
@@ -376,6 +413,60 @@ public class DefaultBroker extends BaseSystemService implements Broker {
         LOGGER.trace("Routing exchange {} to {}", exchange, theEndpoint);
     }
 
+    /**
+     * Filter the given endpoints using the route cache if possible, or by
+     * asking to the provider and consumer if they are both ok to process the exchange.
+     * 
+     * @param endpoints
+     *            an array of internal endpoints to check
+     * @param exchange
+     *            the exchange that will be serviced
+     * @param byInterface
+     *            whether the endpoints have been looked up by interface or by service
+     * @return an array of endpoints on which both consumer and provider agrees
+     */
+    protected ServiceEndpoint[] getCachedMatchingEndpoints(ServiceEndpoint[] endpoints, MessageExchangeImpl exchange,
+                                                           boolean byInterface) {
+        if (!routeCacheEnabled || !isRouteCacheEnabled(exchange.getActivationSpec())) {
+            return getMatchingEndpoints(endpoints, exchange);
+        }
+        RouteCache.Key key = new RouteCache.Key(exchange.getSourceId(), exchange.getService(),
+                                                exchange.getInterfaceName(), exchange.getOperation(),
+                                                exchange.getPattern(), byInterface);
+        ServiceEndpoint[] matches = routeCache.get(key, endpoints);
+        if (matches == null) {
+            matches = getMatchingEndpoints(endpoints, exchange);
+            if (isRouteCacheable(endpoints)) {
+                routeCache.put(key, endpoints, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Check that none of the providers of the given endpoints has
+     * disabled route caching on its activation spec.
+     * 
+     * @param endpoints
+     * @return true if the route can be cached
+     */
+    protected boolean isRouteCacheable(ServiceEndpoint[] endpoints) {
+        for (int i = 0; i < endpoints.length; i++) {
+            ComponentNameSpace id = ((InternalEndpoint) endpoints[i]).getComponentNameSpace();
+            if (id != null) {
+                ComponentMBeanImpl provider = getRegistry().getComponent(id);
+                if (provider != null && !isRouteCacheEnabled(provider.getActivationSpec())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isRouteCacheEnabled(ActivationSpec activationSpec) {
+        return activationSpec == null || activationSpec.isRouteCacheEnabled();
+    }
+
     /**
      * Filter the given endpoints by asking to the provider and consumer if they
      * are both ok to process the exchange.
@@ -419,6 +510,9 @@ public class DefaultBroker extends BaseSystemService implements Broker {
      */
     public void setDefaultInterfaceChooser(EndpointChooser defaultInterfaceChooser) {
         this.defaultInterfaceChooser = defaultInterfaceChooser;
+        if (defaultInterfaceChooser instanceof LeastLoadedPolicy) {
+            endpointLoadTracking = true;
+        }
     }
 
     /**
@@ -435,6 +529,87 @@ public class DefaultBroker extends BaseSystemService implements Broker {
      */
     public void setDefaultServiceChooser(EndpointChooser defaultServiceChooser) {
         this.defaultServiceChooser = defaultServiceChooser;
+        if (defaultServiceChooser instanceof LeastLoadedPolicy) {
+            endpointLoadTracking = true;
+        }
+    }
+
+    /**
+     * @return true if the route cache is enabled
+     */
+    public boolean isRouteCacheEnabled() {
+        return routeCacheEnabled;
+    }
+
+    /**
+     * Enable or disable the route cache.  When enabled, the endpoints accepted
+     * by both the consumer and the provider for a given route are cached and only
+     * computed again when the registry or the components change.
+     * 
+     * @param routeCacheEnabled
+     */
+    public void setRouteCacheEnabled(boolean routeCacheEnabled) {
+        this.routeCacheEnabled = routeCacheEnabled;
+        routeCache.clear();
+    }
+
+    /**
+     * @return the route cache
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    public long getRouteCacheHits() {
+        return routeCache.getHits();
+    }
+
+    public long getRouteCacheMisses() {
+        return routeCache.getMisses();
+    }
+
+    public int getRouteCacheSize() {
+        return routeCache.getSize();
+    }
+
+    /**
+     * Flush the route cache
+     */
+    public void clearRouteCache() {
+        routeCache.clear();
+    }
+
+    /**
+     * @return true if the load of the internal endpoints is tracked
+     */
+    public boolean isEndpointLoadTracking() {
+        return endpointLoadTracking;
+    }
+
+    /**
+     * Enable or disable the tracking of the exchanges outstanding on each internal 
+     * endpoint and of the time the endpoints take to answer, as used by the 
+     * {@link LeastLoadedPolicy}.  It is enabled automatically when the default 
+     * service or interface chooser is a {@link LeastLoadedPolicy}.
+     * 
+     * @param endpointLoadTracking
+     */
+    public void setEndpointLoadTracking(boolean endpointLoadTracking) {
+        this.endpointLoadTracking = endpointLoadTracking;
+        if (!endpointLoadTracking) {
+            loadTracker.clear();
+        }
+    }
+
+    /**
+     * @return the endpoint load tracker
+     */
+    public EndpointLoadTracker getEndpointLoadTracker() {
+        return loadTracker;
+    }
+
+    public int getOutstandingExchangeCount() {
+        return loadTracker.getSize();
     }
 
     /**
@@ -509,6 +684,22 @@ public class DefaultBroker extends BaseSystemService implements Broker {
         }
     }
 
+    /**
+     * Get an array of MBeanAttributeInfo
+     * 
+     * @return array of AttributeInfos
+     * @throws JMException
+     */
+    public MBeanAttributeInfo[] getAttributeInfos() throws JMException {
+        AttributeInfoHelper helper = new AttributeInfoHelper();
+        helper.addAttribute(getObjectToManage(), "routeCacheHits", "number of routes resolved from the route cache");
+        helper.addAttribute(getObjectToManage(), "routeCacheMisses", "number of routes not found in the route cache");
+        helper.addAttribute(getObjectToManage(), "routeCacheSize", "number of cached routes");
+        helper.addAttribute(getObjectToManage(), "endpointLoadTracking", "track the load of internal endpoints");
+        helper.addAttribute(getObjectToManage(), "outstandingExchangeCount", "number of exchanges waiting for an answer");
+        return AttributeInfoHelper.join(super.getAttributeInfos(), helper.getAttributeInfos());
+    }
+
     /**
      * Get an array of MBeanOperationInfo
      * 
@@ -519,6 +710,7 @@ public class DefaultBroker extends BaseSystemService implements Broker {
         OperationInfoHelper helper = new OperationInfoHelper();
         helper.addOperation(getObjectToManage(), "suspend", "suspend the NMR processing");
         helper.addOperation(getObjectToManage(), "resume", "resume the NMR processing");
+        helper.addOperation(getObjectToManage(), "clearRouteCache", "flush the route cache");
 
         return OperationInfoHelper.join(super.getOperationInfos(), helper.getOperationInfos());
     }
@@ -527,4 +719,61 @@ public class DefaultBroker extends BaseSystemService implements Broker {
         return container;
     }
 
-}
\ No newline at end of file
+    /**
+     * Flushes the route cache whenever endpoints or components change.
+     */
+    protected class RouteCacheInvalidator implements EndpointListener, ComponentListener {
+
+        public void internalEndpointRegistered(EndpointEvent event) {
+            routeCache.clear();
+        }
+
+        public void internalEndpointUnregistered(EndpointEvent event) {
+            routeCache.clear();
+        }
+
+        public void externalEndpointRegistered(EndpointEvent event) {
+        }
+
+        public void externalEndpointUnregistered(EndpointEvent event) {
+        }
+
+        public void linkedEndpointRegistered(EndpointEvent event) {
+        }
+
+        public void linkedEndpointUnregistered(EndpointEvent event) {
+        }
+
+        public void remoteEndpointRegistered(EndpointEvent event) {
+            routeCache.clear();
+        }
+
+        public void remoteEndpointUnregistered(EndpointEvent event) {
+            routeCache.clear();
+        }
+
+        public void componentInstalled(ComponentEvent event) {
+        }
+
+        public void componentInitialized(ComponentEvent event) {
+            routeCache.clear();
+        }
+
+        public void componentStarted(ComponentEvent event) {
+            routeCache.clear();
+        }
+
+        public void componentStopped(ComponentEvent event) {
+            routeCache.clear();
+        }
+
+        public void componentShutDown(ComponentEvent event) {
+            routeCache.clear();
+        }
+
+        public void componentUninstalled(ComponentEvent event) {
+            routeCache.clear();
+        }
+    }
+
+}
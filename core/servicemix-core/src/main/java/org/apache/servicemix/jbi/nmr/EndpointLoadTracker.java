@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.MessageExchange.Role;
+import javax.jbi.servicedesc.ServiceEndpoint;
+
+import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
+import org.apache.servicemix.jbi.servicedesc.EndpointLoad;
+import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
+import org.apache.servicemix.jbi.util.ExchangeTracker;
+
+/**
+ * Tracks the exchanges routed by the broker to internal endpoints until
+ * they are answered, and maintains the {@link EndpointLoad} of the endpoints
+ * accordingly.
+ * 
+ * Exchanges which are not answered through the broker (for example because
+ * the answer comes back from a remote container) expire after a timeout.
+ * 
+ * @version $Revision$
+ */
+public class EndpointLoadTracker extends ExchangeTracker<EndpointLoadTracker.Outstanding> {
+
+    /**
+     * Called by the broker for each exchange it routes.  A new exchange sent to
+     * an internal endpoint starts being tracked, while any answer stops it.
+     * 
+     * @param exchange the exchange
+     */
+    public void exchangeRouted(MessageExchangeImpl exchange) {
+        if (exchange.getRole() == Role.PROVIDER && exchange.getStatus() == ExchangeStatus.ACTIVE) {
+            ServiceEndpoint endpoint = exchange.getEndpoint();
+            if (endpoint instanceof InternalEndpoint) {
+                EndpointLoad load = ((InternalEndpoint) endpoint).getLoad();
+                Outstanding o = new Outstanding(load, System.nanoTime());
+                // an exchange sent again is only counted once
+                if (track(exchange.getExchangeId(), o, System.currentTimeMillis()) == o) {
+                    load.begin();
+                }
+            }
+        } else {
+            Outstanding o = remove(exchange.getExchangeId());
+            if (o != null) {
+                o.load.end(System.nanoTime() - o.start);
+            }
+        }
+    }
+
+    /**
+     * Stop tracking an exchange which could not be routed
+     * 
+     * @param exchange the exchange
+     */
+    public void exchangeFailed(MessageExchangeImpl exchange) {
+        Outstanding o = remove(exchange.getExchangeId());
+        if (o != null) {
+            o.load.cancel();
+        }
+    }
+
+    protected void discarded(Outstanding o) {
+        o.load.cancel();
+    }
+
+    /**
+     * An exchange waiting for its answer
+     */
+    public static class Outstanding {
+        final EndpointLoad load;
+        final long start;
+
+        Outstanding(EndpointLoad load, long start) {
+            this.load = load;
+            this.start = start;
+        }
+    }
+
+}
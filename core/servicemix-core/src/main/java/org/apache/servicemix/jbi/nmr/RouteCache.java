@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import org.apache.servicemix.jbi.framework.ComponentNameSpace;
+
+/**
+ * Caches the endpoints matching a given route, i.e. the endpoints which
+ * have been accepted by both the consumer and the provider components
+ * for a given (source component, service, interface, operation, pattern),
+ * as components may accept or refuse an exchange depending on its pattern.
+ * 
+ * Each entry remembers the candidate array it was computed from, so that
+ * it is automatically discarded as soon as the registry hands out a new
+ * snapshot for the same service or interface.
+ * 
+ * @version $Revision$
+ */
+public class RouteCache {
+
+    private final Map<Key, Route> routes = new ConcurrentHashMap<Key, Route>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int maxSize = 10000;
+
+    /**
+     * Retrieve the matching endpoints for the given route.
+     * 
+     * @param key the route key
+     * @param candidates the candidate endpoints currently in the registry
+     * @return the matching endpoints or <code>null</code> if the route is not cached
+     */
+    public ServiceEndpoint[] get(Key key, ServiceEndpoint[] candidates) {
+        Route route = routes.get(key);
+        if (route != null && route.candidates == candidates) {
+            hits.incrementAndGet();
+            return route.matches;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store the matching endpoints for the given route.
+     * 
+     * @param key the route key
+     * @param candidates the candidate endpoints the matches have been computed from
+     * @param matches the matching endpoints
+     */
+    public void put(Key key, ServiceEndpoint[] candidates, ServiceEndpoint[] matches) {
+        if (routes.size() >= maxSize) {
+            routes.clear();
+        }
+        routes.put(key, new Route(candidates, matches));
+    }
+
+    /**
+     * Remove all cached routes.
+     */
+    public void clear() {
+        routes.clear();
+    }
+
+    public int getSize() {
+        return routes.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached routes.  When this limit
+     * is reached, the whole cache is flushed.
+     * 
+     * @param maxSize
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static class Route {
+        final ServiceEndpoint[] candidates;
+        final ServiceEndpoint[] matches;
+
+        Route(ServiceEndpoint[] candidates, ServiceEndpoint[] matches) {
+            this.candidates = candidates;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * Key identifying a route.
+     */
+    public static class Key {
+        private final ComponentNameSpace source;
+        private final QName service;
+        private final QName interfaceName;
+        private final QName operation;
+        private final URI pattern;
+        private final boolean byInterface;
+        private final int hashCode;
+
+        public Key(ComponentNameSpace source, QName service, QName interfaceName, QName operation,
+                   URI pattern, boolean byInterface) {
+            this.source = source;
+            this.service = service;
+            this.interfaceName = interfaceName;
+            this.operation = operation;
+            this.pattern = pattern;
+            this.byInterface = byInterface;
+            int h = byInterface ? 1 : 0;
+            h = h * 31 + (source != null ? source.hashCode() : 0);
+            h = h * 31 + (service != null ? service.hashCode() : 0);
+            h = h * 31 + (interfaceName != null ? interfaceName.hashCode() : 0);
+            h = h * 31 + (operation != null ? operation.hashCode() : 0);
+            h = h * 31 + (pattern != null ? pattern.hashCode() : 0);
+            this.hashCode = h;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return byInterface == other.byInterface
+                && equals(source, other.source)
+                && equals(service, other.service)
+                && equals(interfaceName, other.interfaceName)
+                && equals(operation, other.operation)
+                && equals(pattern, other.pattern);
+        }
+
+        private static boolean equals(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+}
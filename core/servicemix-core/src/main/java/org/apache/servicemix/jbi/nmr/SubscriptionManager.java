@@ -16,6 +16,7 @@
  */
 package org.apache.servicemix.jbi.nmr;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -26,11 +27,20 @@ import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.apache.servicemix.JbiConstants;
 import org.apache.servicemix.MessageExchangeListener;
 import org.apache.servicemix.components.util.ComponentSupport;
+import org.apache.servicemix.components.util.CopyTransformer;
 import org.apache.servicemix.jbi.framework.Registry;
+import org.apache.servicemix.jbi.jaxp.BytesSource;
+import org.apache.servicemix.jbi.jaxp.ResourceSource;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
 import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
 import org.slf4j.Logger;
@@ -54,6 +64,10 @@ public class SubscriptionManager extends ComponentSupport implements MessageExch
 
     private String flowName;
 
+    private boolean sharedContent;
+
+    private SourceTransformer sourceTransformer = new SourceTransformer();
+
     /**
      * Initialize the SubscriptionManager
      * 
@@ -78,9 +92,10 @@ public class SubscriptionManager extends ComponentSupport implements MessageExch
         if (source == null || !source.booleanValue()) {
             List<InternalEndpoint> list = registry.getMatchingSubscriptionEndpoints(exchange);
             if (list != null) {
+                Source content = sharedContent ? getSharedContent(exchange.getInMessage()) : null;
                 for (int i = 0; i < list.size(); i++) {
                     InternalEndpoint endpoint = list.get(i);
-                    dispatchToSubscriber(exchange, endpoint);
+                    dispatchToSubscriber(exchange, endpoint, content);
                 }
             }
             return list != null && !list.isEmpty();
@@ -97,6 +112,20 @@ public class SubscriptionManager extends ComponentSupport implements MessageExch
      * @throws JBIException
      */
     protected void dispatchToSubscriber(MessageExchangeImpl exchange, InternalEndpoint endpoint) throws JBIException {
+        dispatchToSubscriber(exchange, endpoint, null);
+    }
+
+    /**
+     * Dispatches the given message exchange to the given endpoint
+     * 
+     * @param exchange
+     * @param endpoint
+     * @param content the content shared by all subscribers, or null to copy 
+     *        the message using the message transformer 
+     * @throws JBIException
+     */
+    protected void dispatchToSubscriber(MessageExchangeImpl exchange, InternalEndpoint endpoint, 
+                                        Source content) throws JBIException {
         if (LOGGER.isDebugEnabled() && endpoint != null) {
             LOGGER.debug("Subscription Endpoint: {}", endpoint.getEndpointName());
         }
@@ -108,7 +137,15 @@ public class SubscriptionManager extends ComponentSupport implements MessageExch
             // SM-229: Avoid StackOverflowException
             me.setProperty(FROM_SUBSCRIPTION_MANAGER, Boolean.TRUE);
             NormalizedMessage in = me.createMessage();
-            getMessageTransformer().transform(me, exchange.getInMessage(), in);
+            if (content != null) {
+                NormalizedMessage from = exchange.getInMessage();
+                CopyTransformer.copyProperties(from, in);
+                in.setContent(content);
+                CopyTransformer.copyAttachments(from, in);
+                CopyTransformer.copySecuritySubject(from, in);
+            } else {
+                getMessageTransformer().transform(me, exchange.getInMessage(), in);
+            }
             me.setInMessage(in);
             me.setEndpoint(endpoint);
             Set names = exchange.getPropertyNames();
@@ -124,6 +161,53 @@ public class SubscriptionManager extends ComponentSupport implements MessageExch
         }
     }
 
+    /**
+     * Buffer the content of the message once into an immutable source which can be
+     * read any number of times, so that it can be shared by all the subscribers.
+     * Streaming content is replaced in the original message by the buffered copy.
+     * 
+     * @param message the message to dispatch
+     * @return the shared content
+     * @throws MessagingException
+     */
+    protected Source getSharedContent(NormalizedMessage message) throws MessagingException {
+        Source content = message.getContent();
+        if (content == null || content instanceof BytesSource || content instanceof StringSource
+                || content instanceof ResourceSource) {
+            return content;
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            sourceTransformer.toResult(content, new StreamResult(buffer));
+            BytesSource shared = new BytesSource(buffer.toByteArray());
+            if (!(content instanceof DOMSource)) {
+                // the original content has been consumed
+                message.setContent(shared);
+            }
+            return shared;
+        } catch (TransformerException e) {
+            throw new MessagingException(e);
+        }
+    }
+
+    /**
+     * @return true if the subscribers share a single buffered copy of the content
+     */
+    public boolean isSharedContent() {
+        return sharedContent;
+    }
+
+    /**
+     * When enabled, the content of an exchange is buffered once and the same
+     * immutable copy is given to all subscribers, instead of being copied
+     * for each subscriber by the message transformer.
+     * 
+     * @param sharedContent
+     */
+    public void setSharedContent(boolean sharedContent) {
+        this.sharedContent = sharedContent;
+    }
+
     public String getFlowName() {
         return flowName;
     }
@@ -16,9 +16,6 @@
  */
 package org.apache.servicemix.jbi.nmr.flow;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 import javax.jbi.JBIException;
 import javax.jbi.management.LifeCycleMBean;
 import javax.jbi.messaging.MessageExchange;
@@ -55,7 +52,7 @@ public abstract class AbstractFlow extends BaseLifeCycle implements Flow {
 
     protected Broker broker;
     protected ExecutorFactory executorFactory;
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    private SuspendGate gate = new SuspendGate();
     private Thread suspendThread;
     private String name;
 
@@ -115,11 +112,11 @@ public abstract class AbstractFlow extends BaseLifeCycle implements Flow {
     public void send(MessageExchange me) throws JBIException {
         LOGGER.debug("Called Flow send");
         // do send
+        gate.enter();
         try {
-            lock.readLock().lock();
             doSend((MessageExchangeImpl) me);
         } finally {
-            lock.readLock().unlock();
+            gate.exit();
         }
     }
 
@@ -128,7 +125,7 @@ public abstract class AbstractFlow extends BaseLifeCycle implements Flow {
      */
     public synchronized void suspend() {
         LOGGER.debug("Called Flow suspend");
-        lock.writeLock().lock();
+        gate.suspend();
         suspendThread = Thread.currentThread();
     }
 
@@ -137,7 +134,7 @@ public abstract class AbstractFlow extends BaseLifeCycle implements Flow {
      */
     public synchronized void resume() {
         LOGGER.debug("Called Flow resume");
-        lock.writeLock().unlock();
+        gate.resume();
         suspendThread = null;
     }
 
@@ -160,8 +157,8 @@ public abstract class AbstractFlow extends BaseLifeCycle implements Flow {
         ComponentMBeanImpl lcc = broker.getContainer().getRegistry().getComponent(id.getName());
         if (lcc != null) {
             if (lcc.getDeliveryChannel() != null) {
+                gate.enter();
                 try {
-                    lock.readLock().lock();
                     if (!me.getSourceId().getContainerName().equalsIgnoreCase(broker.getContainer().getName())
                         && broker instanceof SecuredBroker) {
                         try {
@@ -176,7 +173,7 @@ public abstract class AbstractFlow extends BaseLifeCycle implements Flow {
                     }
                     lcc.getDeliveryChannel().processInBound(me);
                 } finally {
-                    lock.readLock().unlock();
+                    gate.exit();
                 }
             } else {
                 throw new MessagingException("Component " + id.getName() + " is shut down");
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow;
+
+import org.apache.servicemix.jbi.monitoring.stats.StripedCounter;
+
+/**
+ * Gate used by flows to block the processing of exchanges while the
+ * flow is suspended.
+ *
+ * Threads entering the gate only update a striped in-flight counter and
+ * read a volatile flag, so that no shared memory location is written by
+ * all the threads routing exchanges, as it is the case with the reader
+ * count of a {@link java.util.concurrent.locks.ReentrantReadWriteLock}.
+ * Suspending the gate sets the flag and waits for the threads already
+ * inside to leave. Entering the gate is reentrant, and the suspending
+ * thread itself is never blocked.
+ *
+ * @version $Revision$
+ */
+public class SuspendGate {
+
+    private final StripedCounter inFlight = new StripedCounter();
+    private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private volatile boolean suspended;
+    private Thread owner;
+
+    /**
+     * Enter the gate, waiting for the gate to be resumed if needed.
+     * Each call must be followed by a call to {@link #exit()}.
+     */
+    public void enter() {
+        int[] d = depth.get();
+        if (d[0]++ > 0) {
+            return;
+        }
+        for (;;) {
+            inFlight.increment();
+            if (!suspended) {
+                return;
+            }
+            inFlight.decrement();
+            if (!awaitResume()) {
+                // the owner of the suspension is let through
+                inFlight.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Leave the gate
+     */
+    public void exit() {
+        int[] d = depth.get();
+        if (--d[0] > 0) {
+            return;
+        }
+        inFlight.decrement();
+        if (suspended) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Suspend the gate: block new threads and wait for the ones
+     * already inside to leave.
+     */
+    public synchronized void suspend() {
+        suspended = true;
+        owner = Thread.currentThread();
+        // do not wait for ourself if we are suspending from inside the gate
+        long self = depth.get()[0] > 0 ? 1 : 0;
+        boolean interrupted = false;
+        while (suspended && inFlight.sum() > self) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resume the gate and release the waiting threads
+     */
+    public synchronized void resume() {
+        suspended = false;
+        owner = null;
+        notifyAll();
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * @return false if the current thread is the one which suspended
+     *         the gate, true once the gate has been resumed
+     */
+    private synchronized boolean awaitResume() {
+        notifyAll();
+        boolean interrupted = false;
+        try {
+            while (suspended) {
+                if (owner == Thread.currentThread()) {
+                    return false;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -16,17 +16,21 @@
  */
 package org.apache.servicemix.jbi.nmr.flow.jms;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jbi.JBIException;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessageExchange.Role;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
@@ -39,6 +43,8 @@ import javax.jms.ObjectMessage;
 import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.Topic;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
 
 import org.apache.activemq.pool.PooledConnectionFactory;
 import org.apache.servicemix.JbiConstants;
@@ -50,7 +56,11 @@ import org.apache.servicemix.jbi.event.EndpointAdapter;
 import org.apache.servicemix.jbi.event.EndpointEvent;
 import org.apache.servicemix.jbi.event.EndpointListener;
 import org.apache.servicemix.jbi.framework.ComponentMBeanImpl;
+import org.apache.servicemix.jbi.management.AttributeInfoHelper;
+import org.apache.servicemix.jbi.messaging.BinaryExchangeCodec;
+import org.apache.servicemix.jbi.messaging.ExchangeCodec;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
+import org.apache.servicemix.jbi.messaging.MessageExchangeSupport;
 import org.apache.servicemix.jbi.nmr.Broker;
 import org.apache.servicemix.jbi.nmr.flow.AbstractFlow;
 import org.apache.servicemix.jbi.servicedesc.EndpointSupport;
@@ -80,6 +90,18 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
     private ComponentListener componentListener;
     private Executor executor;
     private String jmsURL = "peer://org.apache.servicemix?persistent=false";
+    private ExchangeCodec codec;
+    private int sessionPoolSize;
+    private JMSSessionPool sessionPool;
+    private int batchSize;
+    private long batchTimeout = 50;
+    private JMSSessionPool batchPool;
+    private final Object batchLock = new Object();
+    private JMSSessionPool.PooledSession batchSession;
+    private Batch batch;
+    private final AtomicInteger arrivingSenders = new AtomicInteger();
+    private final AtomicLong batchedMessages = new AtomicLong();
+    private final AtomicLong batchesCommitted = new AtomicLong();
 
     /**
      * The type of Flow
@@ -208,6 +230,12 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
             }
             connection.setClientID(broker.getContainer().getName());
             connection.start();
+            if (sessionPoolSize > 0) {
+                sessionPool = new JMSSessionPool(connection, false, sessionPoolSize);
+            }
+            if (batchSize > 0) {
+                batchPool = new JMSSessionPool(connection, true, 1);
+            }
             Session inboundSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             Queue queue = inboundSession.createQueue(INBOUND_PREFIX + broker.getContainer().getName());
             MessageConsumer inboundQueue = inboundSession.createConsumer(queue);
@@ -304,6 +332,7 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
                 removeAllPackets(id);
             }
             subscriberSet.clear();
+            flushBatch();
             try {
                 stopConsumerMonitor();
                 broadcastConsumer.close();
@@ -320,6 +349,20 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
         broker.getContainer().removeListener(endpointListener);
         // Remove component listener
         broker.getContainer().removeListener(componentListener);
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+        if (batchPool != null) {
+            synchronized (batchLock) {
+                if (batch != null) {
+                    completeBatch(new JMSException("JMSFlow has been shut down"));
+                } else if (batchSession != null) {
+                    batchPool.invalidate(batchSession);
+                    batchSession = null;
+                }
+            }
+            batchPool.close();
+        }
         if (this.connection != null) {
             try {
                 this.connection.close();
@@ -471,35 +514,194 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
                 }
             }
 
-            Connection cnx = connection;
-            // with a PooledConnectionFactory get a new connection from the pool
-            boolean useConnectionFromPool = (connectionFactory instanceof PooledConnectionFactory)
-                && ((PooledConnectionFactory)connectionFactory).getMaxConnections() > 1;
-            if (useConnectionFromPool) {
-                cnx = connectionFactory.createConnection();
-                cnx.start();
+            if (isBatchable(me)) {
+                sendBatched(destination, me);
+            } else if (sessionPool != null) {
+                sendPooled(destination, me);
+            } else {
+                sendUnpooled(destination, me);
+            }
+        } catch (JMSException e) {
+            LOGGER.error("Failed to send exchange: " + me + " internal JMS Network", e);
+            throw new MessagingException(e);
+        } catch (IOException e) {
+            LOGGER.error("Failed to encode exchange: " + me, e);
+            throw new MessagingException(e);
+        }
+    }
+    
+    protected Message createMessage(Session session, MessageExchangeImpl me) throws JMSException, IOException {
+        if (codec != null) {
+            BytesMessage msg = session.createBytesMessage();
+            msg.writeBytes(codec.encodeExchange(me));
+            return msg;
+        }
+        return session.createObjectMessage(me);
+    }
+
+    protected void sendUnpooled(String destination, MessageExchangeImpl me) throws JMSException, IOException {
+        Connection cnx = connection;
+        // with a PooledConnectionFactory get a new connection from the pool
+        boolean useConnectionFromPool = (connectionFactory instanceof PooledConnectionFactory)
+            && ((PooledConnectionFactory)connectionFactory).getMaxConnections() > 1;
+        if (useConnectionFromPool) {
+            cnx = connectionFactory.createConnection();
+            cnx.start();
+        }
+        
+        Session inboundSession = cnx.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            Queue queue = inboundSession.createQueue(destination);
+            Message msg = createMessage(inboundSession, me);
+            // Set message priority.
+            Integer priority = (Integer) me.getProperty(JbiConstants.MESSAGE_PRIORITY);
+            if (null != priority) {
+                msg.setJMSPriority(priority);
+            }
+            MessageProducer queueProducer = inboundSession.createProducer(queue);
+            queueProducer.send(msg);
+        } finally {
+            inboundSession.close();
+        }
+    }
+
+    protected void sendPooled(String destination, MessageExchangeImpl me) throws JMSException, IOException {
+        JMSSessionPool.PooledSession session = sessionPool.borrow();
+        boolean success = false;
+        try {
+            send(session, destination, me);
+            success = true;
+        } finally {
+            if (success) {
+                sessionPool.release(session);
+            } else {
+                sessionPool.invalidate(session);
             }
-            
-            Session inboundSession = cnx.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+    }
+
+    /**
+     * Only asynchronous, non transacted InOnly exchanges are batched:
+     * they are committed together when the batch is full, when no other
+     * sender is about to join the batch or after <code>batchTimeout</code>
+     * milliseconds.
+     */
+    protected boolean isBatchable(MessageExchangeImpl me) {
+        return batchPool != null && MessageExchangeSupport.IN_ONLY.equals(me.getPattern())
+            && !isSynchronous(me) && !isTransacted(me);
+    }
+
+    /**
+     * Send the exchange in the current batch and wait until the batch is
+     * committed, so that a failure is reported to each of its senders.
+     * The last sender to join the batch commits it, so that a lone sender
+     * is not delayed: the batch only grows with the senders which were
+     * blocked while the previous ones were sending or committing.
+     */
+    protected void sendBatched(String destination, MessageExchangeImpl me) throws JMSException, IOException {
+        arrivingSenders.incrementAndGet();
+        synchronized (batchLock) {
+            Batch current;
             try {
-                Queue queue = inboundSession.createQueue(destination);
-                ObjectMessage msg = inboundSession.createObjectMessage(me);
-                // Set message priority.
-                Integer priority = (Integer) me.getProperty(JbiConstants.MESSAGE_PRIORITY);
-                if (null != priority) {
-                    msg.setJMSPriority(priority);
+                if (batchSession == null) {
+                    batchSession = batchPool.borrow();
+                }
+                if (batch == null) {
+                    batch = new Batch(System.currentTimeMillis());
+                }
+                current = batch;
+                try {
+                    send(batchSession, destination, me);
+                } catch (JMSException e) {
+                    completeBatch(e);
+                    throw e;
                 }
-                MessageProducer queueProducer = inboundSession.createProducer(queue);
-                queueProducer.send(msg);
             } finally {
-                inboundSession.close();
+                arrivingSenders.decrementAndGet();
+            }
+            batchedMessages.incrementAndGet();
+            if (++current.count >= batchSize || arrivingSenders.get() == 0) {
+                commitBatch();
+            } else {
+                waitForCommit(current);
+            }
+            if (current.failure != null) {
+                throw current.failure;
+            }
+        }
+    }
+
+    /**
+     * Commit the pending batch, if any.
+     */
+    public void flushBatch() {
+        synchronized (batchLock) {
+            if (batch != null) {
+                commitBatch();
+            }
+        }
+    }
+
+    private void waitForCommit(Batch current) {
+        while (!current.done) {
+            long remaining = current.started + batchTimeout - System.currentTimeMillis();
+            if (remaining <= 0) {
+                commitBatch();
+                return;
+            }
+            try {
+                batchLock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                commitBatch();
+                return;
             }
+        }
+    }
+
+    private void commitBatch() {
+        try {
+            batchSession.getSession().commit();
+            batchesCommitted.incrementAndGet();
+            completeBatch(null);
         } catch (JMSException e) {
-            LOGGER.error("Failed to send exchange: " + me + " internal JMS Network", e);
-            throw new MessagingException(e);
+            LOGGER.error("Failed to commit batch of " + batch.count + " exchanges on internal JMS Network", e);
+            completeBatch(e);
         }
     }
-    
+
+    /**
+     * End the current batch and wake up its senders.  If the batch failed,
+     * the transaction is rolled back and the session discarded.
+     */
+    private void completeBatch(JMSException failure) {
+        if (failure != null) {
+            try {
+                batchSession.getSession().rollback();
+            } catch (JMSException e) {
+                LOGGER.debug("Error rolling back batch session", e);
+            }
+            batchPool.invalidate(batchSession);
+            batchSession = null;
+        }
+        batch.failure = failure;
+        batch.done = true;
+        batch = null;
+        batchLock.notifyAll();
+    }
+
+    private void send(JMSSessionPool.PooledSession session, String destination, MessageExchangeImpl me)
+        throws JMSException, IOException {
+        Message msg = createMessage(session.getSession(), me);
+        MessageProducer producer = session.getProducer(destination);
+        Integer priority = (Integer) me.getProperty(JbiConstants.MESSAGE_PRIORITY);
+        if (priority != null) {
+            producer.send(msg, producer.getDeliveryMode(), priority, producer.getTimeToLive());
+        } else {
+            producer.send(msg);
+        }
+    }
+
     /**
      * MessageListener implementation
      * 
@@ -508,8 +710,7 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
     public void onMessage(final Message message) {
         try {
             if (message != null && started.get()) {
-                ObjectMessage objMsg = (ObjectMessage) message;
-                final MessageExchangeImpl me = (MessageExchangeImpl) objMsg.getObject();
+                final MessageExchangeImpl me = readExchange(message);
                 // Dispatch the message in another thread so as to free the jms
                 // session
                 // else if a component do a sendSync into the jms flow, the
@@ -534,7 +735,20 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
             }
         } catch (JMSException jmsEx) {
             LOGGER.error("Caught an exception unpacking JMS Message: ", jmsEx);
+        } catch (Exception e) {
+            LOGGER.error("Caught an exception decoding JMS Message: ", e);
+        }
+    }
+
+    protected MessageExchangeImpl readExchange(Message message) throws JMSException, IOException, ClassNotFoundException {
+        if (message instanceof BytesMessage) {
+            BytesMessage bytesMsg = (BytesMessage) message;
+            byte[] data = new byte[(int) bytesMsg.getBodyLength()];
+            bytesMsg.readBytes(data);
+            ExchangeCodec c = codec != null ? codec : new BinaryExchangeCodec();
+            return c.decodeExchange(data);
         }
+        return (MessageExchangeImpl) ((ObjectMessage) message).getObject();
     }
 
     /**
@@ -576,6 +790,117 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
     public void setJmsURL(String jmsURL) {
         this.jmsURL = jmsURL;
     }
+
+    public int getSessionPoolSize() {
+        return sessionPoolSize;
+    }
+
+    /**
+     * Set the maximum number of idle sessions kept to send exchanges.
+     * Each pooled session caches its producers by destination name.
+     * Pooling is disabled by default (0): a new session is then created
+     * for each exchange, on a connection borrowed from the connection
+     * factory when it is a {@link PooledConnectionFactory}.  Must be set
+     * before the flow is initialized.
+     * 
+     * @param sessionPoolSize the number of sessions to keep
+     */
+    public void setSessionPoolSize(int sessionPoolSize) {
+        this.sessionPoolSize = sessionPoolSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of asynchronous InOnly exchanges sent in a
+     * single transacted session before it is committed.  Each sender waits
+     * until its batch is committed and gets the error if the commit fails,
+     * so batching only helps when many threads send exchanges at the same
+     * time.  It is disabled by default (0).  Must be set before the flow is
+     * initialized.
+     * 
+     * @param batchSize the number of exchanges per batch
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    /**
+     * @param batchTimeout the maximum time in milliseconds before a
+     *            partial batch is committed
+     */
+    public void setBatchTimeout(long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
+    public int getIdleSessions() {
+        return sessionPool != null ? sessionPool.getIdleCount() : 0;
+    }
+
+    public long getSessionsCreated() {
+        return sessionPool != null ? sessionPool.getSessionsCreated() : 0;
+    }
+
+    public long getSessionsReused() {
+        return sessionPool != null ? sessionPool.getSessionsReused() : 0;
+    }
+
+    public long getProducersCreated() {
+        return sessionPool != null ? sessionPool.getProducersCreated() : 0;
+    }
+
+    public long getBatchedMessages() {
+        return batchedMessages.get();
+    }
+
+    public long getBatchesCommitted() {
+        return batchesCommitted.get();
+    }
+
+    /**
+     * Get an array of MBeanAttributeInfo
+     * 
+     * @return array of AttributeInfos
+     * @throws JMException
+     */
+    public MBeanAttributeInfo[] getAttributeInfos() throws JMException {
+        AttributeInfoHelper helper = new AttributeInfoHelper();
+        helper.addAttribute(getObjectToManage(), "sessionPoolSize", "maximum number of idle pooled sessions");
+        helper.addAttribute(getObjectToManage(), "idleSessions", "number of idle pooled sessions");
+        helper.addAttribute(getObjectToManage(), "sessionsCreated", "number of sessions created by the pool");
+        helper.addAttribute(getObjectToManage(), "sessionsReused", "number of sends using an idle pooled session");
+        helper.addAttribute(getObjectToManage(), "producersCreated", "number of producers created by the pool");
+        helper.addAttribute(getObjectToManage(), "batchSize", "maximum number of InOnly exchanges per batch");
+        helper.addAttribute(getObjectToManage(), "batchTimeout", "maximum delay before a batch is committed");
+        helper.addAttribute(getObjectToManage(), "batchedMessages", "number of exchanges sent in batches");
+        helper.addAttribute(getObjectToManage(), "batchesCommitted", "number of batches committed");
+        return AttributeInfoHelper.join(super.getAttributeInfos(), helper.getAttributeInfos());
+    }
+
+    /**
+     * @return the codec used to encode exchanges, or <code>null</code>
+     *         if exchanges are sent as JMS object messages
+     */
+    public ExchangeCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Set the codec used to encode exchanges into JMS bytes messages.
+     * When not set, exchanges are sent as object messages using java
+     * serialization.  Incoming bytes messages are always accepted.
+     * 
+     * @param codec the codec to use
+     */
+    public void setCodec(ExchangeCodec codec) {
+        this.codec = codec;
+    }
     
     
     /*
@@ -603,4 +928,19 @@ public abstract class AbstractJMSFlow extends AbstractFlow implements MessageLis
             }
         }
     }
+
+    /**
+     * The exchanges sent in the current transaction of the batch session
+     */
+    private static class Batch {
+        final long started;
+        int count;
+        boolean done;
+        JMSException failure;
+
+        Batch(long started) {
+            this.started = started;
+        }
+    }
+
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.jms;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of JMS sessions created on a single connection.  Each pooled
+ * session caches one producer per destination name, so that sending
+ * to a destination that has already been used does not require any
+ * JMS object to be created.
+ * 
+ * Sessions are borrowed by a single thread at a time and given back
+ * using {@link #release(PooledSession)}, or {@link #invalidate(PooledSession)}
+ * if an error occurred while using it.  At most <code>maxIdle</code>
+ * sessions are kept, additional ones are closed when released.
+ * 
+ * @version $Revision$
+ */
+public class JMSSessionPool {
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(JMSSessionPool.class);
+
+    private final Connection connection;
+    private final boolean transacted;
+    private final BlockingQueue<PooledSession> idle;
+    private final AtomicLong sessionsCreated = new AtomicLong();
+    private final AtomicLong sessionsReused = new AtomicLong();
+    private final AtomicLong producersCreated = new AtomicLong();
+    private volatile boolean closed;
+
+    public JMSSessionPool(Connection connection, boolean transacted, int maxIdle) {
+        this.connection = connection;
+        this.transacted = transacted;
+        this.idle = new LinkedBlockingQueue<PooledSession>(maxIdle);
+    }
+
+    public PooledSession borrow() throws JMSException {
+        PooledSession session = idle.poll();
+        if (session != null) {
+            sessionsReused.incrementAndGet();
+            return session;
+        }
+        sessionsCreated.incrementAndGet();
+        return createSession();
+    }
+
+    public void release(PooledSession session) {
+        if (closed || !idle.offer(session)) {
+            session.close();
+        }
+    }
+
+    public void invalidate(PooledSession session) {
+        session.close();
+    }
+
+    public void close() {
+        closed = true;
+        PooledSession session;
+        while ((session = idle.poll()) != null) {
+            session.close();
+        }
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getSessionsCreated() {
+        return sessionsCreated.get();
+    }
+
+    public long getSessionsReused() {
+        return sessionsReused.get();
+    }
+
+    public long getProducersCreated() {
+        return producersCreated.get();
+    }
+
+    protected PooledSession createSession() throws JMSException {
+        Session session = connection.createSession(transacted,
+                transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+        return new PooledSession(session);
+    }
+
+    /**
+     * A session and the producers created on it.
+     */
+    public class PooledSession {
+
+        private final Session session;
+        private final Map<String, MessageProducer> producers = new HashMap<String, MessageProducer>();
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public MessageProducer getProducer(String destination) throws JMSException {
+            MessageProducer producer = producers.get(destination);
+            if (producer == null) {
+                producer = session.createProducer(session.createQueue(destination));
+                producers.put(destination, producer);
+                producersCreated.incrementAndGet();
+            }
+            return producer;
+        }
+
+        void close() {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                LOGGER.debug("Error closing pooled JMS session", e);
+            }
+        }
+    }
+
+}
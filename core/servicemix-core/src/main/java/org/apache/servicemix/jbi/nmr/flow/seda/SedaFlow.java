@@ -28,9 +28,11 @@ import javax.jbi.messaging.MessagingException;
 import javax.management.JMException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.ObjectName;
+import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 
+import org.apache.servicemix.JbiConstants;
 import org.apache.servicemix.jbi.event.ComponentAdapter;
 import org.apache.servicemix.jbi.event.ComponentEvent;
 import org.apache.servicemix.jbi.event.ComponentListener;
@@ -38,7 +40,9 @@ import org.apache.servicemix.jbi.framework.ComponentNameSpace;
 import org.apache.servicemix.jbi.management.AttributeInfoHelper;
 import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
 import org.apache.servicemix.jbi.nmr.Broker;
+import org.apache.servicemix.jbi.nmr.DefaultBroker;
 import org.apache.servicemix.jbi.nmr.flow.AbstractFlow;
+import org.apache.servicemix.jbi.nmr.flow.Flow;
 import org.apache.servicemix.jbi.servicedesc.AbstractServiceEndpoint;
 
 /**
@@ -52,9 +56,38 @@ import org.apache.servicemix.jbi.servicedesc.AbstractServiceEndpoint;
  */
 public class SedaFlow extends AbstractFlow {
 
+    /**
+     * Overflow policy blocking the sender until some room is available in the queue
+     */
+    public static final String OVERFLOW_BLOCK = "block";
+
+    /**
+     * Overflow policy rejecting the exchange with a MessagingException
+     */
+    public static final String OVERFLOW_FAIL = "fail";
+
+    /**
+     * Overflow policy handing the exchange to another flow
+     */
+    public static final String OVERFLOW_SPILL = "spill";
+
+    /**
+     * Default time in milliseconds a sender waits for room in a full queue
+     */
+    public static final long DEFAULT_OVERFLOW_TIMEOUT = 30000;
+
     protected Map<ComponentNameSpace, SedaQueue> queueMap = new ConcurrentHashMap<ComponentNameSpace, SedaQueue>();
     protected AtomicBoolean started = new AtomicBoolean(false);
     protected ComponentListener listener;
+    private int queueCapacity;
+    private String overflowPolicy = OVERFLOW_BLOCK;
+    private long overflowTimeout = DEFAULT_OVERFLOW_TIMEOUT;
+    private String overflowFlowName;
+    private boolean sharedScheduler;
+    private int sharedThreads;
+    private int awaitedThreads;
+    private boolean orderedByCorrelationId;
+    private volatile SedaScheduler scheduler;
 
     /**
      * The type of Flow
@@ -108,6 +141,9 @@ public class SedaFlow extends AbstractFlow {
      */
     public void start() throws JBIException {
         if (started.compareAndSet(false, true)) {
+            if (sharedScheduler) {
+                scheduler = new SedaScheduler("flow.seda." + getName(), sharedThreads, awaitedThreads);
+            }
             for (SedaQueue queue : queueMap.values()) {
                 queue.start();
             }
@@ -125,6 +161,10 @@ public class SedaFlow extends AbstractFlow {
             for (SedaQueue queue : queueMap.values()) {
                 queue.stop();
             }
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
         }
         super.stop();
     }
@@ -160,7 +200,34 @@ public class SedaFlow extends AbstractFlow {
         // as it would consume threads from the work manager in a useless
         // way.  This could lead to deadlocks.
         suspendTx(me);
-        enqueuePacket(me);
+        try {
+            enqueuePacket(me);
+        } catch (JBIException e) {
+            restoreTx(me);
+            throw e;
+        } catch (RuntimeException e) {
+            restoreTx(me);
+            throw e;
+        }
+    }
+
+    /**
+     * Associate the transaction back with the current thread after the exchange
+     * has been rejected.  It may have already been resumed if the exchange has been
+     * handed to the overflow flow.
+     */
+    private void restoreTx(MessageExchangeImpl me) throws MessagingException {
+        if (broker.getContainer().isUseNewTransactionModel() || me.getTransactionContext() == null) {
+            return;
+        }
+        try {
+            TransactionManager tm = (TransactionManager) getBroker().getContainer().getTransactionManager();
+            if (tm != null && tm.getTransaction() == null) {
+                resumeTx(me);
+            }
+        } catch (SystemException e) {
+            throw new MessagingException(e);
+        }
     }
     
     protected void doRouting(MessageExchangeImpl me) throws MessagingException {
@@ -168,6 +235,239 @@ public class SedaFlow extends AbstractFlow {
         super.doRouting(me);
     }
 
+    /**
+     * @return the maximum number of pending new requests per destination component
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of pending new requests per destination component.
+     * Answers, faults and DONE / ERROR statuses are always enqueued, so that
+     * the exchanges already accepted can complete.
+     * A value of zero or less means that the queue is only bounded by the
+     * executor configuration.  Only queues created afterwards are affected.
+     * 
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the overflow policy
+     */
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets the policy applied when a queue is full: <code>block</code> (the default)
+     * waits for at most <code>overflowTimeout</code> milliseconds, <code>fail</code>
+     * throws a MessagingException and <code>spill</code> sends the exchange
+     * using the flow named by <code>overflowFlowName</code>.
+     * 
+     * @param overflowPolicy
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        if (!OVERFLOW_BLOCK.equals(overflowPolicy) && !OVERFLOW_FAIL.equals(overflowPolicy)
+            && !OVERFLOW_SPILL.equals(overflowPolicy)) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + overflowPolicy);
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the overflow timeout in milliseconds
+     */
+    public long getOverflowTimeout() {
+        return overflowTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a sender is blocked when
+     * using the <code>block</code> policy, after which the exchange is rejected.
+     * Defaults to 30 seconds; zero or less means waiting forever.
+     * 
+     * @param overflowTimeout
+     */
+    public void setOverflowTimeout(long overflowTimeout) {
+        this.overflowTimeout = overflowTimeout;
+    }
+
+    /**
+     * @return the name of the flow used by the <code>spill</code> policy
+     */
+    public String getOverflowFlowName() {
+        return overflowFlowName;
+    }
+
+    /**
+     * @param overflowFlowName the name of the flow used by the <code>spill</code> policy
+     */
+    public void setOverflowFlowName(String overflowFlowName) {
+        this.overflowFlowName = overflowFlowName;
+    }
+
+    /**
+     * @return true if all the queues share a single scheduler
+     */
+    public boolean isSharedScheduler() {
+        return sharedScheduler;
+    }
+
+    /**
+     * Sets whether all the queues share a single pool of threads sized on the
+     * number of cores, instead of using one executor per destination component.
+     * This must be set before the flow is started.
+     * 
+     * @param sharedScheduler
+     */
+    public void setSharedScheduler(boolean sharedScheduler) {
+        this.sharedScheduler = sharedScheduler;
+    }
+
+    /**
+     * @return the number of threads of the shared scheduler
+     */
+    public int getSharedThreads() {
+        return sharedThreads;
+    }
+
+    /**
+     * Sets the number of threads of the shared scheduler.  Defaults
+     * to the number of available processors.  Synchronous exchanges and
+     * their replies do not use these threads and run on threads created
+     * on demand, so that nested synchronous calls can not exhaust the pool.
+     * 
+     * @param sharedThreads
+     */
+    public void setSharedThreads(int sharedThreads) {
+        this.sharedThreads = sharedThreads;
+    }
+
+    /**
+     * @return the maximum number of threads of the shared scheduler running synchronous exchanges
+     */
+    public int getAwaitedThreads() {
+        return awaitedThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads the shared scheduler creates on demand
+     * to run synchronous exchanges and their replies.  Defaults to
+     * {@link SedaScheduler#DEFAULT_AWAITED_THREADS_PER_CORE} threads per available
+     * processor.  When all these threads are busy, new synchronous exchanges are
+     * rejected with a MessagingException.
+     * 
+     * @param awaitedThreads
+     */
+    public void setAwaitedThreads(int awaitedThreads) {
+        this.awaitedThreads = awaitedThreads;
+    }
+
+    /**
+     * @return true if exchanges sharing a correlation id are processed in order
+     */
+    public boolean isOrderedByCorrelationId() {
+        return orderedByCorrelationId;
+    }
+
+    /**
+     * Sets whether the shared scheduler must process exchanges having the
+     * same correlation id one after the other, in the order they were sent.
+     * Only new asynchronous requests are ordered: synchronous exchanges and
+     * replies bypass the ordering, as nested exchanges inherit the correlation
+     * id and would otherwise wait behind the task waiting for them.
+     * 
+     * @param orderedByCorrelationId
+     */
+    public void setOrderedByCorrelationId(boolean orderedByCorrelationId) {
+        this.orderedByCorrelationId = orderedByCorrelationId;
+    }
+
+    /**
+     * @return the shared scheduler or <code>null</code> if the queues use their own executor
+     */
+    public SedaScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns the key used to order the given exchange on the shared scheduler.
+     * 
+     * @param me the exchange
+     * @return the ordering key or <code>null</code> if the exchange does not need to be ordered
+     */
+    protected Object getOrderingKey(MessageExchangeImpl me) {
+        if (!orderedByCorrelationId || !isNewRequest(me) || isAwaited(me)) {
+            return null;
+        }
+        return me.getProperty(JbiConstants.CORRELATION_ID);
+    }
+
+    /**
+     * Checks if the exchange is a new request going to its provider, as opposed
+     * to an answer, a fault or a DONE / ERROR status going back.
+     * 
+     * @param me the exchange
+     * @return <code>true</code> if the exchange is a new request
+     */
+    protected boolean isNewRequest(MessageExchangeImpl me) {
+        // the flow routes the exchange as seen by its destination, so
+        // a new request is the provider side of an active exchange
+        return me.getRole() == MessageExchange.Role.PROVIDER
+            && me.getStatus() == ExchangeStatus.ACTIVE
+            && me.getFault() == null;
+    }
+
+    /**
+     * Checks if a thread is waiting for the given exchange to be routed, either because
+     * it has been sent synchronously or because its sender waits on its future.  On the
+     * shared scheduler, such exchanges are not run by the fixed pool of threads, as the
+     * waiting thread may be one of them.
+     * 
+     * @param me the exchange
+     * @return <code>true</code> if the exchange or its mirror is synchronous or awaited
+     */
+    protected boolean isAwaited(MessageExchangeImpl me) {
+        return isSyncOrAwaited(me) || isSyncOrAwaited(me.getMirror());
+    }
+
+    private static boolean isSyncOrAwaited(MessageExchangeImpl me) {
+        return me != null
+            && (me.getSyncState() != MessageExchangeImpl.SYNC_STATE_ASYNC || me.getFuture() != null);
+    }
+
+    /**
+     * Send the exchange using the overflow flow.
+     * 
+     * @param me the exchange
+     * @return <code>true</code> if the exchange has been handed to the overflow flow
+     * @throws MessagingException 
+     */
+    protected boolean spill(MessageExchangeImpl me) throws MessagingException {
+        if (overflowFlowName == null || !(broker instanceof DefaultBroker)) {
+            return false;
+        }
+        Flow[] flows = ((DefaultBroker) broker).getFlows();
+        for (int i = 0; i < flows.length; i++) {
+            if (flows[i] != this && overflowFlowName.equals(flows[i].getName()) && flows[i].canHandle(me)) {
+                resumeTx(me);
+                try {
+                    flows[i].send(me);
+                } catch (MessagingException e) {
+                    throw e;
+                } catch (JBIException e) {
+                    throw new MessagingException(e);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Put the packet in the queue for later processing. 
      * @param packet
@@ -277,6 +577,11 @@ public class SedaFlow extends AbstractFlow {
     public MBeanAttributeInfo[] getAttributeInfos() throws JMException {
         AttributeInfoHelper helper = new AttributeInfoHelper();
         helper.addAttribute(getObjectToManage(), "queueNumber", "number of running SedaQueues");
+        helper.addAttribute(getObjectToManage(), "queueCapacity", "maximum number of pending exchanges per SedaQueue");
+        helper.addAttribute(getObjectToManage(), "overflowPolicy", "policy applied when a SedaQueue is full");
+        helper.addAttribute(getObjectToManage(), "sharedScheduler", "whether all SedaQueues share a single thread pool");
+        helper.addAttribute(getObjectToManage(), "sharedThreads", "number of threads of the shared thread pool");
+        helper.addAttribute(getObjectToManage(), "awaitedThreads", "maximum number of threads running synchronous exchanges");
         return AttributeInfoHelper.join(super.getAttributeInfos(), helper.getAttributeInfos());
     }
 
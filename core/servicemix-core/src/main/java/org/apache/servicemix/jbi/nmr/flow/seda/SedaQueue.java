@@ -16,7 +16,12 @@
  */
 package org.apache.servicemix.jbi.nmr.flow.seda;
 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jbi.JBIException;
 import javax.jbi.messaging.MessagingException;
@@ -25,6 +30,8 @@ import javax.management.MBeanAttributeInfo;
 import javax.management.ObjectName;
 
 import org.apache.servicemix.executors.Executor;
+import org.apache.servicemix.jbi.event.ExchangeEvent;
+import org.apache.servicemix.jbi.event.ExchangeQueueListener;
 import org.apache.servicemix.jbi.framework.ComponentNameSpace;
 import org.apache.servicemix.jbi.management.AttributeInfoHelper;
 import org.apache.servicemix.jbi.management.BaseLifeCycle;
@@ -49,6 +56,11 @@ public class SedaQueue extends BaseLifeCycle {
     protected String subType;
     protected Thread thread;
     protected Executor executor;
+    protected Semaphore permits;
+    protected AtomicInteger pending = new AtomicInteger();
+    protected AtomicInteger highWaterMark = new AtomicInteger();
+    protected AtomicLong rejectedCount = new AtomicLong();
+    protected AtomicLong spilledCount = new AtomicLong();
 
     /**
      * SedaQueue name
@@ -95,12 +107,18 @@ public class SedaQueue extends BaseLifeCycle {
      */
     public void init(SedaFlow seda) {
         this.flow = seda;
+        if (seda.getQueueCapacity() > 0) {
+            this.permits = new Semaphore(seda.getQueueCapacity());
+        }
     }
 
     /**
      * @return the capacity of the Queue
      */
     public int getCapacity() {
+        if (permits != null) {
+            return flow.getQueueCapacity();
+        }
         if (executor == null) {
             return -1;
         }
@@ -111,12 +129,36 @@ public class SedaQueue extends BaseLifeCycle {
      * @return size of the Queue
      */
     public int getSize() {
+        if (permits != null || flow.isSharedScheduler()) {
+            return pending.get();
+        }
         if (executor == null) {
             return -1;
         }
         return this.executor.size();
     }
 
+    /**
+     * @return the maximum number of exchanges pending in this queue
+     */
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * @return the number of exchanges rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return the number of exchanges sent to the overflow flow because the queue was full
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
     /**
      * Enqueue a Packet for processing
      * 
@@ -125,16 +167,117 @@ public class SedaQueue extends BaseLifeCycle {
      * @throws MessagingException 
      */
     public void enqueue(final MessageExchangeImpl me) throws InterruptedException, MessagingException {
-        executor.execute(new Runnable() {
+        // only new requests are subject to the capacity: answers and statuses
+        // complete exchanges already admitted, so they are never held back
+        final boolean bounded = permits != null && flow.isNewRequest(me);
+        if (bounded && !acquire(me)) {
+            return;
+        }
+        int size = pending.incrementAndGet();
+        for (int hwm = highWaterMark.get(); size > hwm; hwm = highWaterMark.get()) {
+            if (highWaterMark.compareAndSet(hwm, size)) {
+                break;
+            }
+        }
+        fireQueueEvent(me, ExchangeEvent.EXCHANGE_ENQUEUED);
+        Runnable task = new Runnable() {
             public void run() {
+                release(bounded);
                 try {
                     LOGGER.debug("{} dequeued exchange: {}", this, me);
+                    fireQueueEvent(me, ExchangeEvent.EXCHANGE_DEQUEUED);
                     flow.doRouting(me);
                 } catch (Throwable e) {
                     LOGGER.error(this + " got error processing " + me, e);
                 }
             }
-        });
+        };
+        try {
+            SedaScheduler scheduler = flow.getScheduler();
+            if (scheduler != null && flow.isAwaited(me)) {
+                scheduler.executeAwaited(task);
+            } else if (scheduler != null) {
+                scheduler.execute(flow.getOrderingKey(me), task);
+            } else if (executor != null) {
+                executor.execute(task);
+            } else {
+                throw new RejectedExecutionException(this + " is not started");
+            }
+        } catch (RejectedExecutionException e) {
+            release(bounded);
+            rejectedCount.incrementAndGet();
+            throw new MessagingException(this + " rejected exchange: " + me, e);
+        }
+    }
+
+    /**
+     * Notify the {@link ExchangeQueueListener}s registered on the container.
+     * No event is created if there are no such listeners.
+     * 
+     * @param me the exchange
+     * @param type the event type
+     */
+    protected void fireQueueEvent(MessageExchangeImpl me, int type) {
+        ExchangeQueueListener[] l = (ExchangeQueueListener[]) flow.getBroker().getContainer().getListeners(ExchangeQueueListener.class);
+        if (l.length == 0) {
+            return;
+        }
+        ExchangeEvent event = new ExchangeEvent(me, type);
+        for (int i = 0; i < l.length; i++) {
+            try {
+                if (type == ExchangeEvent.EXCHANGE_ENQUEUED) {
+                    l[i].exchangeEnqueued(event);
+                } else {
+                    l[i].exchangeDequeued(event);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Error calling listener: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Reserve a slot in the queue for a new request, applying the
+     * overflow policy of the flow if the queue is full.
+     * 
+     * @param me the exchange to enqueue
+     * @return <code>true</code> if the exchange has to be enqueued, <code>false</code>
+     *         if it has been handed to the overflow flow
+     */
+    protected boolean acquire(MessageExchangeImpl me) throws InterruptedException, MessagingException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        String policy = flow.getOverflowPolicy();
+        if (SedaFlow.OVERFLOW_BLOCK.equals(policy)) {
+            long timeout = flow.getOverflowTimeout();
+            if (timeout > 0) {
+                if (permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } else {
+                permits.acquire();
+                return true;
+            }
+        } else if (SedaFlow.OVERFLOW_SPILL.equals(policy)) {
+            if (flow.spill(me)) {
+                spilledCount.incrementAndGet();
+                return false;
+            }
+        }
+        rejectedCount.incrementAndGet();
+        throw new MessagingException(this + " is full (capacity " + flow.getQueueCapacity() 
+                                     + "): rejected exchange " + me.getExchangeId());
+    }
+
+    /**
+     * @param bounded whether a slot has been reserved for the exchange
+     */
+    protected void release(boolean bounded) {
+        pending.decrementAndGet();
+        if (bounded) {
+            permits.release();
+        }
     }
 
     /**
@@ -143,7 +286,9 @@ public class SedaQueue extends BaseLifeCycle {
      * @throws JBIException
      */
     public void start() throws JBIException {
-        this.executor = flow.getExecutorFactory().createExecutor("flow.seda." + getName());
+        if (!flow.isSharedScheduler()) {
+            this.executor = flow.getExecutorFactory().createExecutor("flow.seda." + getName());
+        }
         super.start();
     }
 
@@ -154,7 +299,9 @@ public class SedaQueue extends BaseLifeCycle {
      */
     public void stop() throws JBIException {
         super.stop();
-        this.executor.shutdown();
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
     }
 
     /**
@@ -184,6 +331,9 @@ public class SedaQueue extends BaseLifeCycle {
         AttributeInfoHelper helper = new AttributeInfoHelper();
         helper.addAttribute(getObjectToManage(), "capacity", "The capacity of the SedaQueue");
         helper.addAttribute(getObjectToManage(), "size", "The size (depth) of the SedaQueue");
+        helper.addAttribute(getObjectToManage(), "highWaterMark", "The maximum depth reached by the SedaQueue");
+        helper.addAttribute(getObjectToManage(), "rejectedCount", "The number of exchanges rejected by the SedaQueue");
+        helper.addAttribute(getObjectToManage(), "spilledCount", "The number of exchanges sent to the overflow flow");
         return AttributeInfoHelper.join(super.getAttributeInfos(), helper.getAttributeInfos());
     }
 
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.seda;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A scheduler shared by all the SedaQueues of a SedaFlow.
+ * 
+ * All destinations share a single pool of threads, so that the number of threads
+ * depends on the number of cores rather than on the number of components, and an
+ * idle thread always picks the next pending task whatever its destination.
+ * Tasks submitted with the same ordering key are executed one after the other, in
+ * the order they have been submitted.
+ * 
+ * Tasks that another thread is waiting for, such as synchronous exchanges, are not
+ * run by this fixed pool: a pool thread may be the one waiting, so once all threads
+ * wait the tasks they wait for could never run.  Such tasks are executed by a second
+ * pool which creates threads on demand, up to a maximum also based on the number of
+ * cores, and releases them when they become idle.  Once this maximum is reached, new
+ * awaited tasks are rejected rather than queued behind the tasks waiting for them.
+ * 
+ * @version $Revision$
+ */
+public class SedaScheduler {
+
+    /**
+     * Default number of threads per available processor running awaited tasks
+     */
+    public static final int DEFAULT_AWAITED_THREADS_PER_CORE = 16;
+
+    private static final transient Logger LOGGER = LoggerFactory.getLogger(SedaScheduler.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor awaitedExecutor;
+    private final ConcurrentHashMap<Object, SerialQueue> serialQueues = new ConcurrentHashMap<Object, SerialQueue>();
+
+    /**
+     * Creates a scheduler
+     * 
+     * @param name the prefix of the thread names
+     * @param threads the number of threads, or zero or less to use the number of available processors
+     */
+    public SedaScheduler(final String name, int threads) {
+        this(name, threads, 0);
+    }
+
+    /**
+     * Creates a scheduler
+     * 
+     * @param name the prefix of the thread names
+     * @param threads the number of threads, or zero or less to use the number of available processors
+     * @param awaitedThreads the maximum number of threads running awaited tasks, or zero or less
+     *        to use {@link #DEFAULT_AWAITED_THREADS_PER_CORE} threads per available processor
+     */
+    public SedaScheduler(final String name, int threads, int awaitedThreads) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (threads <= 0) {
+            threads = cores;
+        }
+        if (awaitedThreads <= 0) {
+            awaitedThreads = cores * DEFAULT_AWAITED_THREADS_PER_CORE;
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+                                               new LinkedBlockingQueue<Runnable>(), createThreadFactory(name));
+        this.awaitedExecutor = new ThreadPoolExecutor(0, awaitedThreads, 60, TimeUnit.SECONDS,
+                                                      new SynchronousQueue<Runnable>(),
+                                                      createThreadFactory(name + "-awaited"));
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Execute the given task.
+     * 
+     * @param key the ordering key, or <code>null</code> if the task can run concurrently with any other task
+     * @param task the task to execute
+     */
+    public void execute(Object key, Runnable task) {
+        if (key == null) {
+            executor.execute(task);
+            return;
+        }
+        for (;;) {
+            SerialQueue queue = serialQueues.get(key);
+            if (queue == null) {
+                queue = new SerialQueue(key);
+                SerialQueue old = serialQueues.putIfAbsent(key, queue);
+                if (old != null) {
+                    queue = old;
+                }
+            }
+            if (queue.offer(task)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Execute a task that another thread is waiting for.  The task never waits
+     * for a thread of the fixed pool, so it runs even if all of them are blocked.
+     * 
+     * @param task the task to execute
+     * @throws RejectedExecutionException if all the awaited threads are busy
+     */
+    public void executeAwaited(Runnable task) {
+        awaitedExecutor.execute(task);
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of threads currently running tasks
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the maximum number of threads running awaited tasks
+     */
+    public int getAwaitedThreads() {
+        return awaitedExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of threads currently created to run awaited tasks
+     */
+    public int getAwaitedPoolSize() {
+        return awaitedExecutor.getPoolSize();
+    }
+
+    /**
+     * @return the number of awaited tasks waiting for a thread
+     */
+    public int getAwaitedSize() {
+        return awaitedExecutor.getQueue().size();
+    }
+
+    /**
+     * @return the number of threads currently running awaited tasks
+     */
+    public int getAwaitedActiveCount() {
+        return awaitedExecutor.getActiveCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        awaitedExecutor.shutdown();
+    }
+
+    /**
+     * Wait for the tasks submitted before the shutdown to complete
+     * 
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return executor.awaitTermination(timeout, unit)
+            && awaitedExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Tasks sharing the same ordering key.  At most one of them is
+     * submitted to the thread pool at any time.
+     */
+    private class SerialQueue implements Runnable {
+        private final Object key;
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        private boolean running;
+        private boolean closed;
+
+        SerialQueue(Object key) {
+            this.key = key;
+        }
+
+        synchronized boolean offer(Runnable task) {
+            if (closed) {
+                return false;
+            }
+            tasks.add(task);
+            if (!running) {
+                running = true;
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    tasks.removeLast();
+                    running = false;
+                    close();
+                    throw e;
+                }
+            }
+            return true;
+        }
+
+        public void run() {
+            for (;;) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    LOGGER.error("Error running task " + task, t);
+                }
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        running = false;
+                        close();
+                        return;
+                    }
+                    try {
+                        executor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // the scheduler has been shut down: drain the remaining
+                        // tasks in this thread rather than dropping them
+                        LOGGER.debug("Scheduler shut down, running {} pending tasks for {}", tasks.size(), key);
+                    }
+                }
+            }
+        }
+
+        private void close() {
+            if (tasks.isEmpty()) {
+                closed = true;
+                serialQueues.remove(key, this);
+            }
+        }
+    }
+
+}
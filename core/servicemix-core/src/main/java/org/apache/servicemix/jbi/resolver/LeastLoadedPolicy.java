@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.resolver;
+
+import javax.jbi.component.ComponentContext;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.servicedesc.ServiceEndpoint;
+
+import org.apache.servicemix.jbi.servicedesc.EndpointLoad;
+import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
+
+/**
+ * A load-aware selection policy which chooses the endpoint with the fewest
+ * outstanding exchanges, optionally weighted by the moving average of the
+ * time the endpoint takes to answer.
+ * 
+ * The load of the endpoints is tracked by the NMR, so this policy requires
+ * the <code>endpointLoadTracking</code> property of the broker to be enabled
+ * (which is done automatically when it is used as the default service or
+ * interface chooser). Ties are broken randomly.
+ *
+ * @version $Revision$
+ */
+public class LeastLoadedPolicy implements EndpointChooser {
+
+    private boolean latencyAware = true;
+
+    public ServiceEndpoint chooseEndpoint(ServiceEndpoint[] endpoints, ComponentContext context, MessageExchange exchange) {
+        if (endpoints.length == 0) {
+            return null;
+        }
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        int start = RandomChoicePolicy.nextInt(endpoints.length);
+        ServiceEndpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < endpoints.length; i++) {
+            ServiceEndpoint endpoint = endpoints[(start + i) % endpoints.length];
+            double score = getScore(endpoint);
+            if (best == null || score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compute the score of an endpoint, the endpoint with the lowest score
+     * being chosen.
+     * 
+     * @param endpoint the endpoint
+     * @return the score
+     */
+    protected double getScore(ServiceEndpoint endpoint) {
+        if (!(endpoint instanceof InternalEndpoint)) {
+            return 0;
+        }
+        EndpointLoad load = ((InternalEndpoint) endpoint).getLoad();
+        double score = load.getOutstanding() + 1;
+        if (latencyAware) {
+            score *= load.getAverageLatency() + 1;
+        }
+        return score;
+    }
+
+    /**
+     * @return true if the latency of the endpoints is taken into account
+     */
+    public boolean isLatencyAware() {
+        return latencyAware;
+    }
+
+    /**
+     * @param latencyAware true to weight the outstanding exchanges by the
+     *        average latency of the endpoint, false to only use the number
+     *        of outstanding exchanges
+     */
+    public void setLatencyAware(boolean latencyAware) {
+        this.latencyAware = latencyAware;
+    }
+
+}
@@ -16,19 +16,37 @@
  */
 package org.apache.servicemix.jbi.resolver;
 
+import java.util.Random;
+
 import javax.jbi.component.ComponentContext;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.servicedesc.ServiceEndpoint;
 
 /**
  * A simple selection policy where the the endpoint is chosen randomly.
+ * Each thread uses its own random generator to avoid contention.
  *
  * @version $Revision$
  */
 public class RandomChoicePolicy implements EndpointChooser {
 
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
     public ServiceEndpoint chooseEndpoint(ServiceEndpoint[] endpoints, ComponentContext context, MessageExchange exchange) {
-        int index = (int) (Math.random() * endpoints.length);
-        return endpoints[index];
+        if (endpoints.length == 0) {
+            return null;
+        }
+        return endpoints[nextInt(endpoints.length)];
+    }
+
+    /**
+     * @return a random number between 0 (inclusive) and n (exclusive)
+     */
+    static int nextInt(int n) {
+        return RANDOM.get().nextInt(n);
     }
 }
@@ -16,8 +16,8 @@
  */
 package org.apache.servicemix.jbi.resolver;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jbi.component.ComponentContext;
 import javax.jbi.messaging.MessageExchange;
@@ -28,12 +28,14 @@ import javax.xml.namespace.QName;
  * a simple round robin endpoint resolver policy to have a 
  * basic load balancing
  * 
+ * The index of each service is kept in an atomic counter, so that
+ * the policy can be shared by concurrent threads.
+ * 
  * @author lhein
  */
 public class ServiceRoundRobinPolicy implements EndpointChooser {
 
-    private Map<QName, Integer> lastIndexMap = new HashMap<QName, Integer>();
-    private int lastIndex;
+    private ConcurrentHashMap<QName, AtomicInteger> lastIndexMap = new ConcurrentHashMap<QName, AtomicInteger>();
 
     /*
      * (non-Javadoc)
@@ -53,27 +55,18 @@ public class ServiceRoundRobinPolicy implements EndpointChooser {
         }
         
         // check for saved index for that service
-        if (lastIndexMap.containsKey(exchange.getService())) {
-            // ok, there is already something
-            lastIndex = lastIndexMap.get(exchange.getService());
-        } else {
+        AtomicInteger lastIndex = lastIndexMap.get(exchange.getService());
+        if (lastIndex == null) {
             // fresh value
-            lastIndex = 0;
-        }
-
-        // check if the index needs a reset
-        if (lastIndex >= endpoints.length || lastIndex < 0) {
-            // reset the index
-            lastIndex = 0;
+            lastIndex = new AtomicInteger();
+            AtomicInteger old = lastIndexMap.putIfAbsent(exchange.getService(), lastIndex);
+            if (old != null) {
+                lastIndex = old;
+            }
         }
 
-        // determine the next endpoint to use
-        ServiceEndpoint result = endpoints[lastIndex++];
-
-        // save the index
-        lastIndexMap.put(exchange.getService(), lastIndex);
-
-        // return the endpoint
-        return result;
+        // determine the next endpoint to use, the counter may wrap around
+        int index = (lastIndex.getAndIncrement() & Integer.MAX_VALUE) % endpoints.length;
+        return endpoints[index];
     }
 }
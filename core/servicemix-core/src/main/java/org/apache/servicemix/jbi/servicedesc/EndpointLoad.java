@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.servicedesc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load of an endpoint as observed by the NMR: the number of exchanges
+ * which have been routed to the endpoint and not answered yet, and an
+ * exponentially weighted moving average of the time taken to answer.
+ *
+ * @version $Revision$
+ */
+public class EndpointLoad {
+
+    /**
+     * Weight of the last sample in the moving average
+     */
+    public static final double ALPHA = 0.2;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong averageLatency = new AtomicLong(Double.doubleToLongBits(0));
+
+    /**
+     * An exchange has been routed to the endpoint
+     */
+    public void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * An exchange routed to the endpoint has been answered
+     * 
+     * @param latency the time in nanoseconds taken by the endpoint
+     */
+    public void end(long latency) {
+        outstanding.decrementAndGet();
+        for (;;) {
+            long bits = averageLatency.get();
+            double old = Double.longBitsToDouble(bits);
+            double avg = old == 0 ? latency : old + ALPHA * (latency - old);
+            if (averageLatency.compareAndSet(bits, Double.doubleToLongBits(avg))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * An exchange routed to the endpoint has been discarded without
+     * being answered
+     */
+    public void cancel() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * @return the number of exchanges routed to the endpoint and not answered yet
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the moving average of the time (in nanoseconds) taken by the endpoint to answer
+     */
+    public double getAverageLatency() {
+        return Double.longBitsToDouble(averageLatency.get());
+    }
+
+}
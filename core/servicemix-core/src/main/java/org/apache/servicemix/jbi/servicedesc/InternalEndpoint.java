@@ -43,6 +43,7 @@ public class InternalEndpoint extends AbstractServiceEndpoint {
     private QName serviceName;
     private Set<QName> interfaces = new HashSet<QName>();
     private transient Map<ComponentNameSpace, InternalEndpoint> remotes = new HashMap<ComponentNameSpace, InternalEndpoint>();
+    private transient volatile EndpointLoad load;
     
 
     /**
@@ -106,6 +107,24 @@ public class InternalEndpoint extends AbstractServiceEndpoint {
         return serviceName;
     }
     
+    /**
+     * Retrieve the load of this endpoint, as tracked by the NMR
+     * @return the endpoint load
+     */
+    public EndpointLoad getLoad() {
+        EndpointLoad l = load;
+        if (l == null) {
+            synchronized (this) {
+                l = load;
+                if (l == null) {
+                    l = new EndpointLoad();
+                    load = l;
+                }
+            }
+        }
+        return l;
+    }
+    
     /**
      * Retrieve all remote component namespaces where this endpoint is activated
      * @return component namespaces
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps some state for the exchanges in flight, keyed by exchange id.
+ *
+ * The number of tracked exchanges is bounded: exchanges which are not
+ * removed within the timeout, for example because their answer has been
+ * lost or comes back through another container, are expired and, when
+ * the limit is reached, new exchanges are simply not tracked.
+ *
+ * Entries are also kept in the order they have been added, so that
+ * expiring them only looks at the oldest entries.  Each entry is dequeued
+ * once, which keeps the cost of adding an exchange constant.
+ *
+ * @version $Revision$
+ */
+public class ExchangeTracker<V> {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public static final long DEFAULT_TIMEOUT = 300000;
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<String, Entry<V>>();
+    private final Queue<Entry<V>> order = new ConcurrentLinkedQueue<Entry<V>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean expiring = new AtomicBoolean();
+    private final AtomicLong untracked = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Start tracking an exchange, unless it is already tracked.
+     *
+     * @param id the exchange id
+     * @param value the state to keep for the exchange
+     * @param now the current time in milliseconds
+     * @return the state already kept for the exchange, <code>value</code> if the
+     *         exchange is now tracked, or <code>null</code> if the tracker is full
+     */
+    public V track(String id, V value, long now) {
+        expire(now);
+        Entry<V> existing = entries.get(id);
+        if (existing != null) {
+            return existing.value;
+        }
+        if (size.get() >= maxSize) {
+            untracked.incrementAndGet();
+            return null;
+        }
+        Entry<V> entry = new Entry<V>(id, value, now);
+        existing = entries.putIfAbsent(id, entry);
+        if (existing != null) {
+            return existing.value;
+        }
+        size.incrementAndGet();
+        order.offer(entry);
+        queued.incrementAndGet();
+        return value;
+    }
+
+    public V get(String id) {
+        Entry<V> entry = entries.get(id);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Stop tracking an exchange.
+     *
+     * @param id the exchange id
+     * @return the state kept for the exchange, or <code>null</code> if it was not tracked
+     */
+    public V remove(String id) {
+        Entry<V> entry = entries.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        size.decrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Stop tracking all the exchanges.
+     */
+    public void clear() {
+        // every tracked entry is queued, so draining the queue also empties the map
+        for (Entry<V> entry = order.poll(); entry != null; entry = order.poll()) {
+            queued.decrementAndGet();
+            if (entries.remove(entry.id, entry)) {
+                size.decrementAndGet();
+                discarded(entry.value);
+            }
+        }
+    }
+
+    /**
+     * Called when an exchange is no longer tracked without having been
+     * removed, because it expired or the tracker has been cleared.
+     *
+     * @param value the state kept for the exchange
+     */
+    protected void discarded(V value) {
+    }
+
+    /**
+     * Dequeue the oldest entries which have already been removed, and expire
+     * the ones older than the timeout.  An entry is also expired when too many
+     * removed entries are queued behind it.  Only one thread expires entries
+     * at a time, others return immediately.
+     */
+    private void expire(long now) {
+        if (!expiring.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long limit = now - timeout;
+            for (Entry<V> head = order.peek(); head != null; head = order.peek()) {
+                boolean live = entries.get(head.id) == head;
+                if (live && head.added >= limit && queued.get() <= 2 * maxSize) {
+                    break;
+                }
+                order.poll();
+                queued.decrementAndGet();
+                if (live && entries.remove(head.id, head)) {
+                    size.decrementAndGet();
+                    expired.incrementAndGet();
+                    discarded(head.value);
+                }
+            }
+        } finally {
+            expiring.set(false);
+        }
+    }
+
+    /**
+     * @return the number of exchanges currently tracked
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of entries waiting to be dequeued, removed or not
+     */
+    int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of exchanges not tracked because the tracker was full
+     */
+    public long getUntrackedCount() {
+        return untracked.get();
+    }
+
+    /**
+     * @return the number of exchanges which have expired
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the time (ms) after which an exchange which is still tracked expires
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    private static final class Entry<V> {
+        final String id;
+        final V value;
+        final long added;
+
+        Entry(String id, V value, long added) {
+            this.id = id;
+            this.value = value;
+            this.added = added;
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.util;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class InstancePoolTest extends TestCase {
+
+    public void testRejectedInstancesAreDiscarded() throws Exception {
+        InstancePool<String> pool = new InstancePool<String>(2, "Time") {
+            protected boolean prepareForReuse(String instance) {
+                return !instance.startsWith("broken");
+            }
+        };
+        pool.release("first");
+        pool.release("broken");
+        pool.release("second");
+        pool.release("third");
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, pool.getDiscardedCount());
+
+        assertEquals("first", pool.poll());
+        assertEquals("second", pool.take());
+        assertNull(pool.poll());
+        assertEquals(2, pool.getReusedCount());
+
+        pool.release("first");
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    public void testPoolingDisabled() throws Exception {
+        InstancePool<String> pool = new InstancePool<String>(0, "Time");
+        pool.release("first");
+        assertNull(pool.poll());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getDiscardedCount());
+    }
+
+    public void testUseStatistics() throws Exception {
+        InstancePool<String> pool = new InstancePool<String>(1, "Time");
+        pool.instanceCreated();
+        pool.instanceUsed(2000000, true);
+        pool.instanceUsed(4000000, false);
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(2, pool.getUseCount());
+        assertEquals(1, pool.getFailureCount());
+        assertEquals(3.0, pool.getAverageUseTime(), 0.001);
+        assertEquals(4.0, pool.getMaxUseTime(), 0.001);
+        // percentiles are estimated within 1/8th of the recorded times
+        assertEquals(2.0, ((Double) pool.getUseTimePercentiles().get("p50")).doubleValue(), 0.25);
+        assertEquals(4.0, ((Double) pool.getUseTimePercentiles().get("p99")).doubleValue(), 0.5);
+
+        pool.resetStatistics();
+        assertEquals(0, pool.getCreatedCount());
+        assertEquals(0, pool.getUseCount());
+        assertEquals(0.0, pool.getAverageUseTime(), 0.001);
+        assertEquals(0.0, ((Double) pool.getUseTimePercentiles().get("p99")).doubleValue(), 0.001);
+    }
+
+}
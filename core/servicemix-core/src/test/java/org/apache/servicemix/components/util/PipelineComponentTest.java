@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.components.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.Fault;
+import javax.jbi.messaging.InOnly;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.jbi.FaultException;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.messaging.DeliveryChannelImpl;
+import org.apache.servicemix.tck.ReceiverComponent;
+
+/**
+ * @version $Revision$
+ */
+public class PipelineComponentTest extends TestCase {
+
+    private static final QName PIPELINE = new QName("http://servicemix.org/cheese/", "pipeline");
+    private static final QName SERVICE = new QName("http://servicemix.org/cheese/", "service");
+
+    private JBIContainer container;
+    private DefaultServiceMixClient client;
+    private ReceiverComponent receiver;
+    private PipelineComponent pipeline;
+
+    protected void setUp() throws Exception {
+        container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        client = new DefaultServiceMixClient(container);
+
+        receiver = new ReceiverComponent();
+        ActivationSpec as = new ActivationSpec("receiver", receiver);
+        as.setService(ReceiverComponent.SERVICE);
+        container.activateComponent(as);
+
+        pipeline = new PipelineComponent();
+        pipeline.setRequestResponseServiceName(SERVICE);
+        pipeline.setOutputEndpointServiceName(ReceiverComponent.SERVICE);
+    }
+
+    protected void tearDown() throws Exception {
+        container.shutDown();
+    }
+
+    public void testAsynchronous() throws Exception {
+        HoldingService service = activate(new HoldingService());
+        pipeline.setAsynchronous(true);
+        activatePipeline();
+
+        for (int i = 0; i < 3; i++) {
+            send();
+        }
+        MessageExchange[] rpcs = new MessageExchange[3];
+        for (int i = 0; i < 3; i++) {
+            rpcs[i] = service.take();
+        }
+        // the requests are pending without holding any thread of the pipeline
+        assertEquals(3, pipeline.getInFlightCount());
+
+        for (int i = 0; i < 3; i++) {
+            service.respond(rpcs[i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertStatus(ExchangeStatus.DONE);
+        }
+        receiver.getMessageList().assertMessagesReceived(3);
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    public void testMaxInFlightFallsBackToSynchronous() throws Exception {
+        HoldingService service = activate(new HoldingService());
+        pipeline.setAsynchronous(true);
+        pipeline.setMaxInFlight(1);
+        activatePipeline();
+
+        send();
+        MessageExchange first = service.take();
+        send();
+        MessageExchange second = service.take();
+        // the second request is sent synchronously
+        assertEquals(1, pipeline.getInFlightCount());
+
+        service.respond(first);
+        service.respond(second);
+        assertStatus(ExchangeStatus.DONE);
+        assertStatus(ExchangeStatus.DONE);
+        receiver.getMessageList().assertMessagesReceived(2);
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    public void testErrorIsPropagated() throws Exception {
+        activate(new FailingService());
+        activatePipeline();
+        assertError(MessagingException.class);
+    }
+
+    public void testErrorIsPropagatedAsynchronously() throws Exception {
+        activate(new FailingService());
+        pipeline.setAsynchronous(true);
+        activatePipeline();
+        assertError(MessagingException.class);
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    public void testFaultIsPropagatedAsynchronously() throws Exception {
+        activate(new FaultingService());
+        pipeline.setAsynchronous(true);
+        activatePipeline();
+        assertError(FaultException.class);
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    public void testAbortIsPropagated() throws Exception {
+        HoldingService service = activate(new HoldingService());
+        pipeline.setAsynchronous(true);
+        activatePipeline();
+
+        send();
+        service.take();
+        ((DeliveryChannelImpl) pipeline.getDeliveryChannel()).cancelPendingExchanges();
+        assertStatus(ExchangeStatus.ERROR);
+        assertEquals(0, pipeline.getInFlightCount());
+        assertEquals(0, receiver.getMessageList().getMessageCount());
+    }
+
+    private <T extends ComponentSupport> T activate(T service) throws Exception {
+        ActivationSpec as = new ActivationSpec("service", service);
+        as.setService(SERVICE);
+        container.activateComponent(as);
+        return service;
+    }
+
+    private void activatePipeline() throws Exception {
+        ActivationSpec as = new ActivationSpec("pipeline", pipeline);
+        as.setService(PIPELINE);
+        container.activateComponent(as);
+    }
+
+    private void send() throws Exception {
+        InOnly me = client.createInOnlyExchange();
+        me.setService(PIPELINE);
+        me.getInMessage().setContent(new StringSource("<hello/>"));
+        client.send(me);
+    }
+
+    private void assertStatus(ExchangeStatus status) throws Exception {
+        MessageExchange me = client.receive(5000);
+        assertNotNull(me);
+        assertEquals(status, me.getStatus());
+    }
+
+    private void assertError(Class<? extends Exception> type) throws Exception {
+        send();
+        MessageExchange me = client.receive(5000);
+        assertNotNull(me);
+        assertEquals(ExchangeStatus.ERROR, me.getStatus());
+        assertTrue(String.valueOf(me.getError()), type.isInstance(me.getError()));
+        assertEquals(0, receiver.getMessageList().getMessageCount());
+    }
+
+    /**
+     * Keeps the exchanges it receives until the test responds to them
+     */
+    public static class HoldingService extends ComponentSupport implements MessageExchangeListener {
+
+        private final BlockingQueue<MessageExchange> exchanges = new LinkedBlockingQueue<MessageExchange>();
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                exchanges.add(exchange);
+            }
+        }
+
+        MessageExchange take() throws InterruptedException {
+            MessageExchange exchange = exchanges.poll(5, TimeUnit.SECONDS);
+            assertNotNull("No exchange received", exchange);
+            return exchange;
+        }
+
+        void respond(MessageExchange exchange) throws MessagingException {
+            NormalizedMessage out = exchange.createMessage();
+            out.setContent(new StringSource("<response/>"));
+            answer(exchange, out);
+        }
+    }
+
+    public static class FailingService extends ComponentSupport implements MessageExchangeListener {
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                fail(exchange, new MessagingException("boom"));
+            }
+        }
+    }
+
+    public static class FaultingService extends ComponentSupport implements MessageExchangeListener {
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                Fault fault = exchange.createFault();
+                fault.setContent(new StringSource("<fault/>"));
+                fail(exchange, fault);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.event;
+
+import junit.framework.TestCase;
+
+public class EventListenerRegistryTest extends TestCase {
+
+    public void testAddRemove() {
+        EventListenerRegistry registry = new EventListenerRegistry();
+        ExchangeListener[] l = (ExchangeListener[]) registry.getListeners(ExchangeListener.class);
+        assertEquals(0, l.length);
+        // the same array is returned while the registry does not change
+        assertSame(l, registry.getListeners(ExchangeListener.class));
+
+        ExchangeListener l1 = new TestListener();
+        ExchangeListener l2 = new TestListener();
+        registry.add(ExchangeListener.class, l1);
+        registry.add(ExchangeListener.class, l2);
+        l = (ExchangeListener[]) registry.getListeners(ExchangeListener.class);
+        assertEquals(2, l.length);
+        assertSame(l1, l[0]);
+        assertSame(l2, l[1]);
+        assertSame(l, registry.getListeners(ExchangeListener.class));
+        assertEquals(0, registry.getListenerCount(ComponentListener.class));
+
+        registry.remove(ExchangeListener.class, l1);
+        l = (ExchangeListener[]) registry.getListeners(ExchangeListener.class);
+        assertEquals(1, l.length);
+        assertSame(l2, l[0]);
+        registry.remove(ExchangeListener.class, l1);
+        assertEquals(1, registry.getListenerCount(ExchangeListener.class));
+        registry.remove(ExchangeListener.class, l2);
+        assertEquals(0, registry.getListenerCount(ExchangeListener.class));
+    }
+
+    private static class TestListener implements ExchangeListener {
+        public void exchangeSent(ExchangeEvent event) {
+        }
+        public void exchangeAccepted(ExchangeEvent event) {
+        }
+    }
+
+}
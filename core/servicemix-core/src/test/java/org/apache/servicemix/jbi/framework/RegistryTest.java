@@ -95,4 +95,47 @@ public class RegistryTest extends TestCase {
                      container.getRegistry().getComponents().size(), canceled.get());
     }
     
+    public void testEndpointIndexes() throws Exception {
+        JBIContainer container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+
+        QName service = new QName("http://foo.bar.com", "myService");
+        QName itf = new QName("http://foo.bar.com", "myInterface");
+        EchoComponent component = new EchoComponent();
+        ActivationSpec spec = new ActivationSpec("component", component);
+        spec.setInterfaceName(itf);
+        container.activateComponent(spec);
+
+        ServiceEndpoint ep1 = component.getContext().activateEndpoint(service, "ep1");
+        ServiceEndpoint ep2 = component.getContext().activateEndpoint(service, "ep2");
+        Registry registry = container.getRegistry();
+        assertEquals(2, registry.getEndpointsForService(service).length);
+        assertEquals(2, registry.getEndpointsForInterface(itf).length);
+        EndpointRegistry endpointRegistry = registry.getEndpointRegistry();
+        assertSame(endpointRegistry.getEndpointsForService(service), endpointRegistry.getEndpointsForService(service));
+
+        // callers get copies which can not corrupt the shared snapshots
+        registry.getEndpointsForService(service)[0] = null;
+        registry.getEndpointsForInterface(itf)[0] = null;
+        container.getEndpointsForService(null, service)[0] = null;
+        container.getEndpoints(null, itf)[0] = null;
+        assertNotNull(endpointRegistry.getEndpointsForService(service)[0]);
+        assertNotNull(endpointRegistry.getEndpointsForInterface(itf)[0]);
+
+        component.getContext().deactivateEndpoint(ep1);
+        ServiceEndpoint[] endpoints = registry.getEndpointsForService(service);
+        assertEquals(1, endpoints.length);
+        assertSame(ep2, endpoints[0]);
+        endpoints = registry.getEndpointsForInterface(itf);
+        assertEquals(1, endpoints.length);
+        assertSame(ep2, endpoints[0]);
+
+        component.getContext().deactivateEndpoint(ep2);
+        assertEquals(0, registry.getEndpointsForService(service).length);
+        assertEquals(0, registry.getEndpointsForInterface(itf).length);
+        container.shutDown();
+    }
+    
 }
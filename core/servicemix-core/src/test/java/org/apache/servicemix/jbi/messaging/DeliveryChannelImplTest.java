@@ -139,6 +139,106 @@ public class DeliveryChannelImplTest extends TestCase {
         assertTrue("Exception in secondary thread", success.get());
     }
     
+    public void testSendAsync() throws Exception {
+        TestComponent component = new TestComponent(new QName("service"), "endpoint");
+        container.activateComponent(new ActivationSpec("component", component));
+        final DeliveryChannelImpl channel = (DeliveryChannelImpl) component.getChannel();
+        final int count = 10;
+
+        // Provider thread answering all requests
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        InOut me = (InOut) channel.accept(5000);
+                        NormalizedMessage nm = me.createMessage();
+                        nm.setContent(new StringSource("<response/>"));
+                        me.setOutMessage(nm);
+                        channel.send(me);
+                    }
+                } catch (MessagingException e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+            }
+        };
+        t.start();
+
+        final CountDownLatch callbacks = new CountDownLatch(count);
+        ExchangeCallback callback = new ExchangeCallback() {
+            public void exchangeCompleted(javax.jbi.messaging.MessageExchange exchange) {
+                callbacks.countDown();
+            }
+            public void exchangeAborted(javax.jbi.messaging.MessageExchange exchange) {
+            }
+        };
+        MessageExchangeFactory factory = channel.createExchangeFactoryForService(new QName("service"));
+        ExchangeFuture[] futures = new ExchangeFuture[count];
+        for (int i = 0; i < count; i++) {
+            InOut me = factory.createInOutExchange();
+            NormalizedMessage nm = me.createMessage();
+            nm.setContent(new StringSource("<request/>"));
+            me.setInMessage(nm);
+            futures[i] = channel.sendAsync(me, callback);
+        }
+        for (int i = 0; i < count; i++) {
+            InOut me = (InOut) futures[i].get(5, TimeUnit.SECONDS);
+            assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+            assertNotNull(me.getOutMessage());
+            me.setStatus(ExchangeStatus.DONE);
+            channel.send(me);
+        }
+        assertTrue(callbacks.await(5, TimeUnit.SECONDS));
+        t.join(5000);
+    }
+
+    public void testCancelAsyncExchange() throws Exception {
+        final DeliveryChannelImpl channel = createDeliveryChannel();
+        final MessageExchangeImpl exchange = createMessageExchange(channel);
+        NormalizedMessage nm = exchange.createMessage();
+        nm.setContent(new StringSource("<request/>"));
+        ((InOut) exchange).setInMessage(nm);
+        ExchangeFuture future = channel.sendAsync(exchange);
+        assertFalse(future.isDone());
+        channel.cancelPendingExchanges();
+        assertTrue(future.isCancelled());
+        assertEquals(ExchangeStatus.ERROR, exchange.getStatus());
+    }
+    
+    public void testExpireAsyncExchange() throws Exception {
+        final DeliveryChannelImpl channel = createDeliveryChannel();
+        final MessageExchangeImpl exchange = createMessageExchange(channel);
+        NormalizedMessage nm = exchange.createMessage();
+        nm.setContent(new StringSource("<request/>"));
+        ((InOut) exchange).setInMessage(nm);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        ExchangeCallback callback = new ExchangeCallback() {
+            public void exchangeCompleted(javax.jbi.messaging.MessageExchange me) {
+            }
+            public void exchangeAborted(javax.jbi.messaging.MessageExchange me) {
+                aborted.countDown();
+            }
+        };
+        // the exchange is never answered
+        ExchangeFuture future = channel.sendAsync(exchange, callback, 100);
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+        assertEquals(ExchangeStatus.ERROR, exchange.getStatus());
+        assertNull(exchange.getFuture());
+    }
+
+    public void testRejectTransactedAsyncExchange() throws Exception {
+        final DeliveryChannelImpl channel = createDeliveryChannel();
+        final MessageExchangeImpl exchange = createMessageExchange(channel);
+        exchange.setTransactionContext(createMock(Transaction.class));
+        try {
+            channel.sendAsync(exchange);
+            fail("A transacted exchange should not be sent asynchronously");
+        } catch (MessagingException e) {
+            // expected
+        }
+        assertNull(exchange.getFuture());
+    }
+
     public void testAutoEnlistInActiveTx() throws JBIException, SystemException {
         // set up a mock TransactionManager for the container
         final TransactionManager manager = createMock(TransactionManager.class);
@@ -38,6 +38,7 @@ import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.jbi.util.StreamDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
 public class MessageExchangeImplTest extends TestCase {
 
@@ -105,6 +106,85 @@ public class MessageExchangeImplTest extends TestCase {
         testSerializeDeserialize(src);
     }
 
+    protected void testBinaryCodec(Source src, Class<?> decodedType) throws Exception {
+        InOutImpl me = new InOutImpl("exchangeId");
+        me.setOperation(new QName("uri", "op"));
+        me.setService(new QName("uri", "service"));
+        me.setProperty("myProp", "myValue");
+        me.setProperty("myIntProp", Integer.valueOf(3));
+        NormalizedMessage msg = me.createMessage();
+        msg.setProperty("myMsgProp", "myMsgValue");
+        msg.setContent(src);
+        msg.addAttachment("myAttachment", new DataHandler(new StreamDataSource(new ByteArrayInputStream("hello".getBytes()))));
+        me.setMessage(msg, "in");
+
+        BinaryExchangeCodec codec = new BinaryExchangeCodec();
+        byte[] data = codec.encodeExchange(me.getMirror());
+        MessageExchangeImpl meOut = codec.decodeExchange(data);
+
+        assertTrue(meOut instanceof InOutImpl);
+        assertEquals(MessageExchange.Role.PROVIDER, meOut.getRole());
+        assertEquals("exchangeId", meOut.getExchangeId());
+        assertEquals(new QName("uri", "op"), meOut.getOperation());
+        assertEquals(new QName("uri", "service"), meOut.getService());
+        assertEquals("myValue", meOut.getProperty("myProp"));
+        assertEquals(Integer.valueOf(3), meOut.getProperty("myIntProp"));
+        NormalizedMessage msgOut = meOut.getMessage("in");
+        assertNotNull(msgOut);
+        assertEquals("myMsgValue", msgOut.getProperty("myMsgProp"));
+        assertEquals(meOut, ((NormalizedMessageImpl) msgOut).getExchange());
+        Source outSrc = msgOut.getContent();
+        assertTrue(decodedType.isInstance(outSrc));
+        assertNotNull(new SourceTransformer().toDOMNode(outSrc));
+        assertNotNull(msgOut.getAttachment("myAttachment"));
+        // The original content must still be readable
+        assertNotNull(new SourceTransformer().toString(msg.getContent()));
+    }
+
+    public void testBinaryCodecWithStringSource() throws Exception {
+        testBinaryCodec(new StringSource("<hello>world</hello>"), StringSource.class);
+    }
+
+    public void testBinaryCodecKeepsDeclaredEncoding() throws Exception {
+        InOnlyImpl me = new InOnlyImpl("exchangeId");
+        NormalizedMessage msg = me.createMessage();
+        msg.setContent(new StringSource("<?xml version='1.0' encoding='ISO-8859-1'?><hello>caf\u00e9</hello>"));
+        me.setMessage(msg, "in");
+
+        BinaryExchangeCodec codec = new BinaryExchangeCodec();
+        MessageExchangeImpl meOut = codec.decodeExchange(codec.encodeExchange(me));
+        Source outSrc = meOut.getMessage("in").getContent();
+        Element root = new SourceTransformer().toDOMElement(outSrc);
+        assertEquals("caf\u00e9", root.getTextContent());
+    }
+
+    public void testBinaryCodecWithBytesSource() throws Exception {
+        testBinaryCodec(new BytesSource("<hello>world</hello>".getBytes()), BytesSource.class);
+    }
+
+    public void testBinaryCodecWithStreamSource() throws Exception {
+        testBinaryCodec(new StreamSource(new ByteArrayInputStream("<hello>world</hello>".getBytes())), BytesSource.class);
+    }
+
+    public void testBinaryCodecWithDomSource() throws Exception {
+        testBinaryCodec(new SourceTransformer().toDOMSource(new StringSource("<hello>world</hello>")), BytesSource.class);
+    }
+
+    public void testBinaryCodecReadsSerializedPackets() throws Exception {
+        MessageExchangeImpl me = new InOnlyImpl("exchangeId");
+        me.setProperty("myProp", "myValue");
+        byte[] serialized = me.getPacket().getData();
+        byte[] encoded = new BinaryExchangeCodec().encodePacket(me.getPacket());
+        assertTrue(encoded.length < serialized.length);
+
+        ExchangePacket packet = new BinaryExchangeCodec().decodePacket(serialized);
+        assertEquals("exchangeId", packet.getExchangeId());
+        assertEquals("myValue", packet.getProperty("myProp"));
+        packet = new BinaryExchangeCodec().decodePacket(encoded);
+        assertEquals("exchangeId", packet.getExchangeId());
+        assertEquals("myValue", packet.getProperty("myProp"));
+    }
+
     public void testAgeComparator() throws Exception {
         PriorityBlockingQueue<MessageExchangeImpl> queue = new PriorityBlockingQueue<MessageExchangeImpl>(11,
                         new MessageExchangeImpl.AgeComparator());
@@ -19,11 +19,13 @@ package org.apache.servicemix.jbi.monitoring;
 import java.util.concurrent.CountDownLatch;
 
 import javax.jbi.JBIException;
+import javax.jbi.messaging.InOnly;
 import javax.jbi.servicedesc.ServiceEndpoint;
 import javax.xml.namespace.QName;
 
 import junit.framework.TestCase;
 
+import org.apache.servicemix.client.DefaultServiceMixClient;
 import org.apache.servicemix.jbi.container.ActivationSpec;
 import org.apache.servicemix.jbi.container.JBIContainer;
 import org.apache.servicemix.jbi.event.EndpointAdapter;
@@ -31,7 +33,9 @@ import org.apache.servicemix.jbi.event.EndpointEvent;
 import org.apache.servicemix.jbi.framework.ComponentContextImpl;
 import org.apache.servicemix.jbi.management.BaseSystemService;
 import org.apache.servicemix.jbi.messaging.DeliveryChannelImplTest.TestComponent;
+import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.jbi.servicedesc.EndpointSupport;
+import org.apache.servicemix.tck.ReceiverComponent;
 
 /**
  * Test case for {@link StatisticsService}
@@ -104,6 +108,67 @@ public class StatisticsServiceTest extends TestCase {
         }
     }
 
+    public void testExchangeTimingsAreRecorded() throws Exception {
+        service.init(container);
+        service.start();
+        assertFalse(service.isTrackExchanges());
+        service.setTrackExchanges(true);
+        ReceiverComponent receiver = new ReceiverComponent();
+        ActivationSpec spec = new ActivationSpec("receiver", receiver);
+        spec.setService(SERVICE);
+        spec.setEndpoint(ENDPOINT);
+        container.activateComponent(spec);
+        // endpoint events are dispatched asynchronously
+        ServiceEndpoint endpoint = container.getRegistry().getEndpoint(SERVICE, ENDPOINT);
+        String key = EndpointSupport.getUniqueKey(endpoint);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (service.getEndpointStats().get(key) == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+
+        DefaultServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < 5; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(SERVICE);
+            me.getInMessage().setContent(new StringSource("<hello/>"));
+            client.send(me);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(client.receive(10000));
+        }
+
+        MessagingStats stats = service.getEndpointStats().get(key).getMessagingStats();
+        assertEquals(5, stats.getInboundExchanges().getCount());
+        assertEquals(5, stats.getQueueWaitTime().getCount());
+        assertEquals(5, stats.getFlowQueueTime().getCount());
+        assertEquals(5, stats.getServiceTime().getCount());
+        assertEquals(5, stats.getRoundTripTime().getCount());
+        // the component percentiles roll up the times of its endpoints
+        ComponentStats componentStats = service.getComponentStats().get("receiver");
+        assertEquals(5, componentStats.getMessagingStats().getServiceTime().getCount());
+        assertTrue(componentStats.getRoundTripTimeP999() >= componentStats.getRoundTripTimeP50());
+        // completed exchanges are no longer tracked
+        assertEquals(0, service.getTrackedExchangeCount());
+    }
+
+    public void testTimingTrackerIsBounded() {
+        ExchangeTimingTracker tracker = new ExchangeTimingTracker();
+        tracker.setMaxSize(2);
+        tracker.setTimeout(5000);
+        assertNotNull(tracker.start("a", 1000));
+        assertNotNull(tracker.start("b", 5000));
+        // full and nothing old enough to purge
+        assertNull(tracker.start("c", 5500));
+        assertEquals(1, tracker.getUntrackedCount());
+        // "a" has timed out and is purged to make room
+        assertNotNull(tracker.start("c", 6500));
+        assertNull(tracker.get("a"));
+        assertEquals(2, tracker.getSize());
+        assertNotNull(tracker.remove("b"));
+        assertNull(tracker.remove("b"));
+        assertEquals(1, tracker.getSize());
+    }
+
     private ServiceEndpoint registerEndpoint() throws JBIException {
         TestComponent component = new TestComponent(SERVICE, ENDPOINT);
         container.activateComponent(new ActivationSpec(COMPONENT, component));
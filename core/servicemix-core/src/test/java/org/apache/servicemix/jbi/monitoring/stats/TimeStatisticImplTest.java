@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.monitoring.stats;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+public class TimeStatisticImplTest extends TestCase {
+
+    public void testBucketError() {
+        for (long value = 0; value < 1000000; value += 7) {
+            long estimate = LatencyHistogram.bucketValue(LatencyHistogram.bucketIndex(value));
+            assertTrue("value " + value + " estimated as " + estimate,
+                       Math.abs(estimate - value) <= value / 8 + 1);
+        }
+        assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) < LatencyHistogram.BUCKETS);
+    }
+
+    public void testPercentiles() {
+        TimeStatisticImpl stat = new TimeStatisticImpl("test", "test");
+        stat.setPercentilesEnabled(true);
+        for (int i = 1; i <= 1000; i++) {
+            stat.addTime(i);
+        }
+        assertEquals(1000, stat.getCount());
+        assertEquals(1, stat.getMinTime());
+        assertEquals(1000, stat.getMaxTime());
+        assertEquals(500.5, stat.getAverageTime(), 0.001);
+        assertEquals(500, stat.getPercentile(0.5), 500 / 8);
+        assertEquals(990, stat.getPercentile(0.99), 990 / 8);
+        assertEquals(1000, stat.getWindowCount());
+        assertEquals(990, stat.getWindowPercentile(0.99), 990 / 8);
+        stat.reset();
+        assertEquals(0, stat.getCount());
+        assertEquals(0, stat.getWindowCount());
+        assertEquals(0, stat.getPercentile(0.5));
+    }
+
+    public void testMillis() {
+        TimeStatisticImpl nanos = TimeStatisticImpl.createLatency("nanos", "test");
+        assertTrue(nanos.isPercentilesEnabled());
+        nanos.addTime(2000000);
+        nanos.addTime(4000000);
+        assertEquals(3.0, nanos.getAverageTimeMillis(), 0.001);
+        assertEquals(4.0, nanos.getMaxTimeMillis(), 0.001);
+        assertEquals(4.0, nanos.getWindowPercentileMillis(0.99), 4.0 / 8);
+        CompositeData percentiles = nanos.getWindowPercentilesMillis();
+        assertEquals(TimeStatisticImpl.PERCENTILES_TYPE, percentiles.getCompositeType());
+        assertEquals(2.0, ((Double) percentiles.get("p50")).doubleValue(), 2.0 / 8);
+        assertEquals(4.0, ((Double) percentiles.get("p999")).doubleValue(), 4.0 / 8);
+        TimeStatisticImpl millis = new TimeStatisticImpl("millis", "test");
+        millis.addTime(5);
+        assertEquals(5.0, millis.getAverageTimeMillis(), 0.001);
+        assertEquals(5.0, millis.getMaxTimeMillis(), 0.001);
+    }
+
+    public void testRatesWithoutPercentiles() {
+        TimeStatisticImpl stat = new TimeStatisticImpl("test", "test");
+        assertFalse(stat.isPercentilesEnabled());
+        for (int i = 1; i <= 100; i++) {
+            stat.addTime(i);
+        }
+        assertEquals(100, stat.getCount());
+        assertEquals(100, stat.getWindowCount());
+        assertEquals(0, stat.getWindowPercentile(0.5));
+        assertEquals(0, stat.getPercentile(0.5));
+    }
+
+    public void testConcurrentUpdates() throws Exception {
+        final TimeStatisticImpl parent = new TimeStatisticImpl("parent", "parent");
+        final TimeStatisticImpl stat = new TimeStatisticImpl(parent, "test", "test");
+        stat.setPercentilesEnabled(true);
+        final CountStatisticImpl count = new CountStatisticImpl("count", "count");
+        final int threads = 8;
+        final int loops = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < loops; i++) {
+                        stat.addTime(10);
+                        count.increment();
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+        assertEquals(threads * loops, stat.getCount());
+        assertEquals(threads * loops * 10, stat.getTotalTime());
+        assertEquals(threads * loops, parent.getCount());
+        assertEquals(threads * loops, count.getCount());
+        assertEquals(10, stat.getPercentile(0.999));
+    }
+
+}
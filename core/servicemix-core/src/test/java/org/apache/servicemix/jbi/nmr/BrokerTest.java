@@ -16,8 +16,15 @@
  */
 package org.apache.servicemix.jbi.nmr;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import javax.jbi.JBIException;
+import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOnly;
+import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
 import javax.jbi.servicedesc.ServiceEndpoint;
 import javax.xml.namespace.QName;
 
@@ -29,12 +36,16 @@ import junit.framework.TestCase;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 
+import org.apache.servicemix.MessageExchangeListener;
 import org.apache.servicemix.client.DefaultServiceMixClient;
 import org.apache.servicemix.client.ServiceMixClient;
 import org.apache.servicemix.jbi.container.ActivationSpec;
 import org.apache.servicemix.jbi.container.JBIContainer;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.components.util.ComponentSupport;
 import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.servicedesc.EndpointLoad;
+import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
 import org.apache.servicemix.tck.ReceiverComponent;
 
 public class BrokerTest extends TestCase {
@@ -76,6 +87,160 @@ public class BrokerTest extends TestCase {
         receiver.getMessageList().assertMessagesReceived(1);
     }
     
+    public void testRouteCache() throws Exception {
+        JBIContainer container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        QName service = new QName("urn:test", "receiver");
+        ReceiverComponent receiver = new ReceiverComponent();
+        ActivationSpec spec = new ActivationSpec("receiver", receiver);
+        spec.setService(service);
+        spec.setEndpoint("endpoint");
+        container.activateComponent(spec);
+        DefaultBroker broker = container.getDefaultBroker();
+        broker.clearRouteCache();
+        long misses = broker.getRouteCacheMisses();
+        long hits = broker.getRouteCacheHits();
+
+        ServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < 3; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(service);
+            client.send(me);
+        }
+        receiver.getMessageList().assertMessagesReceived(3);
+        assertEquals(misses + 1, broker.getRouteCacheMisses());
+        assertEquals(hits + 2, broker.getRouteCacheHits());
+        assertEquals(1, broker.getRouteCacheSize());
+
+        // a new endpoint for the same service must not be hidden by the cache
+        receiver.getContext().activateEndpoint(service, "endpoint2");
+        InOnly me = client.createInOnlyExchange();
+        me.setService(service);
+        client.send(me);
+        assertEquals(misses + 2, broker.getRouteCacheMisses());
+        container.shutDown();
+    }
+    
+    public void testRouteCacheIsKeyedByPattern() throws Exception {
+        JBIContainer container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        QName service = new QName("urn:test", "receiver");
+        ReceiverComponent receiver = new ReceiverComponent() {
+            public boolean isExchangeWithConsumerOkay(ServiceEndpoint endpoint, MessageExchange exchange) {
+                return !(exchange instanceof InOut);
+            }
+        };
+        ActivationSpec spec = new ActivationSpec("receiver", receiver);
+        spec.setService(service);
+        spec.setEndpoint("endpoint");
+        container.activateComponent(spec);
+
+        ServiceMixClient client = new DefaultServiceMixClient(container);
+        InOnly inOnly = client.createInOnlyExchange();
+        inOnly.setService(service);
+        client.send(inOnly);
+        receiver.getMessageList().assertMessagesReceived(1);
+
+        // the route accepted for the InOnly exchange must not be reused for an InOut
+        InOut inOut = client.createInOutExchange();
+        inOut.setService(service);
+        try {
+            client.send(inOut);
+            fail("InOut exchange should have been refused by the provider");
+        } catch (MessagingException e) {
+            // expected
+        }
+        container.shutDown();
+    }
+
+    public void testRouteCacheWithInterfaceConnection() throws Exception {
+        JBIContainer container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        QName service = new QName("urn:test", "receiver");
+        QName interfaceName = new QName("urn:test", "interface");
+        ReceiverComponent receiver = new ReceiverComponent();
+        ActivationSpec spec = new ActivationSpec("receiver", receiver);
+        spec.setService(service);
+        spec.setEndpoint("endpoint");
+        container.activateComponent(spec);
+        container.getRegistry().registerInterfaceConnection(interfaceName, service, "endpoint");
+        DefaultBroker broker = container.getDefaultBroker();
+        broker.clearRouteCache();
+        long misses = broker.getRouteCacheMisses();
+        long hits = broker.getRouteCacheHits();
+
+        ServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < 3; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setInterfaceName(interfaceName);
+            client.send(me);
+        }
+        receiver.getMessageList().assertMessagesReceived(3);
+        assertEquals(misses + 1, broker.getRouteCacheMisses());
+        assertEquals(hits + 2, broker.getRouteCacheHits());
+        container.shutDown();
+    }
+
+    public void testEndpointLoadTracking() throws Exception {
+        JBIContainer container = new JBIContainer();
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        QName service = new QName("urn:test", "holder");
+        HoldingComponent holder = new HoldingComponent(service);
+        container.activateComponent(new ActivationSpec("holder", holder));
+        DefaultBroker broker = container.getDefaultBroker();
+        broker.setEndpointLoadTracking(true);
+        InternalEndpoint endpoint = (InternalEndpoint) container.getRegistry().getInternalEndpoint(service, "endpoint");
+        EndpointLoad load = endpoint.getLoad();
+
+        ServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < 3; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(service);
+            client.send(me);
+        }
+        long timeout = System.currentTimeMillis() + 5000;
+        while (holder.exchanges.size() < 3 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, holder.exchanges.size());
+        // the exchanges are outstanding until the provider answers them
+        assertEquals(3, load.getOutstanding());
+        assertEquals(3, broker.getEndpointLoadTracker().getSize());
+
+        for (int i = 0; i < 3; i++) {
+            holder.done(holder.exchanges.get(i));
+        }
+        assertEquals(0, load.getOutstanding());
+        assertEquals(0, broker.getEndpointLoadTracker().getSize());
+        assertTrue(load.getAverageLatency() > 0);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(client.receive(5000));
+        }
+        container.shutDown();
+    }
+
+    public static class HoldingComponent extends ComponentSupport implements MessageExchangeListener {
+        private final List<MessageExchange> exchanges = new CopyOnWriteArrayList<MessageExchange>();
+
+        public HoldingComponent(QName service) {
+            super(service, "endpoint");
+        }
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                exchanges.add(exchange);
+            }
+        }
+    }
+
     public static class TestExternalEndpoint implements ServiceEndpoint {
         private QName service;
         private String endpoint;
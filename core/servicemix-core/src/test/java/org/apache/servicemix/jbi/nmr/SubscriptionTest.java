@@ -84,7 +84,20 @@ public class SubscriptionTest extends TestCase {
         runTest("seda", "seda", true);
     }
 
+    public void testStStSharedContent() throws Exception {
+        runTest("st", "st", true, true);
+    }
+
+    public void testSedaSedaSharedContent() throws Exception {
+        runTest("seda", "seda", false, true);
+    }
+
     private void runTest(String flowName, String subscriptionFlowName, boolean sync) throws Exception {
+        runTest(flowName, subscriptionFlowName, sync, false);
+    }
+
+    private void runTest(String flowName, String subscriptionFlowName, boolean sync, 
+                         boolean sharedContent) throws Exception {
         JBIContainer container = new JBIContainer();
         try {
             container.setEmbedded(true);
@@ -99,6 +112,7 @@ public class SubscriptionTest extends TestCase {
             if (subscriptionFlowName != null) {
                 container.getDefaultBroker().getSubscriptionManager().setFlowName(subscriptionFlowName);
             }
+            container.getDefaultBroker().getSubscriptionManager().setSharedContent(sharedContent);
             // TODO: check why the following line is enabled, there is
             // a 5 seconds pause when Management stuff is initialized
             // container.setCreateMBeanServer(true);
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class SuspendGateTest extends TestCase {
+
+    public void testSuspendWaitsForThreadsInside() throws Exception {
+        final SuspendGate gate = new SuspendGate();
+        final CountDownLatch inside = new CountDownLatch(1);
+        final CountDownLatch leave = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                gate.enter();
+                try {
+                    inside.countDown();
+                    leave.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                } finally {
+                    gate.exit();
+                }
+            }
+        };
+        t.start();
+        assertTrue(inside.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch suspended = new CountDownLatch(1);
+        Thread s = new Thread() {
+            public void run() {
+                gate.suspend();
+                suspended.countDown();
+            }
+        };
+        s.start();
+        assertFalse(suspended.await(200, TimeUnit.MILLISECONDS));
+        leave.countDown();
+        assertTrue(suspended.await(5, TimeUnit.SECONDS));
+        t.join();
+    }
+
+    public void testEnterBlocksWhileSuspended() throws Exception {
+        final SuspendGate gate = new SuspendGate();
+        // reentrant enter and suspending thread are let through
+        gate.enter();
+        gate.enter();
+        gate.exit();
+        gate.exit();
+        gate.suspend();
+        gate.enter();
+        gate.exit();
+
+        final AtomicBoolean entered = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                gate.enter();
+                entered.set(true);
+                gate.exit();
+                done.countDown();
+            }
+        };
+        t.start();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(entered.get());
+        gate.resume();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(entered.get());
+    }
+
+}
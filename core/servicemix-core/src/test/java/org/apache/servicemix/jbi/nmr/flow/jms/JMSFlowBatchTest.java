@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.jms;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.JBIException;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.xbean.BrokerFactoryBean;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.resolver.ServiceNameEndpointResolver;
+import org.apache.servicemix.tck.ReceiverComponent;
+import org.apache.servicemix.tck.SenderComponent;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Test the session pool and the batching of the JMS flow
+ */
+public class JMSFlowBatchTest extends TestCase {
+
+    private static final int NUM_SENDERS = 5;
+    private static final int NUM_MESSAGES = 10;
+
+    protected JBIContainer senderContainer = new JBIContainer();
+    protected JBIContainer receiverContainer = new JBIContainer();
+    protected ReceiverComponent receiver;
+    protected BrokerService broker;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        BrokerFactoryBean bfb = new BrokerFactoryBean(new ClassPathResource("org/apache/servicemix/jbi/nmr/flow/jca/broker.xml"));
+        bfb.afterPropertiesSet();
+        broker = bfb.getBroker();
+        broker.start();
+        senderContainer.setName("senderContainer");
+        senderContainer.setFlowName("jms?jmsURL=tcp://localhost:61216&sessionPoolSize=4&batchSize="
+                + NUM_SENDERS + "&batchTimeout=500");
+        senderContainer.init();
+        senderContainer.start();
+
+        receiverContainer.setName("receiverContainer");
+        receiverContainer.setFlowName("jms?jmsURL=tcp://localhost:61216");
+        receiverContainer.init();
+        receiverContainer.start();
+
+        Thread.sleep(2000);
+
+        receiver = new ReceiverComponent();
+        receiverContainer.activateComponent(new ActivationSpec("receiver", receiver));
+        Thread.sleep(1000);
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        senderContainer.shutDown();
+        receiverContainer.shutDown();
+        broker.stop();
+    }
+
+    public void testSessionPool() throws Exception {
+        SenderComponent sender = createSender("sender");
+        sender.sendMessages(NUM_MESSAGES, true);
+        Thread.sleep(3000);
+        receiver.getMessageList().assertMessagesReceived(NUM_MESSAGES);
+
+        JMSFlow flow = (JMSFlow) senderContainer.getFlow();
+        assertEquals(0, flow.getBatchedMessages());
+        assertTrue(flow.getSessionsCreated() > 0);
+        assertTrue(flow.getSessionsReused() > 0);
+        assertTrue(flow.getIdleSessions() > 0);
+    }
+
+    public void testBatching() throws Exception {
+        final SenderComponent[] senders = new SenderComponent[NUM_SENDERS];
+        for (int i = 0; i < NUM_SENDERS; i++) {
+            senders[i] = createSender("sender" + i);
+        }
+        final CountDownLatch done = new CountDownLatch(NUM_SENDERS);
+        final Exception[] errors = new Exception[NUM_SENDERS];
+        for (int i = 0; i < NUM_SENDERS; i++) {
+            final int index = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        senders[index].sendMessages(NUM_MESSAGES);
+                    } catch (Exception e) {
+                        errors[index] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < NUM_SENDERS; i++) {
+            assertNull(errors[i]);
+        }
+
+        // a sender only returns once its batch has been committed
+        JMSFlow flow = (JMSFlow) senderContainer.getFlow();
+        assertEquals(NUM_SENDERS * NUM_MESSAGES, flow.getBatchedMessages());
+        assertTrue(flow.getBatchesCommitted() > 0);
+        assertTrue(flow.getBatchesCommitted() < NUM_SENDERS * NUM_MESSAGES);
+        receiver.getMessageList().assertMessagesReceived(NUM_SENDERS * NUM_MESSAGES);
+    }
+
+    public void testLoneSenderIsNotDelayed() throws Exception {
+        SenderComponent sender = createSender("sender");
+        long start = System.currentTimeMillis();
+        sender.sendMessages(1);
+        long elapsed = System.currentTimeMillis() - start;
+
+        // no other sender could join the batch, so it is committed at once
+        JMSFlow flow = (JMSFlow) senderContainer.getFlow();
+        assertEquals(1, flow.getBatchesCommitted());
+        assertTrue("Sender waited " + elapsed + " ms", elapsed < 500);
+        receiver.getMessageList().assertMessagesReceived(1);
+    }
+
+    public void testFailedBatchIsReportedToSender() throws Exception {
+        SenderComponent sender = createSender("sender");
+        sender.sendMessages(1);
+        JMSFlow flow = (JMSFlow) senderContainer.getFlow();
+        long committed = flow.getBatchesCommitted();
+        assertEquals(1, committed);
+
+        broker.stop();
+        try {
+            sender.sendMessages(1);
+            fail("Sending should have failed");
+        } catch (JBIException e) {
+            // expected
+        }
+        assertEquals(committed, flow.getBatchesCommitted());
+    }
+
+    private SenderComponent createSender(String name) throws Exception {
+        SenderComponent sender = new SenderComponent();
+        sender.setResolver(new ServiceNameEndpointResolver(ReceiverComponent.SERVICE));
+        senderContainer.activateComponent(new ActivationSpec(name, sender));
+        return sender;
+    }
+
+}
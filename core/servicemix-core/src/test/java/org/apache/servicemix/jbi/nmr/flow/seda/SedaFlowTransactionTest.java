@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.seda;
+
+import javax.jbi.messaging.InOnly;
+import javax.jbi.messaging.MessagingException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.framework.ComponentNameSpace;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.tck.ReceiverComponent;
+import org.jencks.GeronimoPlatformTransactionManager;
+
+/**
+ * Checks the transactions of exchanges rejected by the {@link SedaFlow}.
+ *
+ * @version $Revision$
+ */
+public class SedaFlowTransactionTest extends TestCase {
+
+    private TransactionManager tm;
+    private SedaFlow flow;
+    private JBIContainer container;
+
+    protected void setUp() throws Exception {
+        tm = new GeronimoPlatformTransactionManager();
+        flow = new SedaFlow();
+        flow.setQueueCapacity(1);
+        flow.setOverflowPolicy(SedaFlow.OVERFLOW_FAIL);
+        container = new JBIContainer();
+        container.setTransactionManager(tm);
+        container.setFlow(flow);
+        container.setAutoEnlistInTransaction(true);
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+    }
+
+    protected void tearDown() throws Exception {
+        container.shutDown();
+    }
+
+    public void testRejectedSendKeepsTransaction() throws Exception {
+        container.activateComponent(new ActivationSpec("receiver", new ReceiverComponent()));
+        // fill the queue of the receiver
+        SedaQueue queue = flow.createQueue(new ComponentNameSpace(container.getName(), "receiver"));
+        queue.permits.acquire();
+
+        DefaultServiceMixClient client = new DefaultServiceMixClient(container);
+        tm.begin();
+        Transaction tx = tm.getTransaction();
+        try {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(ReceiverComponent.SERVICE);
+            me.getInMessage().setContent(new StringSource("<hello/>"));
+            try {
+                client.sendSync(me);
+                fail("The exchange should have been rejected");
+            } catch (MessagingException e) {
+                // expected
+            }
+            assertSame(tx, tm.getTransaction());
+        } finally {
+            if (tm.getTransaction() != null) {
+                tm.rollback();
+            }
+        }
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+}
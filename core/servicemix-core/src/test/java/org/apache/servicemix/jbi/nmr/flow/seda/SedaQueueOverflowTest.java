@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.seda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.MessagingException;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.components.util.EchoComponent;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.framework.ComponentNameSpace;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.jbi.messaging.InOnlyImpl;
+import org.apache.servicemix.jbi.messaging.MessageExchangeImpl;
+
+/**
+ * Checks the overflow policies applied by a full {@link SedaQueue}.
+ *
+ * @version $Revision$
+ */
+public class SedaQueueOverflowTest extends TestCase {
+
+    private static final QName ECHO = new QName("urn:test", "echo");
+
+    public void testDefaultBlockTimeoutIsFinite() {
+        SedaFlow flow = new SedaFlow();
+        assertEquals(SedaFlow.OVERFLOW_BLOCK, flow.getOverflowPolicy());
+        assertTrue(flow.getOverflowTimeout() > 0);
+    }
+
+    public void testBlockWaitsForRoom() throws Exception {
+        SedaFlow flow = new SedaFlow();
+        flow.setOverflowTimeout(10000);
+        final SedaQueue queue = createQueue(flow);
+        assertTrue(queue.acquire(new InOnlyImpl("1")));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread sender = new Thread() {
+            public void run() {
+                try {
+                    if (queue.acquire(new InOnlyImpl("2"))) {
+                        acquired.countDown();
+                    }
+                } catch (Exception e) {
+                    // the latch is not released
+                }
+            }
+        };
+        sender.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        // the first exchange is dequeued
+        queue.permits.release();
+        assertTrue(acquired.await(5000, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.getRejectedCount());
+    }
+
+    public void testBlockRejectsAfterTimeout() throws Exception {
+        SedaFlow flow = new SedaFlow();
+        flow.setOverflowTimeout(100);
+        SedaQueue queue = createQueue(flow);
+        assertTrue(queue.acquire(new InOnlyImpl("1")));
+        long start = System.currentTimeMillis();
+        try {
+            queue.acquire(new InOnlyImpl("2"));
+            fail("The exchange should have been rejected");
+        } catch (MessagingException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    public void testFailRejectsImmediately() throws Exception {
+        SedaFlow flow = new SedaFlow();
+        flow.setOverflowPolicy(SedaFlow.OVERFLOW_FAIL);
+        SedaQueue queue = createQueue(flow);
+        assertTrue(queue.acquire(new InOnlyImpl("1")));
+        try {
+            queue.acquire(new InOnlyImpl("2"));
+            fail("The exchange should have been rejected");
+        } catch (MessagingException e) {
+            // expected
+        }
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    public void testSpillHandsExchangeToOverflowFlow() throws Exception {
+        SpillingFlow flow = new SpillingFlow();
+        flow.setOverflowPolicy(SedaFlow.OVERFLOW_SPILL);
+        SedaQueue queue = createQueue(flow);
+        assertTrue(queue.acquire(new InOnlyImpl("1")));
+        InOnlyImpl spilled = new InOnlyImpl("2");
+        assertFalse(queue.acquire(spilled));
+        assertEquals(1, flow.spilled.size());
+        assertSame(spilled, flow.spilled.get(0));
+        assertEquals(1, queue.getSpilledCount());
+        assertEquals(0, queue.getRejectedCount());
+
+        // without an overflow flow, the exchange is rejected
+        flow.canSpill = false;
+        try {
+            queue.acquire(new InOnlyImpl("3"));
+            fail("The exchange should have been rejected");
+        } catch (MessagingException e) {
+            // expected
+        }
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    public void testOnlyNewRequestsAreBounded() throws Exception {
+        SedaFlow flow = new SedaFlow();
+        InOnlyImpl consumer = new InOnlyImpl("1");
+        MessageExchangeImpl provider = consumer.getMirror();
+        assertTrue(flow.isNewRequest(provider));
+        // the answer or status going back to the consumer
+        assertFalse(flow.isNewRequest(consumer));
+        provider.getPacket().setStatus(ExchangeStatus.DONE);
+        assertFalse(flow.isNewRequest(provider));
+    }
+
+    public void testAnswerIsAdmittedInFullQueue() throws Exception {
+        SedaFlow flow = new SedaFlow();
+        flow.setQueueCapacity(1);
+        flow.setOverflowPolicy(SedaFlow.OVERFLOW_FAIL);
+        JBIContainer container = new JBIContainer();
+        container.setFlow(flow);
+        container.setEmbedded(true);
+        container.init();
+        container.start();
+        try {
+            ActivationSpec echo = new ActivationSpec("echo", new EchoComponent());
+            echo.setService(ECHO);
+            container.activateComponent(echo);
+            DefaultServiceMixClient client = new DefaultServiceMixClient(container, new ActivationSpec("client", null));
+            // fill the queue of the consumer
+            SedaQueue queue = flow.createQueue(new ComponentNameSpace(container.getName(), "client"));
+            queue.permits.acquire();
+
+            InOut me = client.createInOutExchange();
+            me.setService(ECHO);
+            me.getInMessage().setContent(new StringSource("<hello/>"));
+            assertTrue(client.sendSync(me, 10000));
+            assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+            assertNotNull(me.getOutMessage());
+            client.done(me);
+            assertEquals(0, queue.getRejectedCount());
+        } finally {
+            container.shutDown();
+        }
+    }
+
+    protected SedaQueue createQueue(SedaFlow flow) {
+        flow.setQueueCapacity(1);
+        SedaQueue queue = new SedaQueue(new ComponentNameSpace("container", "component"));
+        queue.init(flow);
+        return queue;
+    }
+
+    /**
+     * A flow recording the exchanges it spills instead of sending them.
+     */
+    public static class SpillingFlow extends SedaFlow {
+        private List<MessageExchangeImpl> spilled = new ArrayList<MessageExchangeImpl>();
+        private boolean canSpill = true;
+
+        protected boolean spill(MessageExchangeImpl me) throws MessagingException {
+            if (canSpill) {
+                spilled.add(me);
+            }
+            return canSpill;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.seda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class SedaSchedulerTest extends TestCase {
+
+    public void testOrderingKey() throws Exception {
+        SedaScheduler scheduler = new SedaScheduler("test", 4);
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            final int index = i;
+            scheduler.execute("key", new Runnable() {
+                public void run() {
+                    results.add(index);
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, results.get(i).intValue());
+        }
+        scheduler.shutdown();
+    }
+
+    public void testUnorderedTasks() throws Exception {
+        SedaScheduler scheduler = new SedaScheduler("test", 0);
+        assertEquals(Runtime.getRuntime().availableProcessors(), scheduler.getThreads());
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            scheduler.execute(null, new Runnable() {
+                public void run() {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        scheduler.shutdown();
+    }
+
+    public void testPendingTasksRunAfterShutdown() throws Exception {
+        SedaScheduler scheduler = new SedaScheduler("test", 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        scheduler.execute("key", new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                results.add(0);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            final int index = i;
+            scheduler.execute("key", new Runnable() {
+                public void run() {
+                    results.add(index);
+                }
+            });
+        }
+        scheduler.shutdown();
+        release.countDown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(10, results.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, results.get(i).intValue());
+        }
+    }
+
+    public void testAwaitedTasksRunWhenAllThreadsWait() throws Exception {
+        final SedaScheduler scheduler = new SedaScheduler("test", 1);
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(null, new Runnable() {
+            public void run() {
+                final CountDownLatch nested = new CountDownLatch(1);
+                scheduler.executeAwaited(new Runnable() {
+                    public void run() {
+                        nested.countDown();
+                    }
+                });
+                try {
+                    if (nested.await(10, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testAwaitedThreadsAreBounded() throws Exception {
+        SedaScheduler scheduler = new SedaScheduler("test", 1, 2);
+        assertEquals(2, scheduler.getAwaitedThreads());
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            scheduler.executeAwaited(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(2, scheduler.getAwaitedPoolSize());
+        assertEquals(0, scheduler.getAwaitedSize());
+        try {
+            scheduler.executeAwaited(new Runnable() {
+                public void run() {
+                }
+            });
+            fail("Awaited task should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(2, scheduler.getAwaitedPoolSize());
+        release.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testDefaultAwaitedThreads() throws Exception {
+        SedaScheduler scheduler = new SedaScheduler("test", 0);
+        assertEquals(Runtime.getRuntime().availableProcessors() * SedaScheduler.DEFAULT_AWAITED_THREADS_PER_CORE,
+                     scheduler.getAwaitedThreads());
+        scheduler.shutdown();
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.nmr.flow.seda;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+
+import org.apache.servicemix.JbiConstants;
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.client.DefaultServiceMixClient;
+import org.apache.servicemix.components.util.ComponentSupport;
+import org.apache.servicemix.jbi.container.ActivationSpec;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.tck.ExamplePojoTest;
+
+/**
+ *
+ * SharedSedaFlowTest
+ */
+public class SharedSedaFlowTest extends ExamplePojoTest {
+
+    private static final int SHARED_THREADS = 2;
+   
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        SedaFlow flow = new SedaFlow();
+        flow.setSharedScheduler(true);
+        flow.setSharedThreads(SHARED_THREADS);
+        flow.setOrderedByCorrelationId(true);
+        container.setFlow(flow);
+        super.setUp();
+    }
+
+    public void testCorrelatedNestedSendSync() throws Exception {
+        QName echoService = new QName("urn:test", "echo");
+        QName forwarderService = new QName("urn:test", "forwarder");
+        container.activateComponent(new ActivationSpec("echo", new EchoComponent(echoService)));
+        container.activateComponent(new ActivationSpec("forwarder", new ForwarderComponent(forwarderService, echoService)));
+
+        DefaultServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < 5; i++) {
+            InOut me = client.createInOutExchange();
+            me.setService(forwarderService);
+            me.setProperty(JbiConstants.CORRELATION_ID, "correlation");
+            me.getInMessage().setContent(new StringSource("<hello/>"));
+            client.send(me);
+        }
+        for (int i = 0; i < 5; i++) {
+            MessageExchange me = client.receive(10000);
+            assertNotNull("Exchange " + i + " has not completed", me);
+            assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+            assertNotNull(me.getMessage("out"));
+            client.done(me);
+        }
+    }
+
+    public void testConcurrentNestedSendSync() throws Exception {
+        QName echoService = new QName("urn:test", "echo");
+        QName forwarderService = new QName("urn:test", "forwarder");
+        container.activateComponent(new ActivationSpec("echo", new EchoComponent(echoService)));
+        container.activateComponent(new ActivationSpec("forwarder", new ForwarderComponent(forwarderService, echoService)));
+
+        // each forwarder holds a thread of the shared pool while its nested exchange is processed
+        int count = SHARED_THREADS * 4;
+        DefaultServiceMixClient client = new DefaultServiceMixClient(container);
+        for (int i = 0; i < count; i++) {
+            InOut me = client.createInOutExchange();
+            me.setService(forwarderService);
+            me.getInMessage().setContent(new StringSource("<hello/>"));
+            client.send(me);
+        }
+        for (int i = 0; i < count; i++) {
+            MessageExchange me = client.receive(10000);
+            assertNotNull("Exchange " + i + " has not completed", me);
+            assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+            assertNotNull(me.getMessage("out"));
+            client.done(me);
+        }
+    }
+
+    public static class EchoComponent extends ComponentSupport implements MessageExchangeListener {
+        public EchoComponent(QName service) {
+            super(service, "endpoint");
+        }
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                NormalizedMessage out = exchange.createMessage();
+                out.setContent(new StringSource("<echo/>"));
+                exchange.setMessage(out, "out");
+                getDeliveryChannel().send(exchange);
+            }
+        }
+    }
+
+    public static class ForwarderComponent extends ComponentSupport implements MessageExchangeListener {
+        private final QName target;
+
+        public ForwarderComponent(QName service, QName target) {
+            super(service, "endpoint");
+            this.target = target;
+        }
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
+                return;
+            }
+            // the nested exchange inherits the correlation id of the exchange being processed
+            InOut nested = createInOutExchange(exchange);
+            nested.setService(target);
+            nested.setInMessage(nested.createMessage());
+            nested.getInMessage().setContent(new StringSource("<nested/>"));
+            getDeliveryChannel().sendSync(nested);
+            NormalizedMessage out = exchange.createMessage();
+            out.setContent(new StringSource("<forwarded/>"));
+            exchange.setMessage(out, "out");
+            nested.setStatus(ExchangeStatus.DONE);
+            getDeliveryChannel().send(nested);
+            getDeliveryChannel().send(exchange);
+        }
+    }
+}
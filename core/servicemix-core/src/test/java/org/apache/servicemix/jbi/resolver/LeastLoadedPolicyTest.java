@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.resolver;
+
+import javax.jbi.servicedesc.ServiceEndpoint;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.jbi.framework.ComponentNameSpace;
+import org.apache.servicemix.jbi.servicedesc.InternalEndpoint;
+
+public class LeastLoadedPolicyTest extends TestCase {
+
+    private static final QName SERVICE = new QName("urn:test", "service");
+
+    public void testChoosesLeastOutstanding() {
+        InternalEndpoint ep1 = createEndpoint("ep1");
+        InternalEndpoint ep2 = createEndpoint("ep2");
+        InternalEndpoint ep3 = createEndpoint("ep3");
+        ep1.getLoad().begin();
+        ep1.getLoad().begin();
+        ep3.getLoad().begin();
+        LeastLoadedPolicy policy = new LeastLoadedPolicy();
+        ServiceEndpoint[] endpoints = new ServiceEndpoint[] {ep1, ep2, ep3 };
+        for (int i = 0; i < 10; i++) {
+            assertSame(ep2, policy.chooseEndpoint(endpoints, null, null));
+        }
+        assertNull(policy.chooseEndpoint(new ServiceEndpoint[0], null, null));
+    }
+
+    public void testLatencyAware() {
+        InternalEndpoint slow = createEndpoint("slow");
+        InternalEndpoint fast = createEndpoint("fast");
+        slow.getLoad().begin();
+        slow.getLoad().end(1000000);
+        fast.getLoad().begin();
+        fast.getLoad().end(1000);
+        // one outstanding exchange on the fast endpoint is still cheaper
+        fast.getLoad().begin();
+        ServiceEndpoint[] endpoints = new ServiceEndpoint[] {slow, fast };
+        LeastLoadedPolicy policy = new LeastLoadedPolicy();
+        assertSame(fast, policy.chooseEndpoint(endpoints, null, null));
+        policy.setLatencyAware(false);
+        assertSame(slow, policy.chooseEndpoint(endpoints, null, null));
+    }
+
+    private InternalEndpoint createEndpoint(String name) {
+        return new InternalEndpoint(new ComponentNameSpace("container", "component"), name, SERVICE);
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.jbi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ExchangeTrackerTest extends TestCase {
+
+    private RecordingTracker tracker;
+
+    protected void setUp() throws Exception {
+        tracker = new RecordingTracker();
+        tracker.setMaxSize(2);
+        tracker.setTimeout(1000);
+    }
+
+    public void testTrackIsPutIfAbsent() {
+        assertEquals("a", tracker.track("1", "a", 0));
+        assertEquals("a", tracker.track("1", "b", 0));
+        assertEquals("a", tracker.get("1"));
+        assertEquals(1, tracker.getSize());
+    }
+
+    public void testFullTrackerDoesNotTrack() {
+        tracker.track("1", "a", 0);
+        tracker.track("2", "b", 0);
+        assertNull(tracker.track("3", "c", 0));
+        assertEquals(2, tracker.getSize());
+        assertEquals(1, tracker.getUntrackedCount());
+        assertEquals("a", tracker.remove("1"));
+        assertEquals("c", tracker.track("3", "c", 0));
+    }
+
+    public void testRemovedEntriesAreNotExpired() {
+        for (int i = 0; i < 100; i++) {
+            tracker.track("id" + i, "v" + i, i);
+            assertEquals("v" + i, tracker.remove("id" + i));
+        }
+        assertEquals(0, tracker.getSize());
+        assertEquals(0, tracker.getUntrackedCount());
+        assertEquals(0, tracker.getExpiredCount());
+        assertTrue(tracker.discarded.isEmpty());
+    }
+
+    public void testOldEntriesExpire() {
+        tracker.track("1", "a", 0);
+        tracker.track("2", "b", 500);
+        tracker.track("3", "c", 1500);
+        assertNull(tracker.get("1"));
+        assertEquals("b", tracker.get("2"));
+        assertEquals(1, tracker.getExpiredCount());
+        assertEquals(1, tracker.discarded.size());
+        assertEquals("a", tracker.discarded.get(0));
+    }
+
+    public void testLiveEntryExpiresBehindTooManyRemovedEntries() {
+        tracker.track("live", "a", 0);
+        for (int i = 0; i < 5; i++) {
+            tracker.track("id" + i, "v" + i, 1);
+            tracker.remove("id" + i);
+        }
+        assertNull(tracker.get("live"));
+        assertEquals(1, tracker.getExpiredCount());
+        assertEquals("a", tracker.discarded.get(0));
+    }
+
+    public void testClearDiscardsEntries() {
+        tracker.track("1", "a", 0);
+        tracker.track("2", "b", 0);
+        tracker.clear();
+        assertEquals(0, tracker.getSize());
+        assertEquals(2, tracker.discarded.size());
+        assertEquals(0, tracker.getExpiredCount());
+    }
+
+    public void testClearEmptiesTheQueue() {
+        tracker.track("1", "a", 0);
+        tracker.track("2", "b", 0);
+        tracker.remove("1");
+        assertEquals(2, tracker.getQueuedCount());
+        tracker.clear();
+        assertEquals(0, tracker.getQueuedCount());
+        assertEquals(1, tracker.discarded.size());
+        assertEquals("b", tracker.discarded.get(0));
+
+        // the tracker is reusable after being cleared
+        assertEquals("c", tracker.track("3", "c", 0));
+        assertEquals(1, tracker.getQueuedCount());
+        assertEquals(1, tracker.getSize());
+    }
+
+    private static class RecordingTracker extends ExchangeTracker<String> {
+        final List<String> discarded = new ArrayList<String>();
+
+        protected void discarded(String value) {
+            discarded.add(value);
+        }
+    }
+
+}